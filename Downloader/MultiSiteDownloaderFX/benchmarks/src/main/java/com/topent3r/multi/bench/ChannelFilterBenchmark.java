@@ -0,0 +1,74 @@
+package com.topent3r.multi.bench;
+
+import com.topent3r.multi.m3u.models.Channel;
+import com.topent3r.multi.m3u.models.ChannelStore;
+import com.topent3r.multi.m3u.services.ChannelFilter;
+import com.topent3r.multi.m3u.services.ChannelSearchIndex;
+import javafx.collections.transformation.FilteredList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtro dei canali del MainController: ricerca sull'indice a trigrammi (anche
+ * restringendo la query precedente), predicati di {@link ChannelFilter} applicati alla
+ * FilteredList della tabella e, per confronto, il vecchio confronto testuale riga per riga.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ChannelFilterBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    // parola comune, id numerico, query corta da un tasto in più
+    @Param({"calcio", "100123", "4k"})
+    public String query;
+
+    private final ChannelStore store = new ChannelStore();
+    private final ChannelSearchIndex index = new ChannelSearchIndex();
+    private FilteredList<Channel> filtered;
+    private ChannelSearchIndex.Result shorter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Channel> channels = Playlists.channels(entries, 42);
+        for (int from = 0; from < channels.size(); from += 2000) {
+            List<Channel> batch = channels.subList(from, Math.min(channels.size(), from + 2000));
+            store.addAll(batch);
+            index.addAll(batch);
+        }
+        index.compact();
+        filtered = new FilteredList<>(store.asList());
+        // la stessa query senza l'ultimo carattere, come se l'utente stesse ancora scrivendo
+        shorter = index.search(query.substring(0, query.length() - 1), null, () -> false);
+    }
+
+    @Benchmark
+    public int indexSearch() {
+        return index.search(query, null, () -> false).count();
+    }
+
+    @Benchmark
+    public int indexSearchNarrowing() {
+        return index.search(query, shorter, () -> false).count();
+    }
+
+    @Benchmark
+    public int filteredListWithIndex() {
+        ChannelSearchIndex.Result r = index.search(query, null, () -> false);
+        filtered.setPredicate(ChannelFilter.visible(ChannelFilter.indexed(r, ChannelFilter.textMatch(query))));
+        return filtered.size();
+    }
+
+    @Benchmark
+    public int filteredListTextScan() {
+        filtered.setPredicate(ChannelFilter.visible(ChannelFilter.textMatch(query)));
+        return filtered.size();
+    }
+}
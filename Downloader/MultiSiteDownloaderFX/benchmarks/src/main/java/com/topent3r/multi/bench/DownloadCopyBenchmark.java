@@ -0,0 +1,134 @@
+package com.topent3r.multi.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.topent3r.multi.m3u.services.HttpDownloader;
+import com.topent3r.multi.m3u.services.SimpleHttpDownloader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cicli di copia dei downloader contro un server HTTP locale nello stesso processo:
+ * la rete non conta, resta il costo di buffer, hash SHA-256, throttle e scrittura su disco.
+ * <ul>
+ *   <li>{@code /direct/}: niente Accept-Ranges, HttpDownloader usa il download singolo;</li>
+ *   <li>{@code /ranged/}: Range ed ETag, oltre 10 MB HttpDownloader passa al multi-chunk.</li>
+ * </ul>
+ * Il byte/s si ricava dalla dimensione: il tempo medio è per un file intero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadCopyBenchmark {
+
+    // sopra la soglia di 10 MB del multi-chunk in entrambi i casi
+    @Param({"16", "128"})
+    public int sizeMb;
+
+    private byte[] data;
+    private HttpServer server;
+    private ExecutorService executor;
+    private String base;
+    private Path dir;
+    private final HttpDownloader http = new HttpDownloader();
+    private final SimpleHttpDownloader simple = new SimpleHttpDownloader();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = new byte[sizeMb * 1024 * 1024];
+        new SplittableRandom(42).nextBytes(data);   // niente che si comprima per strada
+        // thread di piattaforma: con i virtual thread l'HttpServer del JDK 21 si blocca
+        // in scrittura appena più connessioni trasferiscono insieme
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/direct/", ex -> serve(ex, false));
+        server.createContext("/ranged/", ex -> serve(ex, true));
+        server.setExecutor(executor);
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+        dir = Files.createTempDirectory("mdl-bench");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        executor.shutdownNow();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long httpDirect() throws IOException {
+        return consume(http.download(base + "/direct/video.mp4", dir, "direct.mp4", null));
+    }
+
+    @Benchmark
+    public long httpMultiChunk() throws IOException {
+        return consume(http.download(base + "/ranged/video.mp4", dir, "ranged.mp4", null));
+    }
+
+    @Benchmark
+    public long simpleDownload() throws IOException {
+        return consume(simple.download(base + "/direct/video.mp4", dir, "simple.mp4", null));
+    }
+
+    /** Dimensione scritta; il file si cancella così l'invocazione dopo non trova il nome occupato. */
+    private static long consume(Path written) throws IOException {
+        long size = Files.size(written);
+        Files.delete(written);
+        return size;
+    }
+
+    private void serve(HttpExchange ex, boolean ranges) throws IOException {
+        try (ex) {
+            var h = ex.getResponseHeaders();
+            h.set("Content-Type", "video/mp4");
+            if (ranges) {
+                h.set("Accept-Ranges", "bytes");
+                h.set("ETag", "\"bench-" + sizeMb + "\"");
+            }
+            if ("HEAD".equals(ex.getRequestMethod())) {
+                h.set("Content-Length", String.valueOf(data.length));
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            long from = 0, to = data.length - 1;
+            String range = ex.getRequestHeaders().getFirst("Range");
+            // anche /direct/ risponde al Range della sonda HLS (primi 2 KB), come molti CDN
+            if (range != null && range.startsWith("bytes=")) {
+                String[] parts = range.substring(6).split("-", 2);
+                from = Long.parseLong(parts[0]);
+                if (parts.length > 1 && !parts[1].isEmpty()) to = Math.min(to, Long.parseLong(parts[1]));
+                h.set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+                ex.sendResponseHeaders(206, to - from + 1);
+            } else {
+                ex.sendResponseHeaders(200, data.length);
+            }
+            try (OutputStream os = ex.getResponseBody()) {
+                for (long pos = from; pos <= to; ) {
+                    int n = (int) Math.min(256 * 1024, to - pos + 1);
+                    os.write(data, (int) pos, n);
+                    pos += n;
+                }
+            } catch (IOException e) {
+                // il client ha chiuso prima (sonda HLS, furto di un range): normale
+            }
+        }
+    }
+}
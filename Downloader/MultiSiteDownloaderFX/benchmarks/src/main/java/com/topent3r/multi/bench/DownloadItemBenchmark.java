@@ -0,0 +1,66 @@
+package com.topent3r.multi.bench;
+
+import com.topent3r.multi.download.DownloadItem;
+import com.topent3r.multi.model.Episode;
+import com.topent3r.multi.model.MediaItem;
+import com.topent3r.multi.services.ContentProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stagioni ed episodi di un elemento in coda con elenchi lunghi (anime da migliaia di
+ * episodi), nell'ordine disordinato in cui arrivano dai provider.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DownloadItemBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int episodes;
+
+    private DownloadItem item;
+    private String season;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        item = new DownloadItem(new MediaItem("bench", "Serie lunga", "tv", "Bench", "Bench", "2020"), NO_PROVIDER);
+        int seasons = Math.max(1, episodes / 100);
+        List<Episode> list = new ArrayList<>(episodes);
+        for (int i = 0; i < episodes; i++) {
+            int s = i % seasons + 1;
+            list.add(new Episode("ep-" + i, String.valueOf(s), String.valueOf(i / seasons + 1), "Episodio " + i));
+        }
+        Collections.shuffle(list, new Random(42));
+        item.setEpisodes(list);
+        season = String.valueOf(new SplittableRandom(7).nextInt(seasons) + 1);
+    }
+
+    @Benchmark
+    public List<String> seasons() {
+        return item.getSeasons();
+    }
+
+    @Benchmark
+    public List<Episode> episodesForSeason() {
+        return item.getEpisodesForSeason(season);
+    }
+
+    /** I benchmark non scaricano nulla: basta un provider che non fa niente. */
+    private static final ContentProvider NO_PROVIDER = new ContentProvider() {
+        @Override public String getDisplayName() { return "Bench"; }
+        @Override public List<MediaItem> search(String query) { return List.of(); }
+        @Override public List<Episode> listEpisodes(MediaItem item) { return List.of(); }
+        @Override public void download(MediaItem item, Episode episode, Path outputDir) {}
+    };
+}
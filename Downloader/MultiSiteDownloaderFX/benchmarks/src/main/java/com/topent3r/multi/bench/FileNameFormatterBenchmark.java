@@ -0,0 +1,33 @@
+package com.topent3r.multi.bench;
+
+import com.topent3r.multi.utils.FileNameFormatter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Nomi di file per film ed episodi, con titoli puliti e con caratteri da sostituire. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileNameFormatterBenchmark {
+
+    @Param({"Il Commissario Montalbano", "Dr. House: Medical Division / \"Stagione\" <Speciale>?"})
+    public String title;
+
+    private int episode;
+
+    @Benchmark
+    public String episode() {
+        // numeri diversi a ogni chiamata: il formatter non deve ricevere sempre le stesse stringhe
+        episode = (episode + 1) % 40;
+        return FileNameFormatter.formatEpisode(title, "3", String.valueOf(episode + 1), "Titolo episodio");
+    }
+
+    @Benchmark
+    public String movie() {
+        return FileNameFormatter.formatMovie(title, "2019");
+    }
+}
@@ -0,0 +1,62 @@
+package com.topent3r.multi.bench;
+
+import com.topent3r.multi.m3u.models.Channel;
+import com.topent3r.multi.m3u.models.ChannelStore;
+import com.topent3r.multi.m3u.services.M3UParser;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lettura di playlist da 10k a 1M voci: parse() sul testo intero e stream() a blocchi
+ * da una sorgente okio (il percorso del caricamento nel tab M3U), anche con l'inserimento
+ * nello {@link ChannelStore}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class M3UParserBenchmark {
+
+    private static final int BATCH = 2000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private final M3UParser parser = new M3UParser();
+    private String text;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = Playlists.m3u(entries, 42);
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Channel> parse() {
+        return parser.parse(text);
+    }
+
+    @Benchmark
+    public int stream(Blackhole bh) throws Exception {
+        return parser.stream(source(), BATCH, bh::consume);
+    }
+
+    @Benchmark
+    public ChannelStore streamIntoStore() throws Exception {
+        ChannelStore store = new ChannelStore();
+        parser.stream(source(), BATCH, store::addAll);
+        return store;
+    }
+
+    private Buffer source() {
+        return new Buffer().write(bytes);
+    }
+}
@@ -0,0 +1,54 @@
+package com.topent3r.multi.bench;
+
+import com.topent3r.multi.m3u.models.Channel;
+import com.topent3r.multi.m3u.services.M3UParser;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Playlist M3U sintetiche con la forma di quelle IPTV vere: qualche centinaio di gruppi,
+ * un terzo di canali live e il resto VOD (film e serie) con URL del tipo
+ * http://host/movie/user/pass/123456.mp4. Stesso seme, stessa playlist.
+ */
+final class Playlists {
+
+    private static final String[] WORDS = {
+            "Rai", "Sky", "Cinema", "Sport", "News", "Premium", "Kids", "Documentari", "Serie", "Action",
+            "Comedy", "Drama", "Italia", "Uno", "Due", "Tre", "HD", "FHD", "4K", "Plus", "Max", "Gold",
+            "Notte", "Giorno", "Storia", "Natura", "Musica", "Calcio", "Tennis", "Motori" };
+
+    private Playlists() {}
+
+    /** Testo M3U con {@code entries} canali. */
+    static String m3u(int entries, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        StringBuilder sb = new StringBuilder(entries * 220);
+        sb.append("#EXTM3U\n");
+        for (int i = 0; i < entries; i++) {
+            String group = WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)]
+                    + " " + rnd.nextInt(8);
+            String name = WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)]
+                    + " " + WORDS[rnd.nextInt(WORDS.length)] + " " + i;
+            int id = 100_000 + i;
+            int kind = rnd.nextInt(3);
+            String host = "http://srv" + rnd.nextInt(4) + ".example.tv:8080";
+            String url = switch (kind) {
+                case 0 -> host + "/live/user/pass/" + id + ".ts";
+                case 1 -> host + "/movie/user/pass/" + id + (rnd.nextBoolean() ? ".mp4" : ".mkv");
+                default -> host + "/series/user/pass/" + id + ".mp4";
+            };
+            sb.append("#EXTINF:-1 tvg-id=\"").append(id)
+              .append("\" tvg-name=\"").append(name)
+              .append("\" tvg-logo=\"http://img.example.tv/logos/").append(id % 5000).append(".png\"")
+              .append(" group-title=\"").append(group).append("\",").append(name).append('\n');
+            sb.append(url).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Canali già letti, per i benchmark che partono dalla playlist caricata. */
+    static List<Channel> channels(int entries, long seed) {
+        return new M3UParser().parse(m3u(entries, seed));
+    }
+}
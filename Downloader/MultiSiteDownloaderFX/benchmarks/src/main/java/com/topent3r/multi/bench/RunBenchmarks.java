@@ -0,0 +1,39 @@
+package com.topent3r.multi.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Avvio dei benchmark: accetta le opzioni di JMH da riga di comando (filtri, -p, -f, -wi...)
+ * e, se non si sceglie altro con -rf/-rff, salva i risultati in
+ * results/jmh-&lt;data&gt;.json, da confrontare fra una versione e l'altra.
+ */
+public final class RunBenchmarks {
+
+    private RunBenchmarks() {}
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder opts = new OptionsBuilder().parent(cli);
+        if (!cli.getResultFormat().hasValue() && !cli.getResult().hasValue()) {
+            Path dir = Paths.get("results");
+            Files.createDirectories(dir);
+            String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            opts.resultFormat(ResultFormatType.JSON)
+                .result(dir.resolve("jmh-" + stamp + ".json").toString());
+        }
+        new Runner(opts.build()).run();
+    }
+}
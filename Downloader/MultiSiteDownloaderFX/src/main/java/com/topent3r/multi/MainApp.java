@@ -1,5 +1,6 @@
 package com.topent3r.multi;
 
+import com.topent3r.multi.download.DownloadManager;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -17,6 +18,11 @@ public class MainApp extends Application {
         primaryStage.show();
     }
 
+    @Override
+    public void stop() {
+        DownloadManager.getInstance().shutdown();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
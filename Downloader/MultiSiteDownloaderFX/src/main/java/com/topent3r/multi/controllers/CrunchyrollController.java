@@ -4,7 +4,8 @@ import com.topent3r.multi.download.DownloadManager;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
 import com.topent3r.multi.services.ContentProvider;
-import com.topent3r.multi.services.CrunchyrollProvider;
+import com.topent3r.multi.services.ProviderRegistry;
+import com.topent3r.multi.utils.Tasks;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -30,7 +31,7 @@ public class CrunchyrollController {
 
     @FXML private Button downloadButton;
 
-    private final ContentProvider provider = new CrunchyrollProvider();
+    private final ContentProvider provider = ProviderRegistry.forName("Crunchyroll");
     private final ObservableList<MediaItem> results = FXCollections.observableArrayList();
 
     @FXML
@@ -52,7 +53,7 @@ public class CrunchyrollController {
 
         searchButton.setDisable(true);
         searchField.setDisable(true);
-        new Thread(() -> {
+        Tasks.start("crunchyroll-search", Tasks.SEARCHES, () -> {
             try {
                 List<MediaItem> searchResults = provider.search(query);
                 Platform.runLater(() -> {
@@ -68,14 +69,14 @@ public class CrunchyrollController {
                     alert.showAndWait();
                 });
             }
-        }, "crunchyroll-search").start();
+        });
     }
 
     private void onDownloadSelected() {
         MediaItem item = resultsTable.getSelectionModel().getSelectedItem();
         if (item == null) return;
         downloadButton.setDisable(true);
-        new Thread(() -> {
+        Tasks.start("crunchyroll-add-download", Tasks.LOADS, () -> {
             try {
                 List<Episode> episodes = provider.listEpisodes(item);
                 Platform.runLater(() -> {
@@ -89,6 +90,6 @@ public class CrunchyrollController {
                     alert.showAndWait();
                 });
             }
-        }, "crunchyroll-add-download").start();
+        });
     }
 }
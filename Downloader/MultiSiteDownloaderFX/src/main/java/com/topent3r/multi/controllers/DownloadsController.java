@@ -1,10 +1,12 @@
 package com.topent3r.multi.controllers;
 
+import com.topent3r.multi.download.BandwidthScheduler;
 import com.topent3r.multi.download.DownloadItem;
 import com.topent3r.multi.download.DownloadManager;
 import com.topent3r.multi.download.DownloadStatus;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.m3u.utils.SettingsManager;
+import com.topent3r.multi.utils.Tasks;
 import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
@@ -54,7 +56,7 @@ public class DownloadsController {
     private TableColumn<DownloadItem, Double> progressColumn;
 
     @FXML
-    private TableColumn<DownloadItem, Void> actionsColumn;
+    private TableColumn<DownloadItem, DownloadStatus> actionsColumn;
 
     @FXML
     private Button startSelectedBtn;
@@ -92,13 +94,19 @@ public class DownloadsController {
         manager.setDefaultQuality(settings.downloadQuality != null && !settings.downloadQuality.isBlank()
                 ? settings.downloadQuality
                 : "720p");
-
+        manager.setHlsWorkers(settings.hlsWorkers);
+        com.topent3r.multi.download.BandwidthScheduler.getInstance()
+                .configure(settings.bandwidthLimit, settings.bandwidthSiteLimits, settings.bandwidthSchedule);
+        manager.setConcurrency(settings.maxConcurrentDownloads, settings.maxDownloadsPerSite, settings.siteConcurrency);
+        manager.setKeepPartialOnCancel(settings.keepPartialOnCancel);
+        com.topent3r.multi.services.MetadataCache.getInstance().configure(settings.metadataCacheTtl);
+        com.topent3r.multi.services.FederatedSearch.getInstance()
+                .configure(settings.federatedSearchSites, settings.federatedSearchTimeout);
+        com.topent3r.multi.utils.Metrics.getInstance().serveHttp(settings.metricsPort);
+
+        // niente refresh() della tabella: ogni colonna osserva le proprietà che mostra, così un
+        // cambiamento ridisegna solo la cella interessata (progresso e velocità arrivano a 10 Hz)
         downloadsTable.setItems(manager.getItems());
-        
-        // Add listener to refresh table when items change
-        manager.getItems().addListener((javafx.collections.ListChangeListener<DownloadItem>) c -> {
-            downloadsTable.refresh();
-        });
 
         titleColumn.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().getTitle()));
 
@@ -159,25 +167,35 @@ public class DownloadsController {
                     combo.getSelectionModel().clearSelection();
                     combo.setPromptText("Seleziona...");
                 }
-                combo.setOnAction(e -> {
-                    di.setSelectedSeason(combo.getSelectionModel().getSelectedItem());
-                    downloadsTable.refresh();
-                });
+                // la colonna episodi osserva la stagione: si aggiorna da sola
+                combo.setOnAction(e -> di.setSelectedSeason(combo.getSelectionModel().getSelectedItem()));
                 setGraphic(combo);
             }
         });
-        seasonColumn.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().getSelectedSeason()));
+        seasonColumn.setCellValueFactory(cd -> javafx.beans.binding.Bindings.createStringBinding(
+                () -> cd.getValue().getSelectedSeason(),
+                cd.getValue().selectedSeasonProperty(), cd.getValue().getAllEpisodes()));
 
         episodesColumn.setCellFactory(col -> new TableCell<>() {
             private final CheckComboBox<Episode> checkCombo = new CheckComboBox<>();
+            private DownloadItem bound;
+            private boolean restoring;
             {
                 setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
                 checkCombo.setMaxWidth(Double.MAX_VALUE);
+                // un solo listener per cella (la cella viene riusata per righe diverse)
+                checkCombo.getCheckModel().getCheckedItems().addListener((ListChangeListener<Episode>) c -> {
+                    if (restoring || bound == null) return;
+                    List<Episode> checked = new ArrayList<>(checkCombo.getCheckModel().getCheckedItems());
+                    checked.removeIf(ep -> ep == null);
+                    bound.getSelectedEpisodes().setAll(checked);
+                });
             }
             @Override
             protected void updateItem(String s, boolean empty) {
                 super.updateItem(s, empty);
                 if (empty || getIndex() < 0 || getIndex() >= getTableView().getItems().size()) {
+                    bound = null;
                     setGraphic(null);
                     return;
                 }
@@ -185,25 +203,32 @@ public class DownloadsController {
                 ensureEpisodesLoaded(di);
                 List<Episode> list = di.getEpisodesForSeason(di.getSelectedSeason());
                 ObservableList<Episode> obs = FXCollections.observableArrayList(list);
-                checkCombo.getItems().setAll(obs);
-                checkCombo.getCheckModel().clearChecks();
-                // Restore only previously selected episodes (no auto-select)
-                for (Episode ep : di.getSelectedEpisodes()) {
-                    int idx = obs.indexOf(ep);
-                    if (idx >= 0) checkCombo.getCheckModel().check(idx);
+                // Restore only previously selected episodes (no auto-select), senza riscriverli nel modello
+                restoring = true;
+                try {
+                    bound = di;
+                    checkCombo.getItems().setAll(obs);
+                    checkCombo.getCheckModel().clearChecks();
+                    for (Episode ep : di.getSelectedEpisodes()) {
+                        int idx = obs.indexOf(ep);
+                        if (idx >= 0) checkCombo.getCheckModel().check(idx);
+                    }
+                } finally {
+                    restoring = false;
                 }
-                // Bind check changes directly to the model
-                checkCombo.getCheckModel().getCheckedItems().addListener((ListChangeListener<Episode>) c -> {
-                    List<Episode> checked = new ArrayList<>(checkCombo.getCheckModel().getCheckedItems());
-                    checked.removeIf(ep -> ep == null);
-                    di.getSelectedEpisodes().setAll(checked);
-                });
                 setGraphic(checkCombo);
             }
         });
-        episodesColumn.setCellValueFactory(cd -> new ReadOnlyStringWrapper(diEpisodesSummary(cd.getValue())));
+        // dipende da stagione ed elenco episodi (non dalla selezione, che la cella stessa modifica)
+        episodesColumn.setCellValueFactory(cd -> javafx.beans.binding.Bindings.createStringBinding(
+                () -> diEpisodesSummary(cd.getValue()),
+                cd.getValue().selectedSeasonProperty(), cd.getValue().getAllEpisodes()));
 
-        statusColumn.setCellValueFactory(cd -> cd.getValue().statusProperty().asString());
+        statusColumn.setCellValueFactory(cd -> javafx.beans.binding.Bindings.createStringBinding(() -> {
+            DownloadItem di = cd.getValue();
+            int p = di.getPriority();
+            return di.getStatus() + (p > 0 ? " ↑" : p < 0 ? " ↓" : "");
+        }, cd.getValue().statusProperty(), cd.getValue().priorityProperty()));
 
         speedColumn.setCellValueFactory(cd -> cd.getValue().speedProperty());
         speedColumn.setCellFactory(col -> new TableCell<>() {
@@ -260,6 +285,8 @@ public class DownloadsController {
             }
         });
 
+        // i pulsanti dipendono dallo stato: la cella si aggiorna quando cambia
+        actionsColumn.setCellValueFactory(cd -> cd.getValue().statusProperty());
         actionsColumn.setCellFactory(col -> new TableCell<>() {
             private final Button startBtn = new Button("Start");
             private final Button cancelBtn = new Button("Annulla");
@@ -279,7 +306,7 @@ public class DownloadsController {
                 });
             }
             @Override
-            protected void updateItem(Void v, boolean empty) {
+            protected void updateItem(DownloadStatus v, boolean empty) {
                 super.updateItem(v, empty);
                 if (empty || getIndex() < 0 || getIndex() >= getTableView().getItems().size()) {
                     setGraphic(null);
@@ -301,6 +328,17 @@ public class DownloadsController {
         removeCompletedBtn.setOnAction(e -> manager.removeCompleted());
 
         downloadsTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        
+        // Priorità in coda per gli elementi selezionati
+        MenuItem prioHigh = new MenuItem("Priorità alta");
+        MenuItem prioNormal = new MenuItem("Priorità normale");
+        MenuItem prioLow = new MenuItem("Priorità bassa");
+        prioHigh.setOnAction(e -> setPriorityOnSelected(1));
+        prioNormal.setOnAction(e -> setPriorityOnSelected(0));
+        prioLow.setOnAction(e -> setPriorityOnSelected(-1));
+        MenuItem bandwidth = new MenuItem("Limite di banda...");
+        bandwidth.setOnAction(e -> onBandwidthLimitOnSelected());
+        downloadsTable.setContextMenu(new ContextMenu(prioHigh, prioNormal, prioLow, new SeparatorMenuItem(), bandwidth));
 
         if (chooseDirBtn != null) {
             chooseDirBtn.setOnAction(e -> onChooseDir());
@@ -325,6 +363,33 @@ public class DownloadsController {
         
     }
 
+    private void setPriorityOnSelected(int priority) {
+        for (DownloadItem di : new ArrayList<>(downloadsTable.getSelectionModel().getSelectedItems())) {
+            manager.setPriority(di, priority);
+        }
+    }
+
+    /** Chiede il limite (es. "5Mbit", "2MB"; vuoto = nessun limite) e lo applica agli elementi selezionati. */
+    private void onBandwidthLimitOnSelected() {
+        List<DownloadItem> selected = new ArrayList<>(downloadsTable.getSelectionModel().getSelectedItems());
+        if (selected.isEmpty()) return;
+        long current = selected.get(0).getBandwidthLimit();
+        TextInputDialog dialog = new TextInputDialog(current > 0 ? (current * 8 / 1_000) + "kbit" : "");
+        dialog.setTitle("Limite di banda");
+        dialog.setHeaderText("Limite per " + (selected.size() == 1 ? selected.get(0).getTitle() : selected.size() + " elementi"));
+        dialog.setContentText("Velocità massima (es. 5Mbit, 2MB; vuoto = nessun limite):");
+        dialog.showAndWait().ifPresent(text -> {
+            long bytesPerSecond;
+            try {
+                bytesPerSecond = BandwidthScheduler.parseRate(text);
+            } catch (RuntimeException ex) {
+                new Alert(Alert.AlertType.ERROR, "Limite non valido: " + text).showAndWait();
+                return;
+            }
+            for (DownloadItem di : selected) manager.setItemBandwidthLimit(di, bytesPerSecond);
+        });
+    }
+
     private String diEpisodesSummary(DownloadItem di) {
         List<Episode> list = di.getSelectedEpisodes();
         if (list == null || list.isEmpty()) return "";
@@ -337,19 +402,17 @@ public class DownloadsController {
         if (needsLoad) {
             var provider = di.getProvider();
             var item = di.getItem();
-            new Thread(() -> {
+            Tasks.start("load-episodes-" + di.getId(), Tasks.LOADS, () -> {
                 try {
                     List<Episode> eps = provider.listEpisodes(item);
                     if (eps != null && !eps.isEmpty()) {
-                        javafx.application.Platform.runLater(() -> {
-                            di.setEpisodes(eps);
-                            downloadsTable.refresh();
-                        });
+                        // stagione ed episodi sono osservati dalle rispettive colonne
+                        javafx.application.Platform.runLater(() -> di.setEpisodes(eps));
                     }
                 } catch (Exception e) {
                     System.err.println("Failed to load episodes for " + item.getTitle() + ": " + e.getMessage());
                 }
-            }, "load-episodes-" + di.getId()).start();
+            });
         }
     }
 
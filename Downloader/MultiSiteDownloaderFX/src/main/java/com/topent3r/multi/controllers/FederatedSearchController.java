@@ -0,0 +1,178 @@
+package com.topent3r.multi.controllers;
+
+import com.topent3r.multi.download.DownloadManager;
+import com.topent3r.multi.model.Episode;
+import com.topent3r.multi.services.ContentProvider;
+import com.topent3r.multi.services.FederatedSearch;
+import com.topent3r.multi.services.FederatedSearch.Hit;
+import com.topent3r.multi.services.FederatedSearch.Source;
+import com.topent3r.multi.services.FederatedSearch.State;
+import com.topent3r.multi.services.ProviderRegistry;
+import com.topent3r.multi.utils.Tasks;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Tab "Cerca ovunque": una ricerca su tutti i siti, risultati fusi man mano che arrivano.
+ * Il download usa il sito scelto fra quelli in cui il titolo è stato trovato.
+ */
+public class FederatedSearchController {
+
+    @FXML private TextField searchField;
+    @FXML private Button searchButton;
+    @FXML private Button stopButton;
+    @FXML private Label statusLabel;
+
+    @FXML private TableView<Hit> resultsTable;
+    @FXML private TableColumn<Hit, String> titleColumn;
+    @FXML private TableColumn<Hit, String> typeColumn;
+    @FXML private TableColumn<Hit, String> yearColumn;
+    @FXML private TableColumn<Hit, String> sitesColumn;
+
+    @FXML private ComboBox<String> siteChoice;
+    @FXML private Button downloadButton;
+
+    private final ObservableList<Hit> results = FXCollections.observableArrayList();
+    private final Map<String, String> siteStates = new LinkedHashMap<>();
+    private FederatedSearch.Handle current;
+
+    @FXML
+    public void initialize() {
+        titleColumn.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().title()));
+        typeColumn.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().type()));
+        yearColumn.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().year()));
+        sitesColumn.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().sites()));
+        resultsTable.setItems(results);
+
+        resultsTable.getSelectionModel().selectedItemProperty().addListener((obs, o, n) -> onSelection(n));
+        searchButton.setOnAction(e -> onSearch());
+        searchField.setOnAction(e -> onSearch());
+        stopButton.setOnAction(e -> onStop());
+        downloadButton.setOnAction(e -> onDownloadSelected());
+    }
+
+    private void onSearch() {
+        String query = searchField.getText();
+        if (query == null || query.isBlank()) return;
+
+        onStop();
+        results.clear();
+        siteStates.clear();
+        stopButton.setDisable(false);
+
+        FederatedSearch.Handle[] self = new FederatedSearch.Handle[1];
+        self[0] = FederatedSearch.getInstance().search(query, new FederatedSearch.Listener() {
+            @Override
+            public void onResults(String provider, List<Hit> merged) {
+                Platform.runLater(() -> {
+                    if (current != self[0]) return;
+                    Hit selected = resultsTable.getSelectionModel().getSelectedItem();
+                    results.setAll(merged);
+                    if (selected != null) reselect(selected);
+                });
+            }
+
+            @Override
+            public void onProviderState(String provider, State state, String detail) {
+                Platform.runLater(() -> {
+                    if (current != self[0]) return;
+                    siteStates.put(provider, describe(state, detail));
+                    updateStatus();
+                });
+            }
+
+            @Override
+            public void onComplete() {
+                Platform.runLater(() -> {
+                    if (current != self[0]) return;
+                    current = null;
+                    stopButton.setDisable(true);
+                });
+            }
+        });
+        current = self[0];
+    }
+
+    private void onStop() {
+        FederatedSearch.Handle h = current;
+        current = null;
+        if (h != null) h.cancel();
+        stopButton.setDisable(true);
+    }
+
+    /** Dopo un aggiornamento la riga selezionata è un nuovo Hit: si ritrova per titolo e anno. */
+    private void reselect(Hit old) {
+        for (Hit h : results) {
+            if (h.title().equals(old.title()) && Objects.equals(h.year(), old.year())) {
+                resultsTable.getSelectionModel().select(h);
+                return;
+            }
+        }
+    }
+
+    private void onSelection(Hit hit) {
+        downloadButton.setDisable(hit == null);
+        String previous = siteChoice.getValue();
+        if (hit == null) {
+            siteChoice.getItems().clear();
+            return;
+        }
+        List<String> sites = hit.sources().stream().map(Source::provider).distinct().toList();
+        siteChoice.getItems().setAll(sites);
+        siteChoice.setValue(sites.contains(previous) ? previous : sites.get(0));
+    }
+
+    private void updateStatus() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : siteStates.entrySet()) {
+            if (sb.length() > 0) sb.append("  •  ");
+            sb.append(e.getKey()).append(": ").append(e.getValue());
+        }
+        statusLabel.setText(sb.toString());
+    }
+
+    private static String describe(State state, String detail) {
+        return switch (state) {
+            case SEARCHING -> "…";
+            case DONE -> detail;
+            case EMPTY -> "nessun risultato";
+            case TIMEOUT -> "scaduto";
+            case FAILED -> "errore";
+        };
+    }
+
+    private void onDownloadSelected() {
+        Hit hit = resultsTable.getSelectionModel().getSelectedItem();
+        String site = siteChoice.getValue();
+        if (hit == null || site == null) return;
+        Source source = hit.sources().stream().filter(s -> s.provider().equals(site)).findFirst().orElse(null);
+        ContentProvider provider = ProviderRegistry.forName(site);
+        if (source == null || provider == null) return;
+
+        downloadButton.setDisable(true);
+        Tasks.start("federated-add-download", Tasks.LOADS, () -> {
+            try {
+                List<Episode> episodes = provider.listEpisodes(source.item());
+                Platform.runLater(() -> {
+                    DownloadManager.getInstance().enqueue(source.item(), provider, episodes);
+                    downloadButton.setDisable(false);
+                });
+            } catch (Exception ex) {
+                Platform.runLater(() -> {
+                    downloadButton.setDisable(false);
+                    Alert alert = new Alert(Alert.AlertType.ERROR, "Errore (" + site + "): " + ex.getMessage());
+                    alert.showAndWait();
+                });
+            }
+        });
+    }
+}
@@ -3,8 +3,9 @@ package com.topent3r.multi.controllers;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
 import com.topent3r.multi.services.ContentProvider;
-import com.topent3r.multi.services.MediasetInfinityProvider;
+import com.topent3r.multi.services.ProviderRegistry;
 import com.topent3r.multi.download.DownloadManager;
+import com.topent3r.multi.utils.Tasks;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -26,7 +27,7 @@ public class MediasetInfinityController {
 
     @FXML private Button downloadButton;
 
-    private final ContentProvider provider = new MediasetInfinityProvider();
+    private final ContentProvider provider = ProviderRegistry.forName("MediasetInfinity");
     private final ObservableList<MediaItem> results = FXCollections.observableArrayList();
 
     @FXML
@@ -47,7 +48,7 @@ public class MediasetInfinityController {
         if (query == null || query.isBlank()) return;
         
         searchButton.setDisable(true);
-        new Thread(() -> {
+        Tasks.start("mediaset-search", Tasks.SEARCHES, () -> {
             try {
                 List<MediaItem> searchResults = provider.search(query);
                 Platform.runLater(() -> {
@@ -61,7 +62,7 @@ public class MediasetInfinityController {
                     alert.showAndWait();
                 });
             }
-        }, "mediaset-search").start();
+        });
     }
 
     private void onDownloadSelected() {
@@ -69,7 +70,7 @@ public class MediasetInfinityController {
         if (item == null) return;
         
         downloadButton.setDisable(true);
-        new Thread(() -> {
+        Tasks.start("mediaset-add-download", Tasks.LOADS, () -> {
             try {
                 List<Episode> episodes = provider.listEpisodes(item);
                 Platform.runLater(() -> {
@@ -83,6 +84,6 @@ public class MediasetInfinityController {
                     alert.showAndWait();
                 });
             }
-        }, "mediaset-add-download").start();
+        });
     }
 }
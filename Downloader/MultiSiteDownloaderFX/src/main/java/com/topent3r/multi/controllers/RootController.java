@@ -16,6 +16,7 @@ public class RootController {
     @FXML
     public void initialize() {
         // Inizializza contenuti dei tab principali
+        loadTabContent("Cerca ovunque", "/com/topent3r/multi/tabs/FederatedSearchView.fxml");
         loadTabContent("M3U Downloader", "/com/topent3r/multi/tabs/M3UTabView.fxml");
         loadTabContent("StreamingCommunity", "/com/topent3r/multi/tabs/StreamingCommunityView.fxml");
         loadTabContent("AnimeUnity", "/com/topent3r/multi/tabs/AnimeUnityView.fxml");
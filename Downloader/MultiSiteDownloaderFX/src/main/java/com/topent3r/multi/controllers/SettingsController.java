@@ -2,6 +2,7 @@ package com.topent3r.multi.controllers;
 
 import com.topent3r.multi.m3u.utils.SettingsManager;
 import javafx.fxml.FXML;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 
@@ -21,6 +22,22 @@ public class SettingsController {
     @FXML private TextField crunchyrollDeviceId;
     @FXML private TextField crunchyrollEtpRt;
     
+    @FXML private TextField bandwidthLimit;
+    @FXML private TextField bandwidthSiteLimits;
+    @FXML private TextField bandwidthSchedule;
+    
+    @FXML private TextField maxConcurrentDownloads;
+    @FXML private TextField maxDownloadsPerSite;
+    @FXML private TextField siteConcurrency;
+    @FXML private CheckBox keepPartialOnCancel;
+    
+    @FXML private TextField metadataCacheTtl;
+    
+    @FXML private TextField federatedSearchSites;
+    @FXML private TextField federatedSearchTimeout;
+    
+    @FXML private TextField metricsPort;
+    
     @FXML private Label statusLabel;
 
     private final SettingsManager settingsManager = new SettingsManager();
@@ -46,6 +63,27 @@ public class SettingsController {
         // Crunchyroll credentials
         crunchyrollDeviceId.setText(settings.crunchyrollDeviceId);
         crunchyrollEtpRt.setText(settings.crunchyrollEtpRt);
+        
+        // Limiti di banda
+        bandwidthLimit.setText(settings.bandwidthLimit);
+        bandwidthSiteLimits.setText(settings.bandwidthSiteLimits);
+        bandwidthSchedule.setText(settings.bandwidthSchedule);
+        
+        // Download contemporanei
+        maxConcurrentDownloads.setText(String.valueOf(settings.maxConcurrentDownloads));
+        maxDownloadsPerSite.setText(String.valueOf(settings.maxDownloadsPerSite));
+        siteConcurrency.setText(settings.siteConcurrency);
+        keepPartialOnCancel.setSelected(settings.keepPartialOnCancel);
+        
+        // Cache metadati
+        metadataCacheTtl.setText(settings.metadataCacheTtl);
+        
+        // Ricerca su tutti i siti
+        federatedSearchSites.setText(settings.federatedSearchSites);
+        federatedSearchTimeout.setText(String.valueOf(settings.federatedSearchTimeout));
+        
+        // Metriche
+        metricsPort.setText(String.valueOf(settings.metricsPort));
     }
 
     @FXML
@@ -63,6 +101,36 @@ public class SettingsController {
         // Crunchyroll credentials
         settings.crunchyrollDeviceId = crunchyrollDeviceId.getText().trim();
         settings.crunchyrollEtpRt = crunchyrollEtpRt.getText().trim();
+        
+        // Limiti di banda: applicati subito anche ai download in corso
+        settings.bandwidthLimit = bandwidthLimit.getText().trim();
+        settings.bandwidthSiteLimits = bandwidthSiteLimits.getText().trim();
+        settings.bandwidthSchedule = bandwidthSchedule.getText().trim();
+        com.topent3r.multi.download.BandwidthScheduler.getInstance()
+                .configure(settings.bandwidthLimit, settings.bandwidthSiteLimits, settings.bandwidthSchedule);
+        
+        // Download contemporanei
+        settings.maxConcurrentDownloads = parseIntOr(maxConcurrentDownloads.getText(), settings.maxConcurrentDownloads);
+        settings.maxDownloadsPerSite = parseIntOr(maxDownloadsPerSite.getText(), settings.maxDownloadsPerSite);
+        settings.siteConcurrency = siteConcurrency.getText().trim();
+        settings.keepPartialOnCancel = keepPartialOnCancel.isSelected();
+        com.topent3r.multi.download.DownloadManager.getInstance()
+                .setConcurrency(settings.maxConcurrentDownloads, settings.maxDownloadsPerSite, settings.siteConcurrency);
+        com.topent3r.multi.download.DownloadManager.getInstance().setKeepPartialOnCancel(settings.keepPartialOnCancel);
+        
+        // Cache metadati
+        settings.metadataCacheTtl = metadataCacheTtl.getText().trim();
+        com.topent3r.multi.services.MetadataCache.getInstance().configure(settings.metadataCacheTtl);
+        
+        // Ricerca su tutti i siti
+        settings.federatedSearchSites = federatedSearchSites.getText().trim();
+        settings.federatedSearchTimeout = parseIntOr(federatedSearchTimeout.getText(), settings.federatedSearchTimeout);
+        com.topent3r.multi.services.FederatedSearch.getInstance()
+                .configure(settings.federatedSearchSites, settings.federatedSearchTimeout);
+        
+        // Metriche: 0 spegne l'endpoint
+        settings.metricsPort = parsePortOr(metricsPort.getText(), settings.metricsPort);
+        com.topent3r.multi.utils.Metrics.getInstance().serveHttp(settings.metricsPort);
 
         try {
             settingsManager.save(settings);
@@ -78,6 +146,13 @@ public class SettingsController {
         }
     }
 
+    @FXML
+    private void onClearCache() {
+        com.topent3r.multi.services.MetadataCache.getInstance().clear();
+        statusLabel.setText("Cache metadati svuotata");
+        statusLabel.setStyle("-fx-text-fill: green;");
+    }
+
     @FXML
     private void onResetDefaults() {
         SettingsManager.Settings defaults = new SettingsManager.Settings();
@@ -95,6 +170,19 @@ public class SettingsController {
         statusLabel.setStyle("-fx-text-fill: orange;");
     }
     
+    private static int parseIntOr(String s, int def) {
+        try { return Math.max(1, Integer.parseInt(s.trim())); } catch (NumberFormatException e) { return def; }
+    }
+    
+    private static int parsePortOr(String s, int def) {
+        try {
+            int port = Integer.parseInt(s.trim());
+            return port >= 0 && port <= 65535 ? port : def;
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+    
     private void updateDomainsJson() {
         try {
             // Path to domains.json
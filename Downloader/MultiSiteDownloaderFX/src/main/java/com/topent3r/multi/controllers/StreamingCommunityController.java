@@ -4,7 +4,8 @@ import com.topent3r.multi.model.MediaItem;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.download.DownloadManager;
 import com.topent3r.multi.services.ContentProvider;
-import com.topent3r.multi.services.StreamingCommunityProvider;
+import com.topent3r.multi.services.ProviderRegistry;
+import com.topent3r.multi.utils.Tasks;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -29,7 +30,7 @@ public class StreamingCommunityController {
     @FXML private TableColumn<MediaItem, String> typeColumn;
     @FXML private TableColumn<MediaItem, String> yearColumn;
 
-    private final ContentProvider provider = new StreamingCommunityProvider();
+    private final ContentProvider provider = ProviderRegistry.forName("StreamingCommunity");
     private final ObservableList<MediaItem> results = FXCollections.observableArrayList();
 
     @FXML
@@ -52,7 +53,7 @@ public class StreamingCommunityController {
         }
         searchButton.setDisable(true);
         searchField.setDisable(true);
-        new Thread(() -> {
+        Tasks.start("streamingcommunity-search", Tasks.SEARCHES, () -> {
             try {
                 List<MediaItem> searchResults = provider.search(query);
                 Platform.runLater(() -> {
@@ -68,7 +69,7 @@ public class StreamingCommunityController {
                     alert.showAndWait();
                 });
             }
-        }, "streamingcommunity-search").start();
+        });
     }
 
     private void onDownloadSelected() {
@@ -76,7 +77,7 @@ public class StreamingCommunityController {
         if (item == null) return;
         
         downloadButton.setDisable(true);
-        new Thread(() -> {
+        Tasks.start("streamingcommunity-add-download", Tasks.LOADS, () -> {
             try {
                 List<Episode> episodes = provider.listEpisodes(item);
                 Platform.runLater(() -> {
@@ -90,7 +91,7 @@ public class StreamingCommunityController {
                     alert.showAndWait();
                 });
             }
-        }, "streamingcommunity-add-download").start();
+        });
     }
 }
 
@@ -4,7 +4,8 @@ import com.topent3r.multi.download.DownloadManager;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
 import com.topent3r.multi.services.ContentProvider;
-import com.topent3r.multi.services.StreamingWatchProvider;
+import com.topent3r.multi.services.ProviderRegistry;
+import com.topent3r.multi.utils.Tasks;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -26,7 +27,7 @@ public class StreamingWatchController {
 
     @FXML private Button downloadButton;
 
-    private final ContentProvider provider = new StreamingWatchProvider();
+    private final ContentProvider provider = ProviderRegistry.forName("StreamingWatch");
     private final ObservableList<MediaItem> results = FXCollections.observableArrayList();
 
     @FXML
@@ -48,7 +49,7 @@ public class StreamingWatchController {
         
         searchButton.setDisable(true);
         searchField.setDisable(true);
-        new Thread(() -> {
+        Tasks.start("streamingwatch-search", Tasks.SEARCHES, () -> {
             try {
                 List<MediaItem> searchResults = provider.search(query);
                 Platform.runLater(() -> {
@@ -64,7 +65,7 @@ public class StreamingWatchController {
                     alert.showAndWait();
                 });
             }
-        }, "streamingwatch-search").start();
+        });
     }
 
     private void onDownloadSelected() {
@@ -72,7 +73,7 @@ public class StreamingWatchController {
         if (item == null) return;
         
         downloadButton.setDisable(true);
-        new Thread(() -> {
+        Tasks.start("streamingwatch-add-download", Tasks.LOADS, () -> {
             try {
                 List<Episode> episodes = provider.listEpisodes(item);
                 Platform.runLater(() -> {
@@ -86,6 +87,6 @@ public class StreamingWatchController {
                     alert.showAndWait();
                 });
             }
-        }, "streamingwatch-add-download").start();
+        });
     }
 }
@@ -0,0 +1,220 @@
+package com.topent3r.multi.download;
+
+import com.topent3r.multi.utils.Log;
+
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limitatore di banda condiviso (token bucket) per tutti i cicli di lettura.
+ *
+ * Ogni lettura prenota i byte ricevuti sul bucket globale, su quello del sito
+ * ({@code MediaItem.getSourceAlias()}) e su quello dell'elemento, poi attende il
+ * tempo necessario a rientrare nel più stretto dei tre. Le prenotazioni passano da
+ * un lock fair in ordine di arrivo, quindi i trasferimenti attivi si dividono la
+ * banda in parti uguali e quella lasciata libera da chi ha un limite proprio più
+ * basso resta disponibile agli altri.
+ *
+ * Il limite globale può cambiare per fascia oraria (es. 09:00-18:00 a 20 Mbit/s,
+ * illimitato di notte). Limite 0 = illimitato.
+ */
+public final class BandwidthScheduler {
+
+    private static final BandwidthScheduler INSTANCE = new BandwidthScheduler();
+
+    public static BandwidthScheduler getInstance() { return INSTANCE; }
+
+    // burst massimo: mezzo secondo di banda (min 64 KB) per non penalizzare letture irregolari
+    private static final double BURST_SECONDS = 0.5;
+    private static final long MIN_BURST = 64 * 1024;
+
+    /** Fascia oraria [from, to) con un proprio limite globale; può scavalcare la mezzanotte. */
+    public record Window(LocalTime from, LocalTime to, long bytesPerSecond) {
+        boolean contains(LocalTime t) {
+            if (from.isBefore(to)) return !t.isBefore(from) && t.isBefore(to);
+            return !t.isBefore(from) || t.isBefore(to);
+        }
+    }
+
+    private static final class Bucket {
+        private long rate;      // byte/s, 0 = illimitato
+        private double tokens;
+        private long last = System.nanoTime();
+
+        void setRate(long bytesPerSecond, long now) {
+            if (bytesPerSecond == rate) return;
+            rate = Math.max(0, bytesPerSecond);
+            tokens = 0;
+            last = now;
+        }
+
+        /** Prenota n byte e restituisce i nanosecondi da attendere (0 se c'è credito). */
+        long reserve(long n, long now) {
+            if (rate <= 0) return 0;
+            double burst = Math.max(rate * BURST_SECONDS, MIN_BURST);
+            tokens = Math.min(burst, tokens + (now - last) * rate / 1e9);
+            last = now;
+            tokens -= n;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Bucket global = new Bucket();
+    private final Map<String, Bucket> sites = new HashMap<>();
+    private final Map<String, Bucket> items = new HashMap<>();
+    private final Map<String, Long> siteLimits = new ConcurrentHashMap<>();
+    private final Map<String, Long> itemLimits = new ConcurrentHashMap<>();
+
+    private volatile long globalLimit;
+    private volatile List<Window> schedule = List.of();
+    private volatile long nextScheduleCheck = System.nanoTime();
+
+    private BandwidthScheduler() {}
+
+    // ---------- configurazione ----------
+
+    public void setGlobalLimit(long bytesPerSecond) {
+        this.globalLimit = Math.max(0, bytesPerSecond);
+        nextScheduleCheck = System.nanoTime();
+    }
+
+    public void setSchedule(List<Window> windows) {
+        this.schedule = windows == null ? List.of() : List.copyOf(windows);
+        nextScheduleCheck = System.nanoTime();
+    }
+
+    public void setSiteLimit(String site, long bytesPerSecond) {
+        if (site == null) return;
+        if (bytesPerSecond > 0) siteLimits.put(site, bytesPerSecond);
+        else siteLimits.remove(site);
+    }
+
+    public void setItemLimit(String itemId, long bytesPerSecond) {
+        if (itemId == null) return;
+        if (bytesPerSecond > 0) itemLimits.put(itemId, bytesPerSecond);
+        else itemLimits.remove(itemId);
+    }
+
+    /**
+     * Applica le impostazioni testuali:
+     * global "20Mbit", sites "RaiPlay=5Mbit;M3U=2MB", schedule "09:00-18:00=20Mbit;18:00-09:00=0".
+     * Valori non validi vengono ignorati con un avviso nel log.
+     */
+    public void configure(String global, String sitesSpec, String scheduleSpec) {
+        setGlobalLimit(parseRateSafe(global));
+
+        siteLimits.clear();
+        for (String part : split(sitesSpec)) {
+            int eq = part.indexOf('=');
+            if (eq <= 0) { Log.warn("bandwidth", "limite sito non valido: '" + part + "'"); continue; }
+            setSiteLimit(part.substring(0, eq).trim(), parseRateSafe(part.substring(eq + 1)));
+        }
+
+        List<Window> windows = new ArrayList<>();
+        for (String part : split(scheduleSpec)) {
+            try {
+                int eq = part.indexOf('=');
+                String[] range = part.substring(0, eq).split("-");
+                windows.add(new Window(LocalTime.parse(range[0].trim()), LocalTime.parse(range[1].trim()),
+                        parseRate(part.substring(eq + 1))));
+            } catch (RuntimeException e) {
+                Log.warn("bandwidth", "fascia oraria non valida: '" + part + "'");
+            }
+        }
+        setSchedule(windows);
+    }
+
+    /**
+     * "20Mbit", "20 Mbit/s", "20Mbps", "800kbit", "5MB", "512KB" → byte/s.
+     * Un numero senza unità è in Mbit/s; vuoto o 0 = illimitato.
+     */
+    public static long parseRate(String s) {
+        if (s == null) return 0;
+        String v = s.trim().toLowerCase(Locale.ROOT).replace("/s", "").replace(" ", "");
+        if (v.isEmpty()) return 0;
+        int i = 0;
+        while (i < v.length() && (Character.isDigit(v.charAt(i)) || v.charAt(i) == '.' || v.charAt(i) == ',')) i++;
+        double n = Double.parseDouble(v.substring(0, i).replace(',', '.'));
+        String unit = v.substring(i);
+        double bytes = switch (unit) {
+            case "", "m", "mbit", "mbps" -> n * 1_000_000 / 8;
+            case "k", "kbit", "kbps" -> n * 1_000 / 8;
+            case "g", "gbit", "gbps" -> n * 1_000_000_000 / 8;
+            case "kb" -> n * 1024;
+            case "mb" -> n * 1024 * 1024;
+            default -> throw new IllegalArgumentException("Unità non valida: " + unit);
+        };
+        return (long) bytes;
+    }
+
+    private static long parseRateSafe(String s) {
+        try {
+            return parseRate(s);
+        } catch (RuntimeException e) {
+            Log.warn("bandwidth", "limite non valido: '" + s + "'");
+            return 0;
+        }
+    }
+
+    private static List<String> split(String spec) {
+        List<String> out = new ArrayList<>();
+        if (spec == null) return out;
+        for (String p : spec.split("[;\\n]")) if (!p.isBlank()) out.add(p.trim());
+        return out;
+    }
+
+    // ---------- runtime ----------
+
+    /** Limite globale attivo adesso (fascia oraria se presente, altrimenti il limite base). */
+    public long currentGlobalLimit() {
+        LocalTime now = LocalTime.now();
+        for (Window w : schedule) if (w.contains(now)) return w.bytesPerSecond();
+        return globalLimit;
+    }
+
+    /**
+     * Registra {@code bytes} byte appena letti e blocca finché il trasferimento
+     * non rientra nei limiti. Interrompibile: l'interruzione diventa IOException.
+     */
+    public void acquire(DownloadContext ctx, long bytes) throws IOException {
+        if (bytes <= 0) return;
+        ctx = DownloadContext.orNone(ctx);
+        long wait;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (now - nextScheduleCheck >= 0) {
+                global.setRate(currentGlobalLimit(), now);
+                nextScheduleCheck = now + TimeUnit.SECONDS.toNanos(1);
+            }
+            wait = global.reserve(bytes, now);
+            wait = Math.max(wait, reserve(sites, siteLimits, ctx.getSite(), bytes, now));
+            wait = Math.max(wait, reserve(items, itemLimits, ctx.getItemId(), bytes, now));
+        } finally {
+            lock.unlock();
+        }
+        if (wait <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrotto.");
+        }
+    }
+
+    private static long reserve(Map<String, Bucket> buckets, Map<String, Long> limits, String key, long n, long now) {
+        Long limit = limits.get(key);
+        if (limit == null) {
+            buckets.remove(key);
+            return 0;
+        }
+        Bucket b = buckets.computeIfAbsent(key, k -> new Bucket());
+        b.setRate(limit, now);
+        return b.reserve(n, now);
+    }
+}
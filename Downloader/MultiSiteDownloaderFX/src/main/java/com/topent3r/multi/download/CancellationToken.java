@@ -0,0 +1,115 @@
+package com.topent3r.multi.download;
+
+import com.topent3r.multi.utils.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Annullamento di un download in corso.
+ *
+ * I downloader registrano qui quello che va fermato (chiamate OkHttp, processi
+ * python/ffmpeg, pool di worker): {@link #cancel()} esegue subito tutte le azioni
+ * registrate, dal thread che annulla, senza aspettare che il download se ne accorga.
+ * I cicli di lettura controllano {@link #throwIfCancelled()} (vedi DownloadContext.throttle).
+ */
+public final class CancellationToken {
+
+    /** Registrazione da chiudere quando la risorsa non serve più (try-with-resources). */
+    public interface Registration extends AutoCloseable {
+        @Override void close();
+    }
+
+    private static final Registration NO_OP = () -> {};
+    private static final CancellationToken NONE = new CancellationToken(false);
+    // token del lavoro in corso sul thread, ereditato dai thread figli (come il contesto di Log)
+    private static final InheritableThreadLocal<CancellationToken> CURRENT = new InheritableThreadLocal<>();
+
+    private final boolean cancellable;
+    private final List<Runnable> hooks = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    public CancellationToken() {
+        this(true);
+    }
+
+    private CancellationToken(boolean cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    /** Token che non viene mai annullato (download avviati fuori dalla coda). */
+    public static CancellationToken none() { return NONE; }
+
+    /**
+     * Token associato al thread da {@link #bind}, altrimenti {@link #none()}. Serve a chi
+     * non riceve un DownloadContext (client HTTP, processi python delle ricerche).
+     */
+    public static CancellationToken current() {
+        CancellationToken t = CURRENT.get();
+        return t != null ? t : NONE;
+    }
+
+    /** Associa {@code token} al thread corrente (e ai thread che avvierà) fino a close(). */
+    public static Registration bind(CancellationToken token) {
+        CancellationToken previous = CURRENT.get();
+        CURRENT.set(token);
+        return () -> CURRENT.set(previous);
+    }
+
+    public boolean isCancelled() { return cancelled; }
+
+    public void throwIfCancelled() throws IOException {
+        if (cancelled) throw new IOException("Annullato.");
+    }
+
+    /** Annulla ed esegue le azioni registrate (una volta sola). */
+    public void cancel() {
+        if (!cancellable) return;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+        }
+        for (Runnable hook : hooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                Log.warn("cancel", "Annullamento: " + e.getMessage());
+            }
+        }
+        hooks.clear();
+    }
+
+    /** Esegue {@code hook} all'annullamento; subito se il token è già annullato. */
+    public Registration onCancel(Runnable hook) {
+        if (!cancellable) return NO_OP;
+        hooks.add(hook);
+        if (cancelled && hooks.remove(hook)) hook.run();
+        return () -> hooks.remove(hook);
+    }
+
+    /** All'annullamento termina il processo con tutti i suoi figli. */
+    public Registration onCancel(Process process) {
+        return onCancel(() -> destroyTree(process));
+    }
+
+    /**
+     * Chiude il processo e i discendenti (python lancia ffmpeg, ffmpeg lancia nulla):
+     * prima con un segnale normale, dopo 3 secondi in modo forzato.
+     */
+    public static void destroyTree(Process process) {
+        if (process == null || !process.isAlive()) return;
+        List<ProcessHandle> children = process.descendants().toList();
+        children.forEach(ProcessHandle::destroy);
+        process.destroy();
+        com.topent3r.multi.utils.Tasks.start("kill-" + process.pid(), () -> {
+            try {
+                if (!process.waitFor(3, TimeUnit.SECONDS)) process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+            }
+            children.forEach(h -> { if (h.isAlive()) h.destroyForcibly(); });
+        });
+    }
+}
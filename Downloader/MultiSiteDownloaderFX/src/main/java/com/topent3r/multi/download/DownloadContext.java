@@ -0,0 +1,99 @@
+package com.topent3r.multi.download;
+
+import com.topent3r.multi.utils.Metrics;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Contesto di un trasferimento, passato dal DownloadManager fino ai cicli di lettura
+ * dei downloader: identifica sito ed elemento per i limiti di banda e porta il
+ * token di annullamento.
+ */
+public final class DownloadContext {
+
+    private static final DownloadContext NONE = new DownloadContext("", "", CancellationToken.none());
+
+    private final String site;
+    private final String itemId;
+    private final CancellationToken token;
+    // file parziali scritti dai downloader -> true se ripristinabili (.part + .part.json multi-chunk)
+    private final Map<Path, Boolean> partials = new ConcurrentHashMap<>();
+    // SHA-256 calcolati dai downloader durante il trasferimento, per file finale
+    private final Map<Path, String> checksums = new ConcurrentHashMap<>();
+    // byte ricevuti: per sito e, per i download in coda, per elemento (serie tolta a fine download)
+    private final Metrics.Meter siteBytes;
+    private final Metrics.Meter itemBytes;
+
+    public DownloadContext(String site, String itemId) {
+        this(site, itemId, new CancellationToken());
+    }
+
+    private DownloadContext(String site, String itemId, CancellationToken token) {
+        this.site = site == null ? "" : site;
+        this.itemId = itemId == null ? "" : itemId;
+        this.token = token;
+        Metrics m = Metrics.getInstance();
+        this.siteBytes = m.meter("download_site_bytes", "Byte scaricati per sito", "site", this.site);
+        this.itemBytes = this.itemId.isEmpty() ? null
+                : m.meter("download_item_bytes", "Byte scaricati per elemento della coda", "item", this.itemId, "site", this.site);
+    }
+
+    /** Contesto anonimo (download avviati fuori dalla coda): vale solo il limite globale. */
+    public static DownloadContext none() { return NONE; }
+
+    public static DownloadContext orNone(DownloadContext ctx) { return ctx != null ? ctx : NONE; }
+
+    public String getSite() { return site; }
+
+    public String getItemId() { return itemId; }
+
+    public CancellationToken getToken() { return token; }
+
+    public boolean isCancelled() { return token.isCancelled(); }
+
+    public void throwIfCancelled() throws java.io.IOException { token.throwIfCancelled(); }
+
+    /** Chiude la chiamata HTTP se il download viene annullato. */
+    public CancellationToken.Registration onCancel(okhttp3.Call call) {
+        return token.onCancel(call::cancel);
+    }
+
+    /** Termina il processo (e i figli) se il download viene annullato. */
+    public CancellationToken.Registration onCancel(Process process) {
+        return token.onCancel(process);
+    }
+
+    public CancellationToken.Registration onCancel(Runnable hook) {
+        return token.onCancel(hook);
+    }
+
+    /**
+     * Registra un file parziale: all'annullamento il DownloadManager lo cancella,
+     * tranne quelli ripristinabili se l'utente ha scelto di tenerli.
+     */
+    public void trackPartial(Path file, boolean resumable) {
+        if (this != NONE && file != null) partials.put(file, resumable);
+    }
+
+    Map<Path, Boolean> partials() { return partials; }
+
+    /** Registra lo SHA-256 calcolato mentre si scriveva {@code file} (vedi {@link Integrity.Hasher}). */
+    public void recordChecksum(Path file, String sha256) {
+        if (this != NONE && file != null && sha256 != null) checksums.put(file.toAbsolutePath(), sha256);
+    }
+
+    /** SHA-256 del file se il downloader l'ha calcolato, altrimenti null. */
+    String checksum(Path file) {
+        return file == null ? null : checksums.get(file.toAbsolutePath());
+    }
+
+    /** Da chiamare nei cicli di lettura dopo aver ricevuto {@code bytes} byte. */
+    public void throttle(long bytes) throws java.io.IOException {
+        token.throwIfCancelled();
+        siteBytes.mark(bytes);
+        if (itemBytes != null) itemBytes.mark(bytes);
+        BandwidthScheduler.getInstance().acquire(this, bytes);
+    }
+}
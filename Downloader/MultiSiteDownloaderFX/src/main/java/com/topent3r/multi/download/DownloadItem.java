@@ -11,7 +11,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class DownloadItem {
-    private final String id = UUID.randomUUID().toString();
+    private final String id;
     private final MediaItem item;
     private final ContentProvider provider;
 
@@ -22,11 +22,19 @@ public class DownloadItem {
     private final ObjectProperty<DownloadStatus> status = new SimpleObjectProperty<>(DownloadStatus.PENDING);
     private final DoubleProperty progress = new SimpleDoubleProperty(0.0);
     private final StringProperty speed = new SimpleStringProperty("");
+    private final IntegerProperty priority = new SimpleIntegerProperty(0);
+    private final LongProperty bandwidthLimit = new SimpleLongProperty(0);
 
     private final ObservableList<Episode> allEpisodes = FXCollections.observableArrayList();
     private final ObservableList<Episode> selectedEpisodes = FXCollections.observableArrayList();
 
     public DownloadItem(MediaItem item, ContentProvider provider) {
+        this(UUID.randomUUID().toString(), item, provider);
+    }
+
+    /** Usato dal ripristino della coda per mantenere l'id originale. */
+    DownloadItem(String id, MediaItem item, ContentProvider provider) {
+        this.id = id;
         this.item = item;
         this.provider = provider;
         this.title.set(item.getTitle());
@@ -63,6 +71,16 @@ public class DownloadItem {
     public StringProperty speedProperty() { return speed; }
     public void setSpeed(String s) { speed.set(s); }
 
+    /** Priorità in coda: più alta parte prima (0 = normale). */
+    public int getPriority() { return priority.get(); }
+    public IntegerProperty priorityProperty() { return priority; }
+    public void setPriority(int p) { priority.set(p); }
+
+    /** Limite di banda proprio in byte/s (0 = solo i limiti globale e del sito). */
+    public long getBandwidthLimit() { return bandwidthLimit.get(); }
+    public LongProperty bandwidthLimitProperty() { return bandwidthLimit; }
+    public void setBandwidthLimit(long bytesPerSecond) { bandwidthLimit.set(Math.max(0, bytesPerSecond)); }
+
     public ObservableList<Episode> getAllEpisodes() { return allEpisodes; }
     public ObservableList<Episode> getSelectedEpisodes() { return selectedEpisodes; }
 
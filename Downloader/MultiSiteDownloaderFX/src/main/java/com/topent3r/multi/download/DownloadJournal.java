@@ -0,0 +1,319 @@
+package com.topent3r.multi.download;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.topent3r.multi.model.Episode;
+import com.topent3r.multi.model.MediaItem;
+import com.topent3r.multi.utils.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Journal append-only della coda download (~/.topent3r/downloads.journal).
+ *
+ * Ogni evento (enqueue, start, progress, complete, fail...) è una riga JSON;
+ * all'avvio il file viene riletto per ricostruire la coda. Le scritture avvengono
+ * su un unico thread in background che, oltre una soglia, compatta il file
+ * riscrivendo solo lo stato corrente degli elementi ancora presenti.
+ */
+class DownloadJournal {
+
+    private static final int COMPACT_EVERY = 2000;
+
+    /** Evento serializzato su una riga. I campi non usati restano null. */
+    static class Event {
+        String ev;
+        String id;
+        MediaItem item;
+        String provider;
+        String quality;
+        String season;
+        Integer priority;
+        Long bandwidthLimit;
+        DownloadStatus status;
+        List<Episode> episodes;
+        List<Episode> selected;
+        List<Episode> done;
+        Episode episode;
+        String message;
+    }
+
+    /** Stato ricostruito di un elemento della coda. */
+    static class Entry {
+        String id;
+        MediaItem item;
+        String provider;
+        String quality;
+        String season;
+        int priority;
+        long bandwidthLimit;
+        DownloadStatus status = DownloadStatus.PENDING;
+        List<Episode> episodes = new ArrayList<>();
+        List<Episode> selected = new ArrayList<>();
+        List<Episode> done = new ArrayList<>();
+        String message;
+    }
+
+    private final Path file;
+    private final Gson gson = new Gson();
+    private final Map<String, Entry> state = new LinkedHashMap<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "download-journal");
+        t.setDaemon(true);
+        return t;
+    });
+    // le modifiche di selezione arrivano a raffica dalla tabella: si scrive solo l'ultima
+    private final Map<String, Event> pendingSelections = new ConcurrentHashMap<>();
+    private BufferedWriter out;
+    private int linesSinceCompact;
+
+    DownloadJournal(Path file) {
+        this.file = file;
+    }
+
+    DownloadJournal() {
+        this(Paths.get(System.getProperty("user.home"), ".topent3r", "downloads.journal"));
+    }
+
+    /** Rilegge il journal e restituisce lo stato degli elementi ancora in coda. */
+    synchronized List<Entry> load() {
+        state.clear();
+        if (Files.exists(file)) {
+            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    try {
+                        apply(gson.fromJson(line, Event.class));
+                        linesSinceCompact++;
+                    } catch (JsonParseException e) {
+                        // ultima riga troncata da un crash: si ignora
+                        Log.warn("journal", "Riga non valida ignorata");
+                    }
+                }
+            } catch (IOException e) {
+                Log.warn("journal", "Lettura fallita: " + e.getMessage());
+            }
+        }
+        List<Entry> copy = new ArrayList<>(state.values());
+        writer.execute(this::compact);
+        return copy;
+    }
+
+    // ---------- eventi ----------
+
+    void enqueued(DownloadItem di) {
+        Event e = event("enqueue", di);
+        e.item = di.getItem();
+        e.provider = di.getProvider().getDisplayName();
+        e.quality = di.getQuality();
+        e.season = di.getSelectedSeason();
+        e.priority = di.getPriority();
+        e.bandwidthLimit = di.getBandwidthLimit();
+        e.status = di.getStatus();
+        e.episodes = new ArrayList<>(di.getAllEpisodes());
+        e.selected = new ArrayList<>(di.getSelectedEpisodes());
+        append(e);
+    }
+
+    void episodesLoaded(DownloadItem di) {
+        Event e = event("episodes", di);
+        e.episodes = new ArrayList<>(di.getAllEpisodes());
+        append(e);
+    }
+
+    void selectionChanged(DownloadItem di) {
+        Event e = event("select", di);
+        e.quality = di.getQuality();
+        e.season = di.getSelectedSeason();
+        e.priority = di.getPriority();
+        e.bandwidthLimit = di.getBandwidthLimit();
+        e.selected = new ArrayList<>(di.getSelectedEpisodes());
+        if (pendingSelections.put(di.getId(), e) == null) {
+            writer.schedule(() -> {
+                Event latest = pendingSelections.remove(di.getId());
+                if (latest != null) write(latest);
+            }, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    void started(DownloadItem di) {
+        Event e = event("start", di);
+        e.selected = new ArrayList<>(di.getSelectedEpisodes());
+        append(e);
+    }
+
+    void episodeDone(DownloadItem di, Episode ep) {
+        Event e = event("progress", di);
+        e.episode = ep;
+        append(e);
+    }
+
+    void completed(DownloadItem di) { append(event("complete", di)); }
+
+    void failed(DownloadItem di, String message) {
+        Event e = event("fail", di);
+        e.message = message;
+        append(e);
+    }
+
+    void canceled(DownloadItem di) { append(event("cancel", di)); }
+
+    void removed(DownloadItem di) { append(event("remove", di)); }
+
+    private static Event event(String type, DownloadItem di) {
+        Event e = new Event();
+        e.ev = type;
+        e.id = di.getId();
+        return e;
+    }
+
+    /**
+     * Scrive subito le selezioni ancora in attesa e aspetta gli eventi già in coda.
+     * Da chiamare alla chiusura dell'app: il thread di scrittura è daemon.
+     */
+    void flush() {
+        Future<?> done = writer.submit(() -> {
+            for (String id : new ArrayList<>(pendingSelections.keySet())) {
+                Event sel = pendingSelections.remove(id);
+                if (sel != null) write(sel);
+            }
+        });
+        try {
+            done.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Log.warn("journal", "Scrittura finale non completata: " + e);
+        }
+    }
+
+    // ---------- scrittura ----------
+
+    private void append(Event e) {
+        // una selezione ancora in attesa va scritta prima dell'evento che la segue; si prende
+        // qui e non sul thread di scrittura, dove potrebbe già esserci una selezione successiva
+        Event sel = pendingSelections.remove(e.id);
+        writer.execute(() -> {
+            if (sel != null) write(sel);
+            write(e);
+        });
+    }
+
+    private synchronized void write(Event e) {
+        apply(e);
+        try {
+            if (out == null) {
+                Files.createDirectories(file.getParent());
+                out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            out.write(gson.toJson(e));
+            out.newLine();
+            out.flush();
+        } catch (IOException ex) {
+            Log.warn("journal", "Scrittura fallita: " + ex.getMessage());
+            closeQuietly();
+        }
+        if (++linesSinceCompact >= COMPACT_EVERY) compact();
+    }
+
+    /** Riscrive il journal con un solo evento "enqueue" per elemento, poi sostituisce il file. */
+    private synchronized void compact() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Entry en : state.values()) {
+                    w.write(gson.toJson(snapshot(en)));
+                    w.newLine();
+                }
+            }
+            closeQuietly();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            linesSinceCompact = state.size();
+        } catch (IOException ex) {
+            Log.warn("journal", "Compattazione fallita: " + ex.getMessage());
+        }
+    }
+
+    private void closeQuietly() {
+        if (out == null) return;
+        try { out.close(); } catch (IOException ignore) {}
+        out = null;
+    }
+
+    // ---------- replay ----------
+
+    private void apply(Event e) {
+        if (e == null || e.ev == null || e.id == null) return;
+        Entry en = state.get(e.id);
+        if (en == null && !"enqueue".equals(e.ev)) return;
+        switch (e.ev) {
+            case "enqueue" -> {
+                en = new Entry();
+                en.id = e.id;
+                en.item = e.item;
+                en.provider = e.provider;
+                en.quality = e.quality;
+                en.season = e.season;
+                if (e.priority != null) en.priority = e.priority;
+                if (e.bandwidthLimit != null) en.bandwidthLimit = e.bandwidthLimit;
+                if (e.status != null) en.status = e.status;
+                if (e.episodes != null) en.episodes = new ArrayList<>(e.episodes);
+                if (e.selected != null) en.selected = new ArrayList<>(e.selected);
+                if (e.done != null) en.done = new ArrayList<>(e.done);
+                en.message = e.message;
+                state.put(e.id, en);
+            }
+            case "episodes" -> { if (e.episodes != null) en.episodes = new ArrayList<>(e.episodes); }
+            case "select" -> {
+                en.quality = e.quality;
+                en.season = e.season;
+                if (e.priority != null) en.priority = e.priority;
+                if (e.bandwidthLimit != null) en.bandwidthLimit = e.bandwidthLimit;
+                if (e.selected != null) en.selected = new ArrayList<>(e.selected);
+            }
+            case "start" -> {
+                en.status = DownloadStatus.RUNNING;
+                if (e.selected != null) en.selected = new ArrayList<>(e.selected);
+            }
+            case "progress" -> { if (e.episode != null && !en.done.contains(e.episode)) en.done.add(e.episode); }
+            case "complete" -> en.status = DownloadStatus.COMPLETED;
+            case "fail" -> { en.status = DownloadStatus.FAILED; en.message = e.message; }
+            case "cancel" -> en.status = DownloadStatus.CANCELED;
+            case "remove" -> state.remove(e.id);
+            default -> { }
+        }
+    }
+
+    private static Event snapshot(Entry en) {
+        Event e = new Event();
+        e.ev = "enqueue";
+        e.id = en.id;
+        e.item = en.item;
+        e.provider = en.provider;
+        e.quality = en.quality;
+        e.season = en.season;
+        e.priority = en.priority;
+        e.bandwidthLimit = en.bandwidthLimit;
+        e.status = en.status;
+        e.episodes = en.episodes;
+        e.selected = en.selected;
+        e.done = en.done;
+        e.message = en.message;
+        return e;
+    }
+}
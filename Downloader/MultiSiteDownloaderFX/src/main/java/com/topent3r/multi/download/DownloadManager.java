@@ -4,13 +4,16 @@ import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
 import com.topent3r.multi.services.ContentProvider;
 import com.topent3r.multi.services.ContentProvider.DownloadCallback;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Metrics;
+import com.topent3r.multi.utils.Tasks;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class DownloadManager {
     private static final DownloadManager INSTANCE = new DownloadManager();
@@ -18,12 +21,77 @@ public class DownloadManager {
     public static DownloadManager getInstance() { return INSTANCE; }
 
     private final ObservableList<DownloadItem> items = FXCollections.observableArrayList();
-    private final Set<String> runningSites = ConcurrentHashMap.newKeySet();
     private volatile java.nio.file.Path downloadDir = java.nio.file.Paths.get(System.getProperty("user.home"), "Downloads");
     private volatile int downloadSpeed = 2; // 1=x1, 2=x2, 4=x4, 8=x8
+    private volatile int hlsWorkers = 0; // 0 = automatico dal moltiplicatore velocità
     private volatile String defaultQuality = "720p";
 
-    private DownloadManager() {}
+    private final DownloadJournal journal = new DownloadJournal();
+    private final LibraryIndex library = LibraryIndex.getInstance();
+    // progresso e messaggi dei thread di download verso la tabella, a 10 Hz
+    private final ProgressAggregator progress = new ProgressAggregator();
+    private final DownloadScheduler scheduler = new DownloadScheduler(this::launch);
+
+    // risoluzione anticipata degli episodi successivi mentre si scarica quello corrente:
+    // al più PREFETCH_AHEAD prefetch in corso per elemento, senza slot condivisi fra elementi
+    private static final int PREFETCH_AHEAD = 2;
+    // oltre questa attesa un prefetch bloccato si lascia perdere e si risolve nel download
+    private static final long PREFETCH_WAIT_S = 120;
+    // download in corso: gruppo di virtual thread (download + prefetch) e contesto con il token di annullamento
+    private record Active(Tasks.Scope scope, DownloadContext ctx) {}
+    private final Map<String, Active> active = new java.util.concurrent.ConcurrentHashMap<>();
+    // all'annullamento tiene .part/.part.json dei download ripristinabili (false = cancella tutto)
+    private volatile boolean keepPartialOnCancel = true;
+
+    private DownloadManager() {
+        restoreFromJournal();
+        Metrics.getInstance().gauge("downloads_active", "Download in corso", active::size);
+    }
+
+    /** Ricostruisce la coda dal journal: i download interrotti tornano in coda senza gli episodi già completati. */
+    private void restoreFromJournal() {
+        for (DownloadJournal.Entry en : journal.load()) {
+            ContentProvider provider = com.topent3r.multi.services.ProviderRegistry.forName(en.provider);
+            if (provider == null || en.item == null) {
+                Log.warn("journal", "Journal: provider sconosciuto '" + en.provider + "', elemento " + en.id + " scartato");
+                continue;
+            }
+            DownloadItem di = new DownloadItem(en.id, en.item, provider);
+            if (en.quality != null) di.setQuality(en.quality);
+            if (!en.episodes.isEmpty()) di.setEpisodes(en.episodes);
+            if (en.season != null && !en.season.isEmpty()) di.setSelectedSeason(en.season);
+            di.setPriority(en.priority);
+            di.setBandwidthLimit(en.bandwidthLimit);
+            BandwidthScheduler.getInstance().setItemLimit(di.getId(), en.bandwidthLimit);
+            List<Episode> remaining = new ArrayList<>(en.selected);
+            remaining.removeAll(en.done);
+            di.getSelectedEpisodes().setAll(remaining);
+            switch (en.status) {
+                case RUNNING -> {
+                    di.setStatus(DownloadStatus.PENDING);
+                    di.setSpeed("Interrotto: " + en.done.size() + " episodi già completati");
+                }
+                case FAILED -> {
+                    di.setStatus(DownloadStatus.FAILED);
+                    di.setSpeed(en.message == null ? "" : en.message);
+                }
+                default -> di.setStatus(en.status);
+            }
+            di.setProgress(en.status == DownloadStatus.COMPLETED ? 1.0 : 0.0);
+            items.add(di);
+            track(di);
+        }
+    }
+
+    /** Registra nel journal le modifiche di selezione fatte dalla tabella. */
+    private void track(DownloadItem di) {
+        di.getAllEpisodes().addListener((javafx.collections.ListChangeListener<Episode>) c -> journal.episodesLoaded(di));
+        di.getSelectedEpisodes().addListener((javafx.collections.ListChangeListener<Episode>) c -> journal.selectionChanged(di));
+        di.selectedSeasonProperty().addListener((obs, o, n) -> journal.selectionChanged(di));
+        di.qualityProperty().addListener((obs, o, n) -> journal.selectionChanged(di));
+        di.priorityProperty().addListener((obs, o, n) -> journal.selectionChanged(di));
+        di.bandwidthLimitProperty().addListener((obs, o, n) -> journal.selectionChanged(di));
+    }
 
     public ObservableList<DownloadItem> getItems() { return items; }
 
@@ -43,7 +111,7 @@ public class DownloadManager {
                     "\\\"force_resolution\\\": \\\"" + quality + "\\\"");
             java.nio.file.Files.writeString(configPath, content);
         } catch (Exception e) {
-            System.err.println("Failed to set quality " + quality + ": " + e.getMessage());
+            Log.warn("config", "Failed to set quality " + quality + ": " + e.getMessage());
         }
     }
     public java.nio.file.Path getDownloadDir() { return this.downloadDir; }
@@ -54,6 +122,18 @@ public class DownloadManager {
         }
     }
     public int getDownloadSpeed() { return this.downloadSpeed; }
+
+    public void setHlsWorkers(int workers) {
+        this.hlsWorkers = Math.max(0, Math.min(32, workers));
+    }
+    /** Worker paralleli per i segmenti HLS: valore configurato o derivato dalla velocità. */
+    public int getHlsWorkers() {
+        int w = this.hlsWorkers;
+        return w > 0 ? w : com.topent3r.multi.m3u.services.HttpDownloader.hlsWorkersFor(downloadSpeed);
+    }
+    public void setKeepPartialOnCancel(boolean keep) { this.keepPartialOnCancel = keep; }
+    public boolean isKeepPartialOnCancel() { return this.keepPartialOnCancel; }
+
     public void setDefaultQuality(String quality) {
         if (quality != null && !quality.isBlank()) {
             this.defaultQuality = quality;
@@ -61,6 +141,28 @@ public class DownloadManager {
     }
     public String getDefaultQuality() { return this.defaultQuality; }
 
+    /**
+     * Download contemporanei: totale, per sito (default) ed eccezioni per sito
+     * nel formato "StreamingCommunity=1;RaiPlay=3".
+     */
+    public void setConcurrency(int global, int perSite, String siteOverrides) {
+        scheduler.setLimits(global, perSite, DownloadScheduler.parseSiteLimits(siteOverrides));
+    }
+
+    /** Cambia la priorità; se l'elemento è in attesa viene riposizionato in coda. */
+    public void setPriority(DownloadItem di, int priority) {
+        if (di == null) return;
+        di.setPriority(priority);
+        scheduler.reprioritize(di);
+    }
+
+    /** Limite di banda del singolo elemento in byte/s (0 = nessun limite proprio). */
+    public void setItemBandwidthLimit(DownloadItem di, long bytesPerSecond) {
+        if (di == null) return;
+        di.setBandwidthLimit(bytesPerSecond);
+        BandwidthScheduler.getInstance().setItemLimit(di.getId(), di.getBandwidthLimit());
+    }
+
     public void enqueue(MediaItem item, ContentProvider provider, List<Episode> allEpisodes) {
         enqueue(item, provider, allEpisodes, null);
     }
@@ -69,7 +171,96 @@ public class DownloadManager {
         DownloadItem di = new DownloadItem(item, provider);
         di.setQuality(quality != null && !quality.isBlank() ? quality : defaultQuality);
         if (allEpisodes != null) di.setEpisodes(allEpisodes);
+        journal.enqueued(di);
+        track(di);
         Platform.runLater(() -> items.add(di));
+        if (isMovie(item)) {
+            // un film già in libreria non torna in coda (gli episodi delle serie si controllano in runDownload)
+            Tasks.start("library-check-" + di.getId(), () -> {
+                String provName = provider.getDisplayName();
+                Path have = inLibrary(provName, item, movieEpisode(item), expectedFile(downloadDir, provName, item, null, true));
+                if (have == null) return;
+                Platform.runLater(() -> {
+                    if (di.getStatus() != DownloadStatus.PENDING || scheduler.isQueued(di)) return;
+                    di.setStatus(DownloadStatus.COMPLETED);
+                    di.setProgress(1.0);
+                    di.setSpeed("Già in libreria: " + have.getFileName());
+                    journal.completed(di);
+                });
+            });
+        }
+    }
+
+    private static boolean isMovie(MediaItem item) {
+        String type = item.getType() == null ? "" : item.getType().toLowerCase();
+        return type.contains("film") || type.contains("movie");
+    }
+
+    /** Episodio fittizio con cui si scaricano i film. */
+    private static Episode movieEpisode(MediaItem item) {
+        return new Episode(item.getId(), "1", "1", item.getTitle());
+    }
+
+    /**
+     * File che il download dell'episodio scriverebbe nella cartella {@code out}, o null per i
+     * provider che usano una propria struttura di cartelle (RaiPlay, MediasetInfinity).
+     */
+    private static Path expectedFile(Path out, String providerName, MediaItem item, Episode ep, boolean isMovie) {
+        if ("RaiPlay".equals(providerName) || "MediasetInfinity".equals(providerName)) return null;
+        String fileName = isMovie
+                ? com.topent3r.multi.utils.FileNameFormatter.formatMovie(item.getTitle(), item.getYear())
+                : com.topent3r.multi.utils.FileNameFormatter.formatEpisode(item.getTitle(), ep.getSeason(), ep.getEpisode(), ep.getTitle());
+        return out.resolve(fileName);
+    }
+
+    /**
+     * File già scaricato per l'episodio, o null. Oltre alla libreria vale anche un file
+     * completo col nome atteso (scaricato prima che esistesse la libreria): viene registrato.
+     */
+    private Path inLibrary(String providerName, MediaItem item, Episode ep, Path expected) {
+        String key = LibraryIndex.key(providerName, item.getId(), ep);
+        Optional<Path> have = library.find(key, expected);
+        if (have.isPresent()) return have.get();
+        try {
+            // un file troncato col nome giusto non va adottato: si riscarica
+            if (expected != null && Files.isRegularFile(expected) && Files.size(expected) > 0
+                    && Integrity.looksComplete(expected)) {
+                library.record(key, expected);
+                return expected;
+            }
+        } catch (java.io.IOException e) {
+            Log.warn("library", "Impossibile leggere " + expected + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Verifica di un file completato: dimensione e struttura del contenitore. Un file non
+     * valido scritto da questo download ({@code ours}) si rinomina in "*.corrotto", così non
+     * passa per completo (né per la libreria) e il nome resta libero per il prossimo tentativo;
+     * gli altri (già in libreria) si segnalano soltanto. Ritorna il messaggio d'errore o null.
+     */
+    private static String verify(Path file, boolean ours) {
+        if (!Files.exists(file)) {
+            Log.error("verify", "VERIFICATION FAILED: File not found: " + file);
+            return "File non trovato: " + file.getFileName();
+        }
+        Integrity.Report r = Integrity.probe(file);
+        if (r.ok()) {
+            Log.info("verify", "VERIFICATION OK: " + file + " (" + r + ")");
+            return null;
+        }
+        Log.error("verify", "VERIFICATION FAILED: " + file + " (" + r + ")");
+        if (ours) {
+            try {
+                Path bad = file.resolveSibling(file.getFileName() + ".corrotto");
+                Files.move(file, bad, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                Log.info("verify", "Rinominato in " + bad.getFileName());
+            } catch (java.io.IOException e) {
+                Log.warn("verify", "Impossibile rinominare " + file + ": " + e.getMessage());
+            }
+        }
+        return "File danneggiato: " + r.detail();
     }
 
     public void startSelected(Collection<DownloadItem> selected) {
@@ -77,22 +268,60 @@ public class DownloadManager {
         for (DownloadItem di : selected) start(di);
     }
 
+    /** Mette l'elemento in coda di esecuzione: parte appena c'è uno slot (globale e per sito). */
     public void start(DownloadItem di) {
         if (di == null) return;
         if (di.getStatus() != DownloadStatus.PENDING) return;
-        String site = di.getItem().getSourceAlias();
-        synchronized (runningSites) {
-            if (runningSites.contains(site)) return;
-            runningSites.add(site);
+        if (scheduler.isQueued(di)) return;
+        di.setSpeed("In attesa di uno slot...");
+        scheduler.submit(di);
+    }
+
+    /** Chiamato dallo scheduler quando all'elemento viene assegnato uno slot. */
+    @SuppressWarnings("try") // il Log.Binding serve solo per la durata del blocco
+    private void launch(DownloadItem di) {
+        if (di.getStatus() != DownloadStatus.PENDING) {
+            // annullato mentre era in coda
+            scheduler.release(di);
+            return;
         }
+        String site = di.getItem().getSourceAlias();
         di.setStatus(DownloadStatus.RUNNING);
         di.setSpeed("...");
         di.setProgress(-1);
-        new Thread(() -> runDownload(di, site), "download-" + site + "-" + di.getId()).start();
+        journal.started(di);
+        Active a = new Active(Tasks.scope("download-" + site + "-" + di.getId()), new DownloadContext(site, di.getId()));
+        active.put(di.getId(), a);
+        a.scope().fork(() -> {
+            // site/item su tutte le righe di log del download, anche dai thread di segmenti e prefetch
+            try (Log.Binding b = Log.bind(site, di.getId())) {
+                runDownload(di, a.scope(), a.ctx());
+            } finally {
+                active.remove(di.getId(), a);
+            }
+        });
+    }
+
+    /**
+     * Attende la risoluzione anticipata dell'episodio, se era già partita, al più
+     * {@link #PREFETCH_WAIT_S} secondi: oltre si annulla e download() risolve da sé.
+     */
+    private static void awaitPrefetch(java.util.concurrent.Future<?> f) throws InterruptedException {
+        if (f == null) return;
+        try {
+            f.get(PREFETCH_WAIT_S, java.util.concurrent.TimeUnit.SECONDS);
+        } catch (java.util.concurrent.TimeoutException e) {
+            Log.warn("resolve", "Prefetch senza risposta dopo " + PREFETCH_WAIT_S + " s: annullato, risolvo durante il download");
+            f.cancel(true);
+        } catch (java.util.concurrent.ExecutionException | java.util.concurrent.CancellationException ignored) {
+            // gli errori del prefetch non bloccano: download() risolve da sé
+        }
     }
 
-    private void runDownload(DownloadItem di, String site) {
+    private void runDownload(DownloadItem di, Tasks.Scope scope, DownloadContext ctx) {
         boolean success = true;
+        String errorMsg = null;
+        // file già in libreria da riverificare a fine download (quelli scaricati ora si verificano subito)
         java.util.List<Path> downloadedFiles = new java.util.ArrayList<>();
         String providerName = di.getProvider().getDisplayName(); // Declare at method level
         try {
@@ -101,15 +330,15 @@ public class DownloadManager {
             MediaItem item = di.getItem();
             var eps = di.getSelectedEpisodes();
             
-            System.err.println("=== DownloadManager.runDownload called for: " + di.getTitle());
+            Log.info("download", "DownloadManager.runDownload called for: " + di.getTitle());
             
             String type = item.getType() == null ? "" : item.getType().toLowerCase();
-            boolean isMovie = type.contains("film") || type.contains("movie");
+            boolean isMovie = isMovie(item);
             
             // For movies, create a dummy episode
             if (isMovie && (eps == null || eps.isEmpty())) {
-                System.err.println("=== Detected MOVIE - creating dummy episode");
-                Episode dummyEp = new Episode(item.getId(), "1", "1", item.getTitle());
+                Log.info("download", "Detected MOVIE - creating dummy episode");
+                Episode dummyEp = movieEpisode(item);
                 di.getSelectedEpisodes().setAll(java.util.Collections.singletonList(dummyEp));
                 eps = di.getSelectedEpisodes();
             }
@@ -119,11 +348,11 @@ public class DownloadManager {
                 eps.removeIf(e -> e == null);
             }
             
-            System.err.println("=== Selected episodes count: " + (eps == null ? "null" : eps.size()));
+            Log.info("download", "Selected episodes count: " + (eps == null ? "null" : eps.size()));
             if (eps != null) {
                 for (Episode ep : eps) {
                     if (ep != null) {
-                        System.err.println("===   - " + ep + " (season=" + ep.getSeason() + ", episode=" + ep.getEpisode() + ", id=" + ep.getId() + ")");
+                        Log.info("download", "  - " + ep + " (season=" + ep.getSeason() + ", episode=" + ep.getEpisode() + ", id=" + ep.getId() + ")");
                     }
                 }
             }
@@ -135,132 +364,157 @@ public class DownloadManager {
                     Episode first = available.get(0);
                     di.getSelectedEpisodes().add(first);
                     eps = di.getSelectedEpisodes();
-                    System.err.println("=== Auto-selected first episode: " + first);
+                    Log.info("download", "Auto-selected first episode: " + first);
                 }
             }
             
             if (eps != null && !eps.isEmpty()) {
                 int total = eps.size();
                 int[] done = {0};
+                // gli episodi già in libreria non si riscaricano (né si risolvono in anticipo)
+                List<Episode> queue = new ArrayList<>();
                 for (Episode ep : eps) {
+                    Path have = inLibrary(providerName, item, ep, expectedFile(out, providerName, item, ep, isMovie));
+                    if (have == null) {
+                        queue.add(ep);
+                        continue;
+                    }
+                    Log.info("library", "Già in libreria, salto: " + ep + " -> " + have);
+                    downloadedFiles.add(have);
+                    journal.episodeDone(di, ep);
+                    done[0]++;
+                }
+                if (done[0] > 0) {
+                    progress.progress(di, (double) done[0] / total);
+                    progress.speed(di, done[0] + " episodi già in libreria");
+                }
+                Map<Integer, java.util.concurrent.Future<?>> prefetched = new HashMap<>();
+                for (int idx = 0; idx < queue.size(); idx++) {
+                    Episode ep = queue.get(idx);
                     try {
-                        System.err.println("=== Starting download for episode: " + ep);
+                        Log.info("download", "Starting download for episode: " + ep);
+
+                        // pipeline: i prossimi episodi si risolvono mentre questo scarica
+                        for (int j = idx + 1; j <= idx + PREFETCH_AHEAD && j < queue.size(); j++) {
+                            Episode next = queue.get(j);
+                            prefetched.computeIfAbsent(j, k -> scope.fork(() -> {
+                                try {
+                                    provider.prefetch(item, next, ctx);
+                                } catch (Exception e) {
+                                    Log.warn("resolve", "Prefetch fallito per " + next + ": " + e.getMessage());
+                                }
+                            }));
+                        }
+                        awaitPrefetch(prefetched.remove(idx));
 
                         if ("StreamingCommunity".equals(providerName)) {
                             updateConfigQuality(di.getQuality());
                         }
                         
                         // Use callback version to get progress updates
+                        Path[] reported = {null};
                         provider.download(item, ep, out, new ContentProvider.DownloadCallback() {
                             @Override
                             public void onProgress(String message) {
-                                Platform.runLater(() -> di.setSpeed(message));
+                                progress.speed(di, message);
                             }
                             @Override
                             public void onSpeed(String speed) {
-                                Platform.runLater(() -> di.setSpeed("⚡ " + speed));
+                                progress.speed(di, "⚡ " + speed);
+                            }
+                            @Override
+                            public void onFraction(double fraction) {
+                                double f = Math.max(0.0, Math.min(1.0, fraction));
+                                progress.progress(di, (done[0] + f) / total);
+                            }
+                            @Override
+                            public void onFile(Path file) {
+                                reported[0] = file;
                             }
-                        });
+                        }, ctx);
                         
-                        System.err.println("=== Download completed for episode: " + ep);
+                        Log.info("download", "Download completed for episode: " + ep);
                         
-                        // Track expected file path for verification
-                        String fileName;
-                        if (isMovie) {
-                            fileName = com.topent3r.multi.utils.FileNameFormatter.formatMovie(item.getTitle(), item.getYear());
+                        // verificato subito: un episodio troncato non finisce in libreria. Solo il file
+                        // di questo episodio (nome atteso o indicato dal provider), mai altri nella cartella
+                        Path written = expectedFile(out, providerName, item, ep, isMovie);
+                        if (written == null) written = reported[0];
+                        if (written != null) {
+                            String invalid = verify(written, true);
+                            if (invalid != null) throw new java.io.IOException(invalid);
+                            library.record(LibraryIndex.key(providerName, item.getId(), ep), written,
+                                    ctx.checksum(written));
                         } else {
-                            // RaiPlay uses format: 01x01 - Episode Title.mp4
-                            if ("RaiPlay".equals(providerName)) {
-                                String seasonStr = String.format("%02d", Integer.parseInt(ep.getSeason()));
-                                String episodeStr = String.format("%02d", Integer.parseInt(ep.getEpisode()));
-                                fileName = seasonStr + "x" + episodeStr + " - " + ep.getTitle() + ".mp4";
-                            } else {
-                                fileName = com.topent3r.multi.utils.FileNameFormatter.formatEpisode(item.getTitle(), ep.getSeason(), ep.getEpisode(), ep.getTitle());
-                            }
+                            Log.info("verify", providerName + ": file dell'episodio non indicato, niente verifica");
                         }
-                        Path expectedFile = out.resolve(fileName);
-                        downloadedFiles.add(expectedFile);
+                        journal.episodeDone(di, ep);
                         
                         done[0]++;
                         double prog = (double) done[0] / total;
                         double val = prog >= 1.0 ? 1.0 : Math.max(0.0, Math.min(1.0, prog));
-                        double finalVal = val;
-                        Platform.runLater(() -> {
-                            di.setProgress(finalVal);
-                            di.setSpeed("");  // Clear speed on completion
-                        });
+                        progress.progress(di, val);
+                        progress.speed(di, "");  // Clear speed on completion
                     } catch (Exception ex) {
                         success = false;
                         String msg = ex.getMessage();
-                        System.err.println("=== Download FAILED for episode " + ep + ": " + msg);
-                        ex.printStackTrace();
-                        Platform.runLater(() -> di.setSpeed(msg == null ? "Errore" : ("Errore: " + msg)));
+                        errorMsg = msg == null ? "Errore" : ("Errore: " + msg);
+                        Log.error("download", "Download FAILED for episode " + ep + ": " + msg, ex);
+                        progress.speed(di, errorMsg);
                         break;
                     }
                 }
+                // gli errori per episodio sono gestiti nel ciclo: qui restano solo i prefetch non usati
+                prefetched.values().forEach(f -> f.cancel(true));
             } else {
-                System.err.println("=== ERROR: No episodes selected after auto-selection attempt!");
+                Log.error("download", "No episodes selected after auto-selection attempt!");
                 success = false;
-                Platform.runLater(() -> di.setSpeed("Errore: Nessun episodio selezionato"));
+                errorMsg = "Errore: Nessun episodio selezionato";
+                progress.speed(di, errorMsg);
             }
         } finally {
-            synchronized (runningSites) {
-                runningSites.remove(site);
-            }
             
-            // Verify downloaded files actually exist
+            // Verifica finale: gli episodi scaricati ora sono già passati da verify(); qui restano
+            // quelli trovati in libreria, che non sono di questo download e non si rinominano
             boolean filesExist = true;
-            
-            // Skip verification for RaiPlay/MediasetInfinity - they manage their own folder structure and filenames
-            boolean skipVerification = "RaiPlay".equals(providerName) || "MediasetInfinity".equals(providerName);
+            String invalid = null;
 
-            if (skipVerification) {
-                System.err.println("=== Skipping file verification for " + providerName + " (uses custom folder structure)");
-            } else if (success && !downloadedFiles.isEmpty()) {
+            if (success && !ctx.isCancelled()) {
                 for (Path file : downloadedFiles) {
-                    if (!java.nio.file.Files.exists(file)) {
-                        System.err.println("=== VERIFICATION FAILED: File not found: " + file);
+                    if (!Files.exists(file) || (invalid = verify(file, false)) != null) {
+                        if (invalid == null) invalid = "File non trovato: " + file.getFileName();
                         filesExist = false;
-                    } else {
-                        try {
-                            long size = java.nio.file.Files.size(file);
-                            System.err.println("=== VERIFICATION OK: " + file + " (size=" + size + " bytes)");
-                            if (size == 0) {
-                                System.err.println("=== VERIFICATION FAILED: File is empty: " + file);
-                                filesExist = false;
-                            }
-                        } catch (Exception e) {
-                            System.err.println("=== VERIFICATION ERROR: " + e.getMessage());
-                            filesExist = false;
-                        }
+                        break;
                     }
                 }
             }
             
             boolean ok = success && filesExist;
             final boolean finalFilesExist = filesExist;
-            Platform.runLater(() -> {
-                di.setStatus(ok ? DownloadStatus.COMPLETED : DownloadStatus.FAILED);
+            final String finalInvalid = invalid;
+            boolean canceled = di.getStatus() == DownloadStatus.CANCELED || ctx.isCancelled();
+            if (canceled) {
+                // già registrato da cancel(); qui i downloader sono fermi e i parziali si possono toccare
+                cleanupPartials(ctx);
+            } else if (ok) {
+                journal.completed(di);
+            } else {
+                journal.failed(di, filesExist ? errorMsg : "Errore: " + invalid);
+            }
+            if (!canceled) {
+                // il messaggio finale passa dall'aggregatore: nessun valore in volo può coprirlo
                 if (ok) {
-                    di.setSpeed(""); // Clear speed on success
+                    progress.speed(di, ""); // Clear speed on success
                 } else if (!finalFilesExist) {
-                    di.setSpeed("Errore: File non trovato o vuoto");
+                    progress.speed(di, "Errore: " + finalInvalid);
                 }
                 // su errore lascia il messaggio per debug
-            });
-            // trigger next pending for this site
-            triggerNext(site);
-        }
-    }
-
-    private void triggerNext(String site) {
-        DownloadItem next = null;
-        for (DownloadItem it : items) {
-            if (site.equals(it.getItem().getSourceAlias()) && it.getStatus() == DownloadStatus.PENDING) {
-                next = it; break;
+                Platform.runLater(() -> di.setStatus(ok ? DownloadStatus.COMPLETED : DownloadStatus.FAILED));
             }
+            // lo slot passa subito al prossimo in coda
+            scheduler.release(di);
+            // le serie per elemento servono solo mentre scarica (i totali per sito restano)
+            Metrics.getInstance().removeLabeled("item", di.getId());
         }
-        if (next != null) start(next);
     }
 
     public void cancelSelected(Collection<DownloadItem> selected) {
@@ -270,24 +524,55 @@ public class DownloadManager {
 
     public void cancel(DownloadItem di) {
         if (di == null) return;
-        String site = di.getItem().getSourceAlias();
         
         if (di.getStatus() == DownloadStatus.RUNNING) {
-            // Mark as canceled and free the site for next download
+            // Mark as canceled and free the slot for next download
             di.setStatus(DownloadStatus.CANCELED);
+            progress.discard(di);
             di.setSpeed("Annullato dall'utente");
-            synchronized (runningSites) {
-                runningSites.remove(site);
+            journal.canceled(di);
+            Active a = active.get(di.getId());
+            if (a != null) {
+                // prima le risorse (chiamate HTTP, processi), poi i thread
+                a.ctx().getToken().cancel();
+                a.scope().cancel();
             }
-            // Trigger next pending download for this site
-            triggerNext(site);
+            scheduler.release(di);
         } else if (di.getStatus() == DownloadStatus.PENDING) {
+            scheduler.withdraw(di);
             di.setStatus(DownloadStatus.CANCELED);
             di.setSpeed("Annullato");
+            journal.canceled(di);
         }
     }
 
+    /** Parziali lasciati dal download annullato: si tengono solo quelli ripristinabili, se richiesto. */
+    private void cleanupPartials(DownloadContext ctx) {
+        ctx.partials().forEach((file, resumable) -> {
+            if (resumable && keepPartialOnCancel) return;
+            try {
+                if (java.nio.file.Files.deleteIfExists(file)) Log.info("cleanup", "Rimosso parziale: " + file);
+            } catch (java.io.IOException e) {
+                Log.warn("cleanup", "Impossibile rimuovere " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Chiusura dell'app: scrive quello che journal e libreria tengono ancora in attesa. */
+    public void shutdown() {
+        journal.flush();
+        library.flush();
+    }
+
     public void removeCompleted() {
-        items.removeIf(di -> di.getStatus() == DownloadStatus.COMPLETED || di.getStatus() == DownloadStatus.CANCELED || di.getStatus() == DownloadStatus.FAILED);
+        items.removeIf(di -> {
+            boolean done = di.getStatus() == DownloadStatus.COMPLETED || di.getStatus() == DownloadStatus.CANCELED || di.getStatus() == DownloadStatus.FAILED;
+            if (done) {
+                journal.removed(di);
+                progress.discard(di);
+                BandwidthScheduler.getInstance().setItemLimit(di.getId(), 0);
+            }
+            return done;
+        });
     }
 }
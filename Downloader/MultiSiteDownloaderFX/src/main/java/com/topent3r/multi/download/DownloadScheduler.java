@@ -0,0 +1,149 @@
+package com.topent3r.multi.download;
+
+import com.topent3r.multi.utils.Log;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Slot di esecuzione dei download: limite globale, limite per sito e priorità.
+ *
+ * Gli elementi avviati finiscono in una coda per sito ordinata per priorità
+ * (poi per ordine di arrivo). Appena uno slot si libera si sceglie, tra le teste
+ * delle code dei siti che hanno ancora posto, quella con priorità più alta:
+ * il costo dipende dal numero di siti, non dalla lunghezza della coda.
+ */
+class DownloadScheduler {
+
+    private record Ticket(DownloadItem item, int priority, long seq) {}
+
+    private static final Comparator<Ticket> ORDER = Comparator
+            .comparingInt((Ticket t) -> -t.priority)
+            .thenComparingLong(Ticket::seq);
+
+    private final Consumer<DownloadItem> launcher;
+    private final Map<String, TreeSet<Ticket>> queues = new HashMap<>();
+    private final Map<String, Ticket> queued = new HashMap<>();          // id -> ticket
+    private final Map<String, String> running = new HashMap<>();         // id -> sito
+    private final Map<String, Integer> runningPerSite = new HashMap<>();
+    private final Map<String, Integer> siteLimits = new HashMap<>();
+    private final Map<String, String> providerNames = new HashMap<>(); // sito -> display name del provider
+    private int globalLimit = 4;
+    private int defaultSiteLimit = 2;
+    private long seq;
+
+    /** @param launcher avvia davvero il download; chiamato fuori dal lock dello scheduler */
+    DownloadScheduler(Consumer<DownloadItem> launcher) {
+        this.launcher = launcher;
+    }
+
+    void setLimits(int global, int perSite, Map<String, Integer> perSiteOverrides) {
+        synchronized (this) {
+            globalLimit = Math.max(1, global);
+            defaultSiteLimit = Math.max(1, perSite);
+            siteLimits.clear();
+            if (perSiteOverrides != null) perSiteOverrides.forEach((k, v) -> siteLimits.put(k, Math.max(1, v)));
+        }
+        dispatch();
+    }
+
+    /** Mette in coda l'elemento; parte subito se c'è uno slot libero. */
+    void submit(DownloadItem di) {
+        synchronized (this) {
+            if (queued.containsKey(di.getId()) || running.containsKey(di.getId())) return;
+            Ticket t = new Ticket(di, di.getPriority(), seq++);
+            queued.put(di.getId(), t);
+            queues.computeIfAbsent(site(di), k -> new TreeSet<>(ORDER)).add(t);
+            providerNames.putIfAbsent(site(di), di.getProvider().getDisplayName());
+        }
+        dispatch();
+    }
+
+    /** Toglie dalla coda un elemento non ancora partito. */
+    synchronized boolean withdraw(DownloadItem di) {
+        Ticket t = queued.remove(di.getId());
+        if (t == null) return false;
+        TreeSet<Ticket> q = queues.get(site(di));
+        if (q != null) q.remove(t);
+        return true;
+    }
+
+    /** Riposiziona un elemento in coda dopo un cambio di priorità (mantiene l'ordine di arrivo). */
+    synchronized void reprioritize(DownloadItem di) {
+        Ticket t = queued.get(di.getId());
+        if (t == null) return;
+        TreeSet<Ticket> q = queues.get(site(di));
+        q.remove(t);
+        Ticket nt = new Ticket(di, di.getPriority(), t.seq());
+        q.add(nt);
+        queued.put(di.getId(), nt);
+    }
+
+    synchronized boolean isQueued(DownloadItem di) {
+        return queued.containsKey(di.getId());
+    }
+
+    /** Libera lo slot dell'elemento (idempotente) e lo riassegna subito. */
+    void release(DownloadItem di) {
+        synchronized (this) {
+            String site = running.remove(di.getId());
+            if (site == null) return;
+            runningPerSite.merge(site, -1, Integer::sum);
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        List<DownloadItem> toLaunch = new ArrayList<>();
+        synchronized (this) {
+            while (running.size() < globalLimit) {
+                Ticket best = null;
+                String bestSite = null;
+                for (Map.Entry<String, TreeSet<Ticket>> e : queues.entrySet()) {
+                    if (e.getValue().isEmpty()) continue;
+                    if (runningPerSite.getOrDefault(e.getKey(), 0) >= limitFor(e.getKey())) continue;
+                    Ticket head = e.getValue().first();
+                    if (best == null || ORDER.compare(head, best) < 0) {
+                        best = head;
+                        bestSite = e.getKey();
+                    }
+                }
+                if (best == null) break;
+                queues.get(bestSite).pollFirst();
+                queued.remove(best.item().getId());
+                running.put(best.item().getId(), bestSite);
+                runningPerSite.merge(bestSite, 1, Integer::sum);
+                toLaunch.add(best.item());
+            }
+        }
+        for (DownloadItem di : toLaunch) launcher.accept(di);
+    }
+
+    /** Limite del sito: eccezione per alias o per nome del provider, altrimenti il default. */
+    private int limitFor(String site) {
+        Integer l = siteLimits.get(site);
+        if (l == null) l = siteLimits.get(providerNames.get(site));
+        return l != null ? l : defaultSiteLimit;
+    }
+
+    private static String site(DownloadItem di) {
+        String s = di.getItem().getSourceAlias();
+        return s == null ? "" : s;
+    }
+
+    /** "StreamingCommunity=1;RaiPlay=3" → mappa sito/limite; voci non valide ignorate. */
+    static Map<String, Integer> parseSiteLimits(String spec) {
+        Map<String, Integer> out = new HashMap<>();
+        if (spec == null) return out;
+        for (String part : spec.split("[;\\n]")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0) continue;
+            try {
+                out.put(part.substring(0, eq).trim(), Integer.parseInt(part.substring(eq + 1).trim()));
+            } catch (NumberFormatException e) {
+                Log.warn("scheduler", "limite download per sito non valido: '" + part.trim() + "'");
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,323 @@
+package com.topent3r.multi.download;
+
+import com.topent3r.multi.utils.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Verifica dei file scaricati, in due momenti.
+ *
+ * Durante il trasferimento i downloader passano i byte a un {@link Hasher}: SHA-256 calcolato
+ * mentre si scrive (nessuna rilettura) e confronto dei byte ricevuti con Content-Length.
+ *
+ * A file chiuso {@link #probe(Path)} legge la struttura del contenitore senza decodificare:
+ * <ul>
+ *   <li>MP4: i box di primo livello devono stare tutti nel file, ci deve essere il moov e i
+ *       campioni delle tracce (stsz/stco) devono cadere dentro i dati (mdat) presenti;</li>
+ *   <li>MPEG-TS: pacchetti da 188 byte tutti interi e con il byte di sync, e timestamp (DTS,
+ *       altrimenti PTS) della prima traccia che non tornano indietro. I salti grandi, in avanti
+ *       o indietro, sono discontinuità (#EXT-X-DISCONTINUITY: pubblicità, programmi cuciti):
+ *       si annotano e si riparte da lì.</li>
+ * </ul>
+ * Altri formati non si verificano (risultato positivo con nota).
+ */
+public final class Integrity {
+
+    private static final int TS_PACKET = 188;
+    private static final long PTS_WRAP = 1L << 33;
+    // oltre questo salto fra due timestamp della stessa traccia (90 kHz) è una discontinuità
+    private static final long MAX_PTS_GAP = 10 * 90_000L;
+    // moov più grandi di così non si leggono in memoria (si controllano solo i box)
+    private static final long MAX_MOOV = 64L * 1024 * 1024;
+
+    private Integrity() {}
+
+    /** Esito della verifica del contenitore. */
+    public record Report(boolean ok, String container, String detail) {
+        static Report ok(String container, String detail) { return new Report(true, container, detail); }
+        static Report bad(String container, String detail) { return new Report(false, container, detail); }
+
+        @Override
+        public String toString() {
+            return container + (ok ? " OK" : " NON VALIDO") + (detail.isEmpty() ? "" : ": " + detail);
+        }
+    }
+
+    // ---------- durante il download ----------
+
+    /** SHA-256 e conteggio dei byte di un trasferimento sequenziale. */
+    public static final class Hasher {
+        private final MessageDigest md;
+        private long bytes;
+
+        public Hasher() {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public void update(byte[] b, int off, int len) {
+            md.update(b, off, len);
+            bytes += len;
+        }
+
+        public long bytes() { return bytes; }
+
+        /** Digest esadecimale; chiude il calcolo. */
+        public String hex() { return HexFormat.of().formatHex(md.digest()); }
+
+        /** Errore se la risposta dichiarava una lunghezza ({@code expected} &gt;= 0) diversa dai byte ricevuti. */
+        public void checkLength(long expected, String url) throws IOException {
+            Integrity.checkLength(expected, bytes, url);
+        }
+    }
+
+    /** Errore se sono arrivati meno (o più) byte di quelli dichiarati; {@code expected} &lt; 0 = non noto. */
+    public static void checkLength(long expected, long received, String what) throws IOException {
+        if (expected >= 0 && expected != received) {
+            throw new IOException("Download troncato: ricevuti " + received + " byte su " + expected + " (" + what + ")");
+        }
+    }
+
+    // ---------- a file chiuso ----------
+
+    /** Verifica strutturale del file (non lancia: gli errori di lettura diventano un esito negativo). */
+    public static Report probe(Path file) {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return Report.bad("?", "file vuoto");
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, TS_PACKET + 1));
+            readFully(ch, head, 0);
+            byte[] h = head.array();
+            if (looksLikeMp4(h)) return probeMp4(ch, size);
+            if (h[0] == 0x47 && (size <= TS_PACKET || h[TS_PACKET] == 0x47)) return probeTs(ch, size);
+            return Report.ok("?", "formato non riconosciuto, non verificato");
+        } catch (IOException e) {
+            return Report.bad("?", "lettura fallita: " + e.getMessage());
+        }
+    }
+
+    private static boolean looksLikeMp4(byte[] h) {
+        if (h.length < 8) return false;
+        String type = new String(h, 4, 4, StandardCharsets.ISO_8859_1);
+        return switch (type) {
+            case "ftyp", "styp", "moov", "mdat", "free", "skip", "wide" -> true;
+            default -> false;
+        };
+    }
+
+    // ---------- MP4 ----------
+
+    private static Report probeMp4(FileChannel ch, long size) throws IOException {
+        ByteBuffer hdr = ByteBuffer.allocate(16);
+        long pos = 0;
+        long moovAt = -1, moovSize = 0;
+        long mdatStart = -1, mdatEnd = -1, mdatPayload = 0;
+        boolean fragmented = false;
+        while (pos < size) {
+            if (size - pos < 8) return Report.bad("MP4", (size - pos) + " byte spuri in coda al file");
+            hdr.clear().limit(8);
+            readFully(ch, hdr, pos);
+            long boxSize = hdr.getInt(0) & 0xFFFFFFFFL;
+            String type = new String(hdr.array(), 4, 4, StandardCharsets.ISO_8859_1);
+            int headerLen = 8;
+            if (boxSize == 1) {
+                if (size - pos < 16) return Report.bad("MP4", "box '" + type + "' troncato");
+                hdr.clear().limit(16);
+                readFully(ch, hdr, pos);
+                boxSize = hdr.getLong(8);
+                headerLen = 16;
+            } else if (boxSize == 0) {
+                boxSize = size - pos; // fino alla fine del file
+            }
+            if (boxSize < headerLen) return Report.bad("MP4", "box '" + type + "' con dimensione non valida a " + pos);
+            if (pos + boxSize > size) {
+                return Report.bad("MP4", "box '" + type + "' troncato: mancano " + (pos + boxSize - size) + " byte");
+            }
+            switch (type) {
+                case "moov" -> { moovAt = pos + headerLen; moovSize = boxSize - headerLen; }
+                case "moof" -> fragmented = true;
+                case "mdat" -> {
+                    if (mdatStart < 0) mdatStart = pos + headerLen;
+                    mdatEnd = pos + boxSize;
+                    mdatPayload += boxSize - headerLen;
+                }
+                default -> { }
+            }
+            pos += boxSize;
+        }
+        if (moovAt < 0) return Report.bad("MP4", "manca il box moov");
+        if (fragmented || moovSize > MAX_MOOV) {
+            return Report.ok("MP4", fragmented ? "frammentato, box completi" : "box completi");
+        }
+
+        ByteBuffer moov = ByteBuffer.allocate((int) moovSize);
+        readFully(ch, moov, moovAt);
+        SampleTables t = new SampleTables();
+        walk(moov, 0, (int) moovSize, t);
+        if (t.tracks == 0) return Report.bad("MP4", "moov senza tracce");
+        if (t.sampleBytes > mdatPayload) {
+            return Report.bad("MP4", "dati incompleti: le tracce dichiarano " + t.sampleBytes
+                    + " byte, nel file ce ne sono " + mdatPayload);
+        }
+        if (t.maxChunkOffset >= 0 && (t.maxChunkOffset < mdatStart || t.maxChunkOffset >= mdatEnd)) {
+            return Report.bad("MP4", "chunk a " + t.maxChunkOffset + " fuori dai dati (mdat " + mdatStart + "-" + mdatEnd + ")");
+        }
+        return Report.ok("MP4", t.tracks + " tracce, " + t.samples + " campioni");
+    }
+
+    private static final class SampleTables {
+        int tracks;
+        long samples;
+        long sampleBytes;
+        long maxChunkOffset = -1;
+    }
+
+    /** Scende nei contenitori moov/trak/mdia/minf/stbl raccogliendo stsz e stco/co64. */
+    private static void walk(ByteBuffer b, int from, int to, SampleTables t) {
+        int pos = from;
+        while (pos + 8 <= to) {
+            long size = b.getInt(pos) & 0xFFFFFFFFL;
+            String type = new String(b.array(), pos + 4, 4, StandardCharsets.ISO_8859_1);
+            int header = 8;
+            if (size == 1 && pos + 16 <= to) {
+                size = b.getLong(pos + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = to - pos;
+            }
+            if (size < header || pos + size > to) return;
+            int body = pos + header;
+            int end = (int) (pos + size);
+            switch (type) {
+                case "trak" -> { t.tracks++; walk(b, body, end, t); }
+                case "mdia", "minf", "stbl" -> walk(b, body, end, t);
+                case "stsz" -> {
+                    if (body + 12 <= end) {
+                        long sampleSize = b.getInt(body + 4) & 0xFFFFFFFFL;
+                        long count = b.getInt(body + 8) & 0xFFFFFFFFL;
+                        t.samples += count;
+                        if (sampleSize != 0) {
+                            t.sampleBytes += sampleSize * count;
+                        } else {
+                            for (int i = body + 12; i + 4 <= end && count-- > 0; i += 4) t.sampleBytes += b.getInt(i) & 0xFFFFFFFFL;
+                        }
+                    }
+                }
+                case "stco", "co64" -> {
+                    if (body + 8 <= end) {
+                        long count = b.getInt(body + 4) & 0xFFFFFFFFL;
+                        int w = "co64".equals(type) ? 8 : 4;
+                        for (int i = body + 8; i + w <= end && count-- > 0; i += w) {
+                            long off = w == 8 ? b.getLong(i) : b.getInt(i) & 0xFFFFFFFFL;
+                            if (off > t.maxChunkOffset) t.maxChunkOffset = off;
+                        }
+                    }
+                }
+                default -> { }
+            }
+            pos = end;
+        }
+    }
+
+    // ---------- MPEG-TS ----------
+
+    private static Report probeTs(FileChannel ch, long size) throws IOException {
+        if (size % TS_PACKET != 0) {
+            return Report.bad("TS", "ultimo pacchetto incompleto (" + (size % TS_PACKET) + " byte su " + TS_PACKET + ")");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(TS_PACKET * 5461); // ~1 MB
+        byte[] a = buf.array();
+        long packets = 0;
+        int pid = -1;          // traccia di riferimento: primo PES video, altrimenti il primo PES
+        boolean pidIsVideo = false;
+        long last = -1;
+        int discontinuities = 0;
+        long pos = 0;
+        while (pos < size) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), size - pos));
+            readFully(ch, buf, pos);
+            int n = buf.limit();
+            for (int p = 0; p < n; p += TS_PACKET, packets++) {
+                if (a[p] != 0x47) return Report.bad("TS", "sync perso al pacchetto " + packets);
+                boolean start = (a[p + 1] & 0x40) != 0;
+                if (!start) continue;
+                int thisPid = ((a[p + 1] & 0x1F) << 8) | (a[p + 2] & 0xFF);
+                int afc = (a[p + 3] >> 4) & 0x3;
+                if ((afc & 1) == 0) continue; // niente payload
+                int q = p + 4;
+                if (afc == 3) q += 1 + (a[q] & 0xFF);
+                if (q + 14 > p + TS_PACKET) continue;
+                if (a[q] != 0 || a[q + 1] != 0 || a[q + 2] != 1) continue; // non è l'inizio di un PES
+                int streamId = a[q + 3] & 0xFF;
+                boolean video = streamId >= 0xE0 && streamId <= 0xEF;
+                boolean audio = streamId >= 0xC0 && streamId <= 0xDF;
+                if (!video && !audio) continue;
+                if (pid < 0 || (video && !pidIsVideo)) {
+                    pid = thisPid;
+                    pidIsVideo = video;
+                    last = -1;
+                }
+                if (thisPid != pid) continue;
+                int flags = (a[q + 7] >> 6) & 0x3;
+                if (flags == 0 || flags == 1) continue;
+                // con B-frame i PTS video non sono monotoni: si segue il DTS quando c'è
+                long ts = timestamp(a, flags == 3 && q + 19 <= p + TS_PACKET ? q + 14 : q + 9);
+                if (last >= 0) {
+                    long delta = Math.floorMod(ts - last, PTS_WRAP);
+                    long back = PTS_WRAP - delta;   // di quanto torna indietro, se delta è oltre metà giro
+                    if (delta < PTS_WRAP / 2 ? delta > MAX_PTS_GAP : back > MAX_PTS_GAP) {
+                        // discontinuità (splice, timestamp ripartiti): nuova base da qui
+                        discontinuities++;
+                        Log.info("verify", String.format("TS: discontinuità di %+.1f s al pacchetto %d",
+                                (delta < PTS_WRAP / 2 ? delta : -back) / 90_000.0, packets));
+                    } else if (delta >= PTS_WRAP / 2) {
+                        return Report.bad("TS", String.format("timestamp indietro di %.2f s al pacchetto %d",
+                                back / 90_000.0, packets));
+                    }
+                }
+                last = ts;
+            }
+            pos += n;
+        }
+        if (pid < 0) return Report.ok("TS", packets + " pacchetti, nessun PES audio/video riconosciuto");
+        return Report.ok("TS", packets + " pacchetti, timestamp continui"
+                + (discontinuities > 0 ? " (" + discontinuities + " discontinuità)" : ""));
+    }
+
+    private static long timestamp(byte[] a, int i) {
+        return ((long) (a[i] & 0x0E) << 29)
+                | ((long) (a[i + 1] & 0xFF) << 22)
+                | ((long) (a[i + 2] & 0xFE) << 14)
+                | ((long) (a[i + 3] & 0xFF) << 7)
+                | ((a[i + 4] & 0xFE) >> 1);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + buf.position());
+            if (n < 0) throw new IOException("Fine del file inattesa a " + (pos + buf.position()));
+        }
+    }
+
+    /** true se il file esiste ed è verificabile come completo (usato per adottare file già presenti). */
+    public static boolean looksComplete(Path file) {
+        try {
+            return Files.isRegularFile(file) && Files.size(file) > 0 && probe(file).ok();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.topent3r.multi.download;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.topent3r.multi.model.Episode;
+import com.topent3r.multi.utils.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Libreria dei download completati (~/.topent3r/library.json): per provider, id del
+ * contenuto, stagione ed episodio tiene il file scritto, la sua dimensione e un'impronta
+ * veloce del contenuto. Il DownloadManager la consulta prima di scaricare un episodio:
+ * se il file c'è ancora (o si ritrova nella cartella di download) l'episodio si salta.
+ *
+ * L'impronta ({@link #fingerprint}) è SHA-1 della dimensione e di tre campioni da 1 MB
+ * (inizio, metà, fine): costa poche letture anche su file da decine di GB e basta a
+ * distinguere due video diversi con lo stesso nome.
+ */
+public final class LibraryIndex {
+
+    private static final int SAMPLE = 1024 * 1024;
+
+    private static final LibraryIndex INSTANCE =
+            new LibraryIndex(Paths.get(System.getProperty("user.home"), ".topent3r", "library.json"));
+
+    /** Voce della libreria: file completato e come riconoscerlo. */
+    public static final class Entry {
+        String path;
+        long size;
+        String hash;
+        String sha256;   // del file intero, se calcolato durante il download
+        long completedAt;
+
+        public Path path() { return Paths.get(path); }
+        public long size() { return size; }
+        public String hash() { return hash; }
+        public String sha256() { return sha256; }
+    }
+
+    private final Path file;
+    private final Gson gson = new Gson();
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-index");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+    private boolean loaded;
+
+    LibraryIndex(Path file) {
+        this.file = file;
+    }
+
+    public static LibraryIndex getInstance() { return INSTANCE; }
+
+    /** Chiave della libreria; per i film l'episodio fittizio creato dal DownloadManager. */
+    public static String key(String provider, String mediaId, Episode ep) {
+        String season = ep == null ? "" : nz(ep.getSeason());
+        String episode = ep == null ? "" : nz(ep.getEpisode());
+        return nz(provider) + "|" + nz(mediaId) + "|" + season + "|" + episode;
+    }
+
+    /**
+     * File già scaricato per la chiave, se esiste ancora con la stessa dimensione.
+     * Se è stato spostato ma {@code expected} (il nome che il download scriverebbe)
+     * ha lo stesso contenuto, la voce viene ricollegata a quel file.
+     */
+    public synchronized Optional<Path> find(String key, Path expected) {
+        ensureLoaded();
+        Entry e = entries.get(key);
+        if (e == null) return Optional.empty();
+        Path p = e.path();
+        if (sizeOf(p) == e.size) return Optional.of(p);
+        if (expected != null && !expected.equals(p) && sizeOf(expected) == e.size) {
+            try {
+                if (e.hash.equals(fingerprint(expected))) {
+                    Log.info("library", key + " ricollegato a " + expected);
+                    e.path = expected.toAbsolutePath().toString();
+                    scheduleSave();
+                    return Optional.of(expected);
+                }
+            } catch (IOException ex) {
+                Log.warn("library", "Impossibile leggere " + expected + ": " + ex.getMessage());
+            }
+        }
+        // il file non c'è più: la voce non serve
+        entries.remove(key);
+        scheduleSave();
+        return Optional.empty();
+    }
+
+    /** Registra (o aggiorna) il file completato per la chiave. Calcola l'impronta: non dal thread FX. */
+    public void record(String key, Path completed) {
+        record(key, completed, null);
+    }
+
+    /** Come sopra, con lo SHA-256 completo se il downloader l'ha calcolato in streaming. */
+    public void record(String key, Path completed, String sha256) {
+        long size = sizeOf(completed);
+        if (size <= 0) return;
+        String hash;
+        try {
+            hash = fingerprint(completed);
+        } catch (IOException ex) {
+            Log.warn("library", "Impronta non calcolata per " + completed + ": " + ex.getMessage());
+            return;
+        }
+        Entry e = new Entry();
+        e.path = completed.toAbsolutePath().toString();
+        e.size = size;
+        e.hash = hash;
+        e.sha256 = sha256;
+        e.completedAt = System.currentTimeMillis();
+        synchronized (this) {
+            ensureLoaded();
+            entries.put(key, e);
+        }
+        scheduleSave();
+    }
+
+    /** true se i due file hanno la stessa dimensione e la stessa impronta. */
+    public static boolean sameContent(Path a, Path b) {
+        long size = sizeOf(a);
+        if (size <= 0 || size != sizeOf(b)) return false;
+        try {
+            return fingerprint(a).equals(fingerprint(b));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Impronta veloce: SHA-1 di dimensione + primo, centrale e ultimo MB del file. */
+    public static String fingerprint(Path p) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            md.update(ByteBuffer.allocate(8).putLong(0, size));
+            ByteBuffer buf = ByteBuffer.allocate(SAMPLE);
+            // file piccoli: tutto il contenuto; altrimenti i tre campioni (si sovrappongono sotto i 3 MB)
+            long[] offsets = size <= SAMPLE
+                    ? new long[] { 0 }
+                    : new long[] { 0, size / 2 - SAMPLE / 2, size - SAMPLE };
+            for (long off : offsets) {
+                buf.clear();
+                if (size < SAMPLE) buf.limit((int) size);
+                while (buf.hasRemaining()) {
+                    int n = ch.read(buf, off + buf.position());
+                    if (n < 0) break;
+                }
+                buf.flip();
+                md.update(buf);
+            }
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private static long sizeOf(Path p) {
+        try {
+            return p != null && Files.isRegularFile(p) ? Files.size(p) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static String nz(String s) { return s == null ? "" : s.trim(); }
+
+    // ---------- persistenza ----------
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!Files.exists(file)) return;
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Map<String, Entry> m = gson.fromJson(r, new TypeToken<Map<String, Entry>>() {}.getType());
+            if (m != null) entries.putAll(m);
+        } catch (IOException | JsonParseException e) {
+            Log.warn("library", "Lettura fallita: " + e.getMessage());
+        }
+    }
+
+    /** Salvataggio ancora in attesa scritto subito (chiusura dell'app: il thread di scrittura è daemon). */
+    void flush() {
+        Future<?> done = writer.submit(() -> {
+            if (saveScheduled.get()) save();
+        });
+        try {
+            done.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Log.warn("library", "Scrittura finale non completata: " + e);
+        }
+    }
+
+    /** Le registrazioni arrivano a raffica a fine stagione: si riscrive il file una volta sola. */
+    private void scheduleSave() {
+        if (saveScheduled.compareAndSet(false, true)) {
+            writer.schedule(this::save, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private void save() {
+        saveScheduled.set(false);
+        String json;
+        synchronized (this) {
+            json = gson.toJson(entries);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(json);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("library", "Scrittura fallita: " + e.getMessage());
+        }
+    }
+}
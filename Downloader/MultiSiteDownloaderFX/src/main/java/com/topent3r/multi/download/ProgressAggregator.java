@@ -0,0 +1,111 @@
+package com.topent3r.multi.download;
+
+import javafx.application.Platform;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Progresso e velocità dei download verso la tabella, a frequenza fissa.
+ *
+ * I thread di download scrivono solo l'ultimo valore nello slot dell'elemento (senza lock,
+ * sovrascrivendo quello precedente) e lo segnano come cambiato. Un timer a {@link #FRAME_MS}
+ * pubblica con un solo Platform.runLater tutti gli slot cambiati dall'ultimo frame: con 20
+ * trasferimenti attivi sono al più 10 runnable al secondo invece di centinaia, e si aggiornano
+ * solo le righe che hanno valori nuovi. Se il thread FX è in ritardo il frame successivo non
+ * si accoda: i valori intanto si sovrascrivono e partono col primo frame libero.
+ */
+final class ProgressAggregator {
+
+    static final long FRAME_MS = 100; // 10 Hz
+
+    // valore "nessun progresso da pubblicare" (i progressi validi sono in [-1, 1])
+    private static final long NO_PROGRESS = Double.doubleToRawLongBits(Double.NaN);
+
+    private static final class Slot {
+        final DownloadItem di;
+        final AtomicLong progress = new AtomicLong(NO_PROGRESS);
+        final AtomicReference<String> speed = new AtomicReference<>();
+        final AtomicBoolean dirty = new AtomicBoolean();
+
+        Slot(DownloadItem di) { this.di = di; }
+    }
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final Queue<Slot> changed = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean frameQueued = new AtomicBoolean();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "download-progress");
+        t.setDaemon(true);
+        return t;
+    });
+
+    ProgressAggregator() {
+        timer.scheduleAtFixedRate(this::tick, FRAME_MS, FRAME_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Avanzamento 0..1 (-1 = indeterminato); vale l'ultimo arrivato prima del frame. */
+    void progress(DownloadItem di, double value) {
+        Slot s = slot(di);
+        s.progress.set(Double.doubleToRawLongBits(value));
+        markChanged(s);
+    }
+
+    /** Testo della colonna velocità/messaggi. */
+    void speed(DownloadItem di, String text) {
+        Slot s = slot(di);
+        s.speed.set(text == null ? "" : text);
+        markChanged(s);
+    }
+
+    /** Scarta i valori non ancora pubblicati (es. annullamento: il messaggio finale lo mette il chiamante). */
+    void discard(DownloadItem di) {
+        Slot s = slots.remove(di.getId());
+        if (s == null) return;
+        s.progress.set(NO_PROGRESS);
+        s.speed.set(null);
+    }
+
+    private Slot slot(DownloadItem di) {
+        return slots.computeIfAbsent(di.getId(), k -> new Slot(di));
+    }
+
+    private void markChanged(Slot s) {
+        if (s.dirty.compareAndSet(false, true)) changed.add(s);
+    }
+
+    private void tick() {
+        if (changed.isEmpty() || !frameQueued.compareAndSet(false, true)) return;
+        try {
+            Platform.runLater(this::publish);
+        } catch (IllegalStateException e) {
+            // toolkit non avviato o già chiuso
+            frameQueued.set(false);
+        }
+    }
+
+    /** Sul thread FX: applica l'ultimo stato di ogni slot cambiato. */
+    private void publish() {
+        frameQueued.set(false);
+        Slot s;
+        while ((s = changed.poll()) != null) {
+            // prima il flag: un valore scritto da qui in poi rimette lo slot in coda per il frame dopo
+            s.dirty.set(false);
+            long p = s.progress.getAndSet(NO_PROGRESS);
+            String text = s.speed.getAndSet(null);
+            DownloadItem di = s.di;
+            // dopo l'annullamento i callback in volo non devono coprire "Annullato"
+            if (di.getStatus() == DownloadStatus.CANCELED) continue;
+            if (p != NO_PROGRESS) di.setProgress(Double.longBitsToDouble(p));
+            if (text != null) di.setSpeed(text);
+        }
+    }
+}
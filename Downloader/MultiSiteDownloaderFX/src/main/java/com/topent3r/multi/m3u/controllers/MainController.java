@@ -1,17 +1,24 @@
 package com.topent3r.multi.m3u.controllers;
 
 import com.topent3r.multi.m3u.models.Channel;
+import com.topent3r.multi.m3u.models.ChannelStore;
+import com.topent3r.multi.m3u.services.ChannelFilter;
+import com.topent3r.multi.m3u.services.ChannelFingerprints;
+import com.topent3r.multi.m3u.services.ChannelSearchIndex;
 import com.topent3r.multi.m3u.services.M3UParser;
+import com.topent3r.multi.m3u.services.PlaylistCache;
 import com.topent3r.multi.m3u.utils.SettingsManager;
 import com.topent3r.multi.m3u.utils.SettingsManager.Settings;
 import com.topent3r.multi.model.MediaItem;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.services.M3UProvider;
 import com.topent3r.multi.download.DownloadManager;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Tasks;
 
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
-import javafx.collections.FXCollections;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
@@ -19,7 +26,6 @@ import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.stage.DirectoryChooser;
@@ -32,12 +38,16 @@ import javafx.scene.control.TableView;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class MainController {
 
@@ -49,15 +59,37 @@ public class MainController {
     @FXML private Tab tabAllTab, tabLiveTab, tabVodTab;
     @FXML private TableView<Channel> tableAll, tableLive, tableVod;
 
-    private final ObservableList<Channel> allData  = FXCollections.observableArrayList();
-    private final ObservableList<Channel> liveData = FXCollections.observableArrayList();
-    private final ObservableList<Channel> vodData  = FXCollections.observableArrayList();
+    // un solo store compatto per la playlist; i tre tab sono filtri sulla stessa lista
+    private final ChannelStore store = new ChannelStore();
+    private final ObservableList<Channel> allData = store.asList();
 
     // Wrap per filtro + sort (freccia ↑↓ visibile e funzionante)
     private FilteredList<Channel> allFiltered, liveFiltered, vodFiltered;
     private SortedList<Channel>   allSorted,   liveSorted,   vodSorted;
 
+    private static final int BATCH_SIZE = 5000;
+    private static final int PENDING_BATCHES = 4;
+    // righe rimosse oltre cui lo store si ricompatta (almeno un quarto del totale)
+    private static final int COMPACT_MIN_REMOVED = 1000;
+
     private final M3UParser parser = new M3UParser();
+    private Task<?> loadTask;
+    private Task<?> reindexTask;
+
+    // ricerca: indice costruito durante il caricamento, query fuori dal thread FX,
+    // una per volta; quelle superate da un tasto successivo si interrompono
+    private volatile ChannelSearchIndex index = new ChannelSearchIndex();
+    private final ExecutorService searchExecutor = Tasks.newBoundedExecutor("m3u-search", 1);
+    private final AtomicLong searchGen = new AtomicLong();
+    private ChannelSearchIndex.Result lastResult;
+    private String lastQuery = "";
+
+    // ricarica: copia su disco per il GET condizionale, impronte di ciò che è a video per il diff
+    private enum LoadKind { DOWNLOADED, FROM_CACHE, UNCHANGED, UPDATED }
+    private record LoadResult(LoadKind kind, int channels, int added, int[] removed, ChannelFingerprints fingerprints) {}
+    private final PlaylistCache playlistCache = new PlaylistCache();
+    private String shownUrl;
+    private ChannelFingerprints shownFingerprints;   // null se a video non c'è una playlist completa
     private final SettingsManager settingsManager = new SettingsManager();
     private Settings settings;
 
@@ -77,8 +109,8 @@ public class MainController {
 
         // --- Filtered + Sorted (mostra frecce e mantiene sort con filtro) ---
         allFiltered  = new FilteredList<>(allData, c -> true);
-        liveFiltered = new FilteredList<>(liveData, c -> true);
-        vodFiltered  = new FilteredList<>(vodData, c -> true);
+        liveFiltered = new FilteredList<>(allData, c -> !c.isVod());
+        vodFiltered  = new FilteredList<>(allData, Channel::isVod);
 
         allSorted  = new SortedList<>(allFiltered);
         liveSorted = new SortedList<>(liveFiltered);
@@ -138,13 +170,13 @@ public class MainController {
 
         // ID (allineato a sinistra, comparatore numerico)
         TableColumn<Channel, String> cId = new TableColumn<>("ID");
-        cId.setCellValueFactory(new PropertyValueFactory<>("id"));
+        cId.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().getId()));
         cId.setPrefWidth(90);
         cId.setStyle("-fx-alignment: CENTER-LEFT;"); // ⬅️ CENTER-LEFT
         cId.setSortable(true);
         cId.setComparator((a,b) -> {
-            boolean da = a != null && a.matches("\\d+");
-            boolean db = b != null && b.matches("\\d+");
+            boolean da = isDigits(a);
+            boolean db = isDigits(b);
             if (da && db) return Long.compare(Long.parseLong(a), Long.parseLong(b));
             if (da) return -1;
             if (db) return 1;
@@ -153,7 +185,7 @@ public class MainController {
 
         // Nome (A–Z/Z–A case-insensitive)
         TableColumn<Channel, String> cName = new TableColumn<>("Nome");
-        cName.setCellValueFactory(new PropertyValueFactory<>("name"));
+        cName.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().getName()));
         cName.setPrefWidth(320);
         cName.setSortable(true);
         cName.setComparator((a,b) ->
@@ -161,7 +193,7 @@ public class MainController {
 
         // Gruppo
         TableColumn<Channel, String> cGroup = new TableColumn<>("Gruppo");
-        cGroup.setCellValueFactory(new PropertyValueFactory<>("group"));
+        cGroup.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().getGroup()));
         cGroup.setPrefWidth(240);
         cGroup.setSortable(true);
         cGroup.setComparator((a,b) ->
@@ -169,7 +201,7 @@ public class MainController {
 
         // Logo (immagine 24x24; no sort)
         TableColumn<Channel, String> cLogo = new TableColumn<>("Logo");
-        cLogo.setCellValueFactory(new PropertyValueFactory<>("logo"));
+        cLogo.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().getLogo()));
         cLogo.setPrefWidth(64);
         cLogo.setSortable(false);
         cLogo.setCellFactory(col -> new TableCell<>() {
@@ -192,7 +224,7 @@ public class MainController {
 
         // URL
         TableColumn<Channel, String> cUrl = new TableColumn<>("URL");
-        cUrl.setCellValueFactory(new PropertyValueFactory<>("url"));
+        cUrl.setCellValueFactory(cd -> new ReadOnlyStringWrapper(cd.getValue().getUrl()));
         cUrl.setPrefWidth(520);
         cUrl.setSortable(true);
 
@@ -261,35 +293,193 @@ public class MainController {
         settings.lastUrl = url;
         try { settingsManager.save(settings); } catch (IOException ignore) {}
 
-        allData.clear(); liveData.clear(); vodData.clear();
-        status("Scarico playlist...");
+        if (loadTask != null) loadTask.cancel(true);
+
+        // stessa playlist già a video e caricata per intero: si chiede solo se è cambiata
+        // e, se sì, si aggiornano i canali aggiunti/rimossi invece di ricaricare tutto
+        // con l'indice ancora a metà dopo una compattazione si ricarica da zero
+        boolean reindexing = reindexTask != null;
+        if (reindexing) reindexTask.cancel(true);
+        reindexTask = null;
+        ChannelFingerprints base = url.equals(shownUrl) && !reindexing ? shownFingerprints : null;
+        shownUrl = url;
+        shownFingerprints = null;
+        ChannelSearchIndex idx;
+        if (base == null) {
+            store.clear();
+            idx = new ChannelSearchIndex();
+            index = idx;
+            applySearchFilter(true);
+        } else {
+            idx = index;
+        }
+        int firstNewRow = store.size();
+        status(base == null ? "Scarico playlist..." : "Controllo aggiornamenti playlist...");
+
+        // i blocchi arrivano in tabella mentre la playlist si scarica; al più
+        // PENDING_BATCHES in attesa del thread FX, poi il parser si ferma ad aspettare
+        Semaphore pending = new Semaphore(PENDING_BATCHES);
+        Task<LoadResult> task = new Task<>() {
+            private void deliver(List<Channel> batch) {
+                idx.addAll(batch);
+                try {
+                    pending.acquire();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                Platform.runLater(() -> {
+                    try {
+                        if (!isCancelled()) addBatch(batch);
+                    } finally {
+                        pending.release();
+                    }
+                });
+            }
 
-        Task<List<Channel>> task = new Task<>() {
-            @Override protected List<Channel> call() throws Exception {
-                String content = parser.download(url);
-                return parser.parse(content);
+            @Override protected LoadResult call() throws Exception {
+                PlaylistCache.Validators cached = playlistCache.validators(url);
+                ChannelFingerprints partial;
+                int nextRow;
+                try (M3UParser.Fetch fetch = parser.open(url, cached)) {
+                    if (fetch.notModified() && base != null) {
+                        return new LoadResult(LoadKind.UNCHANGED, base.size(), 0, new int[0], base);
+                    }
+                    if (!fetch.notModified()) return download(fetch, base, firstNewRow);
+                    // invariata sul server ma non a video: dalla copia su disco, senza parse
+                    ChannelFingerprints fp = new ChannelFingerprints();
+                    int[] row = {firstNewRow};
+                    try {
+                        int n = playlistCache.read(url, BATCH_SIZE, batch -> {
+                            for (Channel ch : batch) fp.add(ch, row[0]++);
+                            deliver(batch);
+                        });
+                        idx.compact();
+                        return new LoadResult(LoadKind.FROM_CACHE, n, n, new int[0], fp);
+                    } catch (InterruptedIOException ex) {
+                        throw ex;
+                    } catch (IOException ex) {
+                        // read() ha già tolto copia e validatori; le righe già a video fanno da base
+                        Log.warn("m3u", "cache playlist illeggibile, riscarico per intero: " + ex.getMessage());
+                        partial = fp;
+                        nextRow = row[0];
+                    }
+                }
+                try (M3UParser.Fetch fetch = parser.open(url, null)) {
+                    LoadResult r = download(fetch, partial, nextRow);
+                    return new LoadResult(LoadKind.DOWNLOADED, r.channels(), r.added(), r.removed(), r.fingerprints());
+                }
+            }
+
+            /** Playlist dal server: in tabella (solo le differenze se c'è {@code known}) e nella cache. */
+            private LoadResult download(M3UParser.Fetch fetch, ChannelFingerprints known, int nextRow) throws IOException {
+                try (PlaylistCache.Writer writer = playlistCache.writer(url, fetch.validators())) {
+                    LoadResult result;
+                    if (known != null) {
+                        ChannelFingerprints.Diff diff = known.diff(nextRow);
+                        int n = fetch.stream(BATCH_SIZE, batch -> {
+                            write(writer, batch);
+                            List<Channel> added = new ArrayList<>();
+                            for (Channel ch : batch) if (diff.accept(ch)) added.add(ch);
+                            if (!added.isEmpty()) deliver(added);
+                        });
+                        result = new LoadResult(LoadKind.UPDATED, n, diff.added(), diff.removed(), diff.result());
+                    } else {
+                        ChannelFingerprints fp = new ChannelFingerprints();
+                        int[] row = {nextRow};
+                        int n = fetch.stream(BATCH_SIZE, batch -> {
+                            write(writer, batch);
+                            for (Channel ch : batch) fp.add(ch, row[0]++);
+                            deliver(batch);
+                        });
+                        result = new LoadResult(LoadKind.DOWNLOADED, n, n, new int[0], fp);
+                    }
+                    writer.commit();
+                    idx.compact();
+                    return result;
+                }
             }
         };
+        loadTask = task;
 
         task.setOnSucceeded(ev -> {
-            List<Channel> list = task.getValue();
-            allData.addAll(list);
-            liveData.addAll(list.stream().filter(ch -> !ch.isVod()).collect(Collectors.toList()));
-            vodData.addAll(list.stream().filter(Channel::isVod).collect(Collectors.toList()));
-            applySearchFilter();
+            LoadResult r = task.getValue();
+            store.markRemoved(r.removed());
+            shownFingerprints = r.fingerprints();
+            int removed = store.removedCount();
+            if (removed >= COMPACT_MIN_REMOVED && removed * 4L >= store.size()) compactStore();
 
             // sort default VOD: ID ↓
-            if (idColVod != null) {
+            if (idColVod != null && r.kind() != LoadKind.UNCHANGED) {
                 idColVod.setSortType(TableColumn.SortType.DESCENDING);
                 tableVod.getSortOrder().setAll(idColVod);
                 tableVod.sort();
             }
 
-            status("Caricati " + list.size() + " elementi.");
+            status(switch (r.kind()) {
+                case UNCHANGED -> "Playlist invariata (" + r.channels() + " elementi).";
+                case FROM_CACHE -> "Caricati " + r.channels() + " elementi (playlist invariata, dalla cache).";
+                case UPDATED -> "Playlist aggiornata: " + r.added() + " nuovi, " + r.removed().length
+                        + " rimossi (" + r.channels() + " elementi).";
+                case DOWNLOADED -> "Caricati " + r.channels() + " elementi.";
+            });
+            // ora la query attiva può usare l'indice completo
+            if (r.kind() != LoadKind.UNCHANGED) applySearchFilter(true);
+        });
+
+        task.setOnFailed(ev -> status("Errore: " + (task.getException()!=null ? task.getException().getMessage() : "sconosciuto")
+                + (allData.isEmpty() ? "" : " (caricati " + allData.size() + " elementi)")));
+        Tasks.start("m3u-loader", Tasks.LOADS, task);
+    }
+
+    /**
+     * Troppe righe rimaste come rimosse dopo le ricariche: lo store si ricostruisce senza,
+     * le impronte seguono le nuove righe e l'indice si rifà in background (intanto le righe
+     * non ancora indicizzate passano dal confronto diretto).
+     */
+    private void compactStore() {
+        int before = store.size();
+        int[] map = store.compact();
+        if (shownFingerprints != null) shownFingerprints.remap(map);
+        ChannelSearchIndex idx = new ChannelSearchIndex();
+        index = idx;
+        lastResult = null;
+        applySearchFilter(true);
+
+        List<Channel> rows = store.snapshot();
+        Task<Void> task = new Task<>() {
+            @Override protected Void call() {
+                for (int from = 0; from < rows.size() && !isCancelled(); from += BATCH_SIZE) {
+                    idx.addAll(rows.subList(from, Math.min(rows.size(), from + BATCH_SIZE)));
+                }
+                idx.compact();
+                return null;
+            }
+        };
+        task.setOnSucceeded(ev -> {
+            if (reindexTask != task) return;
+            reindexTask = null;
+            if (idx == index) applySearchFilter(true);
         });
+        task.setOnFailed(ev -> { if (reindexTask == task) reindexTask = null; });
+        reindexTask = task;
+        Tasks.start("m3u-reindex", Tasks.LOADS, task);
+        Log.info("m3u", "store compattato: " + before + " -> " + store.size() + " righe");
+    }
+
+    /** La copia su disco si scrive dallo stesso flusso, senza rileggere la playlist. */
+    private static void write(PlaylistCache.Writer writer, List<Channel> batch) {
+        try {
+            writer.write(batch);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 
-        task.setOnFailed(ev -> status("Errore: " + (task.getException()!=null ? task.getException().getMessage() : "sconosciuto")));
-        new Thread(task, "loader").start();
+    /** Aggiunge un blocco di canali allo store (thread FX); i tre tab lo vedono dai filtri. */
+    private void addBatch(List<Channel> batch) {
+        store.addAll(batch);
+        status("Caricamento... " + store.size() + " elementi");
     }
 
     @FXML
@@ -314,22 +504,56 @@ public class MainController {
         }
     }
 
-    @FXML private void onSearchChanged() { applySearchFilter(); }
+    @FXML private void onSearchChanged() { applySearchFilter(false); }
+
+    private void applySearchFilter(boolean force) {
+        String q = (searchField.getText()==null ? "" : searchField.getText()).trim();
+        if (!force && q.equals(lastQuery)) return;   // tasti che non cambiano il testo
+        lastQuery = q;
+        long gen = searchGen.incrementAndGet();
+        ChannelSearchIndex idx = index;
+        // l'ultimo risultato completato: se la query lo allunga, si restringe quello
+        ChannelSearchIndex.Result prev = lastResult;
+
+        // query vuota: niente da cercare, si filtra solo per tipo
+        if (q.isEmpty()) {
+            lastResult = null;
+            setFilter(ch -> true);
+            return;
+        }
+        // playlist ancora vuota (caricamento appena partito): le righe arriveranno dal confronto diretto
+        if (idx.size() == 0) {
+            setFilter(ChannelFilter.textMatch(q));
+            return;
+        }
 
-    private void applySearchFilter() {
-        String q = (searchField.getText()==null ? "" : searchField.getText()).toLowerCase().trim();
-        Predicate<Channel> pred = ch ->
-                safe(ch.getId()).contains(q)   ||
-                safe(ch.getName()).contains(q) ||
-                safe(ch.getGroup()).contains(q)||
-                safe(ch.getUrl()).contains(q);
+        searchExecutor.execute(() -> {
+            if (gen != searchGen.get()) return;
+            ChannelSearchIndex.Result r = idx.search(q, prev, () -> gen != searchGen.get());
+            if (r == null) return;
+            Platform.runLater(() -> {
+                if (gen != searchGen.get() || idx != index) return;
+                lastResult = r;
+                // righe già indicizzate: un bit; quelle arrivate dopo la ricerca: confronto diretto
+                setFilter(ChannelFilter.indexed(r, ChannelFilter.textMatch(q)));
+            });
+        });
+    }
 
+    private void setFilter(Predicate<Channel> query) {
+        Predicate<Channel> pred = ChannelFilter.visible(query);
         if (allFiltered  != null) allFiltered.setPredicate(pred);
-        if (liveFiltered != null) liveFiltered.setPredicate(pred);
-        if (vodFiltered  != null) vodFiltered.setPredicate(pred);
+        if (liveFiltered != null) liveFiltered.setPredicate(ch -> !ch.isVod() && pred.test(ch));
+        if (vodFiltered  != null) vodFiltered.setPredicate(ch -> ch.isVod() && pred.test(ch));
     }
 
-    private static String safe(String s){ return s==null ? "" : s.toLowerCase(); }
+    private static boolean isDigits(String s) {
+        if (s == null || s.isEmpty()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
 
     private TableView<Channel> currentTable() {
         if (tabLiveTab.isSelected()) return tableLive;
@@ -354,9 +578,11 @@ public class MainController {
         status("Aggiunta " + selected.size() + " canali al tab Downloads...");
         
         // Aggiungi ogni canale come MediaItem al DownloadManager
-        new Thread(() -> {
+        Tasks.start("m3u-add-downloads", () -> {
             try {
-                for (Channel channel : selected) {
+                for (Channel row : selected) {
+                    // copia staccata dallo store: la coda download sopravvive al prossimo caricamento
+                    Channel channel = row.detach();
                     // Registra il canale nel provider
                     provider.registerChannel(channel);
                     
@@ -369,6 +595,7 @@ public class MainController {
                         channel.getGroup(),
                         null  // year
                     );
+                    item.setUrl(channel.getUrl());
                     
                     // Crea singolo "episode" per il canale
                     Episode ep = new Episode(channel.getId(), "1", "1", channel.getName());
@@ -391,7 +618,7 @@ public class MainController {
                     status("Errore: " + ex.getMessage());
                 });
             }
-        }, "m3u-add-downloads").start();
+        });
     }
 
     private List<Channel> getSelectedOrAllCurrent() {
@@ -1,6 +1,10 @@
 package com.topent3r.multi.m3u.models;
 
-/** POJO usato dalla TableView con PropertyValueFactory. */
+/**
+ * POJO usato dalla TableView con PropertyValueFactory.
+ * Le righe di una playlist caricata sono viste su un {@link ChannelStore}: leggono i
+ * campi dallo store solo quando servono (sottoclasse con i getter ridefiniti).
+ */
 public class Channel {
     private final String id;
     private final String name;
@@ -20,6 +24,11 @@ public class Channel {
         this.vod = vod;
     }
 
+    /** Per le viste su uno store, che non hanno campi propri. */
+    protected Channel() {
+        this(null, null, null, null, null, null, false);
+    }
+
     public String getId()    { return id; }
     public String getName()  { return name; }
     public String getGroup() { return group; }
@@ -27,4 +36,9 @@ public class Channel {
     public String getTvgId() { return tvgId; }
     public String getLogo()  { return logo; }
     public boolean isVod()   { return vod; }
+
+    /** Copia indipendente (per chi tiene il canale più a lungo della playlist, es. la coda download). */
+    public Channel detach() {
+        return new Channel(getId(), getName(), getGroup(), getUrl(), getTvgId(), getLogo(), isVod());
+    }
 }
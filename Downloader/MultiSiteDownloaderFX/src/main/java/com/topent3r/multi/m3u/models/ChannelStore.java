@@ -0,0 +1,374 @@
+package com.topent3r.multi.m3u.models;
+
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canali di una playlist in forma compatta, per liste IPTV da milioni di voci.
+ *
+ * Invece di un oggetto con sette String per canale:
+ * <ul>
+ *   <li>gruppi e prefissi di URL/logo ("http://host/movie/user/pass/") sono in dizionari,
+ *       per riga resta solo un int;</li>
+ *   <li>gli id numerici (quasi tutti) stanno in un long[]; tvg-id uguale all'id non si ripete;</li>
+ *   <li>nome, coda dell'URL e del logo ed eventuali id testuali sono UTF-8 in un unico byte[],
+ *       uno dopo l'altro con la lunghezza davanti.</li>
+ * </ul>
+ * {@link #asList()} espone le righe come {@link Channel} creati al volo (viste da pochi
+ * byte che decodificano il campo quando la tabella lo chiede). Lo store si usa dal
+ * thread FX, come le liste che lo osservano.
+ *
+ * Un canale sparito da una playlist ricaricata viene solo segnato come rimosso
+ * ({@link #markRemoved}) e le viste filtrate lo nascondono; quando i rimossi diventano
+ * troppi {@link #compact()} ricostruisce lo store senza, rinumerando le righe.
+ */
+public final class ChannelStore {
+
+    private static final int F_VOD = 1;
+    private static final int F_TVG_IS_ID = 2;
+    private static final int F_TEXT_ID = 4;
+    private static final int F_REMOVED = 8;
+
+    private final Dictionary groups = new Dictionary();
+    private final Dictionary prefixes = new Dictionary();
+    private Columns cols = new Columns();
+    private final Rows rows = new Rows();
+
+    public int size() { return cols.size; }
+
+    /** Lista osservabile delle righe; le aggiunte e {@link #clear()} vengono notificate. */
+    public ObservableList<Channel> asList() { return rows; }
+
+    public void addAll(List<Channel> batch) {
+        if (batch.isEmpty()) return;
+        int from = cols.size;
+        for (Channel ch : batch) add(ch);
+        rows.added(from, cols.size);
+    }
+
+    /** Svuota lo store. Le viste già distribuite restano valide (puntano alle colonne vecchie). */
+    public void clear() {
+        if (cols.size == 0) return;
+        Columns old = cols;
+        groups.clear();
+        prefixes.clear();
+        cols = new Columns();
+        rows.removed(old);
+    }
+
+    /** Segna le righe come rimosse; le liste filtrate le rivalutano (evento di update). */
+    public void markRemoved(int[] rowsToRemove) {
+        if (rowsToRemove.length == 0) return;
+        Columns c = cols;
+        rows.beginUpdate();
+        for (int r : rowsToRemove) {
+            if (r < 0 || r >= c.size || (c.flags[r] & F_REMOVED) != 0) continue;
+            c.flags[r] |= F_REMOVED;
+            c.removed++;
+            rows.updated(r);
+        }
+        rows.endUpdate();
+    }
+
+    /** Righe segnate come rimosse ancora presenti nello store. */
+    public int removedCount() { return cols.removed; }
+
+    /**
+     * Ricostruisce lo store senza le righe rimosse (notificato come sostituzione completa).
+     * Restituisce per ogni riga vecchia la nuova posizione, -1 per quelle tolte.
+     */
+    public int[] compact() {
+        Columns old = cols;
+        int[] map = new int[old.size];
+        groups.clear();
+        prefixes.clear();
+        cols = new Columns();
+        for (int r = 0; r < old.size; r++) {
+            if ((old.flags[r] & F_REMOVED) != 0) {
+                map[r] = -1;
+            } else {
+                map[r] = cols.size;
+                add(new View(old, r));
+            }
+        }
+        rows.replaced(old);
+        return map;
+    }
+
+    /**
+     * Righe presenti ora, su una copia ferma delle colonne: si leggono anche da un altro
+     * thread mentre il thread FX continua ad aggiungere righe (vedi {@link Columns#Columns(Columns)}).
+     * Va chiamato dal thread FX e passato al lettore con un happens-before (avvio del thread o del Task).
+     */
+    public List<Channel> snapshot() {
+        Columns c = new Columns(cols);
+        int n = c.size;
+        return new AbstractList<>() {
+            @Override public Channel get(int i) { return new View(c, i); }
+            @Override public int size() { return n; }
+        };
+    }
+
+    /** true se {@code ch} è una riga di store segnata come rimossa. */
+    public static boolean isRemoved(Channel ch) {
+        return ch instanceof View v && (v.c.flags[v.row] & F_REMOVED) != 0;
+    }
+
+    /** Indice della riga se {@code ch} è una vista di uno store, altrimenti -1. */
+    public static int rowOf(Channel ch) {
+        return ch instanceof View v ? v.row : -1;
+    }
+
+    /** Byte occupati dalle colonne (stima per il log), dizionari esclusi. */
+    public long footprint() {
+        Columns c = cols;
+        return (long) c.arena.length + c.flags.length + 8L * c.numericId.length
+                + 4L * (c.recordAt.length + c.group.length + c.urlPrefix.length + c.logoPrefix.length);
+    }
+
+    private void add(Channel ch) {
+        Columns c = cols;
+        c.ensureRow();
+        int row = c.size;
+        String id = nz(ch.getId());
+        String tvg = nz(ch.getTvgId());
+        String url = nz(ch.getUrl());
+        String logo = nz(ch.getLogo());
+        int cutUrl = url.lastIndexOf('/') + 1;
+        int cutLogo = logo.lastIndexOf('/') + 1;
+
+        long numeric = parseId(id);
+        int flags = (ch.isVod() ? F_VOD : 0) | (tvg.equals(id) ? F_TVG_IS_ID : 0) | (numeric < 0 ? F_TEXT_ID : 0);
+        c.flags[row] = (byte) flags;
+        c.numericId[row] = numeric;
+        c.group[row] = groups.code(nz(ch.getGroup()));
+        c.urlPrefix[row] = prefixes.code(url.substring(0, cutUrl));
+        c.logoPrefix[row] = prefixes.code(logo.substring(0, cutLogo));
+        c.recordAt[row] = c.arenaSize;
+        c.put(nz(ch.getName()));
+        c.put(url.substring(cutUrl));
+        c.put(logo.substring(cutLogo));
+        if ((flags & F_TVG_IS_ID) == 0) c.put(tvg);
+        if ((flags & F_TEXT_ID) != 0) c.put(id);
+        c.size++;
+    }
+
+    /** Id decimale senza zeri iniziali che sta in un long, altrimenti -1 (va nell'arena come testo). */
+    private static long parseId(String id) {
+        int n = id.length();
+        if (n == 0 || n > 18 || (n > 1 && id.charAt(0) == '0')) return -1;
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            char ch = id.charAt(i);
+            if (ch < '0' || ch > '9') return -1;
+            v = v * 10 + (ch - '0');
+        }
+        return v;
+    }
+
+    private static String nz(String s) { return s == null ? "" : s; }
+
+    /** Colonne di una generazione dello store: crescono solo in coda, le righe scritte non cambiano (salvo il flag di rimozione). */
+    private final class Columns {
+        int size;
+        int removed;
+        int[] recordAt;
+        int[] group;
+        int[] urlPrefix;
+        int[] logoPrefix;
+        long[] numericId;
+        byte[] flags;
+        byte[] arena;
+        int arenaSize;
+        // i dizionari di questa generazione (clear() ne crea di nuovi solo per le righe future)
+        final List<String> groupNames;
+        final List<String> prefixNames;
+
+        Columns() {
+            recordAt = new int[1024];
+            group = new int[1024];
+            urlPrefix = new int[1024];
+            logoPrefix = new int[1024];
+            numericId = new long[1024];
+            flags = new byte[1024];
+            arena = new byte[64 * 1024];
+            groupNames = groups.names;
+            prefixNames = prefixes.names;
+        }
+
+        /**
+         * Copia ferma di {@code src} per i lettori di altri thread. Gli array sono condivisi:
+         * le aggiunte successive scrivono solo oltre {@code size}/{@code arenaSize}, oppure in
+         * array nuovi (ensureRow). I dizionari invece crescono sul posto, quindi si copiano.
+         */
+        Columns(Columns src) {
+            size = src.size;
+            removed = src.removed;
+            recordAt = src.recordAt;
+            group = src.group;
+            urlPrefix = src.urlPrefix;
+            logoPrefix = src.logoPrefix;
+            numericId = src.numericId;
+            flags = src.flags;
+            arena = src.arena;
+            arenaSize = src.arenaSize;
+            groupNames = List.copyOf(src.groupNames);
+            prefixNames = List.copyOf(src.prefixNames);
+        }
+
+        void ensureRow() {
+            if (size < recordAt.length) return;
+            int cap = recordAt.length * 2;
+            recordAt = Arrays.copyOf(recordAt, cap);
+            group = Arrays.copyOf(group, cap);
+            urlPrefix = Arrays.copyOf(urlPrefix, cap);
+            logoPrefix = Arrays.copyOf(logoPrefix, cap);
+            numericId = Arrays.copyOf(numericId, cap);
+            flags = Arrays.copyOf(flags, cap);
+        }
+
+        void put(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            ensureArena(b.length + 5);
+            int len = b.length;
+            while (len >= 0x80) {
+                arena[arenaSize++] = (byte) (len | 0x80);
+                len >>>= 7;
+            }
+            arena[arenaSize++] = (byte) len;
+            System.arraycopy(b, 0, arena, arenaSize, b.length);
+            arenaSize += b.length;
+        }
+
+        private void ensureArena(int extra) {
+            long need = (long) arenaSize + extra;
+            if (need <= arena.length) return;
+            if (need > Integer.MAX_VALUE - 8) throw new IllegalStateException("Playlist troppo grande per la memoria");
+            arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(need, arena.length * 2L)));
+        }
+
+        /** Campo {@code index} del record della riga (0 nome, 1 coda URL, 2 coda logo, 3.. tvg-id/id). */
+        String field(int row, int index) {
+            int p = recordAt[row];
+            for (int i = 0; ; i++) {
+                int len = 0, shift = 0;
+                byte b;
+                do {
+                    b = arena[p++];
+                    len |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                if (i == index) return new String(arena, p, len, StandardCharsets.UTF_8);
+                p += len;
+            }
+        }
+
+        String id(int row) {
+            if ((flags[row] & F_TEXT_ID) == 0) return Long.toString(numericId[row]);
+            return field(row, (flags[row] & F_TVG_IS_ID) != 0 ? 3 : 4);
+        }
+
+        String tvgId(int row) {
+            return (flags[row] & F_TVG_IS_ID) != 0 ? id(row) : field(row, 3);
+        }
+    }
+
+    /** Vista su una riga: nessun campo copiato, solo colonne e indice. */
+    private static final class View extends Channel {
+        private final Columns c;
+        private final int row;
+
+        View(Columns c, int row) {
+            this.c = c;
+            this.row = row;
+        }
+
+        @Override public String getId()    { return c.id(row); }
+        @Override public String getName()  { return c.field(row, 0); }
+        @Override public String getGroup() { return c.groupNames.get(c.group[row]); }
+        @Override public String getUrl()   { return c.prefixNames.get(c.urlPrefix[row]) + c.field(row, 1); }
+        @Override public String getTvgId() { return c.tvgId(row); }
+        @Override public String getLogo()  { return c.prefixNames.get(c.logoPrefix[row]) + c.field(row, 2); }
+        @Override public boolean isVod()   { return (c.flags[row] & F_VOD) != 0; }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof View v && v.c == c && v.row == row;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(c) * 31 + row;
+        }
+    }
+
+    private static final class Dictionary {
+        private Map<String, Integer> codes = new HashMap<>();
+        private List<String> names = new ArrayList<>();
+
+        int code(String s) {
+            Integer c = codes.get(s);
+            if (c != null) return c;
+            names.add(s);
+            codes.put(s, names.size() - 1);
+            return names.size() - 1;
+        }
+
+        /** Nuove strutture, non svuotate: le colonne vecchie continuano a usare le loro. */
+        void clear() {
+            codes = new HashMap<>();
+            names = new ArrayList<>();
+        }
+    }
+
+    private final class Rows extends ObservableListBase<Channel> {
+        @Override
+        public Channel get(int index) {
+            if (index < 0 || index >= cols.size) throw new IndexOutOfBoundsException(index);
+            return new View(cols, index);
+        }
+
+        @Override
+        public int size() { return cols.size; }
+
+        void added(int from, int to) {
+            beginChange();
+            nextAdd(from, to);
+            endChange();
+        }
+
+        void beginUpdate() { beginChange(); }
+
+        void updated(int row) { nextUpdate(row); }
+
+        void endUpdate() { endChange(); }
+
+        void removed(Columns old) {
+            beginChange();
+            nextRemove(0, rowsOf(old));
+            endChange();
+        }
+
+        void replaced(Columns old) {
+            beginChange();
+            nextRemove(0, rowsOf(old));
+            if (cols.size > 0) nextAdd(0, cols.size);
+            endChange();
+        }
+
+        private List<Channel> rowsOf(Columns old) {
+            return new AbstractList<>() {
+                @Override public Channel get(int i) { return new View(old, i); }
+                @Override public int size() { return old.size; }
+            };
+        }
+    }
+}
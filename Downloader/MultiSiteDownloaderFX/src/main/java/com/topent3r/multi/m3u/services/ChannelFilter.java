@@ -0,0 +1,41 @@
+package com.topent3r.multi.m3u.services;
+
+import com.topent3r.multi.m3u.models.Channel;
+import com.topent3r.multi.m3u.models.ChannelStore;
+
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * Predicati del filtro dei canali nel tab M3U. Stanno qui e non nel MainController
+ * perché i benchmark misurino lo stesso codice che usa la tabella.
+ */
+public final class ChannelFilter {
+
+    private ChannelFilter() {}
+
+    /** La query in minuscolo contenuta in id, nome, gruppo o URL: confronto diretto, senza indice. */
+    public static Predicate<Channel> textMatch(String query) {
+        String q = query.toLowerCase(Locale.ROOT);
+        return ch ->
+                safe(ch.getId()).contains(q)   ||
+                safe(ch.getName()).contains(q) ||
+                safe(ch.getGroup()).contains(q)||
+                safe(ch.getUrl()).contains(q);
+    }
+
+    /** Righe già indicizzate: un bit del risultato; quelle arrivate dopo la ricerca: {@code slow}. */
+    public static Predicate<Channel> indexed(ChannelSearchIndex.Result r, Predicate<Channel> slow) {
+        return ch -> {
+            int row = ChannelStore.rowOf(ch);
+            return row >= 0 && row < r.upTo() ? r.matches(row) : slow.test(ch);
+        };
+    }
+
+    /** Le righe sparite con l'ultima ricarica restano nello store, segnate come rimosse: non si vedono. */
+    public static Predicate<Channel> visible(Predicate<Channel> query) {
+        return ch -> !ChannelStore.isRemoved(ch) && query.test(ch);
+    }
+
+    private static String safe(String s){ return s==null ? "" : s.toLowerCase(Locale.ROOT); }
+}
@@ -0,0 +1,164 @@
+package com.topent3r.multi.m3u.services;
+
+import com.topent3r.multi.m3u.models.Channel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Impronte (hash a 64 bit di tutti i campi) dei canali mostrati, con la riga dello store
+ * in cui stanno. Serve a confrontare una nuova versione della playlist con quella a video:
+ * i canali con la stessa impronta restano dove sono, gli altri sono aggiunti o rimossi.
+ * Canali identici ripetuti contano come voci distinte (l'n-esima copia ha un'impronta
+ * derivata dalla prima), così anche i doppioni si confrontano uno a uno.
+ */
+public final class ChannelFingerprints {
+
+    private long[] keys;
+    private int[] rows;
+    private boolean[] used;
+    private int count;
+
+    public ChannelFingerprints() {
+        this(1 << 12);
+    }
+
+    private ChannelFingerprints(int capacity) {
+        keys = new long[capacity];
+        rows = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    public int size() { return count; }
+
+    /** Registra il canale alla riga {@code row} (caricamento completo). */
+    public void add(Channel ch, int row) {
+        put(fingerprint(ch), row);
+    }
+
+    /** Dopo {@link com.topent3r.multi.m3u.models.ChannelStore#compact()}: righe vecchie -> nuove. */
+    public void remap(int[] newRow) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i] && rows[i] < newRow.length) rows[i] = newRow[rows[i]];
+        }
+    }
+
+    /** Confronto con una nuova versione; le righe aggiunte si numerano da {@code nextRow}. */
+    public Diff diff(int nextRow) {
+        return new Diff(nextRow);
+    }
+
+    /**
+     * Confronto in corso. {@link #accept(Channel)} per ogni canale della nuova versione,
+     * nell'ordine; alla fine {@link #removed()} sono le righe vecchie non più presenti e
+     * {@link #result()} le impronte della nuova versione. Non modifica l'originale.
+     */
+    public final class Diff {
+        private final boolean[] seen = new boolean[keys.length];
+        private final ChannelFingerprints next = new ChannelFingerprints(keys.length);
+        private int nextRow;
+        private int added;
+
+        private Diff(int nextRow) {
+            this.nextRow = nextRow;
+        }
+
+        /** true se il canale è nuovo (va aggiunto in coda allo store), false se c'era già. */
+        public boolean accept(Channel ch) {
+            long fp = fingerprint(ch);
+            // l'n-esima copia di un canale identico ha l'impronta salt(fp, n)
+            for (int n = 0; ; n++) {
+                long key = salt(fp, n);
+                int slot = find(key);
+                if (slot < 0) break;
+                if (!seen[slot]) {
+                    seen[slot] = true;
+                    next.put(key, rows[slot]);
+                    return false;
+                }
+            }
+            next.put(fp, nextRow++);
+            added++;
+            return true;
+        }
+
+        public int added() { return added; }
+
+        public int[] removed() {
+            int[] out = new int[count];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i] && !seen[i]) out[n++] = rows[i];
+            }
+            int[] r = Arrays.copyOf(out, n);
+            Arrays.sort(r);
+            return r;
+        }
+
+        public ChannelFingerprints result() { return next; }
+    }
+
+    private void put(long fp, int row) {
+        if ((count + 1) * 2 > keys.length) grow();
+        for (int n = 0; ; n++) {
+            long key = salt(fp, n);
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            boolean dup = false;
+            for (; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) { dup = true; break; }
+            }
+            if (dup) continue;
+            keys[i] = key;
+            rows[i] = row;
+            used[i] = true;
+            count++;
+            return;
+        }
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) return i;
+        }
+        return -1;
+    }
+
+    private void grow() {
+        long[] k = keys;
+        int[] r = rows;
+        boolean[] u = used;
+        keys = new long[k.length * 2];
+        rows = new int[k.length * 2];
+        used = new boolean[k.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < k.length; j++) {
+            if (!u[j]) continue;
+            int i = mix(k[j]) & mask;
+            while (used[i]) i = (i + 1) & mask;
+            keys[i] = k[j];
+            rows[i] = r[j];
+            used[i] = true;
+        }
+    }
+
+    static long fingerprint(Channel ch) {
+        long h = 0xcbf29ce484222325L;
+        for (String s : new String[] { ch.getId(), ch.getName(), ch.getGroup(), ch.getUrl(), ch.getTvgId(), ch.getLogo() }) {
+            byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+            for (byte x : b) h = (h ^ (x & 0xFF)) * 0x100000001b3L;
+            h = (h ^ 0x1F) * 0x100000001b3L;   // separatore fra campi
+        }
+        return (h ^ (ch.isVod() ? 1 : 0)) * 0x100000001b3L;
+    }
+
+    private static long salt(long fp, int n) {
+        return n == 0 ? fp : fp ^ (0x9E3779B97F4A7C15L * n);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,389 @@
+package com.topent3r.multi.m3u.services;
+
+import com.topent3r.multi.m3u.models.Channel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Indice di ricerca sui canali di una playlist (filtro del tab M3U).
+ *
+ * Si costruisce mentre la playlist si carica, riga per riga nello stesso ordine dello
+ * {@link com.topent3r.multi.m3u.models.ChannelStore}. Per ogni riga tiene il testo già in
+ * minuscolo ("nome\nid\ncoda URL", UTF-8 in un unico byte[]) e le liste dei trigrammi
+ * (righe in ordine crescente, delta in varint). Gruppi e prefissi degli URL sono pochi e
+ * ripetuti: stanno in dizionari e si confrontano una volta per query, non per riga.
+ *
+ * Una query si risolve intersecando i trigrammi (i candidati) e verificando solo quelli
+ * sul testo; sotto i tre caratteri, o se tutti i trigrammi sono troppo comuni per essere
+ * indicizzati, si scorre il testo di tutte le righe. Se la query allunga la precedente si
+ * parte dal risultato di quella. Stessa semantica del filtro di prima: la query in
+ * minuscolo contenuta in id, nome, gruppo o URL.
+ */
+public final class ChannelSearchIndex {
+
+    /** Righe che soddisfano {@code query} fra le prime {@code upTo} indicizzate. */
+    public record Result(ChannelSearchIndex index, String query, int upTo, BitSet rows) {
+        public boolean matches(int row) { return rows.get(row); }
+        public int count() { return rows.cardinality(); }
+    }
+
+    // un trigramma presente in più di una riga su COMMON_RATIO non restringe nulla: non si tiene
+    private static final int COMMON_RATIO = 8;
+    private static final int COMMON_MIN = 4096;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final GramTable grams = new GramTable();
+    private final Map<String, Integer> groupCodes = new HashMap<>();
+    private final List<String> groups = new ArrayList<>();
+    private final Map<String, Integer> prefixCodes = new HashMap<>();
+    private final List<String> prefixes = new ArrayList<>();
+
+    private int size;
+    private int[] textAt = new int[1025];
+    private int[] groupOf = new int[1024];
+    private int[] prefixOf = new int[1024];
+    private byte[] text = new byte[64 * 1024];
+    private long[] rowGrams = new long[256];
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** A caricamento finito: restituisce lo spazio preso in più dagli array cresciuti per raddoppio. */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            text = Arrays.copyOf(text, textAt[size]);
+            textAt = Arrays.copyOf(textAt, size + 1);
+            groupOf = Arrays.copyOf(groupOf, size);
+            prefixOf = Arrays.copyOf(prefixOf, size);
+            grams.compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Aggiunge un blocco di canali (thread del caricamento). */
+    public void addAll(List<Channel> batch) {
+        lock.writeLock().lock();
+        try {
+            for (Channel ch : batch) add(ch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Righe che contengono {@code query}; null se {@code cancelled} diventa vero nel frattempo
+     * (query superata da un tasto successivo). {@code previous}, se è una query più corta
+     * contenuta in questa, limita i candidati alle sue righe.
+     */
+    public Result search(String query, Result previous, BooleanSupplier cancelled) {
+        String q = query.toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            int n = size;
+            byte[] needle = q.getBytes(StandardCharsets.UTF_8);
+            boolean[] groupHit = new boolean[groups.size()];
+            for (int i = 0; i < groupHit.length; i++) groupHit[i] = groups.get(i).contains(q);
+            boolean[] prefixHit = new boolean[prefixes.size()];
+            int[][] spans = new int[prefixes.size()][];
+            for (int i = 0; i < prefixHit.length; i++) {
+                prefixHit[i] = prefixes.get(i).contains(q);
+                spans[i] = prefixHit[i] ? null : spans(prefixes.get(i), q);
+            }
+
+            BitSet out = new BitSet(n);
+            Matcher m = new Matcher(needle, groupHit, prefixHit, spans);
+            boolean narrowing = previous != null && previous.index() == this && q.contains(previous.query());
+            int from = narrowing ? previous.upTo() : 0;
+            if (narrowing) {
+                BitSet prev = previous.rows();
+                for (int r = prev.nextSetBit(0); r >= 0 && r < from; r = prev.nextSetBit(r + 1)) {
+                    if ((r & 0xFFF) == 0 && cancelled.getAsBoolean()) return null;
+                    if (m.test(r)) out.set(r);
+                }
+            }
+
+            int[] candidates = candidates(q, from, n);
+            if (candidates != null) {
+                for (int r : candidates) if (m.test(r)) out.set(r);
+                // le righe che combaciano solo nel gruppo o nel prefisso dell'URL non hanno i trigrammi
+                for (int r = from; r < n; r++) {
+                    if ((r & 0xFFFF) == 0 && cancelled.getAsBoolean()) return null;
+                    if (groupHit[groupOf[r]] || prefixHit[prefixOf[r]] || spans[prefixOf[r]] != null) {
+                        if (!out.get(r) && m.test(r)) out.set(r);
+                    }
+                }
+            } else {
+                for (int r = from; r < n; r++) {
+                    if ((r & 0xFFF) == 0 && cancelled.getAsBoolean()) return null;
+                    if (m.test(r)) out.set(r);
+                }
+            }
+            return new Result(this, q, n, out);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(Channel ch) {
+        if (size == groupOf.length) {
+            int cap = Math.max(1024, size * 2);
+            textAt = Arrays.copyOf(textAt, cap + 1);
+            groupOf = Arrays.copyOf(groupOf, cap);
+            prefixOf = Arrays.copyOf(prefixOf, cap);
+        }
+        String url = lower(ch.getUrl());
+        int cut = url.lastIndexOf('/') + 1;
+        String row = lower(ch.getName()) + '\n' + lower(ch.getId()) + '\n' + url.substring(cut);
+
+        groupOf[size] = code(lower(ch.getGroup()), groupCodes, groups);
+        prefixOf[size] = code(url.substring(0, cut), prefixCodes, prefixes);
+
+        byte[] b = row.getBytes(StandardCharsets.UTF_8);
+        if (textAt[size] + b.length > text.length) {
+            long cap = Math.max(Math.max((long) text.length * 2, 64 * 1024), (long) textAt[size] + b.length);
+            if (cap > Integer.MAX_VALUE - 8) throw new IllegalStateException("Playlist troppo grande per l'indice");
+            text = Arrays.copyOf(text, (int) cap);
+        }
+        System.arraycopy(b, 0, text, textAt[size], b.length);
+        textAt[size + 1] = textAt[size] + b.length;
+
+        int limit = Math.max(COMMON_MIN, size / COMMON_RATIO);
+        int n = Math.max(0, row.length() - 2);
+        if (rowGrams.length < n) rowGrams = new long[n * 2];
+        for (int i = 0; i < n; i++) rowGrams[i] = gram(row, i);
+        Arrays.sort(rowGrams, 0, n);
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && rowGrams[i] == rowGrams[i - 1]) continue;
+            grams.getOrAdd(rowGrams[i]).add(size, limit);
+        }
+        size++;
+    }
+
+    /** Righe candidate in [from, to) dai trigrammi della query, o null se non restringono. */
+    private int[] candidates(String q, int from, int to) {
+        if (q.length() < 3) return null;
+        List<Postings> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            Postings p = grams.get(gram(q, i));
+            if (p == null) return new int[0];    // trigramma mai visto: solo gruppi/prefissi
+            if (!p.common) lists.add(p);
+        }
+        if (lists.isEmpty()) return null;
+        lists.sort(Comparator.comparingInt(p -> p.count));
+        int[] acc = lists.get(0).decode(from, to);
+        for (int i = 1; i < lists.size() && acc.length > 0; i++) {
+            acc = lists.get(i).retain(acc);
+        }
+        return acc;
+    }
+
+    /** Lunghezze k per cui la fine del prefisso è q[0..k): la query può proseguire nella coda. */
+    private static int[] spans(String prefix, String q) {
+        int[] ks = new int[q.length()];
+        int n = 0;
+        for (int k = Math.min(q.length() - 1, prefix.length()); k >= 1; k--) {
+            if (prefix.regionMatches(prefix.length() - k, q, 0, k)) ks[n++] = k;
+        }
+        return n == 0 ? null : Arrays.copyOf(ks, n);
+    }
+
+    private static int code(String s, Map<String, Integer> codes, List<String> names) {
+        Integer c = codes.get(s);
+        if (c != null) return c;
+        names.add(s);
+        codes.put(s, names.size() - 1);
+        return names.size() - 1;
+    }
+
+    private static long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static String lower(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    /** Verifica di una riga: testo, gruppo, prefisso URL o query a cavallo fra prefisso e coda. */
+    private final class Matcher {
+        private final byte[] needle;
+        private final boolean[] groupHit, prefixHit;
+        private final int[][] spans;
+        private final byte[][] rest;
+
+        Matcher(byte[] needle, boolean[] groupHit, boolean[] prefixHit, int[][] spans) {
+            this.needle = needle;
+            this.groupHit = groupHit;
+            this.prefixHit = prefixHit;
+            this.spans = spans;
+            this.rest = new byte[needle.length][];
+        }
+
+        boolean test(int r) {
+            if (groupHit[groupOf[r]] || prefixHit[prefixOf[r]]) return true;
+            int start = textAt[r], end = textAt[r + 1];
+            if (indexOf(start, end, needle) >= 0) return true;
+            int[] ks = spans[prefixOf[r]];
+            if (ks == null) return false;
+            int tail = start;
+            for (int nl = 0; tail < end && nl < 2; tail++) if (text[tail] == '\n') nl++;
+            for (int k : ks) {
+                byte[] suffix = suffixBytes(k);
+                if (end - tail >= suffix.length && Arrays.equals(text, tail, tail + suffix.length, suffix, 0, suffix.length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Resto della query dopo i primi k caratteri, in UTF-8. */
+        private byte[] suffixBytes(int k) {
+            if (rest[k] == null) {
+                String q = new String(needle, StandardCharsets.UTF_8);
+                rest[k] = q.substring(k).getBytes(StandardCharsets.UTF_8);
+            }
+            return rest[k];
+        }
+
+        private int indexOf(int from, int to, byte[] n) {
+            if (n.length == 0) return from;
+            byte first = n[0];
+            for (int i = from, max = to - n.length; i <= max; i++) {
+                if (text[i] != first) continue;
+                int j = 1;
+                while (j < n.length && text[i + j] == n[j]) j++;
+                if (j == n.length) return i;
+            }
+            return -1;
+        }
+    }
+
+    /** Trigramma -> Postings, open addressing su long senza boxing (centinaia di migliaia di chiavi). */
+    private static final class GramTable {
+        private long[] keys = new long[1 << 14];
+        private Postings[] values = new Postings[1 << 14];
+        private int count;
+
+        Postings get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return null;
+        }
+
+        Postings getOrAdd(long key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            Postings p = new Postings();
+            keys[i] = key;
+            values[i] = p;
+            if (++count * 2 > keys.length) grow();
+            return p;
+        }
+
+        void compact() {
+            for (Postings p : values) {
+                if (p != null && p.data != null && p.data.length > p.len) p.data = Arrays.copyOf(p.data, p.len);
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = mix(oldKeys[j]) & mask;
+                while (values[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /** Righe di un trigramma: delta crescenti in varint. Oltre la soglia diventa "comune" e si libera. */
+    private static final class Postings {
+        byte[] data = new byte[4];
+        int len;
+        int last = -1;
+        int count;
+        boolean common;
+
+        void add(int row, int limit) {
+            if (common) return;
+            if (count >= limit) {
+                common = true;
+                data = null;
+                return;
+            }
+            int delta = row - last;
+            last = row;
+            count++;
+            if (len + 5 > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, len + 5));
+            while (delta >= 0x80) {
+                data[len++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[len++] = (byte) delta;
+        }
+
+        int[] decode(int from, int to) {
+            int[] out = new int[count];
+            int n = 0, row = -1, p = 0;
+            while (p < len) {
+                int delta = 0, shift = 0;
+                byte b;
+                do {
+                    b = data[p++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                row += delta;
+                if (row >= to) break;
+                if (row >= from) out[n++] = row;
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        /** Elementi di {@code sorted} presenti anche qui (fusione di due liste ordinate). */
+        int[] retain(int[] sorted) {
+            int[] out = new int[sorted.length];
+            int n = 0, i = 0, row = -1, p = 0;
+            while (p < len && i < sorted.length) {
+                int delta = 0, shift = 0;
+                byte b;
+                do {
+                    b = data[p++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                row += delta;
+                while (i < sorted.length && sorted[i] < row) i++;
+                if (i < sorted.length && sorted[i] == row) out[n++] = sorted[i++];
+            }
+            return Arrays.copyOf(out, n);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.topent3r.multi.m3u.services;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stato ripristinabile di un download multi-chunk (file nome.part.json accanto al .part).
+ *
+ * Per ogni chunk si salva quanti byte sono già su disco, insieme ai validatori
+ * della sorgente (ETag / Last-Modified / dimensione): se al riavvio il server
+ * risponde con valori diversi lo stato viene scartato e si riparte da zero.
+ */
+class ChunkCheckpoint {
+
+    static class Chunk {
+        long start;
+        long end;   // incluso
+        long done;  // byte già scritti (e forzati su disco) a partire da start
+
+        // stato di esecuzione, non salvato
+        transient boolean owned;   // un worker sta scaricando questo range
+        transient long live;       // byte scritti finora (>= done)
+        transient double speed;    // byte/s misurati sul range
+        transient int failures;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() { return end - start + 1; }
+        boolean isDone() { return done >= length(); }
+    }
+
+    private static final Gson GSON = new Gson();
+
+    long size;
+    String etag;
+    String lastModified;
+    List<Chunk> chunks = new ArrayList<>();
+
+    private transient Path file;
+
+    static ChunkCheckpoint create(Path file, long size, String etag, String lastModified, int parts) {
+        ChunkCheckpoint cp = new ChunkCheckpoint();
+        cp.file = file;
+        cp.size = size;
+        cp.etag = etag;
+        cp.lastModified = lastModified;
+        long chunkSize = size / parts;
+        for (int i = 0; i < parts; i++) {
+            long start = i * chunkSize;
+            long end = (i == parts - 1) ? size - 1 : (i + 1) * chunkSize - 1;
+            cp.chunks.add(new Chunk(start, end));
+        }
+        return cp;
+    }
+
+    /** Stato salvato, o null se assente/illeggibile. */
+    static ChunkCheckpoint load(Path file) {
+        if (!Files.exists(file)) return null;
+        try {
+            ChunkCheckpoint cp = GSON.fromJson(Files.readString(file, StandardCharsets.UTF_8), ChunkCheckpoint.class);
+            if (cp == null || cp.chunks == null || cp.chunks.isEmpty()) return null;
+            cp.file = file;
+            return cp;
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * True se lo stato salvato descrive la stessa sorgente. Senza almeno un
+     * validatore non si può escludere che il file sia cambiato, quindi non si riprende.
+     */
+    boolean matches(long size, String etag, String lastModified) {
+        if (this.size != size) return false;
+        if (etag == null && lastModified == null) return false;
+        if (etag != null && !etag.equals(this.etag)) return false;
+        return lastModified == null || lastModified.equals(this.lastModified);
+    }
+
+    /** Valore per If-Range: ETag forte se disponibile, altrimenti Last-Modified. */
+    String ifRange() {
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return lastModified;
+    }
+
+    long doneBytes() {
+        long sum = 0;
+        for (Chunk c : chunks) sum += Math.min(c.done, c.length());
+        return sum;
+    }
+
+    synchronized void save() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tmp, GSON.toJson(this), StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,514 @@
+package com.topent3r.multi.m3u.services;
+
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.download.DownloadContext;
+import com.topent3r.multi.download.Integrity;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Metrics;
+import com.topent3r.multi.utils.Tasks;
+import okhttp3.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Motore HLS nativo: legge master/media playlist e scarica i segmenti in parallelo
+ * sul client OkHttp del downloader, scrivendoli in ordine nel file di output.
+ * ffmpeg serve solo (se presente) per il remux locale finale, mai per la rete.
+ */
+class HlsDownloader {
+
+    private static final int SEGMENT_RETRIES = 3;
+
+    private final OkHttpClient client;
+    private final int workers;
+    private final DownloadContext ctx;
+
+    HlsDownloader(OkHttpClient client, int workers, DownloadContext ctx) {
+        this.client = client;
+        this.workers = Math.max(1, workers);
+        this.ctx = DownloadContext.orNone(ctx);
+    }
+
+    /** Playlist o feature non gestite dal motore nativo: il chiamante ripiega su ffmpeg. */
+    static class UnsupportedHlsException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedHlsException(String msg) { super(msg); }
+    }
+
+    Path download(String url, Path out, Map<String,String> headers, HttpDownloader.ProgressCallback callback) throws IOException {
+        HttpUrl base = HttpUrl.parse(url);
+        if (base == null) throw new IOException("URL non valida: " + url);
+
+        String text = fetchText(base, headers);
+        HttpUrl videoUrl = base;
+        HttpUrl audioUrl = null;
+
+        if (text.contains("#EXT-X-STREAM-INF")) {
+            Variant v = pickVariant(text, base);
+            if (v == null) throw new UnsupportedHlsException("Master playlist senza varianti");
+            videoUrl = v.url;
+            audioUrl = v.audioUrl;
+            text = fetchText(videoUrl, headers);
+            Log.info("hls", "HLS variant bw=" + v.bandwidth + " url=" + videoUrl + (audioUrl != null ? " audio=" + audioUrl : ""));
+        }
+
+        MediaPlaylist video = parseMedia(text, videoUrl);
+        MediaPlaylist audio = audioUrl != null ? parseMedia(fetchText(audioUrl, headers), audioUrl) : null;
+
+        // Tracce separate (es. vixcloud): servono due file e un remux locale
+        if (audio != null && findFfmpeg() == null) {
+            throw new UnsupportedHlsException("Audio separato ma ffmpeg non disponibile per il mux");
+        }
+
+        Path videoPart = out.resolveSibling(out.getFileName().toString() + ".hls.part");
+        Path audioPart = out.resolveSibling(out.getFileName().toString() + ".hls-audio.part");
+        ctx.trackPartial(videoPart, false);
+        if (audio != null) ctx.trackPartial(audioPart, false);
+
+        Log.info("hls", "HLS NATIVE workers=" + workers + " segments=" + video.segments.size()
+                + (audio != null ? " audioSegments=" + audio.segments.size() : "") + " -> " + out);
+
+        Progress progress = new Progress(callback);
+        Integrity.Hasher hasher = new Integrity.Hasher();
+        ExecutorService pool = Tasks.newBoundedExecutor("hls-segment", workers);
+        ExecutorService audioRunner = audio != null ? Tasks.newExecutor("hls-audio") : null;
+        try {
+            if (audio != null) {
+                // Audio e video condividono il pool: la traccia audio è piccola e non rallenta il video
+                Future<Long> audioJob = audioRunner.submit(
+                        () -> fetchSegments(audio, audioPart, headers, pool, null, null));
+                fetchSegments(video, videoPart, headers, pool, progress, hasher);
+                try {
+                    audioJob.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Audio HLS fallito: " + e.getCause().getMessage(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrotto.");
+                }
+            } else {
+                fetchSegments(video, videoPart, headers, pool, progress, hasher);
+            }
+        } finally {
+            pool.shutdownNow();
+            if (audioRunner != null) audioRunner.shutdownNow();
+        }
+
+        boolean remuxed = finish(videoPart, audio != null ? audioPart : null, out, video.fmp4);
+
+        long size = Files.exists(out) ? Files.size(out) : 0;
+        if (size == 0) throw new IOException("File risultante vuoto.");
+        // l'hash dei segmenti vale per il file finale solo se non è passato da ffmpeg
+        if (!remuxed) ctx.recordChecksum(out, hasher.hex());
+        if (callback != null) callback.onComplete(size);
+        Log.info("hls", "HLS NATIVE OK size=" + size);
+        return out;
+    }
+
+    // ---------- fetch parallelo, scrittura ordinata ----------
+
+    private long fetchSegments(MediaPlaylist pl, Path part, Map<String,String> headers,
+                               ExecutorService pool, Progress progress, Integrity.Hasher hasher) throws IOException {
+        // Finestra limitata: al massimo 2x workers segmenti in RAM in attesa di essere scritti
+        int window = workers * 2;
+        Map<String, byte[]> keyCache = new ConcurrentHashMap<>();
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        Deque<Segment> pending = new ArrayDeque<>();
+        long written = 0;
+        int next = 0;
+
+        try (FileChannel ch = FileChannel.open(part, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (pl.init != null) {
+                byte[] init = fetchWithRetry(pl.init, headers, keyCache);
+                written += writeFully(ch, init);
+                if (hasher != null) hasher.update(init, 0, init.length);
+            }
+            while (next < pl.segments.size() || !inFlight.isEmpty()) {
+                while (next < pl.segments.size() && inFlight.size() < window) {
+                    Segment s = pl.segments.get(next++);
+                    inFlight.add(pool.submit(() -> fetchWithRetry(s, headers, keyCache)));
+                    pending.add(s);
+                }
+                Segment s = pending.poll();
+                byte[] data;
+                try {
+                    data = inFlight.poll().get();
+                } catch (ExecutionException e) {
+                    Throwable c = e.getCause();
+                    throw c instanceof IOException io ? io : new IOException(String.valueOf(c), c);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrotto.");
+                }
+                written += writeFully(ch, data);
+                if (hasher != null) hasher.update(data, 0, data.length);
+                if (progress != null) progress.segmentWritten(s.duration, data.length);
+            }
+        } finally {
+            for (Future<byte[]> f : inFlight) f.cancel(true);
+        }
+        // il file deve contenere tutti i byte dei segmenti ricevuti (disco pieno, scritture perse)
+        Integrity.checkLength(written, Files.size(part), part.toString());
+        return written;
+    }
+
+    private byte[] fetchWithRetry(Segment s, Map<String,String> headers, Map<String, byte[]> keyCache) throws IOException {
+        IOException last = null;
+        for (int attempt = 1; attempt <= SEGMENT_RETRIES; attempt++) {
+            try {
+                long started = System.nanoTime();
+                byte[] data = fetchBytes(s.url, headers, s.rangeHeader());
+                // con EXT-X-BYTERANGE la playlist dichiara la dimensione: vale anche senza Content-Length
+                if (s.rangeLength >= 0) Integrity.checkLength(s.rangeLength, data.length, "segmento " + s.sequence);
+                Metrics.getInstance().histogram("download_segment_seconds",
+                        "Durata del download di un segmento HLS", "host", s.url.host()).observeSince(started);
+                if (s.key != null) data = decrypt(data, s, headers, keyCache);
+                return data;
+            } catch (IOException e) {
+                ctx.throwIfCancelled();
+                last = e;
+                Metrics.getInstance().counter("download_retries_total",
+                        "Tentativi falliti di chunk e segmenti HLS", "kind", "segment", "site", ctx.getSite()).inc();
+                Log.warn("hls", "HLS segment " + s.sequence + " attempt " + attempt + " failed: " + e.getMessage());
+                try {
+                    Thread.sleep(500L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrotto.");
+                }
+            }
+        }
+        throw new IOException("Segmento " + s.sequence + " fallito: " + (last != null ? last.getMessage() : "?"), last);
+    }
+
+    private byte[] decrypt(byte[] data, Segment s, Map<String,String> headers, Map<String, byte[]> keyCache) throws IOException {
+        byte[] key = keyCache.get(s.key.uri.toString());
+        if (key == null) {
+            key = fetchBytes(s.key.uri, headers, null);
+            keyCache.put(s.key.uri.toString(), key);
+        }
+        byte[] iv = s.key.iv != null ? s.key.iv : sequenceIv(s.sequence);
+        try {
+            Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            c.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            return c.doFinal(data);
+        } catch (Exception e) {
+            throw new IOException("Decrittazione segmento " + s.sequence + " fallita: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] sequenceIv(long seq) {
+        return ByteBuffer.allocate(16).putLong(8, seq).array();
+    }
+
+    private static long writeFully(FileChannel ch, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) ch.write(buf);
+        return data.length;
+    }
+
+    @SuppressWarnings("try") // la registrazione vale per la durata della chiamata
+    private byte[] fetchBytes(HttpUrl url, Map<String,String> headers, String range) throws IOException {
+        Request.Builder rb = new Request.Builder().url(url);
+        if (headers != null) headers.forEach((k, v) -> { if (!"Range".equalsIgnoreCase(k)) rb.header(k, v); });
+        if (range != null) rb.header("Range", range);
+        Call call = client.newCall(rb.build());
+        try (CancellationToken.Registration reg = ctx.onCancel(call);
+             Response resp = call.execute()) {
+            if (!resp.isSuccessful() || resp.body() == null) {
+                throw new IOException("HTTP " + resp.code() + " su " + url);
+            }
+            // lettura a blocchi per passare dal limitatore di banda
+            long len = resp.body().contentLength();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(len > 0 && len < Integer.MAX_VALUE ? (int) len : 64 * 1024);
+            byte[] buf = new byte[64 * 1024];
+            try (InputStream in = resp.body().byteStream()) {
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    bos.write(buf, 0, n);
+                    ctx.throttle(n);
+                }
+            }
+            // un segmento troncato scritto così com'è rovina il file in silenzio: meglio riprovarlo
+            Integrity.checkLength(len, bos.size(), url.toString());
+            return bos.toByteArray();
+        }
+    }
+
+    private String fetchText(HttpUrl url, Map<String,String> headers) throws IOException {
+        return new String(fetchBytes(url, headers, null), StandardCharsets.UTF_8);
+    }
+
+    // ---------- finalizzazione ----------
+
+    /** Porta le parti sul file finale; true se è servito il remux ffmpeg, false se spostate così come sono. */
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    private boolean finish(Path videoPart, Path audioPart, Path out, boolean fmp4) throws IOException {
+        String name = out.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean wantsTs = name.endsWith(".ts");
+        String ffmpeg = (wantsTs && audioPart == null) ? null : findFfmpeg();
+
+        if (ffmpeg == null) {
+            // Senza ffmpeg: TS concatenati o fMP4 (init + fragment) sono già riproducibili così
+            if (!wantsTs && !fmp4) Log.info("hls", "HLS: ffmpeg assente, salvo MPEG-TS in " + out);
+            Files.move(videoPart, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return false;
+        }
+
+        List<String> cmd = new ArrayList<>(List.of(ffmpeg, "-y", "-loglevel", "error", "-i", videoPart.toString()));
+        if (audioPart != null) {
+            cmd.addAll(List.of("-i", audioPart.toString(), "-map", "0:v?", "-map", "1:a?"));
+        }
+        cmd.addAll(List.of("-c", "copy"));
+        if (!wantsTs) cmd.addAll(List.of("-bsf:a", "aac_adtstoasc"));
+        cmd.add(out.toString());
+
+        Log.info("remux", "HLS REMUX " + String.join(" ", cmd));
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        ctx.trackPartial(out, false);
+        try (CancellationToken.Registration reg = ctx.onCancel(p);
+             BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String line;
+            while ((line = br.readLine()) != null) Log.debug("remux", line);
+        }
+        try {
+            int code = p.waitFor();
+            ctx.throwIfCancelled();
+            if (code != 0) throw new IOException("Remux ffmpeg fallito (exit=" + code + ")");
+        } catch (InterruptedException ie) {
+            p.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrotto.");
+        }
+        Files.deleteIfExists(videoPart);
+        if (audioPart != null) Files.deleteIfExists(audioPart);
+        return true;
+    }
+
+    private static String findFfmpeg() {
+        return HttpDownloader.findFfmpeg();
+    }
+
+    // ---------- parsing playlist ----------
+
+    private static class Variant {
+        HttpUrl url;
+        HttpUrl audioUrl;
+        long bandwidth;
+    }
+
+    private static class Key {
+        HttpUrl uri;
+        byte[] iv;
+    }
+
+    private static class Segment {
+        HttpUrl url;
+        long sequence;
+        double duration;
+        Key key;
+        long rangeLength = -1;
+        long rangeOffset;
+
+        String rangeHeader() {
+            return rangeLength < 0 ? null : "bytes=" + rangeOffset + "-" + (rangeOffset + rangeLength - 1);
+        }
+    }
+
+    private static class MediaPlaylist {
+        final List<Segment> segments = new ArrayList<>();
+        Segment init;
+        boolean fmp4;
+    }
+
+    private static Variant pickVariant(String text, HttpUrl base) {
+        String[] lines = text.split("\\R");
+
+        // i gruppi audio possono comparire prima o dopo le varianti
+        Map<String, HttpUrl> audioGroups = new HashMap<>();
+        for (String raw : lines) {
+            String line = raw.trim();
+            if (!line.startsWith("#EXT-X-MEDIA:")) continue;
+            Map<String,String> a = attributes(line.substring(13));
+            if ("AUDIO".equals(a.get("TYPE")) && a.containsKey("URI")) {
+                String group = a.getOrDefault("GROUP-ID", "");
+                // preferisci la traccia DEFAULT, altrimenti la prima del gruppo
+                if (!audioGroups.containsKey(group) || "YES".equals(a.get("DEFAULT"))) {
+                    audioGroups.put(group, base.resolve(a.get("URI")));
+                }
+            }
+        }
+
+        Variant best = null;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (!line.startsWith("#EXT-X-STREAM-INF:")) continue;
+            Map<String,String> a = attributes(line.substring(18));
+            String uri = null;
+            while (++i < lines.length) {
+                String l = lines[i].trim();
+                if (!l.isEmpty() && !l.startsWith("#")) { uri = l; break; }
+            }
+            if (uri == null) break;
+            Variant v = new Variant();
+            v.url = base.resolve(uri);
+            v.bandwidth = parseLong(a.get("BANDWIDTH"), 0);
+            v.audioUrl = a.containsKey("AUDIO") ? audioGroups.get(a.get("AUDIO")) : null;
+            if (v.url != null && (best == null || v.bandwidth > best.bandwidth)) best = v;
+        }
+        return best;
+    }
+
+    private static MediaPlaylist parseMedia(String text, HttpUrl base) throws IOException {
+        if (!text.trim().startsWith("#EXTM3U")) throw new UnsupportedHlsException("Non è una playlist HLS");
+        MediaPlaylist pl = new MediaPlaylist();
+        long seq = 0;
+        double duration = 0;
+        Key key = null;
+        long rangeLen = -1, rangeOff = 0, nextOff = 0;
+        boolean ended = false;
+
+        for (String raw : text.split("\\R")) {
+            String line = raw.trim();
+            if (line.isEmpty()) continue;
+            if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                seq = parseLong(line.substring(22), 0);
+            } else if (line.startsWith("#EXTINF:")) {
+                String d = line.substring(8);
+                int comma = d.indexOf(',');
+                try { duration = Double.parseDouble(comma >= 0 ? d.substring(0, comma) : d); }
+                catch (NumberFormatException e) { duration = 0; }
+            } else if (line.startsWith("#EXT-X-BYTERANGE:")) {
+                String[] p = line.substring(17).split("@");
+                rangeLen = parseLong(p[0], -1);
+                rangeOff = p.length > 1 ? parseLong(p[1], 0) : nextOff;
+            } else if (line.startsWith("#EXT-X-KEY:")) {
+                Map<String,String> a = attributes(line.substring(11));
+                String method = a.getOrDefault("METHOD", "NONE");
+                if ("NONE".equals(method)) {
+                    key = null;
+                } else if ("AES-128".equals(method)) {
+                    key = new Key();
+                    key.uri = base.resolve(a.getOrDefault("URI", ""));
+                    if (key.uri == null) throw new UnsupportedHlsException("URI chiave non valida");
+                    if (a.containsKey("IV")) key.iv = parseIv(a.get("IV"));
+                } else {
+                    throw new UnsupportedHlsException("Cifratura non supportata: " + method);
+                }
+            } else if (line.startsWith("#EXT-X-MAP:")) {
+                Map<String,String> a = attributes(line.substring(11));
+                Segment init = new Segment();
+                init.url = base.resolve(a.getOrDefault("URI", ""));
+                if (init.url == null) throw new UnsupportedHlsException("URI EXT-X-MAP non valida");
+                if (a.containsKey("BYTERANGE")) {
+                    String[] p = a.get("BYTERANGE").split("@");
+                    init.rangeLength = parseLong(p[0], -1);
+                    init.rangeOffset = p.length > 1 ? parseLong(p[1], 0) : 0;
+                }
+                pl.init = init;
+                pl.fmp4 = true;
+            } else if (line.startsWith("#EXT-X-ENDLIST")) {
+                ended = true;
+            } else if (!line.startsWith("#")) {
+                Segment s = new Segment();
+                s.url = base.resolve(line);
+                if (s.url == null) throw new IOException("URI segmento non valida: " + line);
+                s.sequence = seq++;
+                s.duration = duration;
+                s.key = key;
+                if (rangeLen >= 0) {
+                    s.rangeLength = rangeLen;
+                    s.rangeOffset = rangeOff;
+                    nextOff = rangeOff + rangeLen;
+                }
+                pl.segments.add(s);
+                duration = 0;
+                rangeLen = -1;
+            }
+        }
+        if (!ended) throw new UnsupportedHlsException("Playlist live (senza EXT-X-ENDLIST)");
+        if (pl.segments.isEmpty()) throw new UnsupportedHlsException("Playlist senza segmenti");
+        return pl;
+    }
+
+    /** Parser per attribute-list HLS: KEY=VALUE,KEY="VALUE, con virgole" */
+    private static Map<String,String> attributes(String s) {
+        Map<String,String> out = new HashMap<>();
+        int i = 0, n = s.length();
+        while (i < n) {
+            int eq = s.indexOf('=', i);
+            if (eq < 0) break;
+            String k = s.substring(i, eq).trim();
+            int j = eq + 1;
+            String v;
+            if (j < n && s.charAt(j) == '"') {
+                int end = s.indexOf('"', j + 1);
+                if (end < 0) end = n;
+                v = s.substring(j + 1, end);
+                j = end + 1;
+            } else {
+                int end = s.indexOf(',', j);
+                if (end < 0) end = n;
+                v = s.substring(j, end).trim();
+                j = end;
+            }
+            out.put(k, v);
+            int comma = s.indexOf(',', j);
+            if (comma < 0) break;
+            i = comma + 1;
+        }
+        return out;
+    }
+
+    private static byte[] parseIv(String hex) {
+        String h = hex.startsWith("0x") || hex.startsWith("0X") ? hex.substring(2) : hex;
+        byte[] iv = new byte[16];
+        // allineato a destra, come da specifica (valore a 128 bit)
+        for (int i = h.length(), b = 15; i > 0 && b >= 0; i -= 2, b--) {
+            iv[b] = (byte) Integer.parseInt(h.substring(Math.max(0, i - 2), i), 16);
+        }
+        return iv;
+    }
+
+    private static long parseLong(String s, long def) {
+        if (s == null) return def;
+        try { return Long.parseLong(s.trim()); } catch (NumberFormatException e) { return def; }
+    }
+
+    // ---------- progresso ----------
+
+    private static class Progress {
+        private final HttpDownloader.ProgressCallback cb;
+        private final long startedAt = System.currentTimeMillis();
+        private double seconds;
+        private long bytes;
+        private long lastUpdate;
+
+        Progress(HttpDownloader.ProgressCallback cb) { this.cb = cb; }
+
+        void segmentWritten(double duration, long size) {
+            seconds += duration;
+            bytes += size;
+            if (cb == null) return;
+            long now = System.currentTimeMillis();
+            if (now - lastUpdate < 1000) return;
+            lastUpdate = now;
+            cb.onProgress((long) seconds);
+            double elapsed = Math.max(0.001, (now - startedAt) / 1000.0);
+            cb.onSpeed(String.format("%.2f MB/s", bytes / 1024.0 / 1024.0 / elapsed));
+        }
+    }
+}
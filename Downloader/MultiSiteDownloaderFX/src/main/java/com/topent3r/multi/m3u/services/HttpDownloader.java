@@ -1,5 +1,12 @@
 package com.topent3r.multi.m3u.services;
 
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.download.DownloadContext;
+import com.topent3r.multi.download.DownloadManager;
+import com.topent3r.multi.download.Integrity;
+import com.topent3r.multi.download.LibraryIndex;
+import com.topent3r.multi.utils.HttpClients;
+import com.topent3r.multi.utils.Log;
 import okhttp3.*;
 import java.io.*;
 import java.nio.file.*;
@@ -8,19 +15,16 @@ import java.util.concurrent.TimeUnit;
 
 public class HttpDownloader {
 
-    private static final Path LOG = Paths.get("download.log");
-
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .followRedirects(true)
-            .followSslRedirects(true)
-            .retryOnConnectionFailure(true)
-            .protocols(java.util.List.of(Protocol.HTTP_1_1))
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(0, TimeUnit.SECONDS) // stream lunghi
-            .build();
+    private final OkHttpClient client = HttpClients.downloads();
 
     /** Download con autodetect HLS e fallback ffmpeg se il diretto fallisce (es. 403). */
     public Path download(String url, Path dir, String fileName, Map<String,String> headers) throws IOException {
+        return download(url, dir, fileName, headers, DownloadContext.none());
+    }
+
+    /** Come sopra, con il contesto del download per i limiti di banda. */
+    public Path download(String url, Path dir, String fileName, Map<String,String> headers, DownloadContext ctx) throws IOException {
+        ctx = DownloadContext.orNone(ctx);
         if (url == null || url.isBlank()) throw new IOException("URL vuota");
         if (dir == null) dir = Paths.get(System.getProperty("user.home"), "Downloads");
         Files.createDirectories(dir);
@@ -29,18 +33,20 @@ public class HttpDownloader {
         if (fileName.isBlank()) fileName = "stream.mp4";
 
         boolean hls = looksLikeHls(url) || probeIsHls(url, headers);
-        Path out = unique(dir.resolve(fileName));
+        Path target = dir.resolve(fileName);
+        Path out = unique(target);
 
-        log("==> START url=" + url);
-        log("hls=" + hls + " out=" + out);
+        Log.info("start", "==> START url=" + url);
+        Log.info("start", "hls=" + hls + " out=" + out);
 
         if (hls) {
-            return downloadWithFfmpeg(url, out, headers);
+            return dedupe(target, downloadHls(url, out, headers, null, DownloadManager.getInstance().getHlsWorkers(), ctx));
         } else {
             try {
-                return downloadDirect(url, out, headers);
+                return dedupe(target, downloadDirect(url, out, headers, ctx));
             } catch (IOException e) {
-                log("DIRECT FAIL: " + e.getMessage() + " → fallback ffmpeg");
+                if (ctx.isCancelled()) throw e;
+                Log.warn("direct", "DIRECT FAIL: " + e.getMessage() + " → fallback ffmpeg");
                 // fallback: prova a “copiare” anche i file diretti via ffmpeg con stessi header
                 // Rimuovi header Range che può causare 400 Bad Request
                 Map<String,String> cleanHeaders = new java.util.LinkedHashMap<>();
@@ -52,16 +58,18 @@ public class HttpDownloader {
                     });
                 }
                 Path tmp = out.getParent().resolve(out.getFileName().toString() + ".ff.tmp");
-                Path p = downloadWithFfmpeg(url, tmp, cleanHeaders);
+                ctx.trackPartial(tmp, false);
+                Path p = downloadWithFfmpeg(url, tmp, cleanHeaders, null, 2, ctx);
                 // se ok, rinomina al nome finale
                 Files.move(p, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-                return out;
+                return dedupe(target, out);
             }
         }
     }
 
     // ---------- Direct (mp4/ts/bin) con multi-chunk parallelo ----------
-    private Path downloadDirect(String url, Path out, Map<String,String> headers) throws IOException {
+    @SuppressWarnings("try") // la registrazione vale per la durata della chiamata
+    private Path downloadDirect(String url, Path out, Map<String,String> headers, DownloadContext ctx) throws IOException {
         Request.Builder rb = new Request.Builder().url(url);
         if (headers != null) headers.forEach(rb::header);
         
@@ -69,131 +77,155 @@ public class HttpDownloader {
         Request headReq = rb.head().build();
         long fileSize = -1;
         boolean supportsRange = false;
+        String etag = null, lastModified = null;
         
-        try (Response headResp = client.newCall(headReq).execute()) {
+        Call headCall = client.newCall(headReq);
+        try (CancellationToken.Registration reg = ctx.onCancel(headCall);
+             Response headResp = headCall.execute()) {
             if (headResp.isSuccessful()) {
                 String acceptRanges = headResp.header("Accept-Ranges");
                 String contentLength = headResp.header("Content-Length");
                 supportsRange = "bytes".equalsIgnoreCase(acceptRanges);
+                etag = headResp.header("ETag");
+                lastModified = headResp.header("Last-Modified");
                 if (contentLength != null) {
                     try { fileSize = Long.parseLong(contentLength); } catch (NumberFormatException ignore) {}
                 }
             }
         } catch (Exception e) {
-            log("HEAD request failed: " + e.getMessage());
+            Log.warn("probe", "HEAD request failed: " + e.getMessage());
         }
+        ctx.throwIfCancelled();
         
         // Se supporta Range E il file è grande (>10MB), usa download multi-chunk
         if (supportsRange && fileSize > 10_000_000) {
-            return downloadMultiChunk(url, out, headers, fileSize);
+            return downloadMultiChunk(url, out, headers, fileSize, etag, lastModified, ctx);
         }
         
         // Altrimenti download singolo con buffer ottimizzato
-        Request req = rb.build();
+        Request req = rb.get().build();   // rb.head() sopra ha cambiato il metodo del builder
         Path tmp = out.resolveSibling(out.getFileName().toString() + ".part");
-        log("DIRECT -> " + out);
+        ctx.trackPartial(tmp, false);
+        Log.info("direct", "DIRECT -> " + out);
         
-        try (Response resp = client.newCall(req).execute()) {
+        Call call = client.newCall(req);
+        try (CancellationToken.Registration reg = ctx.onCancel(call);
+             Response resp = call.execute()) {
             if (!resp.isSuccessful() || resp.body() == null) {
                 throw new IOException("HTTP " + resp.code() + " su " + url);
             }
             
-            // Buffer 1MB per velocità ottimale
+            // Buffer 1MB per velocità ottimale; SHA-256 calcolato mentre si scrive
+            Integrity.Hasher hasher = new Integrity.Hasher();
             try (InputStream in = resp.body().byteStream();
                  OutputStream fos = new BufferedOutputStream(Files.newOutputStream(tmp), 1024 * 1024)) {
                 byte[] buffer = new byte[1024 * 1024]; // 1MB buffer
                 int bytesRead;
                 while ((bytesRead = in.read(buffer)) != -1) {
                     fos.write(buffer, 0, bytesRead);
+                    hasher.update(buffer, 0, bytesRead);
+                    ctx.throttle(bytesRead);
                 }
             }
+            hasher.checkLength(resp.body().contentLength(), url);
+            ctx.recordChecksum(out, hasher.hex());
         }
         
         long size = Files.exists(tmp) ? Files.size(tmp) : 0;
         if (size <= 0) throw new IOException("File risultante vuoto.");
         Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        log("DIRECT OK size=" + size);
+        Log.info("direct", "DIRECT OK size=" + size);
         return out;
     }
     
-    // Download multi-chunk parallelo (8 connessioni come JDownloader)
-    private Path downloadMultiChunk(String url, Path out, Map<String,String> headers, long fileSize) throws IOException {
-        int chunks = 8; // 8 connessioni parallele
-        long chunkSize = fileSize / chunks;
+    // Download multi-chunk parallelo a segmenti dinamici (vedi SegmentedDownload), ripristinabile.
+    // Ogni segmento scrive direttamente nel .part preallocato alla propria posizione: niente unione finale.
+    private Path downloadMultiChunk(String url, Path out, Map<String,String> headers, long fileSize,
+                                    String etag, String lastModified, DownloadContext ctx) throws IOException {
+        try {
+            return downloadChunks(url, out, headers, fileSize, etag, lastModified, ctx);
+        } catch (SegmentedDownload.SourceChangedException e) {
+            // il server ha cambiato file a metà: i byte salvati non valgono più, si riparte da zero una volta
+            Log.warn("multi-chunk", "MULTI-CHUNK: " + e.getMessage() + " → ricomincio da zero");
+            discardPartial(out);
+            return downloadChunks(url, out, headers, fileSize, null, null, ctx);
+        }
+    }
+
+    private Path downloadChunks(String url, Path out, Map<String,String> headers, long fileSize,
+                                String etag, String lastModified, DownloadContext ctx) throws IOException {
+        int chunks = SegmentedDownload.INITIAL_CONNECTIONS; // poi si dividono/aggiungono a runtime
         
-        log("MULTI-CHUNK (" + chunks + " parts) -> " + out + " (size=" + fileSize + ")");
+        Path tmp = out.resolveSibling(out.getFileName().toString() + ".part");
+        Path stateFile = out.resolveSibling(out.getFileName().toString() + ".part.json");
+        ctx.trackPartial(tmp, true);
+        ctx.trackPartial(stateFile, true);
         
-        Path tmpDir = out.getParent().resolve(out.getFileName().toString() + ".chunks");
-        Files.createDirectories(tmpDir);
+        ChunkCheckpoint saved = ChunkCheckpoint.load(stateFile);
+        ChunkCheckpoint cp;
+        if (saved != null && saved.matches(fileSize, etag, lastModified)
+                && Files.exists(tmp) && Files.size(tmp) == fileSize) {
+            cp = saved;
+            Log.info("multi-chunk", "MULTI-CHUNK RESUME " + cp.doneBytes() + "/" + fileSize + " -> " + out);
+        } else {
+            if (saved != null) Log.info("multi-chunk", "MULTI-CHUNK: sorgente cambiata o senza validatori, scarto lo stato salvato");
+            discardPartial(out);
+            long free = Files.getFileStore(out.getParent()).getUsableSpace();
+            if (free < fileSize) {
+                throw new IOException("Spazio su disco insufficiente: servono " + fileSize + " byte, liberi " + free);
+            }
+            cp = ChunkCheckpoint.create(stateFile, fileSize, etag, lastModified, chunks);
+            Log.info("multi-chunk", "MULTI-CHUNK (" + chunks + " parts) -> " + out + " (size=" + fileSize + ")");
+        }
         
-        List<java.util.concurrent.Future<Path>> futures = new ArrayList<>();
-        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(chunks);
+        // un solo canale condiviso: le write posizionali sono thread-safe
+        try (RandomAccessFile raf = new RandomAccessFile(tmp.toFile(), "rw")) {
+            if (raf.length() != fileSize) raf.setLength(fileSize);
+            cp.save();
+            try {
+                new SegmentedDownload(HttpClients.ranges(), url, headers, ctx, cp, raf.getChannel()).run();
+            } finally {
+                try { if (Files.exists(stateFile)) cp.save(); } catch (IOException ignore) {}
+            }
+        }
+        // i segmenti scrivono in posizione, niente hash in streaming: almeno i byte devono tornare
+        Integrity.checkLength(fileSize, cp.doneBytes(), url);
         
+        Files.deleteIfExists(stateFile);
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Log.info("multi-chunk", "MULTI-CHUNK OK size=" + Files.size(out));
+        return out;
+    }
+
+    private static void discardPartial(Path out) {
         try {
-            for (int i = 0; i < chunks; i++) {
-                final int chunkIndex = i;
-                final long start = i * chunkSize;
-                final long end = (i == chunks - 1) ? fileSize - 1 : (i + 1) * chunkSize - 1;
-                
-                futures.add(executor.submit(() -> {
-                    Path chunkFile = tmpDir.resolve("chunk." + chunkIndex);
-                    Request.Builder rb = new Request.Builder().url(url);
-                    if (headers != null) headers.forEach(rb::header);
-                    rb.header("Range", "bytes=" + start + "-" + end);
-                    
-                    try (Response resp = client.newCall(rb.build()).execute()) {
-                        if (!resp.isSuccessful() || resp.body() == null) {
-                            throw new IOException("Chunk " + chunkIndex + " failed: HTTP " + resp.code());
-                        }
-                        
-                        try (InputStream in = resp.body().byteStream();
-                             OutputStream fos = new BufferedOutputStream(Files.newOutputStream(chunkFile), 1024 * 1024)) {
-                            byte[] buffer = new byte[1024 * 1024];
-                            int bytesRead;
-                            while ((bytesRead = in.read(buffer)) != -1) {
-                                fos.write(buffer, 0, bytesRead);
-                            }
-                        }
-                    }
-                    
-                    log("Chunk " + chunkIndex + " OK");
-                    return chunkFile;
-                }));
-            }
-            
-            // Attendi completamento tutti i chunk
-            List<Path> chunkFiles = new ArrayList<>();
-            for (java.util.concurrent.Future<Path> future : futures) {
-                try {
-                    chunkFiles.add(future.get());
-                } catch (Exception e) {
-                    throw new IOException("Chunk download failed: " + e.getMessage(), e);
-                }
-            }
-            
-            // Unisci i chunk in ordine
-            Path tmp = out.resolveSibling(out.getFileName().toString() + ".part");
-            try (OutputStream fos = new BufferedOutputStream(Files.newOutputStream(tmp), 1024 * 1024)) {
-                for (int i = 0; i < chunks; i++) {
-                    Path chunkFile = tmpDir.resolve("chunk." + i);
-                    Files.copy(chunkFile, fos);
-                }
-            }
-            
-            // Cleanup chunks
-            try {
-                for (int i = 0; i < chunks; i++) {
-                    Files.deleteIfExists(tmpDir.resolve("chunk." + i));
-                }
-                Files.deleteIfExists(tmpDir);
-            } catch (Exception ignore) {}
-            
-            Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-            log("MULTI-CHUNK OK size=" + Files.size(out));
-            return out;
-            
-        } finally {
-            executor.shutdown();
+            Files.deleteIfExists(out.resolveSibling(out.getFileName().toString() + ".part"));
+            Files.deleteIfExists(out.resolveSibling(out.getFileName().toString() + ".part.json"));
+        } catch (IOException ignore) {}
+    }
+
+    // ---------- HLS nativo (segmenti in parallelo) con fallback ffmpeg ----------
+
+    /** Worker HLS derivati dal moltiplicatore velocità (x1=4 ... x8=32). */
+    public static int hlsWorkersFor(int speedMultiplier) {
+        return Math.max(2, Math.min(32, speedMultiplier * 4));
+    }
+
+    public Path downloadHls(String url, Path out, Map<String,String> headers, ProgressCallback callback, int workers) throws IOException {
+        return downloadHls(url, out, headers, callback, workers, DownloadContext.none());
+    }
+
+    public Path downloadHls(String url, Path out, Map<String,String> headers, ProgressCallback callback, int workers,
+                            DownloadContext ctx) throws IOException {
+        ctx = DownloadContext.orNone(ctx);
+        try {
+            return new HlsDownloader(HttpClients.segments(), workers, ctx).download(url, out, headers, callback);
+        } catch (IOException e) {
+            Log.warn("hls", "HLS NATIVE FAIL: " + e.getMessage() + " → fallback ffmpeg");
+            Files.deleteIfExists(out.resolveSibling(out.getFileName().toString() + ".hls.part"));
+            Files.deleteIfExists(out.resolveSibling(out.getFileName().toString() + ".hls-audio.part"));
+            if (ctx.isCancelled()) throw e;
+            return downloadWithFfmpeg(url, out, headers, callback, Math.max(1, workers / 4), ctx);
         }
     }
 
@@ -207,6 +239,14 @@ public class HttpDownloader {
     }
 
     public Path downloadWithFfmpeg(String url, Path out, Map<String,String> headers, ProgressCallback callback, int speedMultiplier) throws IOException {
+        return downloadWithFfmpeg(url, out, headers, callback, speedMultiplier, DownloadContext.none());
+    }
+
+    /** Come sopra; annullando il contesto il processo ffmpeg viene terminato. */
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    public Path downloadWithFfmpeg(String url, Path out, Map<String,String> headers, ProgressCallback callback, int speedMultiplier,
+                                   DownloadContext ctx) throws IOException {
+        ctx = DownloadContext.orNone(ctx);
         String ffmpeg = findFfmpeg();
         if (ffmpeg == null) throw new IOException("FFmpeg non trovato (tools\\ffmpeg\\ffmpeg.exe o nel PATH)");
 
@@ -263,17 +303,19 @@ public class HttpDownloader {
         cmd.add("-bsf:a"); cmd.add("aac_adtstoasc");
         cmd.add(out.toString());
 
-        log("FFMPEG " + String.join(" ", cmd));
+        Log.info("ffmpeg", "FFMPEG " + String.join(" ", cmd));
 
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.redirectErrorStream(true);
         Process p = pb.start();
+        ctx.trackPartial(out, false);
 
         long lastUpdate = System.currentTimeMillis();
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+        try (CancellationToken.Registration reg = ctx.onCancel(p);
+             BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
             String line;
             while ((line = br.readLine()) != null) {
-                log("[ffmpeg] " + line);
+                Log.debug("ffmpeg", line);
                 
                 // Parse progresso FFmpeg (es: "out_time_ms=12345678")
                 if (callback != null && line.startsWith("out_time_ms=")) {
@@ -297,12 +339,13 @@ public class HttpDownloader {
 
         try {
             int code = p.waitFor();
+            ctx.throwIfCancelled();
             long size = Files.exists(out) ? Files.size(out) : 0;
             if (code != 0 || size == 0) {
                 throw new IOException("FFmpeg failed (exit=" + code + "), size=" + size);
             }
             if (callback != null) callback.onComplete(size);
-            log("FFMPEG OK size=" + size);
+            Log.info("ffmpeg", "FFMPEG OK size=" + size);
             return out;
         } catch (InterruptedException ie) {
             p.destroyForcibly();
@@ -334,7 +377,7 @@ public class HttpDownloader {
                 return head.startsWith("#EXTM3U");
             }
         } catch (Exception e) {
-            log("probe error: " + e.getMessage());
+            Log.warn("probe", "probe error: " + e.getMessage());
             return false;
         }
     }
@@ -348,6 +391,17 @@ public class HttpDownloader {
     // ---------- util ----------
     private static String sanitize(String s) { return s == null ? "" : s.replaceAll("[\\\\/:*?\"<>|]", "_").trim(); }
 
+    /**
+     * Se il nome era occupato ({@link #unique}) e il file appena scaricato è identico a
+     * quello esistente, la copia "nome (1)" si cancella e si restituisce l'originale.
+     */
+    private static Path dedupe(Path target, Path written) throws IOException {
+        if (written.equals(target) || !LibraryIndex.sameContent(target, written)) return written;
+        Files.delete(written);
+        Log.info("library", "DEDUP: " + written.getFileName() + " uguale a " + target.getFileName() + ", copia rimossa");
+        return target;
+    }
+
     private static Path unique(Path p) throws IOException {
         if (!Files.exists(p)) return p;
         String name = p.getFileName().toString();
@@ -361,7 +415,7 @@ public class HttpDownloader {
         }
     }
 
-    private static String findFfmpeg() {
+    static String findFfmpeg() {
         Path local = Paths.get("tools", "ffmpeg", "ffmpeg.exe");
         if (Files.exists(local)) return local.toAbsolutePath().toString();
         try {
@@ -386,10 +440,4 @@ public class HttpDownloader {
         return "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/127 Safari/537.36";
     }
 
-    private static synchronized void log(String s) {
-        try {
-            Files.writeString(LOG, "["+new java.util.Date()+"] "+s+System.lineSeparator(),
-                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-        } catch (Exception ignore) {}
-    }
 }
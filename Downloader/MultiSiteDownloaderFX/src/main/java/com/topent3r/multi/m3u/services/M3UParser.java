@@ -1,35 +1,48 @@
 package com.topent3r.multi.m3u.services;
 
 import com.topent3r.multi.m3u.models.Channel;
+import com.topent3r.multi.utils.HttpClients;
 import okhttp3.*;
+import okio.BufferedSource;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class M3UParser {
 
-    private static final OkHttpClient CLIENT = new OkHttpClient.Builder()
-            .followRedirects(true)
-            .followSslRedirects(true)
-            .retryOnConnectionFailure(true)
-            .protocols(java.util.List.of(Protocol.HTTP_1_1))
-            .build();
+    private static final OkHttpClient CLIENT = HttpClients.api();
+    // compilato una volta sola: con playlist da un milione di righe si sente
+    private static final Pattern TRAILING_ID =
+            Pattern.compile("(\\d{4,})(?:\\.(?:mp4|ts|mkv|m3u8))?$", Pattern.CASE_INSENSITIVE);
 
     /** Scarica il testo M3U replicando header "browser-like" */
     public String download(String url) throws IOException {
+        try (Response resp = CLIENT.newCall(request(url)).execute()) {
+            if (!resp.isSuccessful() || resp.body()==null) {
+                throw new IOException("HTTP " + resp.code() + " durante il download M3U");
+            }
+            return resp.body().string();
+        }
+    }
+
+    private static Request request(String url) throws IOException {
         HttpUrl httpUrl = HttpUrl.parse(url);
         if (httpUrl == null) throw new IOException("URL non valida: " + url);
 
         String host = httpUrl.host();
         String referer = httpUrl.scheme() + "://" + host + "/";
 
-        Request req = new Request.Builder()
+        return new Request.Builder()
                 .url(httpUrl)
                 .header("User-Agent","Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/127 Safari/537.36")
                 .header("Accept","*/*")
                 .header("Accept-Language","it-IT,it;q=0.9,en-US;q=0.8,en;q=0.7")
-                .header("Accept-Encoding","gzip, deflate")
+                // niente Accept-Encoding esplicito: così OkHttp decomprime da solo gzip (e br)
                 .header("Cache-Control","no-cache")
                 .header("Pragma","no-cache")
                 .header("Referer", referer)
@@ -39,24 +52,106 @@ public class M3UParser {
                 // eventuali cookie "finti" per host "sensibili"
                 .header("Cookie","PHPSESSID=fake12345; xtreamiptv=ok")
                 .build();
+    }
 
-        try (Response resp = CLIENT.newCall(req).execute()) {
-            if (!resp.isSuccessful() || resp.body()==null) {
-                throw new IOException("HTTP " + resp.code() + " durante il download M3U");
+    /**
+     * Scarica e interpreta la playlist in streaming: le righe si leggono dalla risposta
+     * man mano che arrivano e i Channel vanno a {@code sink} a blocchi di {@code batchSize}.
+     * In memoria resta al più un blocco: playlist da centinaia di MB non passano mai
+     * per una String intera. Ritorna il numero di canali letti.
+     */
+    public int stream(String url, int batchSize, Consumer<List<Channel>> sink) throws IOException {
+        try (Fetch f = open(url, null)) {
+            return f.stream(batchSize, sink);
+        }
+    }
+
+    /**
+     * GET condizionale: con i validatori della copia in cache il server può rispondere
+     * 304 e non si scarica né si interpreta nulla ({@link Fetch#notModified()}).
+     */
+    public Fetch open(String url, PlaylistCache.Validators cached) throws IOException {
+        Request.Builder rb = request(url).newBuilder();
+        if (cached != null) {
+            if (cached.etag() != null && !cached.etag().isBlank()) rb.header("If-None-Match", cached.etag());
+            if (cached.lastModified() != null && !cached.lastModified().isBlank()) {
+                rb.header("If-Modified-Since", cached.lastModified());
             }
-            return resp.body().string();
+        }
+        Response resp = CLIENT.newCall(rb.build()).execute();
+        if (resp.code() != 304 && (!resp.isSuccessful() || resp.body() == null)) {
+            resp.close();
+            throw new IOException("HTTP " + resp.code() + " durante il download M3U");
+        }
+        return new Fetch(resp);
+    }
+
+    /** Risposta aperta di {@link #open}; va chiusa. */
+    public final class Fetch implements AutoCloseable {
+        private final Response resp;
+
+        private Fetch(Response resp) {
+            this.resp = resp;
+        }
+
+        public boolean notModified() { return resp.code() == 304; }
+
+        /** Validatori della nuova versione (da salvare con la copia in cache). */
+        public PlaylistCache.Validators validators() {
+            return new PlaylistCache.Validators(resp.header("ETag"), resp.header("Last-Modified"));
+        }
+
+        public int stream(int batchSize, Consumer<List<Channel>> sink) throws IOException {
+            return M3UParser.this.stream(resp.body().source(), batchSize, sink);
+        }
+
+        @Override
+        public void close() {
+            resp.close();
         }
     }
 
+    /** Come {@link #stream(String, int, Consumer)}, da una sorgente già aperta. */
+    public int stream(BufferedSource source, int batchSize, Consumer<List<Channel>> sink) throws IOException {
+        LineParser lp = new LineParser();
+        List<Channel> batch = new ArrayList<>(batchSize);
+        int count = 0;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            Channel ch = lp.accept(line);
+            if (ch == null) continue;
+            batch.add(ch);
+            count++;
+            if (batch.size() >= batchSize) {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Interrotto.");
+                sink.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) sink.accept(batch);
+        return count;
+    }
+
     /** Parse del contenuto M3U in lista di Channel */
     public List<Channel> parse(String m3uText) {
         List<Channel> out = new ArrayList<>();
         if (m3uText == null || m3uText.isBlank()) return out;
 
-        String name = "", group = "", tvgId = "", logo = "";
-        for (String raw : m3uText.split("\\R")) {
+        LineParser lp = new LineParser();
+        m3uText.lines().forEach(raw -> {
+            Channel ch = lp.accept(raw);
+            if (ch != null) out.add(ch);
+        });
+        return out;
+    }
+
+    /** Stato fra una riga e l'altra: gli attributi dell'ultimo #EXTINF valgono per l'URL che segue. */
+    private static final class LineParser {
+        private String name = "", group = "", tvgId = "", logo = "";
+
+        Channel accept(String raw) {
             String line = raw.trim();
-            if (line.isEmpty()) continue;
+            if (line.isEmpty()) return null;
 
             if (line.startsWith("#EXTINF:")) {
                 name = group = tvgId = logo = "";
@@ -72,10 +167,10 @@ public class M3UParser {
             } else if (line.startsWith("http://") || line.startsWith("https://")) {
                 boolean isVod = looksLikeVod(name, line);
                 String id = buildId(tvgId, name, line);
-                out.add(new Channel(id, name, group, line, tvgId, logo, isVod));
+                return new Channel(id, name, group, line, tvgId, logo, isVod);
             }
+            return null;
         }
-        return out;
     }
 
     private static String extractAttr(String line, String key) {
@@ -88,13 +183,11 @@ public class M3UParser {
 
     /** Heuristics: usa tvg-id se numerico, altrimenti le ultime cifre nell'URL prima dell'estensione. */
     private static String buildId(String tvgId, String name, String url) {
-        if (tvgId != null && tvgId.matches("\\d+")) return tvgId;
+        if (isDigits(tvgId)) return tvgId;
 
         // prova a prendere l'ultima sequenza di 4+ cifre dall'URL (es. .../123456.mp4)
         if (url != null) {
-            java.util.regex.Matcher m = java.util.regex.Pattern
-                    .compile("(\\d{4,})(?:\\.(?:mp4|ts|mkv|m3u8))?$", java.util.regex.Pattern.CASE_INSENSITIVE)
-                    .matcher(url);
+            Matcher m = TRAILING_ID.matcher(url);
             if (m.find()) return m.group(1);
         }
 
@@ -103,6 +196,14 @@ public class M3UParser {
         return Integer.toUnsignedString(base.hashCode()); // stringa numerica
     }
 
+    private static boolean isDigits(String s) {
+        if (s == null || s.isEmpty()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
     private static boolean looksLikeVod(String name, String url) {
         String n = name == null ? "" : name.toLowerCase();
         String u = url == null ? "" : url.toLowerCase();
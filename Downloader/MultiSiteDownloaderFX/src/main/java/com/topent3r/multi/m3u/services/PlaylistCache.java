@@ -0,0 +1,201 @@
+package com.topent3r.multi.m3u.services;
+
+import com.topent3r.multi.m3u.models.Channel;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Ultima versione scaricata di ogni playlist, in ~/.topent3r/playlists/&lt;sha1 url&gt;/:
+ * meta.properties (ETag, Last-Modified, numero di canali) e channels.bin.gz (i canali
+ * già interpretati, binario compresso). Serve a due cose: chiedere al server solo se la
+ * playlist è cambiata (GET condizionale) e, se non lo è, ricaricarla senza rifare il parse.
+ */
+public final class PlaylistCache {
+
+    /** Validatori HTTP della versione in cache (uno dei due può mancare). */
+    public record Validators(String etag, String lastModified) {
+        public boolean isEmpty() {
+            return (etag == null || etag.isBlank()) && (lastModified == null || lastModified.isBlank());
+        }
+    }
+
+    private static final int MAGIC = 0x4D334331; // "M3C1"
+    private static final String META = "meta.properties";
+    private static final String DATA = "channels.bin.gz";
+    private static final int MAX_STRING = 1 << 20;
+
+    private final Path root;
+
+    public PlaylistCache() {
+        this(Paths.get(System.getProperty("user.home"), ".topent3r", "playlists"));
+    }
+
+    public PlaylistCache(Path root) {
+        this.root = root;
+    }
+
+    /** Validatori della copia su disco, o null se non c'è (o è incompleta). */
+    public Validators validators(String url) {
+        Path dir = dirFor(url);
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(dir.resolve(META))) {
+            p.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!url.equals(p.getProperty("url")) || !Files.isRegularFile(dir.resolve(DATA))) return null;
+        Validators v = new Validators(p.getProperty("etag", ""), p.getProperty("lastModified", ""));
+        return v.isEmpty() ? null : v;
+    }
+
+    /**
+     * Rilegge i canali salvati, a blocchi come {@link M3UParser#stream}. Ritorna quanti sono.
+     * Se la copia è illeggibile la si cancella con i validatori ({@link #invalidate}): il
+     * prossimo GET non è condizionale e il server rimanda la playlist intera.
+     */
+    public int read(String url, int batchSize, Consumer<List<Channel>> sink) throws IOException {
+        try {
+            return readData(url, batchSize, sink);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            invalidate(url);
+            throw e;
+        }
+    }
+
+    private int readData(String url, int batchSize, Consumer<List<Channel>> sink) throws IOException {
+        Path file = dirFor(url).resolve(DATA);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file), 64 * 1024)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Cache playlist non valida: " + file);
+            List<Channel> batch = new ArrayList<>(batchSize);
+            int count = 0;
+            while (in.readBoolean()) {
+                batch.add(new Channel(str(in), str(in), str(in), str(in), str(in), str(in), in.readBoolean()));
+                count++;
+                if (batch.size() >= batchSize) {
+                    if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Interrotto.");
+                    sink.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) sink.accept(batch);
+            return count;
+        }
+    }
+
+    /** Cancella copia e validatori di {@code url}. */
+    public void invalidate(String url) {
+        Path dir = dirFor(url);
+        try {
+            // prima i validatori, come in commit(): senza, la copia non viene più usata
+            Files.deleteIfExists(dir.resolve(META));
+            Files.deleteIfExists(dir.resolve(DATA));
+        } catch (IOException ignore) {
+        }
+    }
+
+    /** Nuova copia per {@code url}: si scrive mentre si scarica e sostituisce la vecchia solo con commit(). */
+    public Writer writer(String url, Validators validators) throws IOException {
+        return new Writer(url, validators);
+    }
+
+    public final class Writer implements Closeable {
+        private final String url;
+        private final Validators validators;
+        private final Path dir;
+        private final Path tmp;
+        private final DataOutputStream out;
+        private int count;
+        private boolean done;
+
+        private Writer(String url, Validators validators) throws IOException {
+            this.url = url;
+            this.validators = validators;
+            this.dir = dirFor(url);
+            Files.createDirectories(dir);
+            this.tmp = dir.resolve(DATA + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024)));
+            out.writeInt(MAGIC);
+        }
+
+        public void write(List<Channel> batch) throws IOException {
+            for (Channel ch : batch) {
+                out.writeBoolean(true);
+                str(out, ch.getId());
+                str(out, ch.getName());
+                str(out, ch.getGroup());
+                str(out, ch.getUrl());
+                str(out, ch.getTvgId());
+                str(out, ch.getLogo());
+                out.writeBoolean(ch.isVod());
+                count++;
+            }
+        }
+
+        /** Chiude il file e lo mette al posto della copia precedente, insieme ai validatori. */
+        public void commit() throws IOException {
+            out.writeBoolean(false);
+            out.close();
+            done = true;
+            // prima via i vecchi validatori: se ci si ferma a metà, al prossimo giro si riscarica tutto
+            Files.deleteIfExists(dir.resolve(META));
+            Files.move(tmp, dir.resolve(DATA), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Properties p = new Properties();
+            p.setProperty("url", url);
+            p.setProperty("etag", validators != null && validators.etag() != null ? validators.etag() : "");
+            p.setProperty("lastModified", validators != null && validators.lastModified() != null ? validators.lastModified() : "");
+            p.setProperty("channels", String.valueOf(count));
+            p.setProperty("savedAt", String.valueOf(System.currentTimeMillis()));
+            try (OutputStream o = Files.newOutputStream(dir.resolve(META))) {
+                p.store(o, "Cache playlist M3U");
+            }
+        }
+
+        /** Senza commit() la copia parziale si butta e resta quella di prima. */
+        @Override
+        public void close() {
+            if (done) return;
+            try { out.close(); } catch (IOException ignore) {}
+            try { Files.deleteIfExists(tmp); } catch (IOException ignore) {}
+        }
+    }
+
+    private Path dirFor(String url) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            return root.resolve(HexFormat.of().formatHex(h));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // writeUTF ha il limite di 64 KB: lunghezza int + UTF-8
+    private static void str(DataOutputStream out, String s) throws IOException {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String str(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        // una lunghezza assurda è un file rovinato, non un'allocazione da tentare
+        if (len < 0 || len > MAX_STRING) throw new IOException("Cache playlist non valida: stringa di " + len + " byte");
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
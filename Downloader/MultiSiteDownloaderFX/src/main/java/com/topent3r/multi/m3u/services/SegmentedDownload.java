@@ -0,0 +1,364 @@
+package com.topent3r.multi.m3u.services;
+
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.download.DownloadContext;
+import com.topent3r.multi.utils.HttpClients;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Metrics;
+import com.topent3r.multi.utils.Tasks;
+import okhttp3.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download a segmenti dinamici sul .part preallocato (stile IDM/aria2).
+ *
+ * Un worker che finisce il proprio range ne ruba metà a quello che finirebbe per
+ * ultimo (range rimanente / velocità misurata). Il numero di connessioni parte da
+ * {@link #INITIAL_CONNECTIONS} e sale o scende in base al throughput complessivo,
+ * senza superare {@link HttpClients#MAX_PER_HOST} connessioni verso lo stesso host
+ * (contate su tutti i download attivi).
+ */
+class SegmentedDownload {
+
+    static final int INITIAL_CONNECTIONS = 4;
+
+    private static final int CHUNK_RETRIES = 5;
+    private static final int BUFFER = 256 * 1024;
+    private static final long CHECKPOINT_BYTES = 4L * 1024 * 1024;
+    // sotto questa soglia non conviene aprire un'altra connessione; > 2 buffer per non
+    // sovrapporsi alla write in corso del proprietario del range
+    private static final long MIN_SPLIT = 1024 * 1024;
+    private static final long TICK_MS = 2000;
+
+    /** La sorgente non corrisponde più a quella dei byte già scaricati. */
+    static class SourceChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SourceChangedException(String msg) { super(msg); }
+    }
+
+    private final OkHttpClient client;
+    private final String url;
+    private final Map<String,String> headers;
+    private final DownloadContext ctx;
+    private final ChunkCheckpoint cp;   // anche lock per lista chunk e offset
+    private final FileChannel ch;
+    private final Semaphore slots;
+    private final Metrics.Histogram chunkSeconds;
+    private final Metrics.Counter chunkRetries;
+    // un virtual thread per connessione: il limite vero è il semaforo per host
+    private final ExecutorService pool = Tasks.newExecutor("segment-worker");
+    private final AtomicLong received = new AtomicLong();
+    private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+    // svegliato dall'ultimo worker o da un errore: la fine non aspetta il tick del controller
+    private final Semaphore wake = new Semaphore(0);
+
+    private int workers;   // worker vivi (guardato da cp)
+    private int target;    // worker desiderati (guardato da cp)
+    private int retiring;  // worker già in uscita per riduzione (guardato da cp)
+    private volatile IOException failure;
+
+    SegmentedDownload(OkHttpClient client, String url, Map<String,String> headers, DownloadContext ctx,
+                      ChunkCheckpoint cp, FileChannel ch) {
+        this.client = client;
+        this.url = url;
+        this.headers = headers;
+        this.ctx = DownloadContext.orNone(ctx);
+        this.cp = cp;
+        this.ch = ch;
+        HttpUrl u = HttpUrl.parse(url);
+        String host = u != null ? u.host() : url;
+        this.slots = HttpClients.hostSlots(host);
+        this.chunkSeconds = Metrics.getInstance().histogram("download_chunk_seconds",
+                "Durata di un range multi-chunk (richiesta fino all'ultimo byte)", "host", host);
+        this.chunkRetries = Metrics.getInstance().counter("download_retries_total",
+                "Tentativi falliti di chunk e segmenti HLS", "kind", "chunk", "site", this.ctx.getSite());
+    }
+
+    /** Scarica tutti i range mancanti; lo stato resta salvato se qualcosa fallisce. */
+    void run() throws IOException {
+        try {
+            // almeno una connessione, anche se l'host è saturo da altri download
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrotto.");
+        }
+        // annullamento: chiude subito le connessioni aperte, i worker escono alla read successiva
+        CancellationToken.Registration onCancel = ctx.onCancel(() -> calls.forEach(Call::cancel));
+        synchronized (cp) {
+            target = INITIAL_CONNECTIONS;
+            spawn();
+        }
+        for (int i = 1; i < INITIAL_CONNECTIONS; i++) {
+            if (!trySpawn()) break;
+        }
+
+        long lastBytes = 0, lastSample = System.nanoTime();
+        double lastRate = 0, bestRate = 0;
+        boolean grew = false;
+        int hold = 0;
+        try {
+            while (true) {
+                boolean woken = wake.tryAcquire(TICK_MS, TimeUnit.MILLISECONDS);
+                ctx.throwIfCancelled();
+                if (failure != null) throw failure;
+                synchronized (cp) {
+                    // svegliati da un worker si aspetta che escano tutti: shutdownNow non deve interromperli in chiusura
+                    if (remaining() == 0 && (workers == 0 || !woken)) break;
+                    if (woken) continue;   // il ritmo dei campioni resta il tick
+                    if (workers == 0) {
+                        // tutti usciti (retry esauriti gestiti sopra): riparte una connessione
+                        if (!slots.tryAcquire()) continue;
+                        target = Math.max(target, 1);
+                        spawn();
+                    }
+                }
+
+                long bytes = received.get(), now = System.nanoTime();
+                double rate = (bytes - lastBytes) * 1e9 / Math.max(1, now - lastSample);
+                lastBytes = bytes;
+                lastSample = now;
+
+                // hill climbing: si aggiunge una connessione finché il throughput cresce
+                if (grew && rate < lastRate * 1.05) {
+                    synchronized (cp) { target = Math.max(1, target - 1); }
+                    hold = 5;
+                    bestRate = Math.max(bestRate, lastRate);
+                    Log.info("multi-chunk", "SEGMENTS: nessun guadagno, connessioni=" + target);
+                    grew = false;
+                } else if (hold > 0 && rate >= bestRate * 0.7) {
+                    hold--;
+                    grew = false;
+                } else {
+                    grew = trySpawn();
+                    if (grew) Log.info("multi-chunk", "SEGMENTS: " + (long) (rate / 1024) + " KB/s, connessioni=" + target);
+                    hold = 0;
+                }
+                lastRate = rate;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrotto.");
+        } finally {
+            onCancel.close();
+            synchronized (cp) { target = 0; }
+            pool.shutdownNow();
+            // le connessioni ancora aperte (errore o interruzione) vanno chiuse subito
+            calls.forEach(Call::cancel);
+        }
+    }
+
+    /** Aggiunge un worker se c'è lavoro da dividere e uno slot libero sull'host. */
+    private boolean trySpawn() {
+        synchronized (cp) {
+            if (!hasSplittable()) return false;
+            if (!slots.tryAcquire()) return false;
+            target = Math.max(target, workers + 1);
+            spawn();
+            return true;
+        }
+    }
+
+    private void spawn() {
+        workers++;
+        pool.execute(this::work);
+    }
+
+    private void work() {
+        boolean retired = false;
+        try {
+            while (failure == null) {
+                ChunkCheckpoint.Chunk c = next();
+                if (c == null) return;
+                try {
+                    retired = fetch(c);
+                    c.failures = 0;
+                    if (retired) return;
+                } catch (SourceChangedException e) {
+                    failure = e;
+                    return;
+                } catch (IOException e) {
+                    if (ctx.isCancelled()) return;
+                    int n;
+                    synchronized (cp) {
+                        c.owned = false;
+                        n = ++c.failures;
+                    }
+                    chunkRetries.inc();
+                    Log.warn("multi-chunk", "Segmento " + c.start + " tentativo " + n + " fallito a "
+                            + c.done + "/" + c.length() + ": " + e.getMessage());
+                    if (n >= CHUNK_RETRIES) {
+                        failure = new IOException("Chunk download failed: " + e.getMessage(), e);
+                        return;
+                    }
+                    Thread.sleep(1000L * n);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (cp) {
+                workers--;
+                if (retired) retiring--;
+            }
+            slots.release();
+            wake.release();
+        }
+    }
+
+    /** Range libero, altrimenti metà del range che finirebbe per ultimo; null se il worker deve uscire. */
+    private ChunkCheckpoint.Chunk next() {
+        synchronized (cp) {
+            if (workers - retiring > target) return null;
+            for (ChunkCheckpoint.Chunk c : cp.chunks) {
+                if (!c.owned && !c.isDone()) {
+                    c.owned = true;
+                    c.live = c.done;
+                    return c;
+                }
+            }
+            ChunkCheckpoint.Chunk victim = null;
+            double worst = -1;
+            for (ChunkCheckpoint.Chunk c : cp.chunks) {
+                long rest = c.length() - c.live;
+                if (!c.owned || rest < 2 * MIN_SPLIT) continue;
+                double eta = rest / Math.max(1.0, c.speed);
+                if (eta > worst) { worst = eta; victim = c; }
+            }
+            if (victim == null) return null;
+            long rest = victim.length() - victim.live;
+            long mid = victim.start + victim.live + rest / 2;
+            ChunkCheckpoint.Chunk stolen = new ChunkCheckpoint.Chunk(mid, victim.end);
+            victim.end = mid - 1;
+            stolen.owned = true;
+            cp.chunks.add(cp.chunks.indexOf(victim) + 1, stolen);
+            return stolen;
+        }
+    }
+
+    private boolean hasSplittable() {
+        for (ChunkCheckpoint.Chunk c : cp.chunks) {
+            if (!c.owned && !c.isDone()) return true;
+            if (c.owned && c.length() - c.live >= 2 * MIN_SPLIT) return true;
+        }
+        return false;
+    }
+
+    private long remaining() {
+        long sum = 0;
+        for (ChunkCheckpoint.Chunk c : cp.chunks) sum += c.length() - Math.min(c.done, c.length());
+        return sum;
+    }
+
+    /** Scarica il range fino alla fine (anche se accorciato); true se il worker deve uscire. */
+    private boolean fetch(ChunkCheckpoint.Chunk c) throws IOException {
+        long from, to;
+        synchronized (cp) {
+            from = c.start + c.done;
+            to = c.end;
+        }
+        Request.Builder rb = new Request.Builder().url(url);
+        if (headers != null) headers.forEach(rb::header);
+        rb.header("Range", "bytes=" + from + "-" + to);
+        String ifRange = cp.ifRange();
+        if (ifRange != null) rb.header("If-Range", ifRange);
+
+        Call call = client.newCall(rb.build());
+        calls.add(call);
+        long started = System.nanoTime();
+        try (Response resp = call.execute()) {
+            if (resp.code() == 200) {
+                // If-Range non soddisfatto (o Range ignorato): il server manda il file intero
+                throw new SourceChangedException("il server ha risposto 200 invece di 206");
+            }
+            if (resp.code() != 206 || resp.body() == null) {
+                throw new IOException("HTTP " + resp.code());
+            }
+            String contentRange = resp.header("Content-Range");
+            if (contentRange != null && !contentRange.startsWith("bytes " + from + "-")) {
+                throw new IOException("Content-Range inatteso: " + contentRange);
+            }
+
+            long written = c.done;
+            long first = written;
+            long lastCheckpoint = written;
+            long t0 = System.nanoTime();
+            boolean retire = false;
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+            try (InputStream in = resp.body().byteStream()) {
+                int n;
+                while ((n = in.read(buf.array())) != -1) {
+                    long len;
+                    synchronized (cp) {
+                        // il range può essersi accorciato per un furto: ci si ferma al nuovo end
+                        len = Math.min(n, c.length() - written);
+                    }
+                    if (len <= 0) break;
+                    buf.limit((int) len).position(0);
+                    long pos = c.start + written;
+                    while (buf.hasRemaining()) pos += ch.write(buf, pos);
+                    buf.clear();
+                    written += len;
+                    received.addAndGet(len);
+                    ctx.throttle(len);
+                    synchronized (cp) {
+                        c.live = written;
+                        long ns = System.nanoTime() - t0;
+                        if (ns > 0) c.speed = (written - first) * 1e9 / ns;
+                    }
+                    if (written - lastCheckpoint >= CHECKPOINT_BYTES) {
+                        checkpoint(c, written);
+                        lastCheckpoint = written;
+                    }
+                    if (written >= lengthOf(c)) break;
+                    if (retire = shouldRetire()) break;
+                }
+            } finally {
+                checkpoint(c, written);
+                synchronized (cp) {
+                    if (!c.isDone()) c.owned = false;
+                }
+            }
+            if (!retire && !isDone(c)) throw new IOException("Connessione chiusa a " + written + "/" + lengthOf(c));
+            chunkSeconds.observeSince(started);
+            return retire;
+        } finally {
+            calls.remove(call);
+        }
+    }
+
+    private long lengthOf(ChunkCheckpoint.Chunk c) {
+        synchronized (cp) { return c.length(); }
+    }
+
+    private boolean isDone(ChunkCheckpoint.Chunk c) {
+        synchronized (cp) { return c.isDone(); }
+    }
+
+    /** True se il controller ha ridotto le connessioni: questo worker esce e il range torna libero. */
+    private boolean shouldRetire() {
+        synchronized (cp) {
+            if (workers - retiring <= target) return false;
+            retiring++;
+            return true;
+        }
+    }
+
+    /** Forza i dati su disco e solo dopo registra il nuovo offset. */
+    private void checkpoint(ChunkCheckpoint.Chunk c, long written) throws IOException {
+        ch.force(false);
+        synchronized (cp) {
+            c.done = written;
+        }
+        cp.save();
+    }
+}
@@ -1,5 +1,11 @@
 package com.topent3r.multi.m3u.services;
 
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.download.DownloadContext;
+import com.topent3r.multi.download.Integrity;
+import com.topent3r.multi.download.LibraryIndex;
+import com.topent3r.multi.utils.HttpClients;
+import com.topent3r.multi.utils.Log;
 import okhttp3.*;
 import java.io.*;
 import java.nio.file.*;
@@ -12,12 +18,7 @@ import java.util.concurrent.TimeUnit;
  */
 public class SimpleHttpDownloader {
 
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .followRedirects(true)
-            .followSslRedirects(true)
-            .retryOnConnectionFailure(true)
-            .protocols(java.util.List.of(Protocol.HTTP_1_1))
-            .connectTimeout(30, TimeUnit.SECONDS)
+    private final OkHttpClient client = HttpClients.downloads().newBuilder()
             .readTimeout(120, TimeUnit.SECONDS)  // Timeout lungo per file grandi
             .build();
 
@@ -34,6 +35,14 @@ public class SimpleHttpDownloader {
     }
 
     public Path download(String url, Path dir, String fileName, Map<String,String> headers, ProgressCallback callback) throws IOException {
+        return download(url, dir, fileName, headers, callback, DownloadContext.none());
+    }
+
+    /** Come sopra, con il contesto del download per i limiti di banda. */
+    @SuppressWarnings("try") // la registrazione vale per la durata della chiamata
+    public Path download(String url, Path dir, String fileName, Map<String,String> headers, ProgressCallback callback,
+                         DownloadContext ctx) throws IOException {
+        ctx = DownloadContext.orNone(ctx);
         if (url == null || url.isBlank()) throw new IOException("URL vuota");
         if (dir == null) dir = Paths.get(System.getProperty("user.home"), "Downloads");
         Files.createDirectories(dir);
@@ -41,8 +50,10 @@ public class SimpleHttpDownloader {
         fileName = sanitize(fileName);
         if (fileName.isBlank()) fileName = "stream.mp4";
 
-        Path out = unique(dir.resolve(fileName));
+        Path target = dir.resolve(fileName);
+        Path out = unique(target);
         Path tmp = out.resolveSibling(out.getFileName().toString() + ".part");
+        ctx.trackPartial(tmp, false);
 
         // Build request con headers semplici
         Request.Builder rb = new Request.Builder().url(url);
@@ -55,15 +66,18 @@ public class SimpleHttpDownloader {
             });
         }
 
-        System.out.println("[SimpleDownload] Downloading: " + url);
-        System.out.println("[SimpleDownload] Output: " + out);
+        Log.info("download", "Downloading: " + url);
+        Log.info("download", "Output: " + out);
 
-        try (Response resp = client.newCall(rb.build()).execute()) {
+        Call call = client.newCall(rb.build());
+        try (CancellationToken.Registration reg = ctx.onCancel(call);
+             Response resp = call.execute()) {
             if (!resp.isSuccessful() || resp.body() == null) {
                 throw new IOException("HTTP " + resp.code() + " su " + url);
             }
 
-            // Download con buffer 2MB per velocità ottimale
+            // Download con buffer 2MB per velocità ottimale; SHA-256 calcolato mentre si scrive
+            Integrity.Hasher hasher = new Integrity.Hasher();
             try (InputStream in = resp.body().byteStream();
                  OutputStream fos = new BufferedOutputStream(Files.newOutputStream(tmp), 2 * 1024 * 1024)) {
                 
@@ -76,7 +90,9 @@ public class SimpleHttpDownloader {
                 
                 while ((bytesRead = in.read(buffer)) != -1) {
                     fos.write(buffer, 0, bytesRead);
+                    hasher.update(buffer, 0, bytesRead);
                     totalBytes += bytesRead;
+                    ctx.throttle(bytesRead);
                     
                     long now = System.currentTimeMillis();
                     
@@ -93,20 +109,28 @@ public class SimpleHttpDownloader {
                     
                     // Log progress ogni 5 secondi
                     if (now - lastLog > 5000) {
-                        System.out.println("[SimpleDownload] Downloaded: " + formatSize(totalBytes));
+                        Log.debug("download", "Downloaded: " + formatSize(totalBytes));
                         lastLog = now;
                     }
                 }
                 
-                System.out.println("[SimpleDownload] Total: " + formatSize(totalBytes));
+                Log.info("download", "Total: " + formatSize(totalBytes));
             }
+            hasher.checkLength(resp.body().contentLength(), url);
+            ctx.recordChecksum(out, hasher.hex());
         }
 
         long size = Files.exists(tmp) ? Files.size(tmp) : 0;
         if (size <= 0) throw new IOException("File risultante vuoto.");
         
+        // stesso contenuto del file già presente col nome richiesto: niente copia "nome_1"
+        if (!out.equals(target) && LibraryIndex.sameContent(target, tmp)) {
+            Files.delete(tmp);
+            Log.info("download", "Identico a " + target + ", copia scartata");
+            return target;
+        }
         Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        System.out.println("[SimpleDownload] SUCCESS: " + out);
+        Log.info("download", "SUCCESS: " + out);
         return out;
     }
 
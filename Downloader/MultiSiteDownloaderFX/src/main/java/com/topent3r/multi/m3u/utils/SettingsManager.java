@@ -17,6 +17,26 @@ public class SettingsManager {
         public String downloadDir = "";
         public int downloadSpeed = 2; // 1=x1, 2=x2, 4=x4, 8=x8
         public String downloadQuality = "720p"; // Best, 1080p, 720p, 480p, 360p
+        public int hlsWorkers = 0; // segmenti HLS in parallelo, 0 = automatico
+        
+        // Limiti di banda (vuoto = illimitato). Numeri senza unità in Mbit/s, es. "20", "5MB", "800kbit"
+        public String bandwidthLimit = "";
+        public String bandwidthSiteLimits = "";   // es. "RaiPlay=5;M3U=2MB"
+        public String bandwidthSchedule = "";     // es. "09:00-18:00=20;18:00-09:00=0"
+        
+        // Download contemporanei
+        public int maxConcurrentDownloads = 4;
+        public int maxDownloadsPerSite = 2;
+        public String siteConcurrency = "";       // es. "StreamingCommunity=1;RaiPlay=3"
+        public boolean keepPartialOnCancel = true; // annullando si tengono i .part riprendibili
+        
+        // Cache di ricerche ed elenchi episodi: TTL in minuti per sito (vuoto = predefiniti)
+        public String metadataCacheTtl = "";      // es. "Crunchyroll=720;StreamingCommunity=30"
+        public String federatedSearchSites = "";  // es. "RaiPlay, Crunchyroll" (vuoto = tutti)
+        public int federatedSearchTimeout = 20;   // secondi per sito
+        
+        // Metriche in formato Prometheus su http://127.0.0.1:<porta>/metrics (0 = spento; JMX è sempre attivo)
+        public int metricsPort = 0;
         
         // Site URLs (configurable) - defaults from domains.json
         public String urlStreamingCommunity = "https://streamingcommunityz.ltd";
@@ -56,6 +76,18 @@ public class SettingsManager {
                 s.downloadDir = p.getProperty("downloadDir", "");
                 s.downloadSpeed = Integer.parseInt(p.getProperty("downloadSpeed", "2"));
                 s.downloadQuality = p.getProperty("downloadQuality", "720p");
+                s.hlsWorkers = Integer.parseInt(p.getProperty("hlsWorkers", "0"));
+                s.bandwidthLimit = p.getProperty("bandwidthLimit", "");
+                s.bandwidthSiteLimits = p.getProperty("bandwidthSiteLimits", "");
+                s.bandwidthSchedule = p.getProperty("bandwidthSchedule", "");
+                s.maxConcurrentDownloads = Integer.parseInt(p.getProperty("maxConcurrentDownloads", "4"));
+                s.maxDownloadsPerSite = Integer.parseInt(p.getProperty("maxDownloadsPerSite", "2"));
+                s.siteConcurrency = p.getProperty("siteConcurrency", "");
+                s.keepPartialOnCancel = Boolean.parseBoolean(p.getProperty("keepPartialOnCancel", "true"));
+                s.metadataCacheTtl = p.getProperty("metadataCacheTtl", "");
+                s.federatedSearchSites = p.getProperty("federatedSearchSites", "");
+                s.federatedSearchTimeout = Integer.parseInt(p.getProperty("federatedSearchTimeout", "20"));
+                s.metricsPort = Integer.parseInt(p.getProperty("metricsPort", "0"));
                 
                 // Load site URLs
                 s.urlStreamingCommunity = p.getProperty("urlStreamingCommunity", s.urlStreamingCommunity);
@@ -83,6 +115,18 @@ public class SettingsManager {
         p.setProperty("downloadDir", s.downloadDir == null ? "" : s.downloadDir);
         p.setProperty("downloadSpeed", String.valueOf(s.downloadSpeed));
         p.setProperty("downloadQuality", s.downloadQuality == null ? "720p" : s.downloadQuality);
+        p.setProperty("hlsWorkers", String.valueOf(s.hlsWorkers));
+        p.setProperty("bandwidthLimit", s.bandwidthLimit != null ? s.bandwidthLimit : "");
+        p.setProperty("bandwidthSiteLimits", s.bandwidthSiteLimits != null ? s.bandwidthSiteLimits : "");
+        p.setProperty("bandwidthSchedule", s.bandwidthSchedule != null ? s.bandwidthSchedule : "");
+        p.setProperty("maxConcurrentDownloads", String.valueOf(s.maxConcurrentDownloads));
+        p.setProperty("maxDownloadsPerSite", String.valueOf(s.maxDownloadsPerSite));
+        p.setProperty("siteConcurrency", s.siteConcurrency != null ? s.siteConcurrency : "");
+        p.setProperty("keepPartialOnCancel", String.valueOf(s.keepPartialOnCancel));
+        p.setProperty("metadataCacheTtl", s.metadataCacheTtl != null ? s.metadataCacheTtl : "");
+        p.setProperty("federatedSearchSites", s.federatedSearchSites != null ? s.federatedSearchSites : "");
+        p.setProperty("federatedSearchTimeout", String.valueOf(s.federatedSearchTimeout));
+        p.setProperty("metricsPort", String.valueOf(s.metricsPort));
         
         // Save site URLs
         p.setProperty("urlStreamingCommunity", s.urlStreamingCommunity != null ? s.urlStreamingCommunity : "");
@@ -0,0 +1,102 @@
+package com.topent3r.multi.services;
+
+import com.google.gson.reflect.TypeToken;
+import com.topent3r.multi.download.DownloadContext;
+import com.topent3r.multi.model.Episode;
+import com.topent3r.multi.model.MediaItem;
+import com.topent3r.multi.utils.Metrics;
+
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Provider con {@link MetadataCache} davanti a search() e listEpisodes():
+ * riaprire una serie già vista non richiede un altro giro di python o scraping.
+ * Download e prefetch passano diretti al provider.
+ *
+ * Tutti i provider passano di qui, quindi qui si misurano anche i tempi di risoluzione
+ * (ricerca, episodi, prefetch dello stream) per provider: metrica provider_resolve_seconds.
+ */
+public class CachingProvider implements ContentProvider {
+
+    private static final Type ITEMS = new TypeToken<List<MediaItem>>() {}.getType();
+    private static final Type EPISODES = new TypeToken<List<Episode>>() {}.getType();
+
+    private final ContentProvider delegate;
+    private final MetadataCache cache;
+
+    public CachingProvider(ContentProvider delegate) {
+        this(delegate, MetadataCache.getInstance());
+    }
+
+    CachingProvider(ContentProvider delegate, MetadataCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    public ContentProvider getDelegate() { return delegate; }
+
+    @Override
+    public String getDisplayName() {
+        return delegate.getDisplayName();
+    }
+
+    @Override
+    public List<MediaItem> search(String query) throws Exception {
+        String name = delegate.getDisplayName();
+        String key = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        long started = System.nanoTime();
+        try {
+            return cache.get(name, "search", key, cache.ttl(name, MetadataCache.DEFAULT_SEARCH_TTL_MS), ITEMS,
+                    () -> delegate.search(query));
+        } finally {
+            resolved("search", started);
+        }
+    }
+
+    @Override
+    public List<Episode> listEpisodes(MediaItem item) throws Exception {
+        String name = delegate.getDisplayName();
+        String key = item.getId() + "|" + item.getUrl() + "|" + item.getPathId();
+        long started = System.nanoTime();
+        try {
+            return cache.get(name, "episodes", key, cache.ttl(name, MetadataCache.DEFAULT_EPISODES_TTL_MS), EPISODES,
+                    () -> delegate.listEpisodes(item));
+        } finally {
+            resolved("episodes", started);
+        }
+    }
+
+    @Override
+    public void download(MediaItem item, Episode episode, Path outputDir) throws Exception {
+        delegate.download(item, episode, outputDir);
+    }
+
+    @Override
+    public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback) throws Exception {
+        delegate.download(item, episode, outputDir, callback);
+    }
+
+    @Override
+    public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback,
+                         DownloadContext ctx) throws Exception {
+        delegate.download(item, episode, outputDir, callback, ctx);
+    }
+
+    @Override
+    public void prefetch(MediaItem item, Episode episode, DownloadContext ctx) throws Exception {
+        long started = System.nanoTime();
+        try {
+            delegate.prefetch(item, episode, ctx);
+        } finally {
+            resolved("prefetch", started);
+        }
+    }
+
+    private void resolved(String op, long startedNanos) {
+        Metrics.getInstance().histogram("provider_resolve_seconds", "Tempi di risoluzione per provider (cache comprese)",
+                "provider", delegate.getDisplayName(), "op", op).observeSince(startedNanos);
+    }
+}
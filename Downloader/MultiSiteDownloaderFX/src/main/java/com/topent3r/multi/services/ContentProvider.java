@@ -1,5 +1,6 @@
 package com.topent3r.multi.services;
 
+import com.topent3r.multi.download.DownloadContext;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
 
@@ -19,9 +20,29 @@ public interface ContentProvider {
     default void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback) throws Exception {
         download(item, episode, outputDir);
     }
+
+    /** Variante usata dal DownloadManager: il contesto porta sito/elemento ai downloader (limiti di banda). */
+    default void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback,
+                          DownloadContext ctx) throws Exception {
+        download(item, episode, outputDir, callback);
+    }
     
+    /**
+     * Prepara in anticipo quello che serve a scaricare l'episodio (es. risoluzione
+     * della playlist), mentre è ancora in corso il download precedente. Facoltativo:
+     * chi non lo implementa risolve tutto dentro download(). I processi avviati vanno
+     * registrati sul contesto, così l'annullamento dell'elemento li ferma.
+     */
+    default void prefetch(MediaItem item, Episode episode, DownloadContext ctx) throws Exception {}
+
     interface DownloadCallback {
         void onProgress(String message);
         void onSpeed(String speed);
+
+        /** Avanzamento dell'episodio corrente, da 0 a 1 (se il provider lo conosce). */
+        default void onFraction(double fraction) {}
+
+        /** File scritto per l'episodio, dai provider con una propria struttura di cartelle: si verifica quello. */
+        default void onFile(Path file) {}
     }
 }
@@ -0,0 +1,244 @@
+package com.topent3r.multi.services;
+
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.model.MediaItem;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Tasks;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ricerca su tutti i siti insieme.
+ *
+ * La query parte in parallelo verso ogni provider abilitato (un lavoro per sito in uno
+ * {@link Tasks.Scope}); ogni risposta viene fusa subito nell'elenco comune, quindi i
+ * siti veloci si vedono senza aspettare quelli lenti. Un sito che non risponde entro
+ * il timeout (contato dall'avvio della ricerca, attesa in coda compresa) viene segnato
+ * come scaduto e fermato: chiamata HTTP o processo python chiusi, thread interrotto.
+ * Lo stesso titolo trovato su più siti (titolo normalizzato, anno uguale o mancante)
+ * diventa una sola riga con più fonti.
+ */
+public final class FederatedSearch {
+
+    /** Siti con un tab nell'interfaccia, nell'ordine dei tab. */
+    public static final List<String> DEFAULT_SITES = List.of(
+            "StreamingCommunity", "RaiPlay", "MediasetInfinity", "Crunchyroll",
+            "AnimeUnity", "AltaDefinizione", "GuardaSerie", "AnimeWorld");
+
+    public static final int DEFAULT_TIMEOUT_SECONDS = 20;
+
+    private static final FederatedSearch INSTANCE = new FederatedSearch();
+
+    public enum State { SEARCHING, DONE, EMPTY, TIMEOUT, FAILED }
+
+    /** Un risultato su un sito: provider da usare e MediaItem da passargli. */
+    public record Source(String provider, MediaItem item) {}
+
+    /** Una riga dell'elenco fuso. Immutabile: a ogni aggiornamento arriva un nuovo elenco. */
+    public record Hit(String title, String type, String year, List<Source> sources) {
+        public String sites() {
+            return String.join(", ", sources.stream().map(Source::provider).distinct().toList());
+        }
+    }
+
+    /**
+     * Notifiche della ricerca, chiamate dal thread del sito che ha appena risposto
+     * (chi aggiorna la UI deve passare da Platform.runLater). Arrivano in ordine.
+     */
+    public interface Listener {
+        /** Nuovo elenco fuso, dopo i risultati di {@code provider}. */
+        void onResults(String provider, List<Hit> merged);
+
+        /** Cambio di stato di un sito; {@code detail} è il numero di risultati o l'errore. */
+        void onProviderState(String provider, State state, String detail);
+
+        /** Tutti i siti hanno risposto, sono scaduti o la ricerca è stata annullata. */
+        default void onComplete() {}
+    }
+
+    /** Ricerca in corso, annullabile. */
+    public interface Handle {
+        void cancel();
+    }
+
+    private volatile List<String> sites = DEFAULT_SITES;
+    private volatile long timeoutMs = TimeUnit.SECONDS.toMillis(DEFAULT_TIMEOUT_SECONDS);
+
+    private FederatedSearch() {}
+
+    public static FederatedSearch getInstance() { return INSTANCE; }
+
+    /** {@code sites}: "RaiPlay, Crunchyroll, ..." (vuoto = tutti); {@code timeoutSeconds} <= 0 = predefinito. */
+    public void configure(String sites, int timeoutSeconds) {
+        List<String> out = new ArrayList<>();
+        if (sites != null) {
+            for (String s : sites.split("[,;\\n]")) {
+                String name = s.trim();
+                if (name.isEmpty()) continue;
+                if (ProviderRegistry.forName(name) == null || "M3U".equals(name)) {
+                    Log.warn("search", "sito sconosciuto per la ricerca globale: '" + name + "'");
+                    continue;
+                }
+                if (!out.contains(name)) out.add(name);
+            }
+        }
+        this.sites = out.isEmpty() ? DEFAULT_SITES : List.copyOf(out);
+        this.timeoutMs = TimeUnit.SECONDS.toMillis(timeoutSeconds > 0 ? timeoutSeconds : DEFAULT_TIMEOUT_SECONDS);
+    }
+
+    public List<String> getSites() { return sites; }
+
+    /** Avvia la ricerca e ritorna subito. */
+    public Handle search(String query, Listener listener) {
+        Map<String, ContentProvider> providers = new LinkedHashMap<>();
+        for (String site : sites) providers.put(site, ProviderRegistry.forName(site));
+        return search(query, providers, timeoutMs, listener);
+    }
+
+    @SuppressWarnings("try") // token e contesto di log valgono per la durata del blocco
+    Handle search(String query, Map<String, ContentProvider> providers, long deadlineMs, Listener listener) {
+        Run run = new Run(listener, providers.size());
+        for (String site : providers.keySet()) listener.onProviderState(site, State.SEARCHING, "");
+
+        for (Map.Entry<String, ContentProvider> e : providers.entrySet()) {
+            String site = e.getKey();
+            ContentProvider provider = e.getValue();
+            CancellationToken token = new CancellationToken();
+            run.tokens.put(site, token);
+            // il timeout conta da subito, anche l'attesa di un permesso (semaforo condiviso con i tab)
+            run.startDeadline(site, deadlineMs);
+            Future<?> f = run.scope.fork(Tasks.SEARCHES, () -> {
+                if (token.isCancelled()) return;
+                long started = System.nanoTime();
+                List<MediaItem> items;
+                // chiamate HTTP e processi python della ricerca si chiudono col token
+                try (CancellationToken.Registration bound = CancellationToken.bind(token)) {
+                    items = provider.search(query);
+                } catch (Exception ex) {
+                    String msg = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+                    if (run.settle(site, State.FAILED, msg, null)) {
+                        try (Log.Binding b = Log.bind(site, null)) {
+                            Log.warn("search", "ricerca fallita query='" + query + "': " + msg);
+                        }
+                    }
+                    return;
+                }
+                long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                if (items == null || items.isEmpty()) {
+                    run.settle(site, State.EMPTY, "0", null);
+                } else {
+                    run.settle(site, State.DONE, items.size() + " (" + ms + " ms)", items);
+                }
+            });
+            run.futures.put(site, f);
+        }
+        return run;
+    }
+
+    private static final class Run implements Handle {
+        private final Listener listener;
+        private final Tasks.Scope scope = Tasks.scope("federated-search");
+        private final Map<String, Future<?>> futures = new ConcurrentHashMap<>();
+        private final Map<String, Thread> timers = new ConcurrentHashMap<>();
+        private final Map<String, CancellationToken> tokens = new ConcurrentHashMap<>();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final Set<String> settled = new HashSet<>();
+        private final Map<String, List<Hit>> byTitle = new LinkedHashMap<>();
+        private final List<Hit> order = new ArrayList<>();
+        private final AtomicInteger pending;
+
+        Run(Listener listener, int sites) {
+            this.listener = listener;
+            this.pending = new AtomicInteger(sites);
+            if (sites == 0) complete();
+        }
+
+        void startDeadline(String site, long deadlineMs) {
+            timers.put(site, Tasks.start("federated-search-deadline-" + site, () -> {
+                try {
+                    Thread.sleep(deadlineMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (settle(site, State.TIMEOUT, "nessuna risposta in " + deadlineMs / 1000 + " s", null)) {
+                    // prima la chiamata o il processo in corso, poi il thread (anche se ancora in coda)
+                    CancellationToken token = tokens.get(site);
+                    if (token != null) token.cancel();
+                    Future<?> f = futures.get(site);
+                    if (f != null) f.cancel(true);
+                }
+            }));
+        }
+
+        /** Primo esito per il sito: gli altri (es. risposta dopo il timeout) si scartano. */
+        boolean settle(String site, State state, String detail, List<MediaItem> items) {
+            synchronized (this) {
+                if (scope.isCancelled() || !settled.add(site)) return false;
+                Thread timer = timers.remove(site);
+                if (timer != null && timer != Thread.currentThread()) timer.interrupt();
+                if (items != null) {
+                    for (MediaItem item : items) merge(site, item);
+                    listener.onResults(site, List.copyOf(order));
+                }
+                listener.onProviderState(site, state, detail);
+            }
+            if (pending.decrementAndGet() == 0) complete();
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (scope.isCancelled()) return;
+                tokens.values().forEach(CancellationToken::cancel);
+                scope.cancel();
+                timers.values().forEach(Thread::interrupt);
+            }
+            complete();
+        }
+
+        /** onComplete una volta sola: annullamento e ultima risposta possono arrivare insieme. */
+        private void complete() {
+            if (completed.compareAndSet(false, true)) listener.onComplete();
+        }
+
+        private void merge(String site, MediaItem item) {
+            String key = normalize(item.getTitle());
+            String year = blankToNull(item.getYear());
+            List<Hit> same = byTitle.computeIfAbsent(key, k -> new ArrayList<>());
+            for (int i = 0; i < same.size(); i++) {
+                Hit h = same.get(i);
+                boolean yearMatches = year == null || h.year() == null || year.equals(h.year());
+                boolean siteAlready = h.sources().stream().anyMatch(s -> s.provider().equals(site));
+                if (!yearMatches || siteAlready) continue;
+                List<Source> sources = new ArrayList<>(h.sources());
+                sources.add(new Source(site, item));
+                Hit merged = new Hit(h.title(), h.type() != null ? h.type() : item.getType(),
+                        h.year() != null ? h.year() : year, List.copyOf(sources));
+                same.set(i, merged);
+                order.set(order.indexOf(h), merged);
+                return;
+            }
+            Hit h = new Hit(item.getTitle(), item.getType(), year, List.of(new Source(site, item)));
+            same.add(h);
+            order.add(h);
+        }
+    }
+
+    /** Minuscole, senza accenti né punteggiatura: "Lupin III - Parte 1" e "lupin iii parte 1" coincidono. */
+    static String normalize(String title) {
+        if (title == null) return "";
+        String s = Normalizer.normalize(title, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        return s.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.isBlank() ? null : s.trim();
+    }
+}
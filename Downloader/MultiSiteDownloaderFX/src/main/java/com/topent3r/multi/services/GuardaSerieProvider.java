@@ -4,11 +4,12 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.download.DownloadContext;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
+import com.topent3r.multi.utils.Log;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -85,17 +86,16 @@ public class GuardaSerieProvider implements ContentProvider {
     
     @Override
     public void download(MediaItem item, Episode episode, Path outputDir) throws Exception {
+        download(item, episode, outputDir, null, DownloadContext.none());
+    }
+
+    @Override
+    public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback,
+                         DownloadContext ctx) throws Exception {
         if (episode == null) throw new Exception("Episodio non specificato");
         
         int index = episode.getIndex() >= 0 ? episode.getIndex() : Integer.parseInt(episode.getEpisode()) - 1;
-        String output = runPythonScript("download-episode", item.getUrl(), item.getTitle(), episode.getSeason(), String.valueOf(index), outputDir.toString());
-        
-        output = output.replaceAll("\u001B\\[[;\\d]*m", "");
-        int jsonStart = output.indexOf('{');
-        int jsonEnd = output.lastIndexOf('}');
-        if (jsonStart >= 0 && jsonEnd > jsonStart) {
-            output = output.substring(jsonStart, jsonEnd + 1);
-        }
+        String output = runPythonScript(ctx, callback, "download-episode", item.getUrl(), item.getTitle(), episode.getSeason(), String.valueOf(index), outputDir.toString());
         
         JsonObject json = gson.fromJson(output, JsonObject.class);
         if (!"ok".equals(json.get("status").getAsString())) {
@@ -103,34 +103,52 @@ public class GuardaSerieProvider implements ContentProvider {
         }
     }
     
+    /** Ricerche ed elenchi episodi: interprete già avviato dal pool, senza costo di avvio. */
     private String runPythonScript(String... args) throws Exception {
+        Path projectRoot = Path.of(System.getProperty("user.dir")).getParent().getParent();
+        PythonWorkerPool.Result r;
+        try {
+            r = PythonWorkerPool.forScript(projectRoot.resolve(PYTHON_SCRIPT), projectRoot).call(args);
+        } catch (PythonWorkerPool.UnavailableException e) {
+            Log.info("python", e.getMessage() + " - avvio diretto dello script");
+            return runPythonScript(DownloadContext.none(), null, args);
+        }
+        String output = r.joined().trim();
+        if (r.exitCode() != 0 && !output.contains("\"status\"")) {
+            throw new Exception("Python script failed: " + output);
+        }
+        return output;
+    }
+
+    /** Avvio diretto dello script: gli eventi di avanzamento arrivano al callback durante il download. */
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    private String runPythonScript(DownloadContext ctx, DownloadCallback callback, String... args) throws Exception {
         Path projectRoot = Path.of(System.getProperty("user.dir")).getParent().getParent();
         Path scriptPath = projectRoot.resolve(PYTHON_SCRIPT);
         
         List<String> cmd = new ArrayList<>();
         cmd.add(PythonHelper.getPythonCommand());
         cmd.add(scriptPath.toString());
-        for (String arg : args) cmd.add(arg);
+        for (String arg : args) {
+            cmd.add(arg);
+        }
         
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(projectRoot.toFile());
-        pb.environment().put("NO_COLOR", "1");
-        pb.environment().put("TERM", "dumb");
+        PythonHelper.configure(pb);
         pb.redirectErrorStream(true);
         
         Process proc = pb.start();
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) sb.append(line);
+        PythonEvents.Outcome outcome;
+        try (CancellationToken.Registration onCancel = ctx.onCancel(proc)) {
+            outcome = PythonEvents.read(proc, scriptPath.getFileName().toString(), callback);
         }
+        ctx.throwIfCancelled();
         
-        int exitCode = proc.waitFor();
-        String output = sb.toString().trim();
-        
-        if (exitCode != 0 && !output.contains("\"status\"")) {
-            throw new Exception("Python script failed: " + output);
+        if (outcome.result() == null) {
+            throw new Exception("Python script failed: " + outcome.message());
         }
-        return output;
+        
+        return outcome.result().toString();
     }
 }
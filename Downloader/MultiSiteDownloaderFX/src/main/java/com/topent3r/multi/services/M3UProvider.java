@@ -1,9 +1,11 @@
 package com.topent3r.multi.services;
 
+import com.topent3r.multi.download.DownloadContext;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
 import com.topent3r.multi.m3u.models.Channel;
 import com.topent3r.multi.m3u.services.SimpleHttpDownloader;
+import com.topent3r.multi.utils.Log;
 
 import java.nio.file.Path;
 import java.util.*;
@@ -22,6 +24,17 @@ public class M3UProvider implements ContentProvider {
         channelMap.put(channel.getId(), channel);
     }
     
+    /** Canale registrato, o ricostruito dall'item (URL salvata) se ripristinato dal journal. */
+    private Channel channelFor(MediaItem item) {
+        Channel channel = channelMap.get(item.getId());
+        if (channel == null && item.getUrl() != null && !item.getUrl().isBlank()) {
+            channel = new Channel(item.getId(), item.getTitle(), item.getSourceAlias(), item.getUrl(), "", "",
+                    "movie".equals(item.getType()));
+            channelMap.put(item.getId(), channel);
+        }
+        return channel;
+    }
+    
     @Override
     public String getDisplayName() {
         return "M3U";
@@ -36,7 +49,7 @@ public class M3UProvider implements ContentProvider {
     @Override
     public List<Episode> listEpisodes(MediaItem item) throws Exception {
         // Per M3U, ogni canale è un singolo "episodio"
-        Channel channel = channelMap.get(item.getId());
+        Channel channel = channelFor(item);
         if (channel == null) return Collections.emptyList();
         
         Episode ep = new Episode(channel.getId(), "1", "1", channel.getName());
@@ -51,9 +64,15 @@ public class M3UProvider implements ContentProvider {
     
     @Override
     public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback) throws Exception {
-        Channel channel = channelMap.get(item.getId());
+        download(item, episode, outputDir, callback, DownloadContext.none());
+    }
+
+    @Override
+    public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback,
+                         DownloadContext ctx) throws Exception {
+        Channel channel = channelFor(item);
         if (channel == null) {
-            System.err.println("Channel not found: " + item.getId());
+            Log.warn("resolve", "Channel not found: " + item.getId());
             throw new Exception("Channel not found: " + item.getId());
         }
         
@@ -77,7 +96,7 @@ public class M3UProvider implements ContentProvider {
             public void onSpeed(String speed) {
                 if (callback != null) callback.onSpeed(speed);
             }
-        });
+        }, ctx);
         
         if (callback != null) {
             callback.onProgress("✅ Completato");
@@ -98,7 +117,7 @@ public class M3UProvider implements ContentProvider {
             headers.put("Referer", referer);  // Usa referer semplice, non playlistUrl
             headers.put("Connection", "keep-alive");
         } catch (Exception e) {
-            System.err.println("Failed to build headers: " + e.getMessage());
+            Log.warn("resolve", "Failed to build headers: " + e.getMessage());
         }
         
         return headers;
@@ -4,26 +4,21 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.download.DownloadContext;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
+import com.topent3r.multi.utils.Log;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class MediasetInfinityProvider implements ContentProvider {
     
     private static final String PYTHON_SCRIPT = PythonHelper.getScriptPath("mediaset_headless.py");
     private final Gson gson = new Gson();
     
-    // Cache for episodes by URL
-    private final Map<String, List<Episode>> episodesCache = new HashMap<>();
-    private final Map<String, List<String>> seasonsCache = new HashMap<>();
-    
     @Override
     public String getDisplayName() { return "MediasetInfinity"; }
     
@@ -61,11 +56,6 @@ public class MediasetInfinityProvider implements ContentProvider {
             throw new Exception("URL mancante per " + item.getTitle());
         }
         
-        // Check cache
-        if (episodesCache.containsKey(url)) {
-            return episodesCache.get(url);
-        }
-        
         String output = runPythonScript("list-episodes", url);
         JsonObject json = gson.fromJson(output, JsonObject.class);
         
@@ -74,13 +64,10 @@ public class MediasetInfinityProvider implements ContentProvider {
         }
         
         List<Episode> allEpisodes = new ArrayList<>();
-        List<String> seasonList = new ArrayList<>();
         
         JsonArray seasons = json.getAsJsonArray("seasons");
         for (JsonElement sEl : seasons) {
             JsonObject sObj = sEl.getAsJsonObject();
-            String seasonNum = sObj.get("season").getAsString();
-            seasonList.add(seasonNum);
             
             JsonArray episodes = sObj.getAsJsonArray("episodes");
             for (JsonElement eEl : episodes) {
@@ -95,26 +82,22 @@ public class MediasetInfinityProvider implements ContentProvider {
             }
         }
         
-        episodesCache.put(url, allEpisodes);
-        seasonsCache.put(url, seasonList);
-        
         return allEpisodes;
     }
     
-    public List<String> getSeasons(MediaItem item) throws Exception {
-        String url = item.getUrl();
-        if (!seasonsCache.containsKey(url)) {
-            listEpisodes(item);
-        }
-        return seasonsCache.getOrDefault(url, new ArrayList<>());
-    }
-    
     @Override
     public void download(MediaItem item, Episode episode, Path outputDir) throws Exception {
-        downloadInternal(item, episode, outputDir);
+        downloadInternal(item, episode, outputDir, null, DownloadContext.none());
+    }
+
+    @Override
+    public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback,
+                         DownloadContext ctx) throws Exception {
+        downloadInternal(item, episode, outputDir, callback, ctx);
     }
     
-    private void downloadInternal(MediaItem item, Episode episode, Path outputDir) throws Exception {
+    private void downloadInternal(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback,
+                                  DownloadContext ctx) throws Exception {
         String url = item.getUrl();
         if (url == null || url.isEmpty()) {
             throw new Exception("URL mancante");
@@ -125,31 +108,41 @@ public class MediasetInfinityProvider implements ContentProvider {
         
         String output;
         if (isMovie) {
-            output = runPythonScript("download-film", url, item.getTitle(), outputDir.toString());
+            output = runPythonScript(ctx, callback, "download-film", url, item.getTitle(), outputDir.toString());
         } else {
             if (episode == null) {
                 throw new Exception("Episodio non specificato");
             }
-            output = runPythonScript("download-episode", url, episode.getSeason(), episode.getEpisode(), outputDir.toString());
-        }
-        
-        // Strip ANSI codes
-        output = output.replaceAll("\u001B\\[[;\\d]*m", "").replaceAll("\\[\\d+[A-Za-z]", "");
-        
-        // Find JSON
-        int jsonStart = output.indexOf('{');
-        int jsonEnd = output.lastIndexOf('}');
-        if (jsonStart >= 0 && jsonEnd > jsonStart) {
-            output = output.substring(jsonStart, jsonEnd + 1);
+            output = runPythonScript(ctx, callback, "download-episode", url, episode.getSeason(), episode.getEpisode(), outputDir.toString());
         }
         
         JsonObject json = gson.fromJson(output, JsonObject.class);
         if (!"ok".equals(json.get("status").getAsString())) {
             throw new Exception(json.get("message").getAsString());
         }
+        if (callback != null && json.has("file")) callback.onFile(outputDir.resolve(json.get("file").getAsString()));
     }
     
+    /** Ricerche ed elenchi episodi: interprete già avviato dal pool, senza costo di avvio. */
     private String runPythonScript(String... args) throws Exception {
+        Path projectRoot = Path.of(System.getProperty("user.dir")).getParent().getParent();
+        PythonWorkerPool.Result r;
+        try {
+            r = PythonWorkerPool.forScript(projectRoot.resolve(PYTHON_SCRIPT), projectRoot).call(args);
+        } catch (PythonWorkerPool.UnavailableException e) {
+            Log.info("python", e.getMessage() + " - avvio diretto dello script");
+            return runPythonScript(DownloadContext.none(), null, args);
+        }
+        String output = r.joined().trim();
+        if (r.exitCode() != 0 && !output.contains("\"status\"")) {
+            throw new Exception("Python script failed: " + output);
+        }
+        return output;
+    }
+
+    /** Avvio diretto dello script: gli eventi di avanzamento arrivano al callback durante il download. */
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    private String runPythonScript(DownloadContext ctx, DownloadCallback callback, String... args) throws Exception {
         Path projectRoot = Path.of(System.getProperty("user.dir")).getParent().getParent();
         Path scriptPath = projectRoot.resolve(PYTHON_SCRIPT);
         
@@ -162,26 +155,20 @@ public class MediasetInfinityProvider implements ContentProvider {
         
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(projectRoot.toFile());
-        pb.environment().put("NO_COLOR", "1");
-        pb.environment().put("TERM", "dumb");
+        PythonHelper.configure(pb);
         pb.redirectErrorStream(true);
         
         Process proc = pb.start();
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-            }
+        PythonEvents.Outcome outcome;
+        try (CancellationToken.Registration onCancel = ctx.onCancel(proc)) {
+            outcome = PythonEvents.read(proc, scriptPath.getFileName().toString(), callback);
         }
+        ctx.throwIfCancelled();
         
-        int exitCode = proc.waitFor();
-        String output = sb.toString().trim();
-        
-        if (exitCode != 0 && !output.contains("\"status\"")) {
-            throw new Exception("Python script failed: " + output);
+        if (outcome.result() == null) {
+            throw new Exception("Python script failed: " + outcome.message());
         }
         
-        return output;
+        return outcome.result().toString();
     }
 }
@@ -0,0 +1,237 @@
+package com.topent3r.multi.services;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Tasks;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache di risultati di ricerca ed elenchi episodi, in memoria (LRU limitata) e su
+ * disco (~/.topent3r/cache, un file JSON gzip per voce).
+ *
+ * Una voce più giovane del TTL si restituisce così com'è; scaduta ma entro
+ * {@link #STALE_WINDOW_MS} si restituisce subito e la si aggiorna in background
+ * (stale-while-revalidate); oltre, si aspetta la risposta del provider. Le voci sono
+ * tenute come JSON e ricostruite a ogni lettura: chi le riceve può modificarle
+ * (es. setPathId) senza toccare la copia in cache.
+ */
+public final class MetadataCache {
+
+    public static final long DEFAULT_SEARCH_TTL_MS = TimeUnit.HOURS.toMillis(1);
+    public static final long DEFAULT_EPISODES_TTL_MS = TimeUnit.HOURS.toMillis(6);
+    static final long STALE_WINDOW_MS = TimeUnit.DAYS.toMillis(7);
+
+    private static final int MEMORY_ENTRIES = 256;
+    private static final int DISK_ENTRIES = 2000;
+    private static final int FORMAT = 1;
+
+    private static final MetadataCache INSTANCE =
+            new MetadataCache(Paths.get(System.getProperty("user.home"), ".topent3r", "cache"));
+
+    /** Carica il valore dal provider quando in cache manca o è troppo vecchio. */
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    private record Entry(long storedAt, String json) {}
+
+    private final Path dir;
+    private final Gson gson = new Gson();
+    private final Map<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    private final Map<String, CompletableFuture<Entry>> inflight = new ConcurrentHashMap<>();
+    private final AtomicInteger writes = new AtomicInteger();
+    private volatile Map<String, Long> ttlOverrides = Map.of();
+
+    MetadataCache(Path dir) {
+        this.dir = dir;
+    }
+
+    public static MetadataCache getInstance() { return INSTANCE; }
+
+    /** "Crunchyroll=720;StreamingCommunity=30": TTL in minuti per provider (ricerche ed episodi). */
+    public void configure(String siteTtls) {
+        Map<String, Long> out = new HashMap<>();
+        if (siteTtls != null) {
+            for (String part : siteTtls.split("[;\\n]")) {
+                int eq = part.indexOf('=');
+                if (eq <= 0) continue;
+                try {
+                    out.put(part.substring(0, eq).trim(),
+                            TimeUnit.MINUTES.toMillis(Long.parseLong(part.substring(eq + 1).trim())));
+                } catch (NumberFormatException e) {
+                    Log.warn("cache", "TTL per sito non valido: '" + part.trim() + "'");
+                }
+            }
+        }
+        ttlOverrides = Map.copyOf(out);
+    }
+
+    public long ttl(String provider, long defaultTtlMs) {
+        return ttlOverrides.getOrDefault(provider, defaultTtlMs);
+    }
+
+    /**
+     * Valore in cache per (provider, tipo, chiave) o, se manca o è scaduto, dal loader.
+     * Liste vuote e errori non vengono salvati.
+     */
+    public <T> T get(String provider, String kind, String key, long ttlMs, Type type, Loader<T> loader) throws Exception {
+        String id = provider + "|" + kind + "|" + key;
+        Entry e = lookup(id);
+        long age = e != null ? System.currentTimeMillis() - e.storedAt() : Long.MAX_VALUE;
+        if (e != null && age < ttlMs) {
+            return gson.fromJson(e.json(), type);
+        }
+        if (e != null && age < ttlMs + STALE_WINDOW_MS) {
+            refreshInBackground(id, provider, loader);
+            return gson.fromJson(e.json(), type);
+        }
+        return gson.fromJson(load(id, loader).json(), type);
+    }
+
+    /** Svuota memoria e disco. */
+    public void clear() {
+        synchronized (memory) { memory.clear(); }
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> { try { Files.deleteIfExists(p); } catch (IOException ignore) {} });
+        } catch (IOException ignore) {
+            // cartella non ancora creata
+        }
+    }
+
+    private Entry lookup(String id) {
+        synchronized (memory) {
+            Entry e = memory.get(id);
+            if (e != null) return e;
+        }
+        Entry e = readDisk(id);
+        if (e != null) {
+            synchronized (memory) { memory.put(id, e); }
+        }
+        return e;
+    }
+
+    /** Una sola chiamata al provider per chiave: chi arriva mentre è in corso ne aspetta l'esito. */
+    private Entry load(String id, Loader<?> loader) throws Exception {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inflight.putIfAbsent(id, mine);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (ExecutionException ex) {
+                throw ex.getCause() instanceof Exception cause ? cause : ex;
+            }
+        }
+        try {
+            Object value = loader.load();
+            Entry e = new Entry(System.currentTimeMillis(), gson.toJson(value));
+            if (!(value instanceof Collection<?> c && c.isEmpty())) store(id, e);
+            mine.complete(e);
+            return e;
+        } catch (Exception ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inflight.remove(id, mine);
+        }
+    }
+
+    @SuppressWarnings("try") // il Log.Binding serve solo per la durata del blocco
+    private void refreshInBackground(String id, String provider, Loader<?> loader) {
+        if (inflight.containsKey(id)) return;
+        Tasks.start("cache-refresh-" + provider, Tasks.SEARCHES, () -> {
+            try (Log.Binding b = Log.bind(provider, null)) {
+                try {
+                    load(id, loader);
+                } catch (Exception ex) {
+                    Log.warn("cache", "aggiornamento fallito key=" + id + ": " + ex.getMessage());
+                }
+            }
+        });
+    }
+
+    private void store(String id, Entry e) {
+        synchronized (memory) { memory.put(id, e); }
+        JsonObject o = new JsonObject();
+        o.addProperty("v", FORMAT);
+        o.addProperty("key", id);
+        o.addProperty("storedAt", e.storedAt());
+        o.addProperty("data", e.json());
+        try {
+            Files.createDirectories(dir);
+            Path file = file(id);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer w = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8)) {
+                gson.toJson(o, w);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Log.warn("cache", "scrittura fallita key=" + id + ": " + ex.getMessage());
+        }
+        if (writes.incrementAndGet() % 50 == 0) Tasks.start("cache-trim", this::trimDisk);
+    }
+
+    private Entry readDisk(String id) {
+        Path file = file(id);
+        if (!Files.isRegularFile(file)) return null;
+        try (Reader r = new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8)) {
+            JsonObject o = JsonParser.parseReader(r).getAsJsonObject();
+            // collisione di hash o formato vecchio: come se non ci fosse
+            if (o.get("v").getAsInt() != FORMAT || !id.equals(o.get("key").getAsString())) return null;
+            return new Entry(o.get("storedAt").getAsLong(), o.get("data").getAsString());
+        } catch (IOException | RuntimeException ex) {
+            try { Files.deleteIfExists(file); } catch (IOException ignore) {}
+            return null;
+        }
+    }
+
+    /** Oltre DISK_ENTRIES file si cancellano i meno recenti. */
+    private void trimDisk() {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> all = files.filter(p -> p.toString().endsWith(".json.gz")).toList();
+            if (all.size() <= DISK_ENTRIES) return;
+            Map<Path, Long> mtime = new HashMap<>();
+            for (Path p : all) {
+                try { mtime.put(p, Files.getLastModifiedTime(p).toMillis()); } catch (IOException ignore) { mtime.put(p, 0L); }
+            }
+            all.stream()
+                    .sorted(Comparator.comparingLong(mtime::get))
+                    .limit(all.size() - DISK_ENTRIES)
+                    .forEach(p -> { try { Files.deleteIfExists(p); } catch (IOException ignore) {} });
+        } catch (IOException ex) {
+            Log.warn("cache", "pulizia fallita in " + dir + ": " + ex.getMessage());
+        }
+    }
+
+    private Path file(String id) {
+        return dir.resolve(sha1(id) + ".json.gz");
+    }
+
+    private static String sha1(String s) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(h);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
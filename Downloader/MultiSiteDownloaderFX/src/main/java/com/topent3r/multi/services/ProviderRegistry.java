@@ -0,0 +1,40 @@
+package com.topent3r.multi.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Istanze condivise dei provider, indicizzate per display name.
+ * Le usano i controller dei tab e chi deve ricostruire un provider senza passare
+ * dal suo controller (es. ripristino della coda download all'avvio). I provider
+ * dei siti sono avvolti in {@link CachingProvider}; M3U lavora su una playlist locale.
+ */
+public final class ProviderRegistry {
+
+    private static final Map<String, Supplier<ContentProvider>> FACTORIES = Map.of(
+            "StreamingCommunity", StreamingCommunityProvider::new,
+            "RaiPlay", RaiPlayProvider::new,
+            "MediasetInfinity", MediasetInfinityProvider::new,
+            "Crunchyroll", CrunchyrollProvider::new,
+            "AnimeUnity", AnimeUnityProvider::new,
+            "AltaDefinizione", AltaDefinizioneProvider::new,
+            "GuardaSerie", GuardaSerieProvider::new,
+            "AnimeWorld", AnimeWorldProvider::new,
+            "StreamingWatch", StreamingWatchProvider::new,
+            "M3U", () -> new M3UProvider("")
+    );
+
+    private static final Map<String, ContentProvider> INSTANCES = new ConcurrentHashMap<>();
+
+    private ProviderRegistry() {}
+
+    /** Provider condiviso per il display name indicato, o null se sconosciuto. */
+    public static ContentProvider forName(String displayName) {
+        if (displayName == null) return null;
+        Supplier<ContentProvider> factory = FACTORIES.get(displayName);
+        if (factory == null) return null;
+        return INSTANCES.computeIfAbsent(displayName,
+                k -> "M3U".equals(k) ? factory.get() : new CachingProvider(factory.get()));
+    }
+}
@@ -0,0 +1,185 @@
+package com.topent3r.multi.services;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Lettura dell'output degli script python durante i download.
+ *
+ * Gli script scrivono una riga per evento (mdl_events.py):
+ * <pre>
+ * &#64;&#64;mdl {"ev":"progress","pct":42.0,"bytes":1234,"total":5678,"speed":2100000.0,"eta":12}
+ * &#64;&#64;mdl {"ev":"status","message":"..."}
+ * &#64;&#64;mdl {"ev":"result","status":"ok","file":"..."}
+ * &#64;&#64;mdl {"ev":"error","message":"..."}
+ * </pre>
+ * Le righe vengono interpretate man mano che arrivano e girate al callback, quindi
+ * l'avanzamento è visibile durante il download e non solo alla fine. Il resto
+ * dell'output è log: va al {@link Log} (download.log e stderr) e se ne tengono solo
+ * le ultime righe per i messaggi di errore, senza accumulare megabyte di testo da ripulire.
+ */
+public final class PythonEvents {
+
+    public static final String PREFIX = "@@mdl ";
+    private static final int TAIL_LINES = 20;
+
+    /**
+     * Esito del processo. {@code result} è l'evento result (senza "ev"), oppure
+     * {"status":"error","message":...} dall'evento error, oppure l'ultima riga JSON
+     * stampata da uno script che non usa ancora gli eventi; null se manca del tutto.
+     */
+    public record Outcome(int exitCode, JsonObject result, String tail) {
+        public boolean isOk() {
+            return result != null && result.has("status") && "ok".equals(result.get("status").getAsString());
+        }
+
+        /** Messaggio dell'errore riportato dallo script, o le ultime righe di output. */
+        public String message() {
+            if (result != null && result.has("message") && !result.get("message").isJsonNull()) {
+                return result.get("message").getAsString();
+            }
+            return tail.isEmpty() ? "exit code " + exitCode : tail;
+        }
+    }
+
+    private final String tag;
+    private final ContentProvider.DownloadCallback callback;
+    private final Deque<String> tail = new ArrayDeque<>();
+    private JsonObject result;
+    private JsonObject error;
+    private String lastJsonLine;
+
+    private PythonEvents(String tag, ContentProvider.DownloadCallback callback) {
+        this.tag = tag;
+        this.callback = callback;
+    }
+
+    /**
+     * Legge stdout del processo (con stderr unito) fino alla chiusura e ne attende la fine.
+     * Gira sul virtual thread del download: il blocco in lettura non occupa thread di piattaforma.
+     * Con un {@link CancellationToken#current() token} sul thread (ricerche) l'annullamento
+     * termina il processo, e con lui la lettura.
+     */
+    @SuppressWarnings("try") // la registrazione vale per la durata della lettura
+    public static Outcome read(Process proc, String tag, ContentProvider.DownloadCallback callback)
+            throws IOException, InterruptedException {
+        PythonEvents ev = new PythonEvents(tag, callback);
+        long started = System.nanoTime();
+        try (CancellationToken.Registration onCancel = CancellationToken.current().onCancel(proc);
+             BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                ev.accept(line);
+            }
+        }
+        int exitCode = proc.waitFor();
+        Outcome outcome = new Outcome(exitCode, ev.outcome(), String.join("\n", ev.tail));
+        // il processo è partito appena prima della lettura: la differenza è trascurabile
+        Metrics.getInstance().histogram("python_process_seconds", "Durata dei processi python di download",
+                "script", tag, "outcome", outcome.isOk() ? "ok" : "error").observeSince(started);
+        return outcome;
+    }
+
+    void accept(String line) {
+        int at = line.indexOf(PREFIX);
+        if (at >= 0) {
+            event(line.substring(at + PREFIX.length()));
+            return;
+        }
+        if (line.isBlank()) return;
+        Log.info("python", "[" + tag + "] " + line);
+        if (tail.size() == TAIL_LINES) tail.removeFirst();
+        tail.addLast(line);
+        // script non ancora convertiti: il risultato è l'ultima riga JSON
+        String t = line.strip();
+        if (t.endsWith("}") && t.indexOf('{') >= 0) lastJsonLine = t;
+    }
+
+    private void event(String json) {
+        JsonObject obj;
+        try {
+            obj = JsonParser.parseString(json).getAsJsonObject();
+        } catch (RuntimeException e) {
+            Log.warn("python", "[" + tag + "] evento non valido: " + json);
+            return;
+        }
+        String type = str(obj, "ev");
+        obj.remove("ev");
+        switch (type) {
+            case "progress" -> progress(obj);
+            case "status" -> { if (callback != null) callback.onProgress(str(obj, "message")); }
+            case "result" -> result = obj;
+            case "error" -> {
+                error = new JsonObject();
+                error.addProperty("status", "error");
+                error.addProperty("message", str(obj, "message"));
+            }
+            default -> Log.warn("python", "[" + tag + "] evento sconosciuto: " + json);
+        }
+    }
+
+    private void progress(JsonObject obj) {
+        if (callback == null) return;
+        StringBuilder msg = new StringBuilder();
+        if (obj.has("pct")) {
+            double pct = obj.get("pct").getAsDouble();
+            callback.onFraction(pct / 100.0);
+            msg.append(String.format("%.0f%%", pct));
+        }
+        if (obj.has("bytes")) {
+            if (msg.length() > 0) msg.append(" - ");
+            msg.append(formatSize(obj.get("bytes").getAsLong()));
+            if (obj.has("total")) msg.append(" / ").append(formatSize(obj.get("total").getAsLong()));
+        }
+        if (obj.has("speed") && obj.has("bytes")) {
+            msg.append(" - ").append(formatSize(obj.get("speed").getAsLong())).append("/s");
+        }
+        if (obj.has("eta")) {
+            msg.append(" - ETA ").append(formatTime(obj.get("eta").getAsLong()));
+        }
+        if (msg.length() > 0) callback.onProgress(msg.toString());
+    }
+
+    private JsonObject outcome() {
+        if (result != null) return result;
+        if (error != null) return error;
+        if (lastJsonLine != null) {
+            String t = lastJsonLine.substring(lastJsonLine.indexOf('{'));
+            try {
+                return JsonParser.parseString(t).getAsJsonObject();
+            } catch (RuntimeException ignore) {
+                // non era JSON
+            }
+        }
+        return null;
+    }
+
+    private static String str(JsonObject o, String key) {
+        return o.has(key) && !o.get(key).isJsonNull() ? o.get(key).getAsString() : "";
+    }
+
+    static String formatTime(long seconds) {
+        long h = seconds / 3600;
+        long m = (seconds % 3600) / 60;
+        long s = seconds % 60;
+        if (h > 0) return String.format("%d:%02d:%02d", h, m, s);
+        return String.format("%d:%02d", m, s);
+    }
+
+    static String formatSize(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024 * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+}
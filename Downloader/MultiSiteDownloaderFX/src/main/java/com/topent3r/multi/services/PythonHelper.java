@@ -1,6 +1,13 @@
 package com.topent3r.multi.services;
 
+import com.topent3r.multi.utils.Log;
+
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
 
 /**
  * Helper class for Python detection and script path resolution
@@ -8,6 +15,7 @@ import java.io.File;
 public class PythonHelper {
     
     private static String pythonCmd = null;
+    private static Path runtimeDir = null;
     
     public static String getPythonCommand() {
         if (pythonCmd != null) return pythonCmd;
@@ -63,4 +71,62 @@ public class PythonHelper {
         // Default to scripts folder
         return "scripts" + File.separator + scriptName;
     }
+
+    /**
+     * Ambiente comune dei processi python: niente colori, UTF-8, moduli del jar nel PYTHONPATH.
+     * Se i moduli non si estraggono il processo parte lo stesso: mdl_events.py è anche
+     * nella cartella degli script, da cui gli script lo importano comunque.
+     */
+    public static void configure(ProcessBuilder pb) {
+        Map<String, String> env = pb.environment();
+        env.put("NO_COLOR", "1");
+        env.put("TERM", "dumb");
+        env.put("PYTHONIOENCODING", "utf-8");
+        String dir;
+        try {
+            dir = runtimeDir().toString();
+        } catch (IOException e) {
+            Log.warn("python", "moduli python non estratti, mdl_events dalla cartella degli script: " + e.getMessage());
+            return;
+        }
+        String old = env.get("PYTHONPATH");
+        env.put("PYTHONPATH", old == null || old.isBlank() ? dir : dir + File.pathSeparator + old);
+    }
+
+    /**
+     * File di {@link #runtimeDir()} (es. "py_worker.py"). Se manca nel jar i chiamanti
+     * ricevono {@link PythonWorkerPool.UnavailableException} e tornano all'avvio diretto.
+     */
+    static Path runtimeFile(String name) throws IOException {
+        Path file;
+        try {
+            file = runtimeDir().resolve(name);
+        } catch (IOException e) {
+            throw new PythonWorkerPool.UnavailableException("Moduli python non estraibili: " + e.getMessage());
+        }
+        if (!Files.isRegularFile(file)) throw new PythonWorkerPool.UnavailableException(name + " mancante nelle risorse");
+        return file;
+    }
+
+    /**
+     * Cartella temporanea con i moduli python distribuiti nel jar (py_worker.py,
+     * mdl_events.py), estratti alla prima richiesta. Quelli assenti si saltano.
+     */
+    private static synchronized Path runtimeDir() throws IOException {
+        if (runtimeDir != null && Files.isDirectory(runtimeDir)) return runtimeDir;
+        Path dir = Files.createTempDirectory("mdl_python_");
+        dir.toFile().deleteOnExit();
+        for (String name : new String[] {"py_worker.py", "mdl_events.py"}) {
+            try (InputStream in = PythonHelper.class.getResourceAsStream("/com/topent3r/multi/python/" + name)) {
+                if (in == null) {
+                    Log.warn("python", name + " mancante nelle risorse del jar");
+                    continue;
+                }
+                Files.copy(in, dir.resolve(name));
+            }
+            dir.resolve(name).toFile().deleteOnExit();
+        }
+        runtimeDir = dir;
+        return dir;
+    }
 }
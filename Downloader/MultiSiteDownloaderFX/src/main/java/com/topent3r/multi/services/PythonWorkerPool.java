@@ -0,0 +1,261 @@
+package com.topent3r.multi.services;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Metrics;
+import com.topent3r.multi.utils.Tasks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interpreti Python già avviati, uno o più per script *_headless.py.
+ *
+ * Ogni worker carica lo script una volta (py_worker.py) e poi riceve le richieste
+ * come righe JSON su stdin, rispondendo su stdout: ricerche ed elenchi episodi non
+ * pagano più 1-3 s di avvio interprete e import a ogni chiamata. Un worker morto o
+ * che non risponde al ping dopo un periodo di inattività viene riavviato; una
+ * richiesta che supera il timeout termina il worker (il successivo ne avvia uno nuovo).
+ */
+public final class PythonWorkerPool {
+
+    /** Esito di una chiamata: codice di uscita di main() e output come lo leggeva il vecchio runPythonScript. */
+    public record Result(int exitCode, String out, String err) {
+        /** stdout + stderr su una riga sola (le righe erano concatenate senza separatore). */
+        public String joined() {
+            return (out + err).replace("\r", "").replace("\n", "");
+        }
+    }
+
+    /** Il worker non parte (python assente, import falliti): il chiamante può ripiegare sul processo singolo. */
+    public static class UnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnavailableException(String msg) { super(msg); }
+    }
+
+    private static final int MAX_WORKERS = 2;
+    private static final long DEFAULT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long STARTUP_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+    private static final long PING_AFTER_IDLE_MS = TimeUnit.SECONDS.toMillis(60);
+    private static final long PING_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final Map<String, PythonWorkerPool> POOLS = new ConcurrentHashMap<>();
+    private static final Gson GSON = new Gson();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(PythonWorkerPool::shutdownAll, "python-workers-shutdown"));
+    }
+
+    private final Path script;
+    private final Path workDir;
+    private final String name;
+    private final Semaphore permits = new Semaphore(MAX_WORKERS, true);
+    private final Deque<Worker> idle = new ArrayDeque<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    private PythonWorkerPool(Path script, Path workDir) {
+        this.script = script;
+        this.workDir = workDir;
+        this.name = script.getFileName().toString().replace("_headless.py", "");
+    }
+
+    /** Pool dello script; {@code workDir} è la cartella di lavoro del processo (può essere null). */
+    public static PythonWorkerPool forScript(Path script, Path workDir) {
+        Path abs = script.toAbsolutePath().normalize();
+        return POOLS.computeIfAbsent(abs + "|" + workDir, k -> new PythonWorkerPool(abs, workDir));
+    }
+
+    public static void shutdownAll() {
+        POOLS.values().forEach(PythonWorkerPool::shutdown);
+    }
+
+    public Result call(String... args) throws IOException, InterruptedException {
+        return call(DEFAULT_TIMEOUT_MS, args);
+    }
+
+    @SuppressWarnings("try") // la registrazione vale per la durata della richiesta
+    public Result call(long timeoutMs, String... args) throws IOException, InterruptedException {
+        permits.acquire();
+        Worker w = null;
+        long started = System.nanoTime();
+        try {
+            w = borrow();
+            Worker busy = w;
+            Result r;
+            // ricerca scaduta o annullata: il worker si chiude subito e libera il permesso
+            try (CancellationToken.Registration onCancel = CancellationToken.current().onCancel(busy::kill)) {
+                r = w.request(args, timeoutMs);
+            }
+            Metrics.getInstance().histogram("python_worker_call_seconds", "Durata delle chiamate ai worker python",
+                    "script", name).observeSince(started);
+            giveBack(w);
+            w = null;
+            return r;
+        } finally {
+            if (w != null) w.kill();   // timeout o protocollo rotto: il worker non è più affidabile
+            permits.release();
+        }
+    }
+
+    private Worker borrow() throws IOException, InterruptedException {
+        while (true) {
+            Worker w;
+            synchronized (idle) { w = idle.pollFirst(); }
+            if (w == null) return Worker.start(this);
+            if (w.healthy()) return w;
+            Log.warn("python", "[py-worker " + name + "] worker " + w.pid() + " non risponde, riavvio");
+            w.kill();
+        }
+    }
+
+    private void giveBack(Worker w) {
+        synchronized (idle) { idle.addFirst(w); }
+    }
+
+    private void shutdown() {
+        synchronized (idle) {
+            idle.forEach(Worker::kill);
+            idle.clear();
+        }
+    }
+
+    /** Un processo python con lo script caricato; usato da una richiesta alla volta. */
+    private static final class Worker {
+        private final PythonWorkerPool pool;
+        private final Process proc;
+        private final BufferedWriter stdin;
+        private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Worker(PythonWorkerPool pool, Process proc) {
+            this.pool = pool;
+            this.proc = proc;
+            this.stdin = new BufferedWriter(new OutputStreamWriter(proc.getOutputStream(), StandardCharsets.UTF_8));
+            Tasks.start("py-worker-" + pool.name + "-out", () -> pump(proc.getInputStream(), true));
+            Tasks.start("py-worker-" + pool.name + "-err", () -> pump(proc.getErrorStream(), false));
+        }
+
+        static Worker start(PythonWorkerPool pool) throws IOException, InterruptedException {
+            ProcessBuilder pb = new ProcessBuilder(PythonHelper.getPythonCommand(), "-u",
+                    PythonHelper.runtimeFile("py_worker.py").toString(), pool.script.toString());
+            if (pool.workDir != null) pb.directory(pool.workDir.toFile());
+            PythonHelper.configure(pb);
+            long t0 = System.nanoTime();
+            Process proc;
+            try {
+                proc = pb.start();
+            } catch (IOException e) {
+                throw new UnavailableException("Python non avviabile: " + e.getMessage());
+            }
+            Worker w = new Worker(pool, proc);
+            String ready = null;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STARTUP_TIMEOUT_MS);
+            while (ready == null && System.nanoTime() < deadline) {
+                ready = w.replies.poll(250, TimeUnit.MILLISECONDS);
+                if (ready == null && !proc.isAlive()) break;
+            }
+            JsonObject obj = ready != null ? parse(ready) : null;
+            if (obj == null || !obj.has("ready") || !obj.get("ready").getAsBoolean()) {
+                w.kill();
+                String why = obj != null && obj.has("error") ? obj.get("error").getAsString() : "nessuna risposta";
+                throw new UnavailableException("Worker python " + pool.name + " non avviato: " + why);
+            }
+            Log.info("python", "[py-worker " + pool.name + "] pronto pid=" + w.pid() + " in "
+                    + (System.nanoTime() - t0) / 1_000_000 + " ms");
+            return w;
+        }
+
+        Result request(String[] args, long timeoutMs) throws IOException, InterruptedException {
+            long id = pool.ids.incrementAndGet();
+            JsonObject req = new JsonObject();
+            req.addProperty("id", id);
+            JsonArray a = new JsonArray();
+            for (String s : args) a.add(s);
+            req.add("args", a);
+            JsonObject resp = roundTrip(req, id, timeoutMs);
+            if (resp == null) {
+                throw new IOException("Timeout python " + pool.name + " dopo " + timeoutMs / 1000 + " s");
+            }
+            lastUsed = System.currentTimeMillis();
+            return new Result(resp.get("code").getAsInt(), str(resp, "out"), str(resp, "err"));
+        }
+
+        /** Vivo e, se fermo da un po', ancora reattivo. */
+        boolean healthy() throws InterruptedException {
+            if (!proc.isAlive()) return false;
+            if (System.currentTimeMillis() - lastUsed < PING_AFTER_IDLE_MS) return true;
+            long id = pool.ids.incrementAndGet();
+            JsonObject req = new JsonObject();
+            req.addProperty("id", id);
+            req.addProperty("ping", true);
+            try {
+                if (roundTrip(req, id, PING_TIMEOUT_MS) == null) return false;
+            } catch (IOException e) {
+                return false;
+            }
+            lastUsed = System.currentTimeMillis();
+            return true;
+        }
+
+        private JsonObject roundTrip(JsonObject req, long id, long timeoutMs) throws IOException, InterruptedException {
+            replies.clear();
+            stdin.write(GSON.toJson(req));
+            stdin.newLine();
+            stdin.flush();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (true) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) return null;
+                String line = replies.poll(left, TimeUnit.NANOSECONDS);
+                if (line == null) {
+                    if (!proc.isAlive()) throw new IOException("Worker python " + pool.name + " terminato");
+                    return null;
+                }
+                JsonObject obj = parse(line);
+                if (obj != null && obj.has("id") && obj.get("id").getAsLong() == id) return obj;
+            }
+        }
+
+        private void pump(InputStream in, boolean protocol) {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (protocol) replies.add(line);
+                    else Log.info("python", "[py-worker " + pool.name + "] " + line);
+                }
+            } catch (IOException ignore) {
+                // processo chiuso
+            }
+        }
+
+        long pid() { return proc.pid(); }
+
+        void kill() {
+            try { stdin.close(); } catch (IOException ignore) {}
+            CancellationToken.destroyTree(proc);
+        }
+
+        private static JsonObject parse(String line) {
+            try {
+                return JsonParser.parseString(line).getAsJsonObject();
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        private static String str(JsonObject o, String key) {
+            return o.has(key) && !o.get(key).isJsonNull() ? o.get(key).getAsString() : "";
+        }
+    }
+}
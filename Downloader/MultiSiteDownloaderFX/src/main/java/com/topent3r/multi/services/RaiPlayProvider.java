@@ -4,8 +4,11 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.topent3r.multi.download.CancellationToken;
+import com.topent3r.multi.download.DownloadContext;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
+import com.topent3r.multi.utils.Log;
 
 import java.io.*;
 import java.nio.file.Path;
@@ -54,6 +57,7 @@ public class RaiPlayProvider implements ContentProvider {
                 "RaiPlay",
                 obj.has("year") && !obj.get("year").isJsonNull() ? obj.get("year").getAsString() : null
             );
+            item.setPathId(pathId);
             results.add(item);
         }
         
@@ -62,8 +66,8 @@ public class RaiPlayProvider implements ContentProvider {
 
     @Override
     public List<Episode> listEpisodes(MediaItem item) throws Exception {
-        // Get path_id from cache
-        String pathId = pathIdCache.get(item.getId());
+        // Get path_id from cache (or from the item itself when restored from the download journal)
+        String pathId = pathIdFor(item);
         if (pathId == null || pathId.isEmpty()) {
             throw new Exception("Path ID not found for media: " + item.getTitle());
         }
@@ -100,8 +104,14 @@ public class RaiPlayProvider implements ContentProvider {
     
     @Override
     public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback) throws Exception {
-        // Get path_id from cache
-        String pathId = pathIdCache.get(item.getId());
+        download(item, episode, outputDir, callback, DownloadContext.none());
+    }
+
+    @Override
+    public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback,
+                         DownloadContext ctx) throws Exception {
+        // Get path_id from cache (or from the item itself when restored from the download journal)
+        String pathId = pathIdFor(item);
         if (pathId == null || pathId.isEmpty()) {
             throw new Exception("Path ID not found for media: " + item.getTitle());
         }
@@ -121,7 +131,7 @@ public class RaiPlayProvider implements ContentProvider {
             callback.onProgress("Scaricando da RaiPlay...");
         }
         
-        String output = runPythonScript(cmd);
+        String output = runPythonScript(ctx, callback, cmd);
         
         JsonObject json = gson.fromJson(output, JsonObject.class);
         if (!"ok".equals(json.get("status").getAsString())) {
@@ -129,29 +139,54 @@ public class RaiPlayProvider implements ContentProvider {
         }
         
         if (callback != null) {
+            if (json.has("file")) callback.onFile(outputDir.resolve(json.get("file").getAsString()));
             callback.onProgress("✅ Completato");
         }
     }
     
+    private String pathIdFor(MediaItem item) {
+        String pathId = pathIdCache.get(item.getId());
+        return (pathId == null || pathId.isEmpty()) ? item.getPathId() : pathId;
+    }
+    
+    /** Ricerche ed elenchi episodi: interprete già avviato dal pool, senza costo di avvio. */
     private String runPythonScript(List<String> cmd) throws Exception {
-        System.err.println("=== Running Python command: " + String.join(" ", cmd));
+        PythonWorkerPool.Result r;
+        try {
+            String[] args = cmd.subList(2, cmd.size()).toArray(new String[0]);
+            r = PythonWorkerPool.forScript(Path.of(PYTHON_SCRIPT), null).call(args);
+        } catch (PythonWorkerPool.UnavailableException e) {
+            Log.info("python", e.getMessage() + " - avvio diretto dello script");
+            return runPythonScript(DownloadContext.none(), null, cmd);
+        }
+        return checkOutput(r.exitCode(), r.joined());
+    }
+
+    /** Avvio diretto dello script: gli eventi di avanzamento arrivano al callback durante il download. */
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    private String runPythonScript(DownloadContext ctx, DownloadCallback callback, List<String> cmd) throws Exception {
+        Log.info("python", "Running Python command: " + String.join(" ", cmd));
         
         ProcessBuilder pb = new ProcessBuilder(cmd);
+        PythonHelper.configure(pb);
         pb.redirectErrorStream(true);
         
         Process proc = pb.start();
-        StringBuilder output = new StringBuilder();
-        
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line);
-                // Don't add newlines - JSON is on a single line
-            }
+        PythonEvents.Outcome outcome;
+        try (CancellationToken.Registration onCancel = ctx.onCancel(proc)) {
+            outcome = PythonEvents.read(proc, "raiplay", callback);
         }
+        ctx.throwIfCancelled();
         
-        int exitCode = proc.waitFor();
-        String result = output.toString().trim();
+        Log.info("python", "Python exit code: " + outcome.exitCode());
+        if (outcome.result() == null) {
+            throw new Exception("Python script failed with exit code " + outcome.exitCode() + ": " + outcome.message());
+        }
+        return outcome.result().toString();
+    }
+
+    private String checkOutput(int exitCode, String output) throws Exception {
+        String result = output.trim();
         
         // Remove ANSI escape sequences (from rich library)
         // Pattern: ESC [ <digits> <letter>
@@ -160,9 +195,9 @@ public class RaiPlayProvider implements ContentProvider {
         result = result.replaceAll("\\[[0-9]*[A-Z]", "");
         result = result.trim();
         
-        System.err.println("=== Python exit code: " + exitCode);
-        System.err.println("=== Python output length: " + result.length());
-        System.err.println("=== Python output (first 200 chars): " + 
+        Log.info("python", "Python exit code: " + exitCode);
+        Log.info("python", "Python output length: " + result.length());
+        Log.info("python", "Python output (first 200 chars): " + 
             (result.length() > 200 ? result.substring(0, 200) + "..." : result));
         
         if (exitCode != 0) {
@@ -3,6 +3,8 @@ package com.topent3r.multi.services;
 import com.topent3r.multi.model.Episode;
 import com.topent3r.multi.model.MediaItem;
 import com.topent3r.multi.m3u.services.HttpDownloader;
+import com.topent3r.multi.utils.Log;
+import com.topent3r.multi.utils.Tasks;
 import okhttp3.OkHttpClient;
 import okhttp3.Cookie;
 import okhttp3.CookieJar;
@@ -22,6 +24,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -35,8 +38,7 @@ import com.google.gson.JsonParser;
 public class StreamingCommunityProvider implements ContentProvider {
 
     private final InMemoryCookieJar cookieStore = new InMemoryCookieJar();
-    private final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .followRedirects(true)
+    private final OkHttpClient httpClient = com.topent3r.multi.utils.HttpClients.api().newBuilder()
             .cookieJar(cookieStore)
             .build();
     private volatile String lastPyTrace;
@@ -204,12 +206,12 @@ public class StreamingCommunityProvider implements ContentProvider {
                     }
                 }
                 if (en == null || en.isBlank()) {
-                    System.err.println("=== Skipping episode with missing number: eid=" + eid + ", season=" + s + ", title=" + et);
+                    Log.info("episodes", "Skipping episode with missing number: eid=" + eid + ", season=" + s + ", title=" + et);
                     continue;
                 }
                 if (et == null) et = "";
                 Episode ep = new Episode(eid, String.valueOf(s), en, et);
-                System.err.println("=== Adding episode: " + ep + " (season=" + s + ", number=" + en + ", id=" + eid + ")");
+                Log.info("episodes", "Adding episode: " + ep + " (season=" + s + ", number=" + en + ", id=" + eid + ")");
                 out.add(ep);
             }
             any = true;
@@ -229,6 +231,12 @@ public class StreamingCommunityProvider implements ContentProvider {
 
     @Override
     public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback) throws Exception {
+        download(item, episode, outputDir, callback, com.topent3r.multi.download.DownloadContext.none());
+    }
+
+    @Override
+    public void download(MediaItem item, Episode episode, Path outputDir, DownloadCallback callback,
+                         com.topent3r.multi.download.DownloadContext ctx) throws Exception {
         if (item == null) throw new IllegalArgumentException("item null");
         if (episode == null) throw new IllegalArgumentException("Devi selezionare almeno un episodio");
         
@@ -240,8 +248,8 @@ public class StreamingCommunityProvider implements ContentProvider {
         String type = item.getType() == null ? "" : item.getType().toLowerCase();
         boolean isMovie = type.contains("film") || type.contains("movie");
         
-        System.err.println("=== Content type: " + type + ", isMovie: " + isMovie);
-        System.err.println("=== Episode debug: season='" + episode.getSeason() + "', episode='" + episode.getEpisode() + "', title='" + episode.getTitle() + "', id='" + episode.getId() + "'");
+        Log.info("download", "Content type: " + type + ", isMovie: " + isMovie);
+        Log.info("download", "Episode debug: season='" + episode.getSeason() + "', episode='" + episode.getEpisode() + "', title='" + episode.getTitle() + "', id='" + episode.getId() + "'");
         
         java.nio.file.Files.createDirectories(outputDir);
         
@@ -259,8 +267,8 @@ public class StreamingCommunityProvider implements ContentProvider {
         boolean ok;
         if (isMovie) {
             // For movies, use direct download without season/episode
-            System.err.println("=== Downloading MOVIE: " + item.getTitle());
-            ok = pythonDownloadMovie(base, numericId, slug != null ? slug : "", out.toString(), callback);
+            Log.info("download", "Downloading MOVIE: " + item.getTitle());
+            ok = pythonDownloadMovie(base, numericId, slug != null ? slug : "", out.toString(), callback, ctx);
         } else {
             // For TV series, use season/episode
             Integer sNum = parseIntSafe(episode.getSeason());
@@ -268,19 +276,31 @@ public class StreamingCommunityProvider implements ContentProvider {
             
             if (sNum == null || eNum == null) {
                 String msg = "Episodio mancante o non valido - Season: '" + episode.getSeason() + "' → " + sNum + ", Episode: '" + episode.getEpisode() + "' → " + eNum;
-                System.err.println("=== " + msg);
+                Log.info("download", msg);
                 throw new IllegalArgumentException(msg);
             }
             
-            System.err.println("=== Downloading TV EPISODE: " + item.getTitle() + " S" + sNum + "E" + eNum);
-            ok = pythonDownloadBySE(base, numericId, slug != null ? slug : "", sNum, eNum, out.toString(), callback);
+            Log.info("download", "Downloading TV EPISODE: " + item.getTitle() + " S" + sNum + "E" + eNum);
+            Resolved pre = resolved.remove(resolvedKey(numericId, sNum, eNum));
+            if (pre != null && pre.fresh()) {
+                // playlist già risolta dal prefetch: si parte subito col downloader Java
+                try {
+                    javaHlsDownload(pre.playlist(), out.toString(), pre.watchRef(), base, callback, ctx);
+                    return;
+                } catch (Exception e) {
+                    ctx.throwIfCancelled();
+                    Log.warn("resolve", "Playlist prefetch non valida (" + e.getMessage() + "), risolvo di nuovo");
+                }
+            }
+            ok = pythonDownloadBySE(base, numericId, slug != null ? slug : "", sNum, eNum, out.toString(), callback, ctx);
         }
         
         if (!ok) {
+            ctx.throwIfCancelled();
             String trace = (lastPyTrace == null || lastPyTrace.isBlank()) ? "py-se" : lastPyTrace;
             // Se il file esiste dopo il download fallito, significa che FFmpeg ha fatto il fallback con successo
             if (java.nio.file.Files.exists(out)) {
-                System.err.println("=== Download completato via FFmpeg fallback");
+                Log.info("ffmpeg", "Download completato via FFmpeg fallback");
                 return; // Success via FFmpeg
             }
             throw new IllegalStateException("Sorgente video non trovata (" + trace + ")");
@@ -426,7 +446,9 @@ public class StreamingCommunityProvider implements ContentProvider {
         return null;
     }
 
-    private boolean pythonDownloadMovie(String base, String numericId, String slug, String outputPath, DownloadCallback callback) {
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    private boolean pythonDownloadMovie(String base, String numericId, String slug, String outputPath, DownloadCallback callback,
+                                        com.topent3r.multi.download.DownloadContext ctx) {
         String repo = "/Users/andreacassan/AndroidStudioProjects/evolutix-panel 2/Downloader/StreamingCommunity/StreamingCommunity-main";
         try {
             java.nio.file.Path p = java.nio.file.Paths.get(repo);
@@ -487,27 +509,30 @@ public class StreamingCommunityProvider implements ContentProvider {
             Process proc = pb.start();
             
             String lastLine = null;
-            try (java.io.BufferedReader br = new java.io.BufferedReader(new java.io.InputStreamReader(proc.getInputStream()))) {
+            try (var onCancel = ctx.onCancel(proc);
+                 java.io.BufferedReader br = new java.io.BufferedReader(new java.io.InputStreamReader(proc.getInputStream()))) {
                 String line;
                 while ((line = br.readLine()) != null) {
                     lastLine = line;
-                    System.err.println("[PY-MOVIE] " + line);
+                    Log.info("python", "[PY-MOVIE] " + line);
                 }
             }
             
             proc.waitFor();
-            return handlePythonOutput(lastLine, outputPath, callback);
+            if (ctx.isCancelled()) return false;
+            return handlePythonOutput(lastLine, outputPath, callback, ctx);
             
         } catch (Exception e) {
-            System.err.println("=== Python movie download error: " + e.getMessage());
+            Log.warn("python", "Python movie download error: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
 
-    private boolean handlePythonOutput(String lastJson, String outputPath, DownloadCallback callback) {
+    private boolean handlePythonOutput(String lastJson, String outputPath, DownloadCallback callback,
+                                       com.topent3r.multi.download.DownloadContext ctx) {
         if (lastJson == null || lastJson.isBlank()) {
-            System.err.println("=== No JSON output from Python");
+            Log.warn("python", "No JSON output from Python");
             return false;
         }
         
@@ -519,24 +544,26 @@ public class StreamingCommunityProvider implements ContentProvider {
             String watchRef = obj.has("watch") && !obj.get("watch").isJsonNull() ? obj.get("watch").getAsString() : null;
             
             lastPyTrace = trace;
-            System.err.println("=== lastJson: " + lastJson);
-            System.err.println("=== trace: " + trace);
-            System.err.println("=== playlist: " + playlist);
+            Log.info("python", "lastJson: " + lastJson);
+            Log.info("python", "trace: " + trace);
+            Log.info("python", "playlist: " + playlist);
             
             // Se abbiamo una playlist, scarica con il downloader Python nativo (8 workers come app originale)
             if (playlist != null && !playlist.isBlank()) {
-                System.err.println("=== Using Python native HLS downloader (8 workers)...");
-                return pythonNativeDownload(playlist, outputPath, watchRef, callback);
+                Log.info("python", "Using Python native HLS downloader (8 workers)...");
+                return pythonNativeDownload(playlist, outputPath, watchRef, callback, ctx);
             }
             
             return ok;
         } catch (Exception e) {
-            System.err.println("=== Failed to parse Python output: " + e.getMessage());
+            Log.warn("python", "Failed to parse Python output: " + e.getMessage());
             return false;
         }
     }
 
-    private boolean pythonNativeDownload(String playlist, String outputPath, String watchRef, DownloadCallback callback) {
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    private boolean pythonNativeDownload(String playlist, String outputPath, String watchRef, DownloadCallback callback,
+                                         com.topent3r.multi.download.DownloadContext ctx) {
         String repo = "/Users/andreacassan/AndroidStudioProjects/evolutix-panel 2/Downloader/StreamingCommunity/StreamingCommunity-main";
         try {
             java.nio.file.Path p = java.nio.file.Paths.get(repo);
@@ -544,7 +571,10 @@ public class StreamingCommunityProvider implements ContentProvider {
             
             // Usa ffmpeg con progress e multi-thread
             String code = String.join("\n",
-                    "import sys, os, subprocess, re, time",
+                    "import sys, os, subprocess, re, time, json",
+                    "def ev(kind, **f):",
+                    "    f['ev'] = kind",
+                    "    print('" + PythonEvents.PREFIX + "' + json.dumps(f), flush=True)",
                     "pl_url=sys.argv[1]",
                     "out_path=sys.argv[2]",
                     "print(f'[PY-HLS] Downloading with ffmpeg (multi-thread)...', flush=True)",
@@ -571,15 +601,11 @@ public class StreamingCommunityProvider implements ContentProvider {
                     "    if 'out_time_ms=' in line:",
                     "        try:",
                     "            ms = int(line.split('=')[1].strip())",
-                    "            secs = ms / 1000000",
-                    "            mins = int(secs // 60)",
-                    "            s = int(secs % 60)",
                     "            if os.path.exists(out_path):",
                     "                cur_size = os.path.getsize(out_path)",
                     "                elapsed = time.time() - start_time",
                     "                if elapsed > 0:",
-                    "                    speed_mb = (cur_size / 1024 / 1024) / elapsed",
-                    "                    print(f'[PROGRESS] {mins:02d}:{s:02d} - {cur_size/1024/1024:.1f} MB - {speed_mb:.2f} MB/s', flush=True)",
+                    "                    ev('progress', bytes=cur_size, speed=round(cur_size / elapsed, 1))",
                     "        except: pass",
                     "proc.wait()",
                     "if proc.returncode == 0 and os.path.exists(out_path):",
@@ -587,10 +613,11 @@ public class StreamingCommunityProvider implements ContentProvider {
                     "    elapsed = time.time() - start_time",
                     "    avg_speed = (size / 1024 / 1024) / elapsed if elapsed > 0 else 0",
                     "    print(f'[PY-HLS] Completed! {size/1024/1024:.1f} MB in {elapsed:.0f}s ({avg_speed:.2f} MB/s)', flush=True)",
+                    "    ev('result', status='ok', file=out_path, size=size)",
                     "    sys.exit(0)",
                     "else:",
                     "    err = proc.stderr.read()",
-                    "    print(f'[PY-HLS] ffmpeg error: {err}', flush=True)",
+                    "    ev('error', message=err.strip()[-500:])",
                     "    sys.exit(1)"
             );
             
@@ -604,179 +631,179 @@ public class StreamingCommunityProvider implements ContentProvider {
             ProcessBuilder pb = new ProcessBuilder(pyExe, tmpScript.getAbsolutePath(), playlist, outputPath);
             pb.redirectErrorStream(true);
             Process proc = pb.start();
+            ctx.trackPartial(java.nio.file.Paths.get(outputPath), false);
             
-            try (java.io.BufferedReader br = new java.io.BufferedReader(new java.io.InputStreamReader(proc.getInputStream()))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    System.err.println("[PY-HLS] " + line);
-                    
-                    // Parse [PROGRESS] lines: [PROGRESS] 00:45 - 123.4 MB - 5.67 MB/s
-                    if (line.startsWith("[PROGRESS]")) {
-                        String progress = line.substring(11).trim(); // Remove "[PROGRESS] "
-                        if (callback != null) callback.onProgress(progress);
-                        // Extract speed
-                        if (line.contains("MB/s")) {
-                            java.util.regex.Matcher m = java.util.regex.Pattern.compile("([0-9.]+)\\s*MB/s").matcher(line);
-                            if (m.find()) {
-                                if (callback != null) callback.onSpeed(m.group(1) + " MB/s");
-                            }
-                        }
-                    }
-                }
+            PythonEvents.Outcome outcome;
+            try (var onCancel = ctx.onCancel(proc)) {
+                outcome = PythonEvents.read(proc, "PY-HLS", callback);
             }
             
-            int exitCode = proc.waitFor();
+            int exitCode = outcome.exitCode();
+            if (ctx.isCancelled()) return false;
             if (exitCode == 0 && java.nio.file.Files.exists(java.nio.file.Paths.get(outputPath))) {
                 long size = java.nio.file.Files.size(java.nio.file.Paths.get(outputPath));
-                System.err.println("=== Python HLS download SUCCESS, size=" + size);
+                Log.info("python", "Python HLS download SUCCESS, size=" + size);
                 if (callback != null) callback.onProgress("✅ " + formatSize(size));
                 return true;
             }
             
-            System.err.println("=== Python HLS download FAILED, exit=" + exitCode);
+            Log.warn("python", "Python HLS download FAILED, exit=" + exitCode + ": " + outcome.message());
             return false;
             
         } catch (Exception e) {
-            System.err.println("=== Python HLS download error: " + e.getMessage());
+            Log.warn("python", "Python HLS download error: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
 
-    private boolean pythonDownloadBySE(String base, String numericId, String slug, Integer season, Integer episode, String outputPath, DownloadCallback callback) {
+    /**
+     * Script Python per serie TV (argv: repo base id slug stagione episodio output [resolve]).
+     * Con "resolve" stampa solo playlist/referer senza scaricare: usato dal prefetch.
+     */
+    private static final String SE_SCRIPT = String.join("\n",
+            "import sys, os, types, importlib.util, importlib, json",
+            "root=os.path.abspath(sys.argv[1])",
+            "pkg=os.path.join(root, 'StreamingCommunity')",
+            "sys.path.insert(0, root)",
+            "sys.path.insert(0, pkg)",
+            "m=types.ModuleType('StreamingCommunity'); m.__path__=[pkg]; sys.modules['StreamingCommunity']=m",
+            "from bs4 import BeautifulSoup",
+            "from StreamingCommunity.Util.headers import get_userAgent",
+            "import StreamingCommunity.Util.http_client as http_client",
+            "# Force curl client BEFORE importing site modules",
+            "http_client.create_client = lambda **k: http_client.create_client_curl(**k)",
+            "# Stub optional telegram deps to avoid import errors",
+            "import types as _types, sys as _sys",
+            "_sys.modules.setdefault('telebot', _types.ModuleType('telebot'))",
+            "tg_stub = _types.ModuleType('StreamingCommunity.TelegramHelp.telegram_bot')",
+            "tg_stub.get_bot_instance = lambda: None",
+            "class _TgSession: pass",
+            "tg_stub.TelegramSession = _TgSession",
+            "_sys.modules['StreamingCommunity.TelegramHelp.telegram_bot'] = tg_stub",
+            "# Import ScrapeSerie with patched client - use spec to avoid __init__ side effects",
+            "scrape_path=os.path.join(pkg,'Api','Site','streamingcommunity','util','ScrapeSerie.py')",
+            "spec=importlib.util.spec_from_file_location('ScrapeSerie', scrape_path)",
+            "ScrapeSerie=importlib.util.module_from_spec(spec); spec.loader.exec_module(ScrapeSerie)",
+            "GetSerieInfo=ScrapeSerie.GetSerieInfo",
+            "# Preload Lib packages to avoid executing __init__ that may import TOR/qbittorrent",
+            "lib_dir=os.path.join(pkg,'Lib'); dwn_dir=os.path.join(lib_dir,'Downloader'); hls_dir=os.path.join(dwn_dir,'HLS')",
+            "for name, path in [('StreamingCommunity.Lib', lib_dir), ('StreamingCommunity.Lib.Downloader', dwn_dir), ('StreamingCommunity.Lib.Downloader.HLS', hls_dir)]:",
+            "    if name not in _sys.modules:",
+            "        mod=_types.ModuleType(name); mod.__path__=[path]; _sys.modules[name]=mod",
+            "# Load HLS downloader via spec to avoid __init__ side-effects",
+            "spec2=importlib.util.spec_from_file_location('StreamingCommunity.Lib.Downloader.HLS.downloader', os.path.join(hls_dir,'downloader.py'))",
+            "hls_mod=importlib.util.module_from_spec(spec2); spec2.loader.exec_module(hls_mod)",
+            "HLS_Downloader=hls_mod.HLS_Downloader",
+            "# Import vixcloud AFTER patching client",
+            "vix=importlib.import_module('StreamingCommunity.Api.Player.vixcloud')",
+            "# Ensure vixcloud uses curl client",
+            "vix.create_client = http_client.create_client_curl",
+            "VideoSource = vix.VideoSource",
+            "base=sys.argv[2]",
+            "mid=int(sys.argv[3])",
+            "slug=sys.argv[4]",
+            "sn=int(sys.argv[5])",
+            "en=int(sys.argv[6])",
+            "dst=sys.argv[7]",
+            "t=[]",
+            "t.append(f'py-se:start(mid={mid},slug={slug},s={sn},e={en})')",
+            "# client already patched above",
+            "gs=GetSerieInfo(base+'/it', mid, slug)",
+            "gs.getNumberSeason()",
+            "ep=gs.selectEpisode(sn, en-1)",
+            "def _eid(x):",
+            "  try:\n    return x['id']\n  except Exception:\n    pass",
+            "  for k in ('id','episode_id','video_id','stream_id'):",
+            "    v=getattr(x,k,None)",
+            "    if v is not None: return v",
+            "  return None",
+            "eid=_eid(ep)",
+            "t.append(f'eid={eid}')",
+            "watch_ref=base+'/it/watch/'+str(mid)+'?e='+str(eid)",
+            "# client already patched above",
+            "vs=VideoSource(base+'/it', True, mid)",
+            "script=None; resp=None; sess=None",
+            "try:",
+            "  t.append('iframe:request'); vs.get_iframe(eid); vs.get_content(); script='ok'; t.append('iframe:OK')",
+            "except Exception as iframe_err:",
+            "  t.append(f'iframe:ERR:{iframe_err}')",
+            "if script is None:",
+            "    t.append('embed:start')",
+            "    sess=http_client.create_client_curl(headers={'User-Agent': get_userAgent(), 'Accept-Language':'it-IT,it;q=0.9,en;q=0.8'}, allow_redirects=True)",
+            "    t.append('embed-url'); embed=sess.get(base+'/it/embed-url/'+str(eid)).text.strip()",
+            "    t.append(f'embed={embed[:50]}')",
+            "    sess.headers.update({'Referer': watch_ref, 'Origin': base})",
+            "    resp=sess.get(embed)",
+            "    t.append(f'embed-resp:status={resp.status_code}')",
+            "    soup=BeautifulSoup(resp.text, 'html.parser')",
+            "    scr=None; script_count=0",
+            "    for tag in soup.find_all('script'):",
+            "        script_count+=1",
+            "        try:",
+            "            txt=tag.text or ''",
+            "            if 'masterPlaylist' in txt or 'video' in txt:",
+            "                scr=txt; t.append(f'script:found(len={len(scr)})'); break",
+            "        except Exception:",
+            "            pass",
+            "    t.append(f'scripts:total={script_count},found={scr is not None}')",
+            "    if scr:",
+            "        t.append('script:parse'); vs.parse_script(scr)",
+            "    else:",
+            "        t.append('script:NOT-FOUND')",
+            "t.append('py-pl:start')",
+            "try:",
+            "  pl=vs.get_playlist()",
+            "  if pl:",
+            "    t.append(f'py-pl:get=OK(len={len(pl)})')",
+            "  else:",
+            "    t.append('py-pl:get=None')",
+            "except Exception as e:",
+            "  t.append(f'py-pl:get-ERR:{e}')",
+            "  pl=None",
+            "if not pl:",
+            "    t.append('py-pl:fallback-regex')",
+            "    txt=resp.text if resp is not None else ''",
+            "    import re",
+            "    m=re.search(r'https?://[^\\s\\x22\\x27<>]+\\.m3u8[^\\s\\x22\\x27<>]*', txt)",
+            "    pl=m.group(0) if m else None",
+            "    if pl is None: t.append('py-pl:ERR-no-m3u8')",
+            "    else: t.append('py-pl:OK-regex')",
+            "if not pl and sess is not None:",
+            "    try:",
+            "        wr=sess.get(watch_ref)",
+            "        txt2=wr.text",
+            "        import re as _re",
+            "        m2=_re.search(r'https?://[^\\s\\x22\\x27<>]+\\.m3u8[^\\s\\x22\\x27<>]*', txt2)",
+            "        pl=m2.group(0) if m2 else None",
+            "        t.append('watch:request(mid='+str(mid)+',e='+str(eid)+')')",
+            "    except Exception:",
+            "        pass",
+            "# modalità resolve (prefetch): solo playlist, niente download",
+            "if len(sys.argv)>8 and sys.argv[8]=='resolve':",
+            "    print(json.dumps({'ok': bool(pl), 'pl': pl, 'trace': '->'.join(t), 'watch': watch_ref, 'eid': eid}), flush=True)",
+            "    sys.exit(0)",
+            "hdr={'User-Agent': get_userAgent(), 'Referer': watch_ref, 'Origin': base}",
+            "res=HLS_Downloader(m3u8_url=pl, output_path=dst, headers=hdr).start()",
+            "ok = bool(res) and res.get('error') is None",
+            "print(json.dumps({'ok': ok, 'pl': pl, 'trace': '->'.join(t), 'error': (res or {}).get('error') if isinstance(res, dict) else None, 'watch': watch_ref, 'eid': eid}))"
+    );
+
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    private boolean pythonDownloadBySE(String base, String numericId, String slug, Integer season, Integer episode, String outputPath, DownloadCallback callback,
+                                       com.topent3r.multi.download.DownloadContext ctx) {
         String repo = "/Users/andreacassan/AndroidStudioProjects/evolutix-panel 2/Downloader/StreamingCommunity/StreamingCommunity-main";
         try {
             if (season == null || episode == null) return false;
             java.nio.file.Path p = java.nio.file.Paths.get(repo);
             if (!java.nio.file.Files.exists(p)) return false;
-            String code = String.join("\n",
-                    "import sys, os, types, importlib.util, importlib, json",
-                    "root=os.path.abspath(sys.argv[1])",
-                    "pkg=os.path.join(root, 'StreamingCommunity')",
-                    "sys.path.insert(0, root)",
-                    "sys.path.insert(0, pkg)",
-                    "m=types.ModuleType('StreamingCommunity'); m.__path__=[pkg]; sys.modules['StreamingCommunity']=m",
-                    "from bs4 import BeautifulSoup",
-                    "from StreamingCommunity.Util.headers import get_userAgent",
-                    "import StreamingCommunity.Util.http_client as http_client",
-                    "# Force curl client BEFORE importing site modules",
-                    "http_client.create_client = lambda **k: http_client.create_client_curl(**k)",
-                    "# Stub optional telegram deps to avoid import errors",
-                    "import types as _types, sys as _sys",
-                    "_sys.modules.setdefault('telebot', _types.ModuleType('telebot'))",
-                    "tg_stub = _types.ModuleType('StreamingCommunity.TelegramHelp.telegram_bot')",
-                    "tg_stub.get_bot_instance = lambda: None",
-                    "class _TgSession: pass",
-                    "tg_stub.TelegramSession = _TgSession",
-                    "_sys.modules['StreamingCommunity.TelegramHelp.telegram_bot'] = tg_stub",
-                    "# Import ScrapeSerie with patched client - use spec to avoid __init__ side effects",
-                    "scrape_path=os.path.join(pkg,'Api','Site','streamingcommunity','util','ScrapeSerie.py')",
-                    "spec=importlib.util.spec_from_file_location('ScrapeSerie', scrape_path)",
-                    "ScrapeSerie=importlib.util.module_from_spec(spec); spec.loader.exec_module(ScrapeSerie)",
-                    "GetSerieInfo=ScrapeSerie.GetSerieInfo",
-                    "# Preload Lib packages to avoid executing __init__ that may import TOR/qbittorrent",
-                    "lib_dir=os.path.join(pkg,'Lib'); dwn_dir=os.path.join(lib_dir,'Downloader'); hls_dir=os.path.join(dwn_dir,'HLS')",
-                    "for name, path in [('StreamingCommunity.Lib', lib_dir), ('StreamingCommunity.Lib.Downloader', dwn_dir), ('StreamingCommunity.Lib.Downloader.HLS', hls_dir)]:",
-                    "    if name not in _sys.modules:",
-                    "        mod=_types.ModuleType(name); mod.__path__=[path]; _sys.modules[name]=mod",
-                    "# Load HLS downloader via spec to avoid __init__ side-effects",
-                    "spec2=importlib.util.spec_from_file_location('StreamingCommunity.Lib.Downloader.HLS.downloader', os.path.join(hls_dir,'downloader.py'))",
-                    "hls_mod=importlib.util.module_from_spec(spec2); spec2.loader.exec_module(hls_mod)",
-                    "HLS_Downloader=hls_mod.HLS_Downloader",
-                    "# Import vixcloud AFTER patching client",
-                    "vix=importlib.import_module('StreamingCommunity.Api.Player.vixcloud')",
-                    "# Ensure vixcloud uses curl client",
-                    "vix.create_client = http_client.create_client_curl",
-                    "VideoSource = vix.VideoSource",
-                    "base=sys.argv[2]",
-                    "mid=int(sys.argv[3])",
-                    "slug=sys.argv[4]",
-                    "sn=int(sys.argv[5])",
-                    "en=int(sys.argv[6])",
-                    "dst=sys.argv[7]",
-                    "t=[]",
-                    "t.append(f'py-se:start(mid={mid},slug={slug},s={sn},e={en})')",
-                    "# client already patched above",
-                    "gs=GetSerieInfo(base+'/it', mid, slug)",
-                    "gs.getNumberSeason()",
-                    "ep=gs.selectEpisode(sn, en-1)",
-                    "def _eid(x):",
-                    "  try:\n    return x['id']\n  except Exception:\n    pass",
-                    "  for k in ('id','episode_id','video_id','stream_id'):",
-                    "    v=getattr(x,k,None)",
-                    "    if v is not None: return v",
-                    "  return None",
-                    "eid=_eid(ep)",
-                    "t.append(f'eid={eid}')",
-                    "watch_ref=base+'/it/watch/'+str(mid)+'?e='+str(eid)",
-                    "# client already patched above",
-                    "vs=VideoSource(base+'/it', True, mid)",
-                    "script=None; resp=None; sess=None",
-                    "try:",
-                    "  t.append('iframe:request'); vs.get_iframe(eid); vs.get_content(); script='ok'; t.append('iframe:OK')",
-                    "except Exception as iframe_err:",
-                    "  t.append(f'iframe:ERR:{iframe_err}')",
-                    "if script is None:",
-                    "    t.append('embed:start')",
-                    "    sess=http_client.create_client_curl(headers={'User-Agent': get_userAgent(), 'Accept-Language':'it-IT,it;q=0.9,en;q=0.8'}, allow_redirects=True)",
-                    "    t.append('embed-url'); embed=sess.get(base+'/it/embed-url/'+str(eid)).text.strip()",
-                    "    t.append(f'embed={embed[:50]}')",
-                    "    sess.headers.update({'Referer': watch_ref, 'Origin': base})",
-                    "    resp=sess.get(embed)",
-                    "    t.append(f'embed-resp:status={resp.status_code}')",
-                    "    soup=BeautifulSoup(resp.text, 'html.parser')",
-                    "    scr=None; script_count=0",
-                    "    for tag in soup.find_all('script'):",
-                    "        script_count+=1",
-                    "        try:",
-                    "            txt=tag.text or ''",
-                    "            if 'masterPlaylist' in txt or 'video' in txt:",
-                    "                scr=txt; t.append(f'script:found(len={len(scr)})'); break",
-                    "        except Exception:",
-                    "            pass",
-                    "    t.append(f'scripts:total={script_count},found={scr is not None}')",
-                    "    if scr:",
-                    "        t.append('script:parse'); vs.parse_script(scr)",
-                    "    else:",
-                    "        t.append('script:NOT-FOUND')",
-                    "t.append('py-pl:start')",
-                    "try:",
-                    "  pl=vs.get_playlist()",
-                    "  if pl:",
-                    "    t.append(f'py-pl:get=OK(len={len(pl)})')",
-                    "  else:",
-                    "    t.append('py-pl:get=None')",
-                    "except Exception as e:",
-                    "  t.append(f'py-pl:get-ERR:{e}')",
-                    "  pl=None",
-                    "if not pl:",
-                    "    t.append('py-pl:fallback-regex')",
-                    "    txt=resp.text if resp is not None else ''",
-                    "    import re",
-                    "    m=re.search(r'https?://[^\\s\\x22\\x27<>]+\\.m3u8[^\\s\\x22\\x27<>]*', txt)",
-                    "    pl=m.group(0) if m else None",
-                    "    if pl is None: t.append('py-pl:ERR-no-m3u8')",
-                    "    else: t.append('py-pl:OK-regex')",
-                    "if not pl and sess is not None:",
-                    "    try:",
-                    "        wr=sess.get(watch_ref)",
-                    "        txt2=wr.text",
-                    "        import re as _re",
-                    "        m2=_re.search(r'https?://[^\\s\\x22\\x27<>]+\\.m3u8[^\\s\\x22\\x27<>]*', txt2)",
-                    "        pl=m2.group(0) if m2 else None",
-                    "        t.append('watch:request(mid='+str(mid)+',e='+str(eid)+')')",
-                    "    except Exception:",
-                    "        pass",
-                    "hdr={'User-Agent': get_userAgent(), 'Referer': watch_ref, 'Origin': base}",
-                    "res=HLS_Downloader(m3u8_url=pl, output_path=dst, headers=hdr).start()",
-                    "ok = bool(res) and res.get('error') is None",
-                    "print(json.dumps({'ok': ok, 'pl': pl, 'trace': '->'.join(t), 'error': (res or {}).get('error') if isinstance(res, dict) else None, 'watch': watch_ref, 'eid': eid}))"
-            );
-            ProcessBuilder pb = new ProcessBuilder(pythonExe(repo), "-c", code, repo, base, numericId, (slug != null ? slug : ""), String.valueOf(season), String.valueOf(episode), outputPath);
+            ProcessBuilder pb = new ProcessBuilder(pythonExe(repo), "-c", SE_SCRIPT, repo, base, numericId, (slug != null ? slug : ""), String.valueOf(season), String.valueOf(episode), outputPath);
             pb.redirectErrorStream(true);
             Process pr = pb.start();
+            ctx.trackPartial(java.nio.file.Paths.get(outputPath), false);
             java.nio.file.Path logFile = java.nio.file.Paths.get(System.getProperty("java.io.tmpdir"), "sc_python_debug.log");
-            try (java.io.BufferedReader br = new java.io.BufferedReader(new java.io.InputStreamReader(pr.getInputStream()));
+            try (var onCancel = ctx.onCancel(pr);
+                 java.io.BufferedReader br = new java.io.BufferedReader(new java.io.InputStreamReader(pr.getInputStream()));
                  java.io.BufferedWriter logWriter = java.nio.file.Files.newBufferedWriter(logFile, java.nio.charset.StandardCharsets.UTF_8, java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
                 String last = null; String lastJson = null; String line; 
                 while ((line = br.readLine()) != null) {
@@ -787,6 +814,7 @@ public class StreamingCommunityProvider implements ContentProvider {
                 }
                 logWriter.flush();
                 pr.waitFor();
+                if (ctx.isCancelled()) return false;
                 boolean ok = false; String trace = null; String playlist = null; String watchRef = null;
                 if (lastJson != null) {
                     try {
@@ -800,73 +828,150 @@ public class StreamingCommunityProvider implements ContentProvider {
                     ok = last != null && last.trim().equals("OK");
                 }
                 lastPyTrace = trace;
-                System.err.println("=== Python debug log: " + logFile.toAbsolutePath());
-                System.err.println("=== lastJson: " + lastJson);
-                System.err.println("=== trace: " + trace);
-                System.err.println("=== playlist: " + playlist);
+                Log.info("python", "Python debug log: " + logFile.toAbsolutePath());
+                Log.info("python", "lastJson: " + lastJson);
+                Log.info("python", "trace: " + trace);
+                Log.info("python", "playlist: " + playlist);
                 if (!ok && playlist != null && !playlist.isBlank()) {
-                    System.err.println("=== Attempting FFmpeg fallback...");
+                    Log.info("ffmpeg", "Attempting FFmpeg fallback...");
                     try {
-                        java.nio.file.Path outPath = java.nio.file.Paths.get(outputPath);
-                        java.nio.file.Path dir = outPath.getParent();
-                        String fname = outPath.getFileName().toString();
-                        java.util.Map<String,String> hdr = new java.util.LinkedHashMap<>();
-                        hdr.put("User-Agent", ua());
-                        // Vixcloud richiede Referer dal dominio vixcloud
-                        String plHost = java.net.URI.create(playlist).getHost();
-                        if (plHost != null && plHost.contains("vixcloud")) {
-                            hdr.put("Referer", "https://" + plHost + "/");
-                            hdr.put("Origin", "https://" + plHost);
-                        } else {
-                            if (watchRef != null && !watchRef.isBlank()) hdr.put("Referer", watchRef);
-                            hdr.put("Origin", base);
-                        }
-                        System.err.println("=== FFmpeg downloading to: " + outPath);
-                        System.err.println("=== FFmpeg playlist: " + playlist);
-                        System.err.println("=== FFmpeg headers: " + hdr);
-                        
-                        int speed = com.topent3r.multi.download.DownloadManager.getInstance().getDownloadSpeed();
-                        com.topent3r.multi.m3u.services.HttpDownloader downloader = new com.topent3r.multi.m3u.services.HttpDownloader();
-                        downloader.downloadWithFfmpeg(playlist, outPath, hdr, new com.topent3r.multi.m3u.services.HttpDownloader.ProgressCallback() {
-                            private long lastSecs = 0;
-                            @Override
-                            public void onProgress(long seconds) {
-                                if (seconds != lastSecs) {
-                                    String msg = "⏱️ " + formatTime(seconds);
-                                    System.err.println("=== FFmpeg progress: " + msg);
-                                    if (callback != null) callback.onProgress(msg);
-                                    lastSecs = seconds;
-                                }
-                            }
-                            @Override
-                            public void onSpeed(String speed) {
-                                System.err.println("=== FFmpeg speed: " + speed);
-                                if (callback != null) callback.onSpeed(speed);
-                            }
-                            @Override
-                            public void onComplete(long bytes) {
-                                String msg = "✅ " + formatSize(bytes);
-                                System.err.println("=== FFmpeg complete: " + msg);
-                                if (callback != null) callback.onProgress(msg);
-                            }
-                        }, speed);
-                        
-                        System.err.println("=== FFmpeg SUCCESS");
+                        javaHlsDownload(playlist, outputPath, watchRef, base, callback, ctx);
+                        Log.info("ffmpeg", "FFmpeg SUCCESS");
                         ok = true;
                     } catch (Exception e) { 
-                        System.err.println("=== FFmpeg FAILED: " + e.getMessage());
+                        Log.warn("ffmpeg", "FFmpeg FAILED: " + e.getMessage());
                         e.printStackTrace();
                         ok = false; 
                     }
                 }
                 if (!ok && slug != null && !slug.startsWith("it-")) {
-                    return pythonDownloadBySE(base, numericId, "it-" + slug, season, episode, outputPath, callback);
+                    return pythonDownloadBySE(base, numericId, "it-" + slug, season, episode, outputPath, callback, ctx);
                 }
                 return ok;
             }
         } catch (Exception ignore) { return false; }
     }
 
+    /** Scarica la playlist HLS col downloader Java (motore nativo, fallback ffmpeg). */
+    private void javaHlsDownload(String playlist, String outputPath, String watchRef, String base,
+                                 DownloadCallback callback, com.topent3r.multi.download.DownloadContext ctx) throws Exception {
+        java.nio.file.Path outPath = java.nio.file.Paths.get(outputPath);
+        java.util.Map<String,String> hdr = new java.util.LinkedHashMap<>();
+        hdr.put("User-Agent", ua());
+        // Vixcloud richiede Referer dal dominio vixcloud
+        String plHost = java.net.URI.create(playlist).getHost();
+        if (plHost != null && plHost.contains("vixcloud")) {
+            hdr.put("Referer", "https://" + plHost + "/");
+            hdr.put("Origin", "https://" + plHost);
+        } else {
+            if (watchRef != null && !watchRef.isBlank()) hdr.put("Referer", watchRef);
+            hdr.put("Origin", base);
+        }
+        Log.info("ffmpeg", "FFmpeg downloading to: " + outPath);
+        Log.info("ffmpeg", "FFmpeg playlist: " + playlist);
+        Log.info("ffmpeg", "FFmpeg headers: " + hdr);
+        
+        int workers = com.topent3r.multi.download.DownloadManager.getInstance().getHlsWorkers();
+        com.topent3r.multi.m3u.services.HttpDownloader downloader = new com.topent3r.multi.m3u.services.HttpDownloader();
+        downloader.downloadHls(playlist, outPath, hdr, new com.topent3r.multi.m3u.services.HttpDownloader.ProgressCallback() {
+            private long lastSecs = 0;
+            @Override
+            public void onProgress(long seconds) {
+                if (seconds != lastSecs) {
+                    String msg = "⏱️ " + formatTime(seconds);
+                    Log.debug("ffmpeg", "FFmpeg progress: " + msg);
+                    if (callback != null) callback.onProgress(msg);
+                    lastSecs = seconds;
+                }
+            }
+            @Override
+            public void onSpeed(String speed) {
+                Log.debug("ffmpeg", "FFmpeg speed: " + speed);
+                if (callback != null) callback.onSpeed(speed);
+            }
+            @Override
+            public void onComplete(long bytes) {
+                String msg = "✅ " + formatSize(bytes);
+                Log.info("ffmpeg", "FFmpeg complete: " + msg);
+                if (callback != null) callback.onProgress(msg);
+            }
+        }, workers, ctx);
+    }
+
+    // ---------- prefetch (risoluzione playlist in anticipo) ----------
+
+    /** Playlist risolta in anticipo; i token vixcloud scadono, quindi vale per poco. */
+    private record Resolved(String playlist, String watchRef, long at) {
+        boolean fresh() { return System.currentTimeMillis() - at < RESOLVED_TTL_MS; }
+    }
+
+    private static final long RESOLVED_TTL_MS = 20 * 60 * 1000L;
+    private static final long PREFETCH_TIMEOUT_S = 90;
+    private final Map<String, Resolved> resolved = new ConcurrentHashMap<>();
+
+    private static String resolvedKey(String numericId, Integer season, Integer episode) {
+        return numericId + ":" + season + ":" + episode;
+    }
+
+    @Override
+    @SuppressWarnings("try") // la registrazione vale per la durata del processo
+    public void prefetch(MediaItem item, Episode episode, com.topent3r.multi.download.DownloadContext ctx) throws Exception {
+        if (item == null || episode == null) return;
+        String type = item.getType() == null ? "" : item.getType().toLowerCase();
+        if (type.contains("film") || type.contains("movie")) return;
+        String id = item.getId();
+        if (id == null || !id.contains("-")) return;
+        String numericId = id.substring(0, id.indexOf('-'));
+        String slug = id.substring(id.indexOf('-') + 1);
+        Integer sNum = parseIntSafe(episode.getSeason());
+        Integer eNum = parseIntSafe(episode.getEpisode());
+        if (sNum == null || eNum == null) return;
+        String key = resolvedKey(numericId, sNum, eNum);
+        Resolved r = resolved.get(key);
+        if (r != null && r.fresh()) return;
+
+        String repo = "/Users/andreacassan/AndroidStudioProjects/evolutix-panel 2/Downloader/StreamingCommunity/StreamingCommunity-main";
+        if (!java.nio.file.Files.exists(java.nio.file.Paths.get(repo))) return;
+        String pyExe = pythonExe(repo);
+        if (pyExe == null) return;
+        ProcessBuilder pb = new ProcessBuilder(pyExe, "-c", SE_SCRIPT, repo, getBaseUrl(), numericId, slug,
+                String.valueOf(sNum), String.valueOf(eNum), "", "resolve");
+        pb.redirectErrorStream(true);
+        Process pr = pb.start();
+        // l'output si legge a parte: waitFor con timeout vale anche se il processo non stampa più nulla
+        java.util.concurrent.atomic.AtomicReference<String> lastLine = new java.util.concurrent.atomic.AtomicReference<>();
+        Thread reader = Tasks.start("sc-prefetch-out", () -> {
+            try (java.io.BufferedReader br = new java.io.BufferedReader(new java.io.InputStreamReader(pr.getInputStream()))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String t = line.trim();
+                    if (t.startsWith("{") && t.contains("\"ok\"")) lastLine.set(t);
+                }
+            } catch (java.io.IOException ignore) {
+                // processo chiuso da annullamento o timeout
+            }
+        });
+        try (var onCancel = ctx.onCancel(pr)) {
+            if (!pr.waitFor(PREFETCH_TIMEOUT_S, TimeUnit.SECONDS)) {
+                Log.warn("resolve", "Prefetch S" + sNum + "E" + eNum + ": nessuna risposta in " + PREFETCH_TIMEOUT_S + " s, lo fermo");
+                return;
+            }
+            reader.join(1000);
+        } finally {
+            // timeout, annullamento o interruzione del prefetch: il processo non deve restare vivo
+            if (pr.isAlive()) pr.destroyForcibly();
+        }
+        String lastJson = lastLine.get();
+        if (lastJson == null) return;
+        JsonObject obj = JsonParser.parseString(lastJson).getAsJsonObject();
+        String playlist = obj.has("pl") && !obj.get("pl").isJsonNull() ? obj.get("pl").getAsString() : null;
+        String watchRef = obj.has("watch") && !obj.get("watch").isJsonNull() ? obj.get("watch").getAsString() : null;
+        if (playlist != null && !playlist.isBlank()) {
+            resolved.put(key, new Resolved(playlist, watchRef, System.currentTimeMillis()));
+            Log.info("resolve", "Prefetch S" + sNum + "E" + eNum + ": playlist pronta");
+        }
+    }
+
     private String pythonExe(String repo) {
         try {
             String env = System.getenv("SC_PYTHON");
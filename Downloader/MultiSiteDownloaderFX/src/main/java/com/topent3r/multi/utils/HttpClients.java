@@ -0,0 +1,158 @@
+package com.topent3r.multi.utils;
+
+import com.topent3r.multi.download.CancellationToken;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client OkHttp condivisi da provider e downloader.
+ *
+ * Tutti i client derivano da uno stesso client base (newBuilder()), quindi hanno un
+ * solo pool di connessioni e un solo dispatcher: handshake TLS e connessioni
+ * keep-alive verso lo stesso CDN si riusano fra chiamate ai metadati e download.
+ * HTTP/2 viene negoziato via ALPN dove il server lo supporta; gzip è trasparente.
+ * Ogni chiamata alimenta le metriche per host: byte ricevuti (contati mentre arrivano,
+ * anche per trasferimenti annullati o falliti) e tempo al primo byte.
+ */
+public final class HttpClients {
+
+    /**
+     * Connessioni contemporanee verso lo stesso host, contate su tutti i download che
+     * prendono un permesso da {@link #hostSlots} (le chiamate qui sono tutte sincrone,
+     * il limite per host del dispatcher vale solo per enqueue()).
+     */
+    public static final int MAX_PER_HOST = 16;
+
+    private static final ConnectionPool POOL = new ConnectionPool(32, 5, TimeUnit.MINUTES);
+    private static final Map<String, Semaphore> HOST_SLOTS = new ConcurrentHashMap<>();
+
+    private static final OkHttpClient BASE = base();
+    private static final OkHttpClient API = BASE;
+
+    // file interi: niente timeout di lettura (stream lunghi) e byte così come arrivano,
+    // altrimenti la decompressione trasparente falsa dimensioni e avanzamento
+    private static final OkHttpClient DOWNLOADS = BASE.newBuilder()
+            .readTimeout(0, TimeUnit.SECONDS)
+            .addInterceptor(chain -> {
+                Request req = chain.request();
+                if (req.header("Accept-Encoding") != null) return chain.proceed(req);
+                return chain.proceed(req.newBuilder().header("Accept-Encoding", "identity").build());
+            })
+            .build();
+
+    // segmenti HLS: pochi MB ciascuno, un segmento fermo deve scadere e passare ai tentativi
+    private static final OkHttpClient SEGMENTS = DOWNLOADS.newBuilder()
+            .readTimeout(30, TimeUnit.SECONDS)
+            .build();
+
+    // con HTTP/2 tutti i range finirebbero multiplexati sulla stessa connessione TCP
+    private static final OkHttpClient RANGES = DOWNLOADS.newBuilder()
+            .protocols(List.of(Protocol.HTTP_1_1))
+            .build();
+
+    private HttpClients() {}
+
+    /** Pagine, API e playlist: timeout normali, risposte compresse. */
+    public static OkHttpClient api() { return API; }
+
+    /** Download di file e segmenti HLS. */
+    public static OkHttpClient downloads() { return DOWNLOADS; }
+
+    /** Segmenti, playlist e chiavi HLS: come {@link #downloads()} ma con timeout di lettura. */
+    public static OkHttpClient segments() { return SEGMENTS; }
+
+    /** Download multi-chunk: una connessione HTTP/1.1 per range. */
+    public static OkHttpClient ranges() { return RANGES; }
+
+    /** Permessi di connessione verso {@code host} (al massimo {@link #MAX_PER_HOST}). */
+    public static Semaphore hostSlots(String host) {
+        return HOST_SLOTS.computeIfAbsent(host, h -> new Semaphore(MAX_PER_HOST, true));
+    }
+
+    private static OkHttpClient base() {
+        // solo per eventuali chiamate asincrone: quelle sincrone non passano dai suoi limiti
+        Dispatcher dispatcher = new Dispatcher(Tasks.newExecutor("okhttp"));
+
+        return new OkHttpClient.Builder()
+                .connectionPool(POOL)
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .retryOnConnectionFailure(true)
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .eventListenerFactory(call -> new HostMetrics())
+                .addInterceptor(HttpClients::cancelWithThread)
+                .addNetworkInterceptor(HttpClients::countBytes)
+                .build();
+    }
+
+    /** Tempo dall'avvio della chiamata alle prime intestazioni (redirect compresi). */
+    private static final class HostMetrics extends EventListener {
+        private long started;
+        private boolean firstByte;
+
+        @Override
+        public void callStart(Call call) {
+            started = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            if (firstByte) return;
+            firstByte = true;
+            Metrics.getInstance().histogram("http_time_to_first_byte_seconds", "Tempo al primo byte per host",
+                    "host", call.request().url().host()).observeSince(started);
+        }
+    }
+
+    /**
+     * Chiamate fatte da un thread con un {@link CancellationToken#current() token} (es. una
+     * ricerca con timeout): all'annullamento la chiamata si chiude, anche a metà lettura.
+     */
+    private static Response cancelWithThread(Interceptor.Chain chain) throws IOException {
+        CancellationToken token = CancellationToken.current();
+        token.onCancel(chain.call()::cancel);
+        token.throwIfCancelled();
+        return chain.proceed(chain.request());
+    }
+
+    /** Byte per host contati a ogni lettura dal socket, non a fine risposta. */
+    private static Response countBytes(Interceptor.Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        ResponseBody body = response.body();
+        if (body == null) return response;
+        Metrics.Meter meter = Metrics.getInstance().meter("http_host_bytes", "Byte ricevuti per host",
+                "host", chain.request().url().host());
+        ForwardingSource counting = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long n = super.read(sink, byteCount);
+                if (n > 0) meter.mark(n);
+                return n;
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(counting), body.contentType(), body.contentLength()))
+                .build();
+    }
+}
@@ -0,0 +1,241 @@
+package com.topent3r.multi.utils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log asincrono del motore di download (download.log, una riga per evento).
+ *
+ * Chi scrive mette solo il record in un buffer circolare limitato e torna subito: niente
+ * lock sul file, niente open/close per riga. Un thread dedicato svuota il buffer a blocchi,
+ * formatta, scrive con un solo flush per blocco e ruota il file oltre {@link #MAX_BYTES}
+ * (download.log.1 .. .{@value #KEEP}). Se il buffer è pieno il record si scarta e se ne
+ * scrive il conto: un thread di download non aspetta mai il disco per il log.
+ *
+ * Le righe sono in formato logfmt, con i campi del download in corso:
+ * <pre>
+ * 2026-03-01T21:14:03.512 INFO  phase=hls site=RaiPlay item=7f3c msg="HLS NATIVE OK size=123"
+ * </pre>
+ * site e item vengono da {@link #bind}, ereditati dai thread figli (segmenti, prefetch).
+ * I livelli da INFO in su vanno anche su stderr, come prima i System.err dei download;
+ * DEBUG (output grezzo di ffmpeg) solo su file.
+ */
+public final class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    static final long MAX_BYTES = 10L * 1024 * 1024;
+    static final int KEEP = 3;
+    private static final int CAPACITY = 8192;
+    private static final int BATCH = 512;
+
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    /** Download a cui appartiene il thread corrente. */
+    private record Context(String site, String item) {}
+
+    private record Entry(long time, Level level, String phase, Context ctx, String message, Throwable error) {}
+
+    private static final InheritableThreadLocal<Context> CONTEXT = new InheritableThreadLocal<>();
+    private static final Log INSTANCE = new Log(Paths.get("download.log"));
+
+    private final Path file;
+    private final BlockingQueue<Entry> ring = new ArrayBlockingQueue<>(CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private Writer out;
+    private long size;
+
+    private Log(Path file) {
+        this.file = file;
+        Thread t = new Thread(this::drain, "log-writer");
+        t.setDaemon(true);
+        t.start();
+        // alla chiusura si scrive quello che è ancora nel buffer
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushRemaining, "log-flush"));
+    }
+
+    /** Contesto attivo fino a close(), per try-with-resources. */
+    public interface Binding extends AutoCloseable {
+        @Override void close();
+    }
+
+    /** Associa sito ed elemento al thread corrente (e ai thread che avvierà) fino a close(). */
+    public static Binding bind(String site, String itemId) {
+        Context previous = CONTEXT.get();
+        CONTEXT.set(new Context(site, itemId));
+        return () -> CONTEXT.set(previous);
+    }
+
+    public static void debug(String phase, String message) { INSTANCE.add(Level.DEBUG, phase, message, null); }
+
+    public static void info(String phase, String message) { INSTANCE.add(Level.INFO, phase, message, null); }
+
+    public static void warn(String phase, String message) { INSTANCE.add(Level.WARN, phase, message, null); }
+
+    public static void error(String phase, String message) { INSTANCE.add(Level.ERROR, phase, message, null); }
+
+    /** Errore con stack trace (formattato dal thread del log, non da chi chiama). */
+    public static void error(String phase, String message, Throwable error) {
+        INSTANCE.add(Level.ERROR, phase, message, error);
+    }
+
+    private void add(Level level, String phase, String message, Throwable error) {
+        Entry e = new Entry(System.currentTimeMillis(), level, phase, CONTEXT.get(), message, error);
+        if (!ring.offer(e)) dropped.incrementAndGet();
+    }
+
+    // ---------- thread di scrittura ----------
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        StringBuilder sb = new StringBuilder(64 * 1024);
+        while (true) {
+            try {
+                batch.add(ring.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            ring.drainTo(batch, BATCH - 1);
+            write(batch, sb);
+            batch.clear();
+        }
+    }
+
+    private synchronized void write(List<Entry> batch, StringBuilder sb) {
+        sb.setLength(0);
+        StringBuilder console = new StringBuilder();
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            format(sb, new Entry(System.currentTimeMillis(), Level.WARN, "log", null,
+                    lost + " righe scartate (buffer del log pieno)", null));
+        }
+        for (Entry e : batch) {
+            int from = sb.length();
+            format(sb, e);
+            if (e.level.compareTo(Level.INFO) >= 0) console.append(sb, from, sb.length());
+        }
+        if (!console.isEmpty()) System.err.print(console);
+        try {
+            if (out == null) open();
+            String text = sb.toString();
+            out.write(text);
+            out.flush();
+            size += utf8Length(text);
+            if (size > MAX_BYTES) rotate();
+        } catch (IOException ex) {
+            // il log non deve mai fermare i download: si riprova al blocco successivo
+            closeQuietly();
+        }
+    }
+
+    /** Byte scritti su disco (UTF-8), non caratteri: accenti e simboli contano più di uno. */
+    static long utf8Length(CharSequence s) {
+        long n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) { n += 4; i++; }
+            else n += 3;
+        }
+        return n;
+    }
+
+    private void flushRemaining() {
+        List<Entry> rest = new ArrayList<>();
+        ring.drainTo(rest);
+        if (!rest.isEmpty()) write(rest, new StringBuilder());
+    }
+
+    private static void format(StringBuilder sb, Entry e) {
+        sb.append(TIME.format(Instant.ofEpochMilli(e.time))).append(' ');
+        String level = e.level.name();
+        sb.append(level).append(" ".repeat(6 - level.length()));
+        field(sb, "phase", e.phase);
+        if (e.ctx != null) {
+            field(sb, "site", e.ctx.site);
+            field(sb, "item", e.ctx.item);
+        }
+        field(sb, "msg", e.message);
+        sb.setLength(sb.length() - 1);
+        sb.append('\n');
+        if (e.error != null) {
+            StringWriter trace = new StringWriter();
+            e.error.printStackTrace(new PrintWriter(trace));
+            sb.append(trace);
+        }
+    }
+
+    /** key=value, tra virgolette se serve (spazi, virgolette, uguale). */
+    private static void field(StringBuilder sb, String key, String value) {
+        if (value == null || value.isEmpty()) return;
+        sb.append(key).append('=');
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            sb.append(value).append(' ');
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        sb.append("\" ");
+    }
+
+    private void open() throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = Files.size(file);
+    }
+
+    /** download.log -> .1 -> .2 -> .3 (il più vecchio si perde). */
+    private void rotate() throws IOException {
+        closeQuietly();
+        for (int i = KEEP - 1; i >= 1; i--) {
+            Path from = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(from)) {
+                Files.move(from, file.resolveSibling(file.getFileName() + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void closeQuietly() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+}
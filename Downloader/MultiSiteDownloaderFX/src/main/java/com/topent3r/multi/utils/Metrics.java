@@ -0,0 +1,382 @@
+package com.topent3r.multi.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metriche del motore di download, senza dipendenze esterne.
+ *
+ * Quattro tipi, tutti aggiornabili da qualsiasi thread senza lock:
+ * <ul>
+ *   <li>{@link Counter}: totale crescente (es. retry);</li>
+ *   <li>{@link Meter}: totale più la velocità corrente, ricalcolata ogni secondo (es. byte/s);</li>
+ *   <li>{@link Histogram}: distribuzione di durate in secondi, a bucket fissi;</li>
+ *   <li>gauge: valore letto al momento da un {@link DoubleSupplier}.</li>
+ * </ul>
+ * Ogni serie ha un nome e delle etichette (site, host, item...). Tutto è esposto via JMX
+ * (com.topent3r.multi:type=Metrics, un attributo per serie) e, se configurata una porta,
+ * in formato testo Prometheus su http://127.0.0.1:&lt;porta&gt;/metrics.
+ */
+public final class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** Bucket delle durate (secondi): da 5 ms a 2 minuti. */
+    private static final double[] SECONDS_BUCKETS = {
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120 };
+
+    private enum Type { COUNTER, METER, HISTOGRAM, GAUGE }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        final Map<String, Object> series = new ConcurrentHashMap<>(); // etichette renderizzate -> serie
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /** Totale crescente. */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() { value.increment(); }
+        public void add(long n) { value.add(n); }
+        public long get() { return value.sum(); }
+    }
+
+    /** Totale con velocità media esponenziale (unità/s) aggiornata a ogni secondo. */
+    public static final class Meter {
+        private final LongAdder total = new LongAdder();
+        private long lastTotal;
+        private volatile double rate;
+
+        public void mark(long n) { total.add(n); }
+        public long total() { return total.sum(); }
+        public double rate() { return rate; }
+
+        private void tick(double seconds) {
+            long t = total.sum();
+            double instant = (t - lastTotal) / seconds;
+            lastTotal = t;
+            // media esponenziale: segue i cambi di velocità in pochi secondi senza saltellare
+            rate = rate == 0 ? instant : rate * 0.6 + instant * 0.4;
+        }
+    }
+
+    /** Distribuzione di durate in secondi. */
+    public static final class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i++) buckets[i] = new LongAdder();
+        }
+
+        /** Registra una durata misurata con System.nanoTime(). */
+        public void observeNanos(long nanos) {
+            double s = nanos / 1e9;
+            for (int i = 0; i < bounds.length; i++) {
+                if (s <= bounds[i]) { buckets[i].increment(); break; }
+            }
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        /** Durata dall'istante {@code startNanos} (System.nanoTime()) a ora. */
+        public void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+
+        public long count() { return count.sum(); }
+        public double sumSeconds() { return sumNanos.sum() / 1e9; }
+
+        /** Quantile approssimato al limite superiore del bucket (per JMX). */
+        public double quantile(double q) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n), seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) return bounds[i];
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "metrics");
+        t.setDaemon(true);
+        return t;
+    });
+    private HttpServer http;
+    private ExecutorService httpExecutor;
+
+    private Metrics() {
+        ticker.scheduleAtFixedRate(this::tickMeters, 1, 1, TimeUnit.SECONDS);
+        registerJmx();
+    }
+
+    public static Metrics getInstance() { return INSTANCE; }
+
+    // ---------- registrazione (get-or-create, economiche da chiamare ogni volta) ----------
+
+    /** Etichette come coppie nome/valore: counter("retries_total", "...", "site", "RaiPlay"). */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).series.computeIfAbsent(labels(labels), k -> new Counter());
+    }
+
+    public Meter meter(String name, String help, String... labels) {
+        return (Meter) family(name, help, Type.METER).series.computeIfAbsent(labels(labels), k -> new Meter());
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM).series
+                .computeIfAbsent(labels(labels), k -> new Histogram(SECONDS_BUCKETS));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).series.put(labels(labels), value);
+    }
+
+    /** Toglie tutte le serie con l'etichetta {@code label=value} (es. un elemento rimosso dalla coda). */
+    public void removeLabeled(String label, String value) {
+        String needle = label + "=\"" + escape(value) + "\"";
+        for (Family f : families.values()) {
+            f.series.keySet().removeIf(k -> k.contains(needle));
+        }
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family f = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (f.type != type) throw new IllegalArgumentException("Metrica " + name + " già registrata come " + f.type);
+        return f;
+    }
+
+    private static String labels(String... kv) {
+        if (kv.length == 0) return "";
+        if (kv.length % 2 != 0) throw new IllegalArgumentException("Etichette a coppie nome/valore");
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < kv.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(kv[i]).append("=\"").append(escape(kv[i + 1])).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String escape(String v) {
+        return v == null ? "" : v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private void tickMeters() {
+        for (Family f : families.values()) {
+            if (f.type != Type.METER) continue;
+            for (Object m : f.series.values()) ((Meter) m).tick(1.0);
+        }
+    }
+
+    // ---------- esposizione ----------
+
+    /** Tutte le metriche nel formato testo di Prometheus (0.0.4). */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        List<Family> sorted = new ArrayList<>(families.values());
+        sorted.sort(Comparator.comparing(f -> f.name));
+        for (Family f : sorted) {
+            Map<String, Object> series = new TreeMap<>(f.series);
+            switch (f.type) {
+                case COUNTER -> {
+                    header(sb, f.name, f.help, "counter");
+                    series.forEach((l, c) -> line(sb, f.name, l, ((Counter) c).get()));
+                }
+                case GAUGE -> {
+                    header(sb, f.name, f.help, "gauge");
+                    series.forEach((l, g) -> line(sb, f.name, l, ((DoubleSupplier) g).getAsDouble()));
+                }
+                case METER -> {
+                    header(sb, f.name + "_total", f.help, "counter");
+                    series.forEach((l, m) -> line(sb, f.name + "_total", l, ((Meter) m).total()));
+                    header(sb, f.name + "_per_second", f.help + " (velocità corrente)", "gauge");
+                    series.forEach((l, m) -> line(sb, f.name + "_per_second", l, ((Meter) m).rate()));
+                }
+                case HISTOGRAM -> {
+                    header(sb, f.name, f.help, "histogram");
+                    series.forEach((l, o) -> {
+                        Histogram h = (Histogram) o;
+                        long cumulative = 0;
+                        for (int i = 0; i < h.bounds.length; i++) {
+                            cumulative += h.buckets[i].sum();
+                            line(sb, f.name + "_bucket", withLe(l, fmt(h.bounds[i])), cumulative);
+                        }
+                        line(sb, f.name + "_bucket", withLe(l, "+Inf"), h.count());
+                        line(sb, f.name + "_sum", l, h.sumSeconds());
+                        line(sb, f.name + "_count", l, h.count());
+                    });
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Valori piatti per JMX: una voce per serie (gli istogrammi come count/sum/p50/p95/p99). */
+    Map<String, Double> snapshot() {
+        Map<String, Double> out = new TreeMap<>();
+        for (Family f : families.values()) {
+            f.series.forEach((l, o) -> {
+                switch (f.type) {
+                    case COUNTER -> out.put(f.name + l, (double) ((Counter) o).get());
+                    case GAUGE -> out.put(f.name + l, ((DoubleSupplier) o).getAsDouble());
+                    case METER -> {
+                        out.put(f.name + "_total" + l, (double) ((Meter) o).total());
+                        out.put(f.name + "_per_second" + l, ((Meter) o).rate());
+                    }
+                    case HISTOGRAM -> {
+                        Histogram h = (Histogram) o;
+                        out.put(f.name + "_count" + l, (double) h.count());
+                        out.put(f.name + "_sum" + l, h.sumSeconds());
+                        out.put(f.name + "_p50" + l, h.quantile(0.50));
+                        out.put(f.name + "_p95" + l, h.quantile(0.95));
+                        out.put(f.name + "_p99" + l, h.quantile(0.99));
+                    }
+                }
+            });
+        }
+        return out;
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help.replace("\n", " ")).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void line(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name).append(labels).append(' ').append(fmt(value)).append('\n');
+    }
+
+    private static String withLe(String labels, String le) {
+        return labels.isEmpty() ? "{le=\"" + le + "\"}" : labels.substring(0, labels.length() - 1) + ",le=\"" + le + "\"}";
+    }
+
+    private static String fmt(double v) {
+        if (Double.isInfinite(v)) return v > 0 ? "+Inf" : "-Inf";
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return Double.toString(v);
+    }
+
+    /**
+     * Avvia (o sposta) l'endpoint Prometheus su 127.0.0.1:{@code port}; 0 lo spegne.
+     * Solo loopback: le etichette contengono titoli e host dei download.
+     */
+    public synchronized void serveHttp(int port) {
+        if (http != null && http.getAddress().getPort() == port) return;
+        if (http != null) {
+            http.stop(0);
+            httpExecutor.shutdownNow();
+            http = null;
+        }
+        if (port <= 0) return;
+        try {
+            HttpServer s = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            s.createContext("/metrics", ex -> {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                ex.sendResponseHeaders(200, body.length);
+                try (OutputStream os = ex.getResponseBody()) {
+                    os.write(body);
+                }
+            });
+            httpExecutor = Tasks.newExecutor("metrics-http");
+            s.setExecutor(httpExecutor);
+            s.start();
+            http = s;
+            Log.info("metrics", "endpoint su http://127.0.0.1:" + port + "/metrics");
+        } catch (IOException e) {
+            Log.error("metrics", "impossibile aprire la porta " + port + ": " + e.getMessage());
+        }
+    }
+
+    // ---------- JMX ----------
+
+    private void registerJmx() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new MetricsMBean(), new ObjectName("com.topent3r.multi:type=Metrics"));
+        } catch (JMException | SecurityException e) {
+            Log.error("metrics", "registrazione JMX fallita: " + e.getMessage());
+        }
+    }
+
+    /** MBean dinamico: gli attributi sono le serie presenti al momento (solo lettura). */
+    private final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Double v = snapshot().get(attribute);
+            if (v == null) throw new AttributeNotFoundException(attribute);
+            return v;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Double> snap = snapshot();
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                Double v = snap.get(a);
+                if (v != null) list.add(new Attribute(a, v));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metriche in sola lettura: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+            if ("scrape".equals(actionName)) return scrape();
+            throw new MBeanException(new UnsupportedOperationException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (String name : snapshot().keySet()) {
+                attrs.add(new MBeanAttributeInfo(name, "java.lang.Double", name, true, false, false));
+            }
+            MBeanOperationInfo scrapeOp = new MBeanOperationInfo("scrape", "Testo Prometheus",
+                    new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+            return new MBeanInfo(Metrics.class.getName(), "Metriche del motore di download",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null,
+                    new MBeanOperationInfo[] { scrapeOp }, null);
+        }
+    }
+}
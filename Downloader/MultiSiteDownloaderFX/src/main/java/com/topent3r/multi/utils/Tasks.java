@@ -0,0 +1,152 @@
+package com.topent3r.multi.utils;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Esecuzione condivisa su virtual thread (Java 21) per download, ricerche e caricamenti.
+ *
+ * Ogni lavoro in background gira su un virtual thread con nome: mettere in coda
+ * centinaia di elementi non crea centinaia di thread di piattaforma. La concorrenza
+ * si limita con semafori (non con la dimensione di un pool) e i lavori legati fra
+ * loro si raggruppano in uno {@link Scope}, che si annulla in blocco.
+ */
+public final class Tasks {
+
+    /** Ricerche contemporanee sui provider, da tutti i tab. */
+    public static final Semaphore SEARCHES = new Semaphore(8, true);
+    /** Caricamenti di episodi/playlist contemporanei. */
+    public static final Semaphore LOADS = new Semaphore(4, true);
+
+    private Tasks() {}
+
+    /** Avvia il lavoro su un nuovo virtual thread. */
+    public static Thread start(String name, Runnable task) {
+        return Thread.ofVirtual().name(name).start(task);
+    }
+
+    /** Come {@link #start(String, Runnable)}, ma attende un permesso di {@code limit} prima di partire. */
+    public static Thread start(String name, Semaphore limit, Runnable task) {
+        return start(name, limited(limit, task));
+    }
+
+    /** Un virtual thread per task, nomi "prefix-0", "prefix-1", ... */
+    public static ExecutorService newExecutor(String prefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix + "-", 0).factory());
+    }
+
+    /** Virtual thread per task, ma al massimo {@code permits} in esecuzione insieme. */
+    public static ExecutorService newBoundedExecutor(String prefix, int permits) {
+        return new Bounded(newExecutor(prefix), new Semaphore(Math.max(1, permits)));
+    }
+
+    public static Scope scope(String name) {
+        return new Scope(name);
+    }
+
+    private static Runnable limited(Semaphore limit, Runnable task) {
+        return () -> {
+            try {
+                limit.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                limit.release();
+            }
+        };
+    }
+
+    /**
+     * Gruppo di lavori con un nome (es. "download-SC-42"): {@link #cancel()} interrompe
+     * tutti i thread del gruppo, {@link #close()} attende che siano terminati.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final String name;
+        private final AtomicInteger seq = new AtomicInteger();
+        private final List<Future<?>> tasks = new CopyOnWriteArrayList<>();
+        private volatile boolean cancelled;
+
+        private Scope(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return name; }
+
+        public boolean isCancelled() { return cancelled; }
+
+        public Future<?> fork(Runnable task) {
+            return fork(null, task);
+        }
+
+        /** Avvia il lavoro nel gruppo; con {@code limit} != null attende prima un permesso. */
+        public Future<?> fork(Semaphore limit, Runnable task) {
+            FutureTask<Void> ft = new FutureTask<>(limit != null ? limited(limit, task) : task, null);
+            if (cancelled) {
+                ft.cancel(false);
+                return ft;
+            }
+            tasks.add(ft);
+            Thread.ofVirtual().name(name + "-" + seq.getAndIncrement()).start(() -> {
+                try {
+                    ft.run();
+                } finally {
+                    tasks.remove(ft);
+                }
+            });
+            if (cancelled) ft.cancel(true);
+            return ft;
+        }
+
+        /** Interrompe tutti i lavori del gruppo; quelli aggiunti dopo non partono. */
+        public void cancel() {
+            cancelled = true;
+            for (Future<?> f : tasks) f.cancel(true);
+        }
+
+        /** Attende la fine di tutti i lavori del gruppo (anche se annullati o falliti). */
+        public void join() throws InterruptedException {
+            for (Future<?> f : tasks) {
+                try {
+                    f.get();
+                } catch (ExecutionException | CancellationException ignored) {
+                    // l'esito lo gestisce chi ha avviato il lavoro
+                }
+            }
+        }
+
+        /** Annulla e attende; se interrotto smette di attendere e lascia il flag di interruzione. */
+        @Override
+        public void close() {
+            cancel();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class Bounded extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        Bounded(ExecutorService delegate, Semaphore permits) {
+            this.delegate = delegate;
+            this.permits = permits;
+        }
+
+        @Override public void execute(Runnable command) { delegate.execute(limited(permits, command)); }
+        @Override public void shutdown() { delegate.shutdown(); }
+        @Override public List<Runnable> shutdownNow() { return delegate.shutdownNow(); }
+        @Override public boolean isShutdown() { return delegate.isShutdown(); }
+        @Override public boolean isTerminated() { return delegate.isTerminated(); }
+        @Override public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
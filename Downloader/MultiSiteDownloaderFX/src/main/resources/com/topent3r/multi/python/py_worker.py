@@ -0,0 +1,71 @@
+# Worker persistente per gli script *_headless.py (vedi PythonWorkerPool.java).
+#
+# Carica lo script una sola volta (gli import di StreamingCommunity sono la parte lenta)
+# e poi esegue main() per ogni richiesta letta da stdin, una riga JSON per richiesta:
+#   {"id": 1, "args": ["search", "naruto"]}   ->  {"id": 1, "code": 0, "out": "...", "err": "..."}
+#   {"id": 2, "ping": true}                   ->  {"id": 2, "pong": true}
+import sys, os, io, json, traceback, contextlib, importlib.util
+
+script = os.path.abspath(sys.argv[1])
+
+# Le risposte viaggiano su una copia privata di stdout; l'fd 1 punta a stderr,
+# così ffmpeg o altri sottoprocessi non possono sporcare il protocollo.
+proto = os.fdopen(os.dup(1), 'w', encoding='utf-8', buffering=1)
+os.dup2(2, 1)
+
+
+def reply(obj):
+    proto.write(json.dumps(obj) + '\n')
+    proto.flush()
+
+
+sys.path.insert(0, os.path.dirname(script))
+sys.argv = [script]
+try:
+    spec = importlib.util.spec_from_file_location('headless_script', script)
+    mod = importlib.util.module_from_spec(spec)
+    spec.loader.exec_module(mod)
+    if not hasattr(mod, 'main'):
+        raise RuntimeError('main() non trovato in ' + script)
+except BaseException as e:
+    reply({'ready': False, 'error': '%s: %s' % (type(e).__name__, e)})
+    sys.exit(1)
+
+reply({'ready': True, 'pid': os.getpid()})
+
+for line in sys.stdin:
+    line = line.strip()
+    if not line:
+        continue
+    try:
+        req = json.loads(line)
+    except ValueError:
+        continue
+    rid = req.get('id')
+    if req.get('ping'):
+        reply({'id': rid, 'pong': True})
+        continue
+
+    # stato globale delle ricerche: gli script non lo azzerano perché prima morivano a ogni chiamata
+    manager = getattr(mod, 'media_search_manager', None)
+    if manager is not None and hasattr(manager, 'clear'):
+        try:
+            manager.clear()
+        except Exception:
+            pass
+
+    out, err = io.StringIO(), io.StringIO()
+    code = 0
+    cwd = os.getcwd()
+    sys.argv = [script] + [str(a) for a in req.get('args', [])]
+    try:
+        with contextlib.redirect_stdout(out), contextlib.redirect_stderr(err):
+            mod.main()
+    except SystemExit as e:
+        code = e.code if isinstance(e.code, int) else (0 if e.code is None else 1)
+    except BaseException:
+        code = 1
+        err.write(traceback.format_exc())
+    finally:
+        os.chdir(cwd)  # alcuni script cambiano cartella durante il download
+    reply({'id': rid, 'code': code, 'out': out.getvalue(), 'err': err.getvalue()})
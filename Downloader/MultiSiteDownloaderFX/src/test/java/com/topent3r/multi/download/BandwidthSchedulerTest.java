@@ -0,0 +1,45 @@
+package com.topent3r.multi.download;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandwidthSchedulerTest {
+
+    @Test
+    void bitRatesAreDecimal() {
+        assertEquals(2_500_000, BandwidthScheduler.parseRate("20Mbit"));
+        assertEquals(2_500_000, BandwidthScheduler.parseRate("20 Mbit/s"));
+        assertEquals(2_500_000, BandwidthScheduler.parseRate("20Mbps"));
+        assertEquals(100_000, BandwidthScheduler.parseRate("800kbit"));
+        assertEquals(125_000_000, BandwidthScheduler.parseRate("1g"));
+    }
+
+    @Test
+    void byteRatesAreBinary() {
+        assertEquals(5 * 1024 * 1024, BandwidthScheduler.parseRate("5MB"));
+        assertEquals(512 * 1024, BandwidthScheduler.parseRate("512KB"));
+        assertEquals(512 * 1024, BandwidthScheduler.parseRate("512 kb/s"));
+    }
+
+    @Test
+    void bareNumberIsMbit() {
+        assertEquals(1_250_000, BandwidthScheduler.parseRate("10"));
+        assertEquals(187_500, BandwidthScheduler.parseRate("1,5"));
+        assertEquals(187_500, BandwidthScheduler.parseRate("1.5 Mbit"));
+    }
+
+    @Test
+    void emptyOrZeroIsUnlimited() {
+        assertEquals(0, BandwidthScheduler.parseRate(null));
+        assertEquals(0, BandwidthScheduler.parseRate(""));
+        assertEquals(0, BandwidthScheduler.parseRate("   "));
+        assertEquals(0, BandwidthScheduler.parseRate("0"));
+    }
+
+    @Test
+    void invalidInputThrows() {
+        assertThrows(IllegalArgumentException.class, () -> BandwidthScheduler.parseRate("20 furlong"));
+        assertThrows(NumberFormatException.class, () -> BandwidthScheduler.parseRate("Mbit"));
+    }
+}
@@ -0,0 +1,179 @@
+package com.topent3r.multi.download;
+
+import com.google.gson.Gson;
+import com.topent3r.multi.model.Episode;
+import com.topent3r.multi.model.MediaItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadJournalTest {
+
+    private static final Gson GSON = new Gson();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayRebuildsQueueState() throws IOException {
+        Path file = dir.resolve("downloads.journal");
+        Episode e1 = new Episode("1", "1", "Pilota");
+        Episode e2 = new Episode("1", "2", "Secondo");
+        write(file,
+                enqueue("a", List.of(e1, e2), List.of(e1)),
+                select("a", List.of(e1, e2), 5, 250_000L),
+                event("start", "a"),
+                progress("a", e1),
+                progress("a", e1),          // ripetuto dopo un riavvio: non si conta due volte
+                fail("a", "timeout"),
+                enqueue("b", List.of(), List.of()),
+                event("complete", "b"),
+                enqueue("c", List.of(), List.of()),
+                event("remove", "c"));
+
+        List<DownloadJournal.Entry> entries = load(file);
+
+        assertEquals(2, entries.size());
+        DownloadJournal.Entry a = entries.get(0);
+        assertEquals("a", a.id);
+        assertEquals(DownloadStatus.FAILED, a.status);
+        assertEquals("timeout", a.message);
+        assertEquals(List.of(e1, e2), a.selected);
+        assertEquals(List.of(e1), a.done);
+        assertEquals(5, a.priority);
+        assertEquals(250_000L, a.bandwidthLimit);
+        assertEquals("b", entries.get(1).id);
+        assertEquals(DownloadStatus.COMPLETED, entries.get(1).status);
+    }
+
+    @Test
+    void truncatedLastLineIsIgnored() throws IOException {
+        Path file = dir.resolve("downloads.journal");
+        write(file, enqueue("a", List.of(), List.of()), event("start", "a"));
+        Files.writeString(file, "{\"ev\":\"complete\",\"id\":\"a", StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+
+        List<DownloadJournal.Entry> entries = load(file);
+
+        assertEquals(1, entries.size());
+        assertEquals(DownloadStatus.RUNNING, entries.get(0).status);
+    }
+
+    @Test
+    void eventsForUnknownItemsAreIgnored() throws IOException {
+        Path file = dir.resolve("downloads.journal");
+        write(file, event("start", "ghost"), fail("ghost", "x"), enqueue("a", List.of(), List.of()));
+
+        List<DownloadJournal.Entry> entries = load(file);
+
+        assertEquals(1, entries.size());
+        assertEquals("a", entries.get(0).id);
+        assertEquals(DownloadStatus.PENDING, entries.get(0).status);
+    }
+
+    @Test
+    void compactionKeepsOneLinePerItem() throws IOException {
+        Path file = dir.resolve("downloads.journal");
+        Episode e1 = new Episode("1", "1", "Pilota");
+        write(file,
+                enqueue("a", List.of(e1), List.of(e1)),
+                event("start", "a"),
+                progress("a", e1),
+                enqueue("b", List.of(), List.of()),
+                event("remove", "b"));
+
+        DownloadJournal journal = new DownloadJournal(file);
+        journal.load();
+        journal.flush();    // la compattazione parte con load() sullo stesso thread di scrittura
+
+        assertEquals(1, Files.readAllLines(file).size());
+        List<DownloadJournal.Entry> entries = load(file);
+        assertEquals(1, entries.size());
+        assertEquals(DownloadStatus.RUNNING, entries.get(0).status);
+        assertEquals(List.of(e1), entries.get(0).done);
+    }
+
+    @Test
+    void queueEventsSurviveRestart() throws IOException {
+        Path file = dir.resolve("downloads.journal");
+        DownloadJournal journal = new DownloadJournal(file);
+        journal.load();
+
+        DownloadItem di = StubProvider.item("x", "RaiPlay", 0);
+        Episode e1 = new Episode("1", "1", "Pilota");
+        Episode e2 = new Episode("1", "2", "Secondo");
+        di.setEpisodes(List.of(e1, e2));
+        journal.enqueued(di);
+        di.getSelectedEpisodes().setAll(e1, e2);
+        di.setPriority(3);
+        journal.selectionChanged(di);   // in attesa: la scrive flush()
+        journal.flush();
+
+        List<DownloadJournal.Entry> entries = load(file);
+
+        assertEquals(1, entries.size());
+        DownloadJournal.Entry x = entries.get(0);
+        assertEquals("RaiPlay", x.provider);
+        assertEquals(3, x.priority);
+        assertEquals(List.of(e1, e2), x.episodes);
+        assertEquals(List.of(e1, e2), x.selected);
+    }
+
+    // ---------- helper ----------
+
+    private static List<DownloadJournal.Entry> load(Path file) {
+        return new DownloadJournal(file).load();
+    }
+
+    private static void write(Path file, DownloadJournal.Event... events) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (DownloadJournal.Event e : events) lines.add(GSON.toJson(e));
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    private static DownloadJournal.Event event(String type, String id) {
+        DownloadJournal.Event e = new DownloadJournal.Event();
+        e.ev = type;
+        e.id = id;
+        return e;
+    }
+
+    private static DownloadJournal.Event enqueue(String id, List<Episode> episodes, List<Episode> selected) {
+        DownloadJournal.Event e = event("enqueue", id);
+        e.item = new MediaItem(id, "Titolo " + id, "tv", "RaiPlay", "RaiPlay", "2020");
+        e.provider = "RaiPlay";
+        e.status = DownloadStatus.PENDING;
+        e.episodes = episodes;
+        e.selected = selected;
+        return e;
+    }
+
+    private static DownloadJournal.Event select(String id, List<Episode> selected, int priority, long limit) {
+        DownloadJournal.Event e = event("select", id);
+        e.selected = selected;
+        e.priority = priority;
+        e.bandwidthLimit = limit;
+        return e;
+    }
+
+    private static DownloadJournal.Event progress(String id, Episode episode) {
+        DownloadJournal.Event e = event("progress", id);
+        e.episode = episode;
+        return e;
+    }
+
+    private static DownloadJournal.Event fail(String id, String message) {
+        DownloadJournal.Event e = event("fail", id);
+        e.message = message;
+        return e;
+    }
+}
@@ -0,0 +1,145 @@
+package com.topent3r.multi.download;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadSchedulerTest {
+
+    private final List<String> launched = new ArrayList<>();
+    private final Map<String, DownloadItem> items = new HashMap<>();
+    private final DownloadScheduler scheduler = new DownloadScheduler(di -> launched.add(di.getId()));
+
+    @Test
+    void globalLimitCapsRunningItems() {
+        scheduler.setLimits(2, 5, null);
+        DownloadItem a = StubProvider.item("a", "RaiPlay", 0);
+        submit(a, StubProvider.item("b", "RaiPlay", 0), StubProvider.item("c", "RaiPlay", 0));
+
+        assertEquals(List.of("a", "b"), launched);
+        scheduler.release(a);
+        assertEquals(List.of("a", "b", "c"), launched);
+    }
+
+    @Test
+    void siteLimitLetsOtherSitesThrough() {
+        scheduler.setLimits(4, 1, null);
+        submit(StubProvider.item("a1", "RaiPlay", 0), StubProvider.item("a2", "RaiPlay", 0),
+                StubProvider.item("b1", "Crunchyroll", 0));
+
+        assertEquals(List.of("a1", "b1"), launched);
+    }
+
+    @Test
+    void siteOverrideReplacesDefault() {
+        scheduler.setLimits(4, 1, Map.of("RaiPlay", 2));
+        submit(StubProvider.item("a1", "RaiPlay", 0), StubProvider.item("a2", "RaiPlay", 0),
+                StubProvider.item("a3", "RaiPlay", 0));
+
+        assertEquals(List.of("a1", "a2"), launched);
+    }
+
+    @Test
+    void higherPriorityStartsFirstThenArrivalOrder() {
+        scheduler.setLimits(1, 1, null);
+        DownloadItem first = StubProvider.item("first", "RaiPlay", 0);
+        submit(first,
+                StubProvider.item("low", "RaiPlay", 0),
+                StubProvider.item("high", "RaiPlay", 5),
+                StubProvider.item("low2", "RaiPlay", 0),
+                StubProvider.item("mid", "RaiPlay", 3));
+
+        drain(first, 4);
+        assertEquals(List.of("first", "high", "mid", "low", "low2"), launched);
+    }
+
+    @Test
+    void priorityWinsAcrossSites() {
+        scheduler.setLimits(1, 1, null);
+        DownloadItem first = StubProvider.item("first", "RaiPlay", 0);
+        submit(first, StubProvider.item("rai", "RaiPlay", 1), StubProvider.item("cr", "Crunchyroll", 2));
+
+        drain(first, 2);
+        assertEquals(List.of("first", "cr", "rai"), launched);
+    }
+
+    @Test
+    void reprioritizeMovesQueuedItem() {
+        scheduler.setLimits(1, 1, null);
+        DownloadItem first = StubProvider.item("first", "RaiPlay", 0);
+        DownloadItem late = StubProvider.item("late", "RaiPlay", 0);
+        submit(first, StubProvider.item("early", "RaiPlay", 0), late);
+
+        late.setPriority(9);
+        scheduler.reprioritize(late);
+        drain(first, 2);
+        assertEquals(List.of("first", "late", "early"), launched);
+    }
+
+    @Test
+    void withdrawnItemNeverStarts() {
+        scheduler.setLimits(1, 1, null);
+        DownloadItem first = StubProvider.item("first", "RaiPlay", 0);
+        DownloadItem gone = StubProvider.item("gone", "RaiPlay", 0);
+        submit(first, gone);
+
+        assertTrue(scheduler.isQueued(gone));
+        assertTrue(scheduler.withdraw(gone));
+        assertFalse(scheduler.isQueued(gone));
+        assertFalse(scheduler.withdraw(gone));
+        scheduler.release(first);
+        assertEquals(List.of("first"), launched);
+    }
+
+    @Test
+    void duplicateSubmitAndReleaseAreIgnored() {
+        scheduler.setLimits(1, 1, null);
+        DownloadItem a = StubProvider.item("a", "RaiPlay", 0);
+        DownloadItem b = StubProvider.item("b", "RaiPlay", 0);
+        submit(a, a, b, b);
+
+        scheduler.release(a);
+        scheduler.release(a);   // lo slot di b non si libera due volte
+        submit(StubProvider.item("c", "RaiPlay", 0));
+        assertEquals(List.of("a", "b"), launched);
+    }
+
+    @Test
+    void raisingLimitsStartsQueuedItems() {
+        scheduler.setLimits(1, 1, null);
+        submit(StubProvider.item("a", "RaiPlay", 0), StubProvider.item("b", "RaiPlay", 0));
+
+        scheduler.setLimits(2, 2, null);
+        assertEquals(List.of("a", "b"), launched);
+    }
+
+    @Test
+    void parseSiteLimitsSkipsInvalidEntries() {
+        assertEquals(Map.of("StreamingCommunity", 1, "RaiPlay", 3),
+                DownloadScheduler.parseSiteLimits("StreamingCommunity=1; RaiPlay = 3;=4;Crunchyroll=tanti;AnimeUnity"));
+        assertTrue(DownloadScheduler.parseSiteLimits(null).isEmpty());
+    }
+
+    private void submit(DownloadItem... items) {
+        for (DownloadItem di : items) {
+            this.items.put(di.getId(), di);
+            scheduler.submit(di);
+        }
+    }
+
+    /** Libera {@code first}, poi l'ultimo partito, {@code times} volte: uno slot alla volta. */
+    private void drain(DownloadItem first, int times) {
+        DownloadItem done = first;
+        for (int i = 0; i < times; i++) {
+            int before = launched.size();
+            scheduler.release(done);
+            assertEquals(before + 1, launched.size(), "uno slot libero, un avvio");
+            done = items.get(launched.get(before));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.topent3r.multi.download;
+
+import com.topent3r.multi.model.Episode;
+import com.topent3r.multi.model.MediaItem;
+import com.topent3r.multi.services.ContentProvider;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/** Provider che non fa nulla: ai test di coda e journal serve solo il nome. */
+final class StubProvider implements ContentProvider {
+
+    private final String name;
+
+    StubProvider(String name) {
+        this.name = name;
+    }
+
+    /** Elemento della coda per il sito {@code site} (alias del MediaItem). */
+    static DownloadItem item(String id, String site, int priority) {
+        MediaItem mi = new MediaItem(id, "Titolo " + id, "tv", site, site, "2020");
+        DownloadItem di = new DownloadItem(id, mi, new StubProvider(site));
+        di.setPriority(priority);
+        return di;
+    }
+
+    @Override public String getDisplayName() { return name; }
+    @Override public List<MediaItem> search(String query) { return List.of(); }
+    @Override public List<Episode> listEpisodes(MediaItem item) { return List.of(); }
+    @Override public void download(MediaItem item, Episode episode, Path outputDir) { }
+}
@@ -0,0 +1,125 @@
+package com.topent3r.multi.m3u.services;
+
+import com.topent3r.multi.m3u.models.Channel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelSearchIndexTest {
+
+    private static final String[] WORDS = {"Calcio", "Serie A", "Film", "Notizie", "Cartoni", "Città", "4K", "HD"};
+    private static final String[] GROUPS = {"Sport", "Cinema", "Bambini", "Italia"};
+
+    // brevi, trigrammi, solo gruppo, solo prefisso, a cavallo fra prefisso e coda, maiuscole, accenti, assenti
+    private static final List<String> QUERIES = List.of(
+            "a", "4k", "cal", "calcio", "serie a", "canale", "sport", "cinema",
+            "example", "live/", "pass/12", "s/1", "CALCIO", "città", "1234", "zzz", "https://cdn2");
+
+    @Test
+    void searchMatchesTextFilter() {
+        List<Channel> channels = playlist(20_000, 7);
+        ChannelSearchIndex index = indexOf(channels, 1000);
+
+        for (String q : QUERIES) {
+            assertEquals(expected(channels, q), search(index, q, null).rows(), "query '" + q + "'");
+        }
+    }
+
+    @Test
+    void narrowingGivesSameRowsAsFreshSearch() {
+        List<Channel> channels = playlist(5_000, 11);
+        ChannelSearchIndex index = indexOf(channels, 1000);
+
+        ChannelSearchIndex.Result previous = null;
+        for (String q : List.of("c", "ca", "cal", "calc", "calcio")) {
+            ChannelSearchIndex.Result r = search(index, q, previous);
+            assertEquals(search(index, q, null).rows(), r.rows(), "query '" + q + "'");
+            previous = r;
+        }
+    }
+
+    @Test
+    void narrowingCoversRowsAddedAfterPreviousSearch() {
+        List<Channel> channels = playlist(4_000, 3);
+        ChannelSearchIndex index = indexOf(channels.subList(0, 1_500), 500);
+        ChannelSearchIndex.Result previous = search(index, "ca", null);
+        assertEquals(1_500, previous.upTo());
+
+        index.addAll(channels.subList(1_500, channels.size()));
+        ChannelSearchIndex.Result r = search(index, "cal", previous);
+
+        assertEquals(4_000, r.upTo());
+        assertEquals(expected(channels, "cal"), r.rows());
+    }
+
+    @Test
+    void resultFromAnotherQueryIsNotUsedForNarrowing() {
+        List<Channel> channels = playlist(2_000, 5);
+        ChannelSearchIndex index = indexOf(channels, 2_000);
+
+        ChannelSearchIndex.Result unrelated = search(index, "film", null);
+        assertEquals(expected(channels, "calcio"), search(index, "calcio", unrelated).rows());
+    }
+
+    @Test
+    void compactKeepsResults() {
+        List<Channel> channels = playlist(3_000, 9);
+        ChannelSearchIndex index = indexOf(channels, 1000);
+        BitSet before = search(index, "notizie", null).rows();
+
+        index.compact();
+
+        assertEquals(3_000, index.size());
+        assertEquals(before, search(index, "notizie", null).rows());
+    }
+
+    @Test
+    void cancelledSearchReturnsNull() {
+        ChannelSearchIndex index = indexOf(playlist(10_000, 1), 10_000);
+
+        assertNull(index.search("a", null, () -> true));
+    }
+
+    // ---------- helper ----------
+
+    private static ChannelSearchIndex.Result search(ChannelSearchIndex index, String q, ChannelSearchIndex.Result previous) {
+        ChannelSearchIndex.Result r = index.search(q, previous, () -> false);
+        assertNotNull(r);
+        return r;
+    }
+
+    /** Le righe che il filtro della tabella mostrerebbe senza indice. */
+    private static BitSet expected(List<Channel> channels, String q) {
+        Predicate<Channel> match = ChannelFilter.textMatch(q);
+        BitSet out = new BitSet();
+        for (int i = 0; i < channels.size(); i++) if (match.test(channels.get(i))) out.set(i);
+        return out;
+    }
+
+    private static ChannelSearchIndex indexOf(List<Channel> channels, int batch) {
+        ChannelSearchIndex index = new ChannelSearchIndex();
+        for (int from = 0; from < channels.size(); from += batch) {
+            index.addAll(channels.subList(from, Math.min(channels.size(), from + batch)));
+        }
+        return index;
+    }
+
+    /** Playlist ripetitiva come quelle vere: pochi gruppi e host, parole comuni nei nomi. */
+    private static List<Channel> playlist(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<Channel> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String name = "Canale " + WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)] + " " + i;
+            String group = GROUPS[rnd.nextInt(GROUPS.length)];
+            String url = "https://cdn" + rnd.nextInt(3) + ".example/live/user/pass/" + (1000 + i) + ".ts";
+            out.add(new Channel(String.valueOf(1000 + i), name, group, url, "", "", false));
+        }
+        return out;
+    }
+}
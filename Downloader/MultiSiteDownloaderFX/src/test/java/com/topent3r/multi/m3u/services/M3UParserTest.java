@@ -0,0 +1,114 @@
+package com.topent3r.multi.m3u.services;
+
+import com.topent3r.multi.m3u.models.Channel;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class M3UParserTest {
+
+    private static final String PLAYLIST = """
+            #EXTM3U
+            #EXTINF:-1 tvg-id="1001" tvg-logo="http://logo/rai1.png" group-title="Generalisti",Rai 1 HD
+            http://tv.example/live/user/pass/555.ts
+
+            #EXTINF:-1 tvg-id="rai2.it" group-title="Generalisti",Rai 2
+            http://tv.example/live/user/pass/123456.m3u8
+            #EXTVLCOPT:http-user-agent=VLC
+            #EXTINF:-1 group-title="Film",Matrix (1999)
+            https://tv.example/movie/user/pass/778899.mkv
+            #EXTINF:-1,Senza id
+            http://tv.example/live/abc
+            not-a-url
+            """;
+
+    private final M3UParser parser = new M3UParser();
+
+    @Test
+    void parseReadsAttributesAndName() {
+        List<Channel> channels = parser.parse(PLAYLIST);
+
+        assertEquals(4, channels.size());
+        Channel rai1 = channels.get(0);
+        assertEquals("1001", rai1.getId());          // tvg-id numerico
+        assertEquals("Rai 1 HD", rai1.getName());
+        assertEquals("Generalisti", rai1.getGroup());
+        assertEquals("http://logo/rai1.png", rai1.getLogo());
+        assertEquals("http://tv.example/live/user/pass/555.ts", rai1.getUrl());
+        assertFalse(rai1.isVod());
+    }
+
+    @Test
+    void idFallsBackToDigitsInUrlThenHash() {
+        List<Channel> channels = parser.parse(PLAYLIST);
+
+        assertEquals("123456", channels.get(1).getId());   // tvg-id non numerico
+        assertEquals("rai2.it", channels.get(1).getTvgId());
+        assertEquals("778899", channels.get(2).getId());
+        String hashed = channels.get(3).getId();
+        assertTrue(hashed.chars().allMatch(Character::isDigit), hashed);
+        assertEquals(hashed, parser.parse(PLAYLIST).get(3).getId(), "id stabile fra un parse e l'altro");
+    }
+
+    @Test
+    void attributesDoNotLeakToNextEntry() {
+        Channel plain = parser.parse(PLAYLIST).get(3);
+
+        assertEquals("Senza id", plain.getName());
+        assertEquals("", plain.getGroup());
+        assertEquals("", plain.getLogo());
+        assertEquals("", plain.getTvgId());
+    }
+
+    @Test
+    void vodIsDetectedFromNameOrUrl() {
+        List<Channel> channels = parser.parse("""
+                #EXTINF:-1,Film d'azione
+                http://x/live/1.ts
+                #EXTINF:-1,Canale
+                http://x/movie/2.ts
+                #EXTINF:-1,Canale
+                http://x/live/3.mp4
+                #EXTINF:-1,Canale
+                http://x/live/4.ts
+                """);
+
+        assertEquals(List.of(true, true, true, false), channels.stream().map(Channel::isVod).toList());
+    }
+
+    @Test
+    void emptyInputGivesNoChannels() {
+        assertTrue(parser.parse(null).isEmpty());
+        assertTrue(parser.parse("  \n").isEmpty());
+        assertTrue(parser.parse("#EXTM3U\n").isEmpty());
+    }
+
+    @Test
+    void streamDeliversBatchesInOrder() throws IOException {
+        List<List<Channel>> batches = new ArrayList<>();
+
+        int count = parser.stream(new Buffer().writeUtf8(PLAYLIST), 3, batches::add);
+
+        assertEquals(4, count);
+        assertEquals(List.of(3, 1), batches.stream().map(List::size).toList());
+        List<String> streamed = batches.stream().flatMap(List::stream).map(Channel::getUrl).toList();
+        assertEquals(parser.parse(PLAYLIST).stream().map(Channel::getUrl).toList(), streamed);
+    }
+
+    @Test
+    void streamStopsWhenInterrupted() {
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class,
+                    () -> parser.stream(new Buffer().writeUtf8(PLAYLIST), 1, batch -> { }));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -7,6 +7,7 @@ Provides JSON-based API for search, list episodes, and download.
 import sys
 import os
 import json
+import mdl_events as events
 import io
 import logging
 
@@ -170,6 +171,7 @@ def cmd_list_episodes(url):
 
 def cmd_download_episode(url, series_name, season, episode_index, output_dir):
     """Download a specific episode"""
+    events.install_progress_hook()
     try:
         os_module.makedirs(output_dir, exist_ok=True)
         
@@ -216,22 +218,20 @@ def cmd_download_episode(url, series_name, season, episode_index, output_dir):
             sys.stdout = saved_stdout
             sys.stderr = saved_stderr
         
-        print(json.dumps({
+        events.result({
             'status': 'ok',
             'message': 'Download completed',
             'file': path if path else mp4_path
-        }))
+        })
         
     except Exception as e:
-        print(json.dumps({
-            'status': 'error',
-            'message': str(e)
-        }), file=sys.stderr)
+        events.error(str(e))
         sys.exit(1)
 
 
 def cmd_download_film(url, title, output_dir):
     """Download a film using the correct mostraguarda -> supervideo flow"""
+    events.install_progress_hook()
     try:
         os_module.makedirs(output_dir, exist_ok=True)
         
@@ -297,17 +297,14 @@ def cmd_download_film(url, title, output_dir):
             sys.stdout = saved_stdout
             sys.stderr = saved_stderr
         
-        print(json.dumps({
+        events.result({
             'status': 'ok',
             'message': 'Download completed',
             'file': path if path else mp4_path
-        }))
+        })
         
     except Exception as e:
-        print(json.dumps({
-            'status': 'error',
-            'message': str(e)
-        }), file=sys.stderr)
+        events.error(str(e))
         sys.exit(1)
 
 
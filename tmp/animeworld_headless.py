@@ -7,6 +7,7 @@ Provides JSON-based API for search, list episodes, and download.
 import sys
 import os
 import json
+import mdl_events as events
 import io
 import logging
 
@@ -162,6 +163,7 @@ def cmd_list_episodes(url):
 
 def cmd_download_episode(url, episode_index, output_dir):
     """Download a specific episode"""
+    events.install_progress_hook()
     try:
         os_module.makedirs(output_dir, exist_ok=True)
         
@@ -202,17 +204,14 @@ def cmd_download_episode(url, episode_index, output_dir):
             sys.stdout = saved_stdout
             sys.stderr = saved_stderr
         
-        print(json.dumps({
+        events.result({
             'status': 'ok',
             'message': 'Download completed',
             'file': path if path else mp4_path
-        }))
+        })
         
     except Exception as e:
-        print(json.dumps({
-            'status': 'error',
-            'message': str(e)
-        }), file=sys.stderr)
+        events.error(str(e))
         sys.exit(1)
 
 
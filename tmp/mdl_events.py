@@ -0,0 +1,100 @@
+"""
+Eventi di avanzamento verso il lato Java (vedi PythonEvents.java).
+Sta accanto agli script *_headless.py, che lo importano dalla propria cartella; il pom ne
+mette una copia nel jar, che PythonHelper.configure() aggiunge al PYTHONPATH.
+
+Una riga per evento, su una copia privata di stdout presa all'import: gli script
+possono continuare a sostituire sys.stdout/sys.stderr con StringIO durante i
+download senza perdere gli eventi.
+
+    @@mdl {"ev": "progress", "pct": 42.0, "bytes": 1234, "total": 5678, "speed": 2.1e6, "eta": 12}
+    @@mdl {"ev": "status", "message": "Scarico audio..."}
+    @@mdl {"ev": "result", "status": "ok", "file": "..."}
+    @@mdl {"ev": "error", "message": "..."}
+"""
+import os
+import sys
+import json
+import time
+
+PREFIX = '@@mdl '
+MIN_INTERVAL = 0.5  # secondi fra due eventi progress
+
+try:
+    _out = os.fdopen(os.dup(sys.__stdout__.fileno()), 'w', encoding='utf-8', buffering=1)
+except (AttributeError, OSError, ValueError):
+    _out = sys.__stdout__
+
+_last = 0.0
+
+
+def emit(ev, **fields):
+    fields = {k: v for k, v in fields.items() if v is not None}
+    fields['ev'] = ev
+    try:
+        _out.write(PREFIX + json.dumps(fields) + '\n')
+        _out.flush()
+    except (OSError, ValueError):
+        pass
+
+
+def progress(done=None, total=None, unit='B', speed=None, eta=None, force=False):
+    """done/total in byte (unit 'B') o in segmenti; speed in unità al secondo."""
+    global _last
+    now = time.monotonic()
+    if not force and now - _last < MIN_INTERVAL:
+        return
+    _last = now
+    pct = None
+    if done is not None and total:
+        pct = round(min(100.0, 100.0 * done / total), 1)
+    if eta is None and speed and total and done is not None:
+        eta = int(max(0, total - done) / speed)
+    if unit == 'B':
+        emit('progress', pct=pct, bytes=_int(done), total=_int(total), speed=_round(speed), eta=_int(eta))
+    else:
+        emit('progress', pct=pct, speed=None, eta=_int(eta))
+
+
+def status(message):
+    emit('status', message=str(message))
+
+
+def result(obj):
+    emit('result', **obj)
+
+
+def error(message):
+    emit('error', message=str(message))
+
+
+def install_progress_hook():
+    """Le barre tqdm delle librerie (HLS, MP4) diventano eventi progress."""
+    try:
+        from tqdm import std
+    except ImportError:
+        return
+    if getattr(std.tqdm, '_mdl_hooked', False):
+        return
+    original = std.tqdm.update
+
+    def update(self, n=1):
+        r = original(self, n)
+        try:
+            d = self.format_dict
+            unit = 'B' if (d.get('unit') or '').endswith('B') else 'it'
+            progress(self.n, self.total, unit=unit, speed=d.get('rate'))
+        except Exception:
+            pass
+        return r
+
+    std.tqdm.update = update
+    std.tqdm._mdl_hooked = True
+
+
+def _int(v):
+    return int(v) if v is not None else None
+
+
+def _round(v):
+    return round(v, 1) if v is not None else None
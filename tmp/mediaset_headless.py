@@ -7,6 +7,7 @@ Provides JSON-based API for search, list episodes, and download.
 import sys
 import os
 import json
+import mdl_events as events
 import io
 import logging
 
@@ -174,6 +175,7 @@ def cmd_list_episodes(url):
 
 def cmd_download_film(url, title, output_dir):
     """Download a film"""
+    events.install_progress_hook()
     try:
         os_module.makedirs(output_dir, exist_ok=True)
         
@@ -234,22 +236,20 @@ def cmd_download_film(url, title, output_dir):
             sys.stdout = saved_stdout
             sys.stderr = saved_stderr
         
-        print(json.dumps({
+        events.result({
             'status': 'ok',
             'message': 'Download completed',
             'file': new_path
-        }))
+        })
         
     except Exception as e:
-        print(json.dumps({
-            'status': 'error',
-            'message': str(e)
-        }), file=sys.stderr)
+        events.error(str(e))
         sys.exit(1)
 
 
 def cmd_download_episode(url, season, episode, output_dir):
     """Download a specific episode"""
+    events.install_progress_hook()
     try:
         if not season or not episode:
             raise ValueError(f"Invalid season or episode: season='{season}', episode='{episode}'")
@@ -308,17 +308,14 @@ def cmd_download_episode(url, season, episode, output_dir):
             sys.stdout = saved_stdout
             sys.stderr = saved_stderr
         
-        print(json.dumps({
+        events.result({
             'status': 'ok',
             'message': 'Download completed',
             'file': new_path
-        }))
+        })
         
     except Exception as e:
-        print(json.dumps({
-            'status': 'error',
-            'message': str(e)
-        }), file=sys.stderr)
+        events.error(str(e))
         sys.exit(1)
 
 
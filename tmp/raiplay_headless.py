@@ -6,6 +6,7 @@ Usage: python raiplay_headless.py <command> [args]
 
 import sys
 import json
+import mdl_events as events
 import os
 import logging
 
@@ -185,6 +186,7 @@ def cmd_list_episodes(path_id):
 
 def cmd_download_film(path_id, output_dir):
     """Download a film using path_id"""
+    events.install_progress_hook()
     try:
         # Create output folder
         os_module.makedirs(output_dir, exist_ok=True)
@@ -249,21 +251,19 @@ def cmd_download_film(path_id, output_dir):
             sys.stdout = saved_stdout
             sys.stderr = saved_stderr
 
-        print(json.dumps({
+        events.result({
             'status': 'ok',
             'message': 'Download completed',
             'file': new_path
-        }))
+        })
         
     except Exception as e:
-        print(json.dumps({
-            'status': 'error',
-            'message': str(e)
-        }), file=sys.stderr)
+        events.error(str(e))
         sys.exit(1)
 
 def cmd_download_episode(path_id, season, episode, output_dir):
     """Download a specific episode using path_id"""
+    events.install_progress_hook()
     try:
         # Validate inputs
         if not season or not episode:
@@ -333,17 +333,14 @@ def cmd_download_episode(path_id, season, episode, output_dir):
             sys.stdout = saved_stdout
             sys.stderr = saved_stderr
 
-        print(json.dumps({
+        events.result({
             'status': 'ok',
             'message': 'Download completed',
             'file': new_path
-        }))
+        })
         
     except Exception as e:
-        print(json.dumps({
-            'status': 'error',
-            'message': str(e)
-        }), file=sys.stderr)
+        events.error(str(e))
         sys.exit(1)
 
 def main():